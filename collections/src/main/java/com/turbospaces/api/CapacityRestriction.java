@@ -17,6 +17,7 @@ package com.turbospaces.api;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
+import com.turbospaces.core.CompressionCodec;
 
 /**
  * this is configuration class which allows you to control the capacity off-heap data structure(both max elements and
@@ -32,6 +33,7 @@ public final class CapacityRestriction implements Cloneable {
     private long maxElements = Integer.MAX_VALUE / 16;
     private CacheEvictionPolicy evictionPolicy;
     private int evictionPercentage = 10;
+    private CompressionCodec compressionCodec;
 
     /**
      * @return the maximum memory size in megabytes (default value {@code Integer.MAX_VALUE / 16}).
@@ -119,6 +121,25 @@ public final class CapacityRestriction implements Cloneable {
         return this;
     }
 
+    /**
+     * @return compression codec used for off-heap entries (or <code>null</code> if compression is disabled)
+     */
+    public CompressionCodec getCompressionCodec() {
+        return compressionCodec;
+    }
+
+    /**
+     * enable compression of off-heap entries bigger than codec's threshold. compression is disabled by default.
+     * 
+     * @param compressionCodec
+     *            compression codec (or <code>null</code> to disable compression)
+     * @return this
+     */
+    public CapacityRestriction setCompressionCodec(final CompressionCodec compressionCodec) {
+        this.compressionCodec = compressionCodec;
+        return this;
+    }
+
     @Override
     public CapacityRestriction clone() {
         for ( ;; )
@@ -24,6 +24,7 @@ import com.esotericsoftware.minlog.Log;
 import com.google.common.base.Preconditions;
 import com.google.common.cache.AbstractCache;
 import com.google.common.cache.CacheStats;
+import com.turbospaces.core.CompressionCodec;
 import com.turbospaces.core.EffectiveMemoryManager;
 import com.turbospaces.model.ExplicitCacheEntry;
 import com.turbospaces.offmemory.ByteArrayPointer;
@@ -51,6 +52,7 @@ public final class GuavaOffHeapCache<K, V> extends AbstractCache<K, V> implement
     private final DecoratedKryo kryo;
     private final int ttlAfterWrite;
     private final SimpleStatsCounter statsCounter;
+    private final CompressionCodec compressionCodec;
 
     /**
      * create new guava's cache over off-heap set delegate and associated kryo serializer. also time-2-live must be
@@ -72,6 +74,33 @@ public final class GuavaOffHeapCache<K, V> extends AbstractCache<K, V> implement
                              final DecoratedKryo kryo,
                              final int ttlAfterWrite,
                              final SimpleStatsCounter statsCounter) {
+        this( memoryManager, offHeapHashSet, kryo, ttlAfterWrite, statsCounter, null );
+    }
+
+    /**
+     * create new guava's cache over off-heap set delegate and associated kryo serializer and compress entries with the
+     * given codec.
+     * 
+     * @param memoryManager
+     *            off-heap memory manager
+     * @param offHeapHashSet
+     *            off-heap cache collection
+     * @param kryo
+     *            serialization provider
+     * @param ttlAfterWrite
+     *            time-to-live after write
+     * @param statsCounter
+     *            statistics counter
+     * @param compressionCodec
+     *            compression codec(optional)
+     */
+    public GuavaOffHeapCache(final EffectiveMemoryManager memoryManager,
+                             final OffHeapHashSet offHeapHashSet,
+                             final DecoratedKryo kryo,
+                             final int ttlAfterWrite,
+                             final SimpleStatsCounter statsCounter,
+                             final CompressionCodec compressionCodec) {
+        this.compressionCodec = compressionCodec;
         this.memoryManager = memoryManager;
         this.offHeapHashSet = offHeapHashSet;
         this.kryo = kryo;
@@ -121,8 +150,7 @@ public final class GuavaOffHeapCache<K, V> extends AbstractCache<K, V> implement
     public void put(final K key,
                     final V value) {
         ExplicitCacheEntry<K, V> e = new ExplicitCacheEntry( Preconditions.checkNotNull( key ), Preconditions.checkNotNull( value ) );
-        ObjectBuffer objectBuffer = new ObjectBuffer( kryo );
-        ByteArrayPointer pointer = new ByteArrayPointer( memoryManager, objectBuffer.writeObjectData( e ), e, ttlAfterWrite );
+        ByteArrayPointer pointer = ByteArrayPointer.serializeDirectly( memoryManager, kryo, e, e, ttlAfterWrite, compressionCodec );
         offHeapHashSet.put( key, pointer );
     }
 
@@ -29,6 +29,7 @@ import com.google.common.primitives.Ints;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.turbospaces.api.CapacityRestriction;
 import com.turbospaces.api.SpaceExpirationListener;
+import com.turbospaces.core.CompressionCodec;
 import com.turbospaces.core.EffectiveMemoryManager;
 import com.turbospaces.core.MutableObject;
 import com.turbospaces.core.UnsafeMemoryManager;
@@ -152,6 +153,18 @@ public final class GuavaOffHeapCacheBuilder<K, V> {
         this.capacityRestriction = Preconditions.checkNotNull( capacityRestriction ).clone();
     }
 
+    /**
+     * enable compression of off-heap entries bigger than codec's threshold (optionally with shared dictionary).
+     * 
+     * @param codec
+     *            compression codec
+     * @return this
+     */
+    public GuavaOffHeapCacheBuilder<K, V> compression(final CompressionCodec codec) {
+        capacityRestriction.setCompressionCodec( codec );
+        return this;
+    }
+
     /**
      * specify the custom off-heap memory manager(the default one uses SUN JDK's unsafe, but you would probably want to
      * use SSD caching implementation).
@@ -214,6 +227,6 @@ public final class GuavaOffHeapCacheBuilder<K, V> {
             } );
         else
             offheapSet.setExpirationListeners( evictionListener );
-        return new GuavaOffHeapCache<K, V>( memoryManager, offheapSet, kryo, ttl, statsCounter.get() );
+        return new GuavaOffHeapCache<K, V>( memoryManager, offheapSet, kryo, ttl, statsCounter.get(), capacityRestriction.getCompressionCodec() );
     }
 }
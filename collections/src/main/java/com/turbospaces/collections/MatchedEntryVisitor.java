@@ -0,0 +1,38 @@
+/**
+ * Copyright (C) 2011-2012 Andrey Borisov <aandrey.borisov@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turbospaces.collections;
+
+import com.turbospaces.offmemory.ByteArrayPointer;
+
+/**
+ * callback for streaming matching of off-heap entries. Entries are passed to visitor one segment at a time (segment's
+ * lock is already released), so the whole result is never materialized and scanning can be stopped as soon as the
+ * visitor has enough entries.
+ * 
+ * @since 0.1
+ * @see OffHeapHashSet#match(com.turbospaces.serialization.TemplateMatcher, MatchedEntryVisitor)
+ */
+public interface MatchedEntryVisitor {
+
+    /**
+     * accept matched entry.
+     * 
+     * @param entry
+     *            matched entry (entity's state is already copied into heap)
+     * @return true to continue scanning, false to stop
+     */
+    boolean visit(ByteArrayPointer entry);
+}
@@ -18,13 +18,16 @@ package com.turbospaces.collections;
 import java.nio.ByteBuffer;
 import java.util.List;
 
+import com.google.common.base.Supplier;
 import com.google.common.cache.Cache;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.turbospaces.api.SpaceExpirationListener;
 import com.turbospaces.core.UnsafeMemoryManager;
 import com.turbospaces.model.CacheStoreEntryWrapper;
+import com.turbospaces.model.EntityTemplate;
 import com.turbospaces.offmemory.ByteArrayPointer;
+import com.turbospaces.serialization.TemplateMatcher;
 
 /**
  * The root interface in the <i>turbospaces collections</i> hierarchy. Actually this is more internal interface rather
@@ -117,6 +120,41 @@ public interface OffHeapHashSet extends EvictableCache {
      */
     List<ByteArrayPointer> match(CacheStoreEntryWrapper template);
 
+    /**
+     * iterate over all elements in segment and match against typed template (with explicit per-property predicates)
+     * 
+     * @param template
+     *            typed template
+     * @return all matched in serialized form
+     */
+    List<ByteArrayPointer> match(EntityTemplate template);
+
+    /**
+     * iterate over all elements and pass entries matched by compiled template to visitor until visitor asks to stop.
+     * 
+     * @param template
+     *            compiled template
+     * @param visitor
+     *            matched entries visitor
+     * @return false if scanning has been stopped by visitor
+     */
+    boolean match(TemplateMatcher template,
+                  MatchedEntryVisitor visitor);
+
+    /**
+     * iterate over all elements segment by segment in parallel and pass entries matched by compiled template to
+     * per-segment visitors. each visitor is used by single thread only, calling thread scans segments as well and
+     * returns once all segments are scanned.
+     * 
+     * @param template
+     *            compiled template
+     * @param visitors
+     *            factory of per-segment visitors
+     * @return visitors (one per segment)
+     */
+    <V extends MatchedEntryVisitor> List<V> matchInParallel(TemplateMatcher template,
+                                                            Supplier<V> visitors);
+
     /**
      * associate entity expiration listener(listeners) with this set
      * 
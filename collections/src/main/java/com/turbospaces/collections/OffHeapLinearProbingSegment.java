@@ -30,6 +30,8 @@ import com.esotericsoftware.minlog.Log;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSet.Builder;
@@ -42,8 +44,10 @@ import com.turbospaces.core.CapacityMonitor;
 import com.turbospaces.core.EffectiveMemoryManager;
 import com.turbospaces.core.JVMUtil;
 import com.turbospaces.model.CacheStoreEntryWrapper;
+import com.turbospaces.model.EntityTemplate;
 import com.turbospaces.offmemory.ByteArrayPointer;
 import com.turbospaces.serialization.MatchingSerializer;
+import com.turbospaces.serialization.TemplateMatcher;
 
 /**
  * Off-heap linear probing segment which uses linear probing hash algorithm for collision handling .</p>
@@ -152,6 +156,23 @@ final class OffHeapLinearProbingSegment extends ReentrantReadWriteLock implement
 
     @Override
     public List<ByteArrayPointer> match(final CacheStoreEntryWrapper template) {
+        return match( serializer.compile( template ) );
+    }
+
+    @Override
+    public List<ByteArrayPointer> match(final EntityTemplate template) {
+        return match( serializer.compile( template ) );
+    }
+
+    /**
+     * iterate over all elements in segment and match against compiled template directly in off-heap memory (entity's
+     * state is copied into heap only for matched or expired entries).
+     * 
+     * @param template
+     *            compiled template
+     * @return all matched in serialized form
+     */
+    List<ByteArrayPointer> match(final TemplateMatcher template) {
         final Lock lock = readLock();
         List<ByteArrayPointer> matchedEntries = null;
         List<ExpiredEntry> expiredEntries = null;
@@ -161,23 +182,26 @@ final class OffHeapLinearProbingSegment extends ReentrantReadWriteLock implement
             for ( int i = 0; i < m; i++ ) {
                 long address = addresses[i];
                 if ( address != 0 ) {
-                    byte[] serializedData = ByteArrayPointer.getEntityState( address, memoryManager );
-                    ByteBuffer buffer = ByteBuffer.wrap( serializedData );
-                    boolean matches = serializer.matches( buffer, template );
-
                     if ( ByteArrayPointer.isExpired( address, memoryManager ) ) {
                         if ( expiredEntries == null )
                             expiredEntries = Lists.newLinkedList();
+                        ByteBuffer buffer = ByteBuffer.wrap( ByteArrayPointer.getEntityState( address, memoryManager ) );
                         expiredEntries.add( new ExpiredEntry( buffer, serializer.readID( buffer ), ByteArrayPointer.getTimeToLive(
                                 address,
                                 memoryManager ) ) );
                         continue;
                     }
 
+                    // compressed entries can't be matched in-place
+                    boolean matches = ByteArrayPointer.isCompressed( address, memoryManager ) ? template.matches( ByteBuffer.wrap( ByteArrayPointer
+                            .getEntityState( address, memoryManager ) ) ) : template.matches(
+                            memoryManager,
+                            ByteArrayPointer.getEntityStateAddress( address ),
+                            ByteArrayPointer.getEntityStateLength( address, memoryManager ) );
                     if ( matches ) {
                         if ( matchedEntries == null )
                             matchedEntries = Lists.newLinkedList();
-                        buffer.clear();
+                        ByteBuffer buffer = ByteBuffer.wrap( ByteArrayPointer.getEntityState( address, memoryManager ) );
                         matchedEntries.add( new ByteArrayPointer( memoryManager, address, buffer ) );
                         ByteArrayPointer.updateLastAccessTime( address, System.currentTimeMillis(), memoryManager );
                     }
@@ -199,6 +223,26 @@ final class OffHeapLinearProbingSegment extends ReentrantReadWriteLock implement
         return matchedEntries;
     }
 
+    @Override
+    public boolean match(final TemplateMatcher template,
+                         final MatchedEntryVisitor visitor) {
+        // visitor is called outside of segment's lock
+        List<ByteArrayPointer> matchedEntries = match( template );
+        if ( matchedEntries != null )
+            for ( ByteArrayPointer entry : matchedEntries )
+                if ( !visitor.visit( entry ) )
+                    return false;
+        return true;
+    }
+
+    @Override
+    public <V extends MatchedEntryVisitor> List<V> matchInParallel(final TemplateMatcher template,
+                                                                   final Supplier<V> visitors) {
+        V visitor = visitors.get();
+        match( template, visitor );
+        return ImmutableList.of( visitor );
+    }
+
     private Object get(final Object key,
                        final boolean asPointer) {
         final Lock lock = readLock();
@@ -296,7 +340,14 @@ final class OffHeapLinearProbingSegment extends ReentrantReadWriteLock implement
         final Lock lock = writeLock();
         lock.lock();
         try {
-            capacityMonitor.ensureCapacity( p, p.getObject() );
+            try {
+                capacityMonitor.ensureCapacity( p, p.getObject() );
+            }
+            catch ( RuntimeException e ) {
+                // directly serialized pointer already holds off-heap memory which would leak otherwise
+                p.utilize();
+                throw e;
+            }
             int prevBytesOccupation = put( key, 0, p );
             capacityMonitor.add( p.bytesOccupied(), prevBytesOccupation );
             return prevBytesOccupation;
@@ -320,6 +371,50 @@ final class OffHeapLinearProbingSegment extends ReentrantReadWriteLock implement
         }
     }
 
+    /**
+     * apply batch of modifications (put or remove) under single write lock acquisition. Failure of particular
+     * modification doesn't prevent the rest of modifications from being applied.
+     * 
+     * @param keys
+     *            primary keys
+     * @param values
+     *            byte array pointers (<code>null</code> means remove)
+     * @param indexes
+     *            indexes of modifications belonging to this segment
+     * @param from
+     *            first index (inclusive)
+     * @param to
+     *            last index (exclusive)
+     * @param occupations
+     *            number of bytes previously occupied by modified entries (result)
+     * @param failures
+     *            failures of modifications (result)
+     */
+    void applyAll(final Object[] keys,
+                  final ByteArrayPointer[] values,
+                  final int[] indexes,
+                  final int from,
+                  final int to,
+                  final int[] occupations,
+                  final RuntimeException[] failures) {
+        final Lock lock = writeLock();
+        lock.lock();
+        try {
+            for ( int j = from; j < to; j++ ) {
+                int i = indexes[j];
+                try {
+                    occupations[i] = values[i] != null ? put( keys[i], values[i] ) : remove( keys[i] );
+                }
+                catch ( RuntimeException e ) {
+                    failures[i] = e;
+                }
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
     private int put(final Object key,
                     final long address,
                     final ByteArrayPointer p) {
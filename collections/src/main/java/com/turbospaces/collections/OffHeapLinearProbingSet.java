@@ -16,16 +16,25 @@
 package com.turbospaces.collections;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
+import com.esotericsoftware.minlog.Log;
 import com.google.common.base.Objects;
+import com.google.common.base.Supplier;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSet.Builder;
 import com.google.common.collect.Lists;
 import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.lmax.disruptor.util.Util;
 import com.turbospaces.api.CapacityRestriction;
 import com.turbospaces.api.SpaceExpirationListener;
@@ -34,8 +43,10 @@ import com.turbospaces.core.EffectiveMemoryManager;
 import com.turbospaces.core.JVMUtil;
 import com.turbospaces.model.BO;
 import com.turbospaces.model.CacheStoreEntryWrapper;
+import com.turbospaces.model.EntityTemplate;
 import com.turbospaces.offmemory.ByteArrayPointer;
 import com.turbospaces.serialization.MatchingSerializer;
+import com.turbospaces.serialization.TemplateMatcher;
 
 /**
  * Default implementation of off-heap hash set build on top of multiple concurrent segments with good concurrency for
@@ -48,7 +59,10 @@ public final class OffHeapLinearProbingSet implements OffHeapHashSet {
     private final OffHeapLinearProbingSegment[] segments;
     private final int mask;
     private final CapacityMonitor capacityMonitor;
+    private final MatchingSerializer<?> serializer;
     private final Random rnd;
+    private final ExecutorService executorService;
+    private final int parallelism;
 
     /**
      * create new off-heap linear set for the given {@link BO} class.
@@ -78,7 +92,10 @@ public final class OffHeapLinearProbingSet implements OffHeapHashSet {
         for ( int i = 0; i < nextPowerOfTwo; i++ )
             segments[i] = new OffHeapLinearProbingSegment( memoryManager, serializer, executorService, capacityMonitor );
         this.mask = nextPowerOfTwo - 1;
+        this.serializer = serializer;
         this.rnd = new Random();
+        this.executorService = executorService;
+        this.parallelism = Math.min( nextPowerOfTwo, Runtime.getRuntime().availableProcessors() );
     }
 
     @Override
@@ -98,9 +115,19 @@ public final class OffHeapLinearProbingSet implements OffHeapHashSet {
 
     @Override
     public List<ByteArrayPointer> match(final CacheStoreEntryWrapper template) {
+        // compile once and share across all segments
+        return match( serializer.compile( template ) );
+    }
+
+    @Override
+    public List<ByteArrayPointer> match(final EntityTemplate template) {
+        return match( serializer.compile( template ) );
+    }
+
+    private List<ByteArrayPointer> match(final TemplateMatcher matcher) {
         List<ByteArrayPointer> retval = null;
         for ( OffHeapLinearProbingSegment entry : segments ) {
-            List<ByteArrayPointer> match = entry.match( template );
+            List<ByteArrayPointer> match = entry.match( matcher );
             if ( match != null ) {
                 if ( retval == null )
                     retval = Lists.newLinkedList();
@@ -110,6 +137,78 @@ public final class OffHeapLinearProbingSet implements OffHeapHashSet {
         return retval;
     }
 
+    @Override
+    public boolean match(final TemplateMatcher template,
+                         final MatchedEntryVisitor visitor) {
+        for ( OffHeapLinearProbingSegment segment : segments )
+            if ( !segment.match( template, visitor ) )
+                return false;
+        return true;
+    }
+
+    @Override
+    public <V extends MatchedEntryVisitor> List<V> matchInParallel(final TemplateMatcher template,
+                                                                   final Supplier<V> visitors) {
+        final List<V> segmentVisitors = Lists.newArrayListWithCapacity( segments.length );
+        for ( int i = 0; i < segments.length; i++ )
+            segmentVisitors.add( visitors.get() );
+        final AtomicInteger nextSegment = new AtomicInteger();
+        final CountDownLatch scanned = new CountDownLatch( segments.length );
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Runnable scanner = new Runnable() {
+            @Override
+            public void run() {
+                for ( int i = nextSegment.getAndIncrement(); i < segments.length; i = nextSegment.getAndIncrement() )
+                    try {
+                        segments[i].match( template, segmentVisitors.get( i ) );
+                    }
+                    catch ( Throwable t ) {
+                        failure.compareAndSet( null, t );
+                    }
+                    finally {
+                        scanned.countDown();
+                    }
+            }
+        };
+        // segments are claimed by scanners one by one, so calling thread never waits for the segment which is not
+        // being scanned yet (even if executor is busy or saturated)
+        try {
+            for ( int i = 1; i < parallelism; i++ )
+                executorService.execute( scanner );
+        }
+        catch ( RejectedExecutionException e ) {
+            Log.debug( "unable to scan segments in parallel, executor rejected task", e );
+        }
+        scanner.run();
+        Uninterruptibles.awaitUninterruptibly( scanned );
+        if ( failure.get() != null )
+            throw Throwables.propagate( failure.get() );
+        return segmentVisitors;
+    }
+
+    /**
+     * @return number of segments (this is the upper bound (exclusive) of segment's index for
+     *         {@link #matchSegment(TemplateMatcher, int)})
+     */
+    public int getSegmentsCount() {
+        return segments.length;
+    }
+
+    /**
+     * match single segment against compiled template - allows to stream matched entries segment by segment, so that at
+     * most one segment's matches are held on heap at a time.
+     * 
+     * @param template
+     *            compiled template
+     * @param segment
+     *            index of segment
+     * @return all matched entries of segment or <code>null</code> if nothing matched
+     */
+    public List<ByteArrayPointer> matchSegment(final TemplateMatcher template,
+                                               final int segment) {
+        return segments[segment].match( template );
+    }
+
     @Override
     public int put(final Object key,
                    final ByteArrayPointer value) {
@@ -121,6 +220,42 @@ public final class OffHeapLinearProbingSet implements OffHeapHashSet {
         return segmentFor( key ).remove( key );
     }
 
+    /**
+     * apply batch of modifications (put or remove) - modifications are grouped by segment and each segment is locked
+     * once for all of its modifications (in the order of modifications). Failure of particular modification doesn't
+     * prevent the rest of modifications from being applied.
+     * 
+     * @param keys
+     *            primary keys
+     * @param values
+     *            byte array pointers (<code>null</code> means remove)
+     * @param occupations
+     *            number of bytes previously occupied by modified entries (result)
+     * @param failures
+     *            failures of modifications (result)
+     */
+    public void applyAll(final Object[] keys,
+                         final ByteArrayPointer[] values,
+                         final int[] occupations,
+                         final RuntimeException[] failures) {
+        int[] segmentIndexes = new int[keys.length];
+        int[] bounds = new int[segments.length + 1];
+        for ( int i = 0; i < keys.length; i++ ) {
+            segmentIndexes[i] = segmentIndex( keys[i] );
+            bounds[segmentIndexes[i] + 1]++;
+        }
+        for ( int s = 0; s < segments.length; s++ )
+            bounds[s + 1] += bounds[s];
+        // counting sort of modifications by segment
+        int[] positions = Arrays.copyOf( bounds, segments.length );
+        int[] indexes = new int[keys.length];
+        for ( int i = 0; i < keys.length; i++ )
+            indexes[positions[segmentIndexes[i]]++] = i;
+        for ( int s = 0; s < segments.length; s++ )
+            if ( bounds[s] < bounds[s + 1] )
+                segments[s].applyAll( keys, values, indexes, bounds[s], bounds[s + 1], occupations, failures );
+    }
+
     @Override
     public long evictAll() {
         long removed = 0;
@@ -216,6 +351,10 @@ public final class OffHeapLinearProbingSet implements OffHeapHashSet {
     }
 
     private OffHeapLinearProbingSegment segmentFor(final Object key) {
-        return segments[JVMUtil.murmurRehash( key.hashCode() ) & Integer.MAX_VALUE & mask];
+        return segments[segmentIndex( key )];
+    }
+
+    private int segmentIndex(final Object key) {
+        return JVMUtil.murmurRehash( key.hashCode() ) & Integer.MAX_VALUE & mask;
     }
 }
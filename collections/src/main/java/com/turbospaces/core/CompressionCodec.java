@@ -0,0 +1,386 @@
+/**
+ * Copyright (C) 2011-2012 Andrey Borisov <aandrey.borisov@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turbospaces.core;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.MapMaker;
+import com.google.common.hash.Hashing;
+
+/**
+ * pure java LZ77-family(LZ4-like block format) compression codec for off-heap entries. Entries smaller than threshold
+ * are stored as is, bigger entries are compressed before being flushed into off-heap memory and transparently
+ * de-compressed on read.</p>
+ *
+ * Codec can be optionally associated with shared dictionary (see {@link #trainDictionary(Collection, int)}) - the
+ * dictionary is treated as if it was preceding the actual data, so that small and similar records can reference common
+ * byte sequences (property names, class names, repeating strings) and compress well even if the record itself is too
+ * small to contain repetitions.</p>
+ *
+ * Codec is identified by stable fingerprint of its dictionary (de-compression doesn't depend on anything else), the id
+ * is stored in off-heap entry's header, so entries can be de-compressed without any extra context and the same id means
+ * the same codec in any JVM. Codecs are registered weakly, so registration is released once codec is not used anymore
+ * (codecs with the same dictionary share registration).
+ *
+ * @since 0.1
+ */
+@ThreadSafe
+public final class CompressionCodec {
+    /**
+     * default compression threshold in bytes.
+     */
+    public static final int DEFAULT_THRESHOLD = 512;
+
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 0xFFFF;
+    private static final int HASH_LOG = 12;
+    private static final int SEGMENT_SIZE = 32;
+    private static final ConcurrentMap<Integer, CompressionCodec> CODECS = new MapMaker().weakValues().makeMap();
+    private static final ThreadLocal<int[]> HASH_TABLES = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1 << HASH_LOG];
+        }
+    };
+
+    private final int id;
+    private final int threshold;
+    private final byte[] dictionary;
+    private final int[] dictionaryHashTable;
+    /**
+     * registered codec with the same id (keeps registration alive as long as this codec is used)
+     */
+    private final CompressionCodec registered;
+
+    /**
+     * create new codec without dictionary.
+     *
+     * @param threshold
+     *            entries smaller than threshold(in bytes) will not be compressed
+     */
+    public CompressionCodec(final int threshold) {
+        this( threshold, new byte[0] );
+    }
+
+    /**
+     * create new codec associated with shared dictionary.
+     *
+     * @param threshold
+     *            entries smaller than threshold(in bytes) will not be compressed
+     * @param dictionary
+     *            shared dictionary (only last 64KB are used)
+     */
+    public CompressionCodec(final int threshold, final byte[] dictionary) {
+        Preconditions.checkArgument( threshold > 0, "threshold must be positive" );
+        Preconditions.checkNotNull( dictionary );
+
+        this.threshold = threshold;
+        this.dictionary = dictionary.length > MAX_OFFSET ? Arrays.copyOfRange( dictionary, dictionary.length - MAX_OFFSET, dictionary.length )
+                : dictionary.clone();
+        this.dictionaryHashTable = new int[1 << HASH_LOG];
+        Arrays.fill( dictionaryHashTable, -1 );
+        for ( int i = 0; i + MIN_MATCH <= this.dictionary.length; i++ )
+            dictionaryHashTable[hash( this.dictionary, i )] = i;
+        this.id = fingerprint( this.dictionary );
+
+        CompressionCodec prev = CODECS.putIfAbsent( id, this );
+        Preconditions.checkArgument(
+                prev == null || Arrays.equals( prev.dictionary, this.dictionary ),
+                "dictionary fingerprint %s collides with dictionary of %s",
+                id,
+                prev );
+        this.registered = prev == null ? this : prev;
+    }
+
+    /**
+     * lookup codec by id.
+     *
+     * @param id
+     *            codec id
+     * @return registered codec
+     */
+    public static CompressionCodec forId(final int id) {
+        return Preconditions.checkNotNull( CODECS.get( id ), "compression codec %s is not registered", id );
+    }
+
+    /**
+     * @return codec id (stable fingerprint of dictionary, never <code>0</code>)
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return compression threshold in bytes
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * compress the region of byte array.
+     *
+     * @param src
+     *            source bytes
+     * @param offset
+     *            offset within source array
+     * @param length
+     *            how many bytes to compress
+     * @return compressed bytes or <code>null</code> if length is less than threshold or data is not compressible
+     */
+    public byte[] compress(final byte[] src,
+                           final int offset,
+                           final int length) {
+        if ( length < threshold )
+            return null;
+
+        // window = dictionary + source, so that matches can reference dictionary
+        int base = dictionary.length;
+        byte[] window = new byte[base + length];
+        System.arraycopy( dictionary, 0, window, 0, base );
+        System.arraycopy( src, offset, window, base, length );
+        int[] hashTable = HASH_TABLES.get();
+        System.arraycopy( dictionaryHashTable, 0, hashTable, 0, hashTable.length );
+
+        byte[] out = new byte[4 + length + length / 255 + 16];
+        int op = 0;
+        out[op++] = (byte) ( length >>> 24 );
+        out[op++] = (byte) ( length >>> 16 );
+        out[op++] = (byte) ( length >>> 8 );
+        out[op++] = (byte) length;
+
+        int end = window.length;
+        int anchor = base;
+        int ip = base;
+        while ( ip + MIN_MATCH <= end ) {
+            int h = hash( window, ip );
+            int candidate = hashTable[h];
+            hashTable[h] = ip;
+            if ( candidate < 0 || ip - candidate > MAX_OFFSET || !equals4( window, candidate, ip ) ) {
+                ip++;
+                continue;
+            }
+
+            int matchLength = MIN_MATCH;
+            while ( ip + matchLength < end && window[candidate + matchLength] == window[ip + matchLength] )
+                matchLength++;
+
+            int literals = ip - anchor;
+            if ( op + 1 + literals + literals / 255 + 3 + matchLength / 255 + 1 >= length )
+                return null;
+            int token = op++;
+            out[token] = (byte) ( ( Math.min( literals, 15 ) << 4 ) | Math.min( matchLength - MIN_MATCH, 15 ) );
+            op = writeLength( out, op, literals );
+            System.arraycopy( window, anchor, out, op, literals );
+            op += literals;
+            int distance = ip - candidate;
+            out[op++] = (byte) distance;
+            out[op++] = (byte) ( distance >>> 8 );
+            op = writeLength( out, op, matchLength - MIN_MATCH );
+
+            ip += matchLength;
+            anchor = ip;
+        }
+
+        // last sequence - literals only
+        int literals = end - anchor;
+        if ( op + 1 + literals + literals / 255 + 1 >= length )
+            return null;
+        out[op++] = (byte) ( Math.min( literals, 15 ) << 4 );
+        op = writeLength( out, op, literals );
+        System.arraycopy( window, anchor, out, op, literals );
+        op += literals;
+        return Arrays.copyOf( out, op );
+    }
+
+    /**
+     * de-compress the data previously compressed by {@link #compress(byte[], int, int)}.
+     *
+     * @param src
+     *            compressed bytes
+     * @return original bytes
+     */
+    public byte[] decompress(final byte[] src) {
+        int length = ( ( src[0] & 0xFF ) << 24 ) | ( ( src[1] & 0xFF ) << 16 ) | ( ( src[2] & 0xFF ) << 8 ) | ( src[3] & 0xFF );
+        int base = dictionary.length;
+        byte[] out = new byte[base + length];
+        System.arraycopy( dictionary, 0, out, 0, base );
+
+        int ip = 4;
+        int op = base;
+        for ( ;; ) {
+            int token = src[ip++] & 0xFF;
+            int literals = token >>> 4;
+            if ( literals == 15 ) {
+                int b;
+                do {
+                    b = src[ip++] & 0xFF;
+                    literals += b;
+                } while ( b == 255 );
+            }
+            System.arraycopy( src, ip, out, op, literals );
+            ip += literals;
+            op += literals;
+            if ( ip >= src.length )
+                break;
+
+            int distance = ( src[ip++] & 0xFF ) | ( ( src[ip++] & 0xFF ) << 8 );
+            int matchLength = token & 0x0F;
+            if ( matchLength == 15 ) {
+                int b;
+                do {
+                    b = src[ip++] & 0xFF;
+                    matchLength += b;
+                } while ( b == 255 );
+            }
+            matchLength += MIN_MATCH;
+            // byte-by-byte copy because source and target regions can overlap
+            for ( int from = op - distance, i = 0; i < matchLength; i++ )
+                out[op++] = out[from + i];
+        }
+        Preconditions.checkState( op == out.length, "corrupted compressed data" );
+        return base == 0 ? out : Arrays.copyOfRange( out, base, out.length );
+    }
+
+    /**
+     * train shared dictionary over the sample records (for example serialized entities). The most frequent byte
+     * sequences across samples are collected into dictionary, the most frequent are placed at the end of dictionary
+     * (closest to the actual data).
+     *
+     * @param samples
+     *            sample records
+     * @param dictionarySize
+     *            maximum dictionary size in bytes
+     * @return dictionary which can be passed to {@link #CompressionCodec(int, byte[])}
+     */
+    public static byte[] trainDictionary(final Collection<byte[]> samples,
+                                         final int dictionarySize) {
+        Preconditions.checkArgument( dictionarySize > 0 && dictionarySize <= MAX_OFFSET, "dictionary size must be between 1 and %s", MAX_OFFSET );
+
+        // how many samples contain particular 8-byte sequence
+        Map<Long, Integer> frequencies = new HashMap<Long, Integer>();
+        for ( byte[] sample : samples ) {
+            Map<Long, Boolean> seen = new HashMap<Long, Boolean>();
+            for ( int i = 0; i + 8 <= sample.length; i++ )
+                if ( seen.put( gram( sample, i ), Boolean.TRUE ) == null ) {
+                    Long key = gram( sample, i );
+                    Integer count = frequencies.get( key );
+                    frequencies.put( key, count == null ? 1 : count + 1 );
+                }
+        }
+
+        // score fixed-size segments of each sample by the frequency of contained sequences
+        List<long[]> segments = new ArrayList<long[]>();
+        List<byte[]> sources = new ArrayList<byte[]>();
+        for ( byte[] sample : samples ) {
+            for ( int start = 0; start < sample.length; start += SEGMENT_SIZE ) {
+                long score = 0;
+                for ( int i = start; i + 8 <= Math.min( start + SEGMENT_SIZE + 7, sample.length ); i++ ) {
+                    int frequency = frequencies.get( gram( sample, i ) );
+                    if ( frequency > 1 )
+                        score += frequency;
+                }
+                if ( score > 0 ) {
+                    segments.add( new long[] { score, sources.size(), start } );
+                    sources.add( sample );
+                }
+            }
+        }
+        Collections.sort( segments, new Comparator<long[]>() {
+            @Override
+            public int compare(final long[] o1,
+                               final long[] o2) {
+                return o1[0] > o2[0] ? -1 : ( o1[0] == o2[0] ? 0 : 1 );
+            }
+        } );
+
+        byte[] dictionary = new byte[dictionarySize];
+        int position = dictionarySize;
+        Set<ByteBuffer> selected = new HashSet<ByteBuffer>();
+        for ( long[] segment : segments ) {
+            byte[] source = sources.get( (int) segment[1] );
+            int start = (int) segment[2];
+            int length = Math.min( SEGMENT_SIZE, source.length - start );
+            if ( length > position )
+                break;
+            // skip duplicate segments
+            if ( !selected.add( ByteBuffer.wrap( source, start, length ) ) )
+                continue;
+            position -= length;
+            System.arraycopy( source, start, dictionary, position, length );
+        }
+        return Arrays.copyOfRange( dictionary, position, dictionarySize );
+    }
+
+    private static int fingerprint(final byte[] dictionary) {
+        int fingerprint = Hashing.murmur3_32().hashBytes( dictionary ).asInt();
+        // 0 is reserved for uncompressed entries
+        return fingerprint == 0 ? 1 : fingerprint;
+    }
+
+    private static int writeLength(final byte[] out,
+                                   final int position,
+                                   final int length) {
+        int op = position;
+        if ( length >= 15 ) {
+            int remaining = length - 15;
+            for ( ; remaining >= 255; remaining -= 255 )
+                out[op++] = (byte) 255;
+            out[op++] = (byte) remaining;
+        }
+        return op;
+    }
+
+    private static int hash(final byte[] data,
+                            final int i) {
+        int v = ( data[i] & 0xFF ) | ( ( data[i + 1] & 0xFF ) << 8 ) | ( ( data[i + 2] & 0xFF ) << 16 ) | ( ( data[i + 3] & 0xFF ) << 24 );
+        return ( v * -1640531535 ) >>> ( 32 - HASH_LOG );
+    }
+
+    private static boolean equals4(final byte[] data,
+                                   final int i,
+                                   final int j) {
+        return data[i] == data[j] && data[i + 1] == data[j + 1] && data[i + 2] == data[j + 2] && data[i + 3] == data[j + 3];
+    }
+
+    private static long gram(final byte[] data,
+                             final int i) {
+        long v = 0;
+        for ( int k = 0; k < 8; k++ )
+            v = ( v << 8 ) | ( data[i + k] & 0xFF );
+        return v;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper( this ).add( "id", id ).add( "threshold", threshold ).add( "dictionarySize", dictionary.length ).toString();
+    }
+}
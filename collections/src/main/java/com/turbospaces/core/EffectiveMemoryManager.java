@@ -46,6 +46,24 @@ public interface EffectiveMemoryManager {
     void writeBytesArray(long address,
                          byte[] arr);
 
+    /**
+     * bulk copy of the given byte array's region into off-heap memory at the given address. This is preferred way of
+     * flushing serialized data because it avoids intermediate copy of the region into separate byte array.
+     * 
+     * @param address
+     *            off-heap memory address
+     * @param arr
+     *            source bytes
+     * @param offset
+     *            offset within source array
+     * @param length
+     *            how many bytes to copy
+     */
+    void writeBytesArray(long address,
+                         byte[] arr,
+                         int offset,
+                         int length);
+
     /**
      * write int value at the given off-heap memory address
      * 
@@ -68,6 +86,15 @@ public interface EffectiveMemoryManager {
     void putLong(long address,
                  long value);
 
+    /**
+     * read byte value at the given off-heap memory address
+     * 
+     * @param address
+     *            off-heap memory address
+     * @return byte value
+     */
+    byte getByte(long address);
+
     /**
      * read int value at the at given off-heap address
      * 
@@ -97,4 +124,40 @@ public interface EffectiveMemoryManager {
      */
     byte[] readBytesArray(long address,
                           int size);
+
+    /**
+     * bulk copy of off-heap memory region into the given byte array's region (this allows to re-use the same byte array
+     * for multiple reads and avoid allocation per read).
+     * 
+     * @param address
+     *            off-heap memory address
+     * @param arr
+     *            target byte array
+     * @param offset
+     *            offset within array
+     * @param length
+     *            how many bytes to copy
+     */
+    void readBytesArray(long address,
+                        byte[] arr,
+                        int offset,
+                        int length);
+
+    /**
+     * compare the region of off-heap memory with the given byte array's region without copying off-heap bytes into heap.
+     * 
+     * @param address
+     *            off-heap memory address
+     * @param arr
+     *            bytes to compare with
+     * @param offset
+     *            offset within array
+     * @param length
+     *            how many bytes to compare
+     * @return true if all bytes are equal
+     */
+    boolean equalsBytesArray(long address,
+                             byte[] arr,
+                             int offset,
+                             int length);
 }
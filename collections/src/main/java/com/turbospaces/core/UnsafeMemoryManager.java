@@ -8,6 +8,8 @@ import com.lmax.disruptor.util.Util;
  * @since 0.1
  */
 public final class UnsafeMemoryManager implements EffectiveMemoryManager {
+    private static final long BYTE_ARRAY_OFFSET = Util.getUnsafe().arrayBaseOffset( byte[].class );
+
     @Override
     public long allocateMemory(final int bytes) {
         return Util.getUnsafe().allocateMemory( bytes );
@@ -29,10 +31,17 @@ public final class UnsafeMemoryManager implements EffectiveMemoryManager {
     @Override
     public void writeBytesArray(final long address,
                                 final byte[] arr) {
+        writeBytesArray( address, arr, 0, arr.length );
+    }
+
+    @Override
+    public void writeBytesArray(final long address,
+                                final byte[] arr,
+                                final int offset,
+                                final int length) {
         assert address > 0;
-        long i = address;
-        for ( final byte b : arr )
-            Util.getUnsafe().putByte( i++, b );
+        assert offset >= 0 && length >= 0 && offset + length <= arr.length;
+        Util.getUnsafe().copyMemory( arr, BYTE_ARRAY_OFFSET + offset, null, address, length );
     }
 
     @Override
@@ -49,6 +58,12 @@ public final class UnsafeMemoryManager implements EffectiveMemoryManager {
         Util.getUnsafe().putLong( address, value );
     }
 
+    @Override
+    public byte getByte(final long address) {
+        assert address > 0;
+        return Util.getUnsafe().getByte( address );
+    }
+
     @Override
     public int getInt(final long address) {
         assert address > 0;
@@ -65,10 +80,36 @@ public final class UnsafeMemoryManager implements EffectiveMemoryManager {
     public byte[] readBytesArray(final long address,
                                  final int size) {
         assert address > 0;
-        long j = address;
         byte[] arr = new byte[size];
-        for ( int i = 0; i < size; i++ )
-            arr[i] = Util.getUnsafe().getByte( j++ );
+        Util.getUnsafe().copyMemory( null, address, arr, BYTE_ARRAY_OFFSET, size );
         return arr;
     }
+
+    @Override
+    public void readBytesArray(final long address,
+                               final byte[] arr,
+                               final int offset,
+                               final int length) {
+        assert address > 0;
+        assert offset >= 0 && length >= 0 && offset + length <= arr.length;
+        Util.getUnsafe().copyMemory( null, address, arr, BYTE_ARRAY_OFFSET + offset, length );
+    }
+
+    @Override
+    public boolean equalsBytesArray(final long address,
+                                    final byte[] arr,
+                                    final int offset,
+                                    final int length) {
+        assert address > 0;
+        assert offset >= 0 && length >= 0 && offset + length <= arr.length;
+        int i = 0;
+        // compare word by word, both sides are read in native order so no need to care about endianness
+        for ( ; i + 8 <= length; i += 8 )
+            if ( Util.getUnsafe().getLong( address + i ) != Util.getUnsafe().getLong( arr, BYTE_ARRAY_OFFSET + offset + i ) )
+                return false;
+        for ( ; i < length; i++ )
+            if ( Util.getUnsafe().getByte( address + i ) != arr[offset + i] )
+                return false;
+        return true;
+    }
 }
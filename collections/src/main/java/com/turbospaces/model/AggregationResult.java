@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2011-2012 Andrey Borisov <aandrey.borisov@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turbospaces.model;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.concurrent.Immutable;
+
+import com.google.common.collect.Maps;
+
+/**
+ * result of {@link EntityAggregation} - values of aggregate functions (in the order of definition) per group, where
+ * group is identified by values of grouping properties. Aggregation without grouping has exactly one group identified by
+ * empty list (even if nothing matched).
+ *
+ * @since 0.1
+ */
+@Immutable
+public final class AggregationResult {
+    private final Map<List<Object>, Object[]> groups;
+
+    /**
+     * create result for given groups.
+     *
+     * @param groups
+     *            values of aggregate functions associated with values of grouping properties
+     */
+    public AggregationResult(final Map<List<Object>, Object[]> groups) {
+        this.groups = Maps.newLinkedHashMap();
+        for ( Map.Entry<List<Object>, Object[]> entry : groups.entrySet() )
+            this.groups.put( Collections.unmodifiableList( Arrays.asList( entry.getKey().toArray() ) ), entry.getValue().clone() );
+    }
+
+    /**
+     * get values of aggregate functions for group.
+     *
+     * @param groupKeys
+     *            values of grouping properties (nothing for aggregation without grouping)
+     * @return values of aggregate functions or <code>null</code> if there is no such group
+     */
+    public Object[] get(final Object... groupKeys) {
+        Object[] values = groups.get( Arrays.asList( groupKeys ) );
+        return values == null ? null : values.clone();
+    }
+
+    /**
+     * @return all groups (values of grouping properties)
+     */
+    public Set<List<Object>> getGroups() {
+        return Collections.unmodifiableSet( groups.keySet() );
+    }
+
+    /**
+     * @return number of groups
+     */
+    public int size() {
+        return groups.size();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder( "AggregationResult{" );
+        boolean first = true;
+        for ( Map.Entry<List<Object>, Object[]> entry : groups.entrySet() ) {
+            if ( !first )
+                builder.append( ", " );
+            builder.append( entry.getKey() ).append( "=" ).append( Arrays.toString( entry.getValue() ) );
+            first = false;
+        }
+        return builder.append( "}" ).toString();
+    }
+}
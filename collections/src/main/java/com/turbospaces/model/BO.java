@@ -33,6 +33,7 @@ import net.sf.cglib.beans.BulkBean;
 import net.sf.cglib.reflect.FastClass;
 import net.sf.cglib.reflect.FastConstructor;
 
+import org.springframework.data.annotation.Dictionary;
 import org.springframework.data.annotation.Routing;
 import org.springframework.data.annotation.Version;
 import org.springframework.data.mapping.PersistentEntity;
@@ -46,6 +47,8 @@ import com.esotericsoftware.minlog.Log;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.turbospaces.api.CapacityRestriction;
+import com.turbospaces.core.EffectiveMemoryManager;
+import com.turbospaces.core.UnsafeMemoryManager;
 import com.turbospaces.serialization.DecoratedKryo;
 import com.turbospaces.serialization.PropertiesSerializer;
 import com.turbospaces.serialization.SingleDimensionArraySerializer;
@@ -63,6 +66,7 @@ public final class BO {
     private PersistentProperty optimisticLockVersionProperty, routingProperty;
     private BulkBean bulkBean, idVersionRoutingBulkBean;
     private final Set<PersistentProperty> brokenProperties = new HashSet<PersistentProperty>();
+    private final Set<PersistentProperty> dictionaryProperties = new HashSet<PersistentProperty>();
     private PersistentProperty[] orderedProperties;
     private CapacityRestriction capacityRestriction = new CapacityRestriction();
 
@@ -96,6 +100,12 @@ public final class BO {
                         versionCandidates.add( persistentProperty );
                     if ( hasAnnotation( propertyDescriptor, field, Routing.class ) )
                         routingCandidates.add( persistentProperty );
+                    if ( hasAnnotation( propertyDescriptor, field, Dictionary.class ) ) {
+                        Preconditions.checkArgument(
+                                persistentProperty.getType() == String.class,
+                                "only string properties can be marked with @Dictionary annotation, property = " + persistentProperty );
+                        dictionaryProperties.add( persistentProperty );
+                    }
                 }
 
                 private boolean hasAnnotation(final PropertyDescriptor descriptor,
@@ -235,25 +245,41 @@ public final class BO {
      * @return property values array
      */
     public Object[] getBulkPropertyValues(final CacheStoreEntryWrapper cacheEntry) {
+        Object[] propertyValues = new Object[orderedProperties.length];
         // if this is read operation and we don't have bean associated, read id/routing/version fields.
         if ( cacheEntry.getBean() == null ) {
-            Object[] propertyValues = new Object[orderedProperties.length];
             propertyValues[getIdIndex()] = cacheEntry.getId();
             propertyValues[1] = cacheEntry.getOptimisticLockVersion();
             return propertyValues;
         }
+        return getBulkPropertyValues( cacheEntry.getBean(), propertyValues );
+    }
+
+    /**
+     * read the bean property values into the given array (which allows to re-use the same array for multiple beans and
+     * avoid allocation per bean).
+     * 
+     * @param bean
+     *            actual bean
+     * @param propertyValues
+     *            target array (size must be equal to the number of persistent properties)
+     * @return the same target array filled with property values
+     */
+    public Object[] getBulkPropertyValues(final Object bean,
+                                          final Object[] propertyValues) {
+        assert propertyValues.length == orderedProperties.length;
 
         // if cglib can't be used for property extraction, us spring's data to read property values
         if ( bulkBean == null ) {
-            final BeanWrapper beanWrapper = BeanWrapper.create( cacheEntry.getBean(), null );
-            Object[] propertyValues = new Object[orderedProperties.length];
+            final BeanWrapper beanWrapper = BeanWrapper.create( bean, null );
             for ( int i = 0; i < orderedProperties.length; i++ )
                 propertyValues[i] = beanWrapper.getProperty( orderedProperties[i], orderedProperties[i].getType(), false );
             return propertyValues;
         }
 
         // otherwise try to read property values using cglib(if possible)
-        return bulkBean.getPropertyValues( cacheEntry.getBean() );
+        bulkBean.getPropertyValues( bean, propertyValues );
+        return propertyValues;
     }
 
     /**
@@ -295,6 +321,27 @@ public final class BO {
         return optimisticLockVersionProperty;
     }
 
+    /**
+     * @return the index of optimistic lock version property in {@link #getOrderedProperties()} or <code>-1</code> if
+     *         there is no such property
+     */
+    public int getOptimisticLockVersionIndex() {
+        return getOptimisticLockVersionProperty() != null ? getIdIndex() + 1 : -1;
+    }
+
+    /**
+     * set the optimistic lock version property of the bean.
+     * 
+     * @param bean
+     *            actual bean
+     * @param version
+     *            new version
+     */
+    public void setOptimisticLockVersion(final Object bean,
+                                         final Integer version) {
+        BeanWrapper.create( bean, null ).setProperty( getOptimisticLockVersionProperty(), version, false );
+    }
+
     /**
      * @return the routing property(if any)
      */
@@ -302,6 +349,17 @@ public final class BO {
         return routingProperty;
     }
 
+    /**
+     * check whether persistent property is marked for dictionary encoding.
+     * 
+     * @param persistentProperty
+     *            persistent property
+     * @return true if property is marked with {@link Dictionary} annotation
+     */
+    public boolean isDictionaryEncoded(final PersistentProperty persistentProperty) {
+        return dictionaryProperties.contains( persistentProperty );
+    }
+
     /**
      * @return the id property
      */
@@ -387,6 +445,36 @@ public final class BO {
         return orderedProperties;
     }
 
+    /**
+     * get the index of persistent property (in the same order as properties are serialized)
+     * 
+     * @param propertyName
+     *            persistent property name
+     * @return the index of property in {@link #getOrderedProperties()}
+     */
+    public int getPropertyIndex(final String propertyName) {
+        PersistentProperty[] properties = getOrderedProperties();
+        for ( int i = 0; i < properties.length; i++ )
+            if ( properties[i].getName().equals( propertyName ) )
+                return i;
+        throw new IllegalArgumentException( String.format( "%s is not persistent property of %s", propertyName, delegate.getType() ) );
+    }
+
+    /**
+     * get the indexes of persistent properties (in the same order as properties are serialized)
+     * 
+     * @param propertyNames
+     *            persistent property names
+     * @return the indexes of properties in {@link #getOrderedProperties()} (in the same order as property names)
+     */
+    public int[] getPropertyIndexes(final String... propertyNames) {
+        Preconditions.checkArgument( propertyNames.length > 0, "at least one property must be specified" );
+        int[] indexes = new int[propertyNames.length];
+        for ( int i = 0; i < propertyNames.length; i++ )
+            indexes[i] = getPropertyIndex( propertyNames[i] );
+        return indexes;
+    }
+
     /**
      * @return the index of id property in {@link #getOrderedProperties()}
      */
@@ -401,9 +489,38 @@ public final class BO {
 
     /**
      * register the set of persistent classes and enrich kryo with some extract serialized related to persistent class.
+     * Bytecode serializers are generated for classes following java beans conventions.
+     * 
+     * @param kryo
+     *            serialization provider
+     * @param persistentEntities
+     *            classes to register
+     * @throws ClassNotFoundException
+     *             re-throw conversion service
+     * @throws NoSuchMethodException
+     *             re-throw cglib's exception
+     * @throws SecurityException
+     *             re-throw cglib's exception
+     * @throws IntrospectionException
+     *             re-throw introspection exception
+     */
+    public static void registerPersistentClasses(final DecoratedKryo kryo,
+                                                 final BasicPersistentEntity... persistentEntities)
+                                                                                                   throws ClassNotFoundException,
+                                                                                                   SecurityException,
+                                                                                                   NoSuchMethodException,
+                                                                                                   IntrospectionException {
+        registerPersistentClasses( kryo, new UnsafeMemoryManager(), persistentEntities );
+    }
+
+    /**
+     * register the set of persistent classes and enrich kryo with some extract serialized related to persistent class.
+     * Bytecode serializers are generated for classes following java beans conventions.
      * 
      * @param kryo
      *            serialization provider
+     * @param memoryManager
+     *            off-heap memory manager of strings dictionaries (dictionary encoded properties)
      * @param persistentEntities
      *            classes to register
      * @throws ClassNotFoundException
@@ -416,6 +533,7 @@ public final class BO {
      *             re-throw introspection exception
      */
     public static void registerPersistentClasses(final DecoratedKryo kryo,
+                                                 final EffectiveMemoryManager memoryManager,
                                                  final BasicPersistentEntity... persistentEntities)
                                                                                                    throws ClassNotFoundException,
                                                                                                    SecurityException,
@@ -438,7 +556,7 @@ public final class BO {
                 }
             } );
             Class<?> arrayWrapperType = Class.forName( "[L" + e.getType().getName() + ";" );
-            PropertiesSerializer serializer = new PropertiesSerializer( kryo, bo );
+            PropertiesSerializer serializer = new PropertiesSerializer( kryo, bo, true, memoryManager );
             SingleDimensionArraySerializer arraysSerializer = new SingleDimensionArraySerializer( arrayWrapperType, kryo );
             kryo.register( e.getType(), serializer );
             kryo.register( arrayWrapperType, arraysSerializer );
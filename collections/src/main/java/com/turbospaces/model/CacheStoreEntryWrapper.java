@@ -167,6 +167,14 @@ public final class CacheStoreEntryWrapper {
         this.beanAsBytes = beanAsBytes;
     }
 
+    /**
+     * @return serialized form of {@link #getBean()} if it has been already provided(or calculated), otherwise
+     *         <code>null</code>
+     */
+    public byte[] getBeanAsBytes() {
+        return beanAsBytes;
+    }
+
     /**
      * @return actual bean
      */
@@ -0,0 +1,215 @@
+/**
+ * Copyright (C) 2011-2012 Andrey Borisov <aandrey.borisov@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turbospaces.model;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * aggregation over persistent entities of particular class matching template - aggregate functions optionally grouped
+ * by properties values: </p>
+ *
+ * <pre>
+ * EntityAggregation aggregation = EntityAggregation.of( EntityTemplate.of( Order.class ).eq( &quot;status&quot;, &quot;PAID&quot; ) ).groupBy( &quot;country&quot; ).count().sum( &quot;amount&quot; ).max( &quot;amount&quot; );
+ * AggregationResult result = jspace.aggregate( aggregation );
+ * Object[] uk = result.get( &quot;UK&quot; ); // count, sum(amount), max(amount)
+ * </pre>
+ *
+ * Aggregation is executed on space nodes over serialized entities - only grouping and aggregated properties are
+ * de-serialized, so that neither entities nor their serialized form leave the node. Aggregate functions follow SQL
+ * semantics - <code>null</code> values are ignored, sum/min/max of no values is <code>null</code>. Sum of integral
+ * properties is {@link Long}, sum of floating point properties is {@link Double}.
+ *
+ * @since 0.1
+ */
+public final class EntityAggregation {
+    /**
+     * aggregate function.
+     */
+    public static enum Function {
+        /**
+         * number of matched entities.
+         */
+        COUNT,
+        /**
+         * sum of numeric property.
+         */
+        SUM,
+        /**
+         * minimum value of comparable property.
+         */
+        MIN,
+        /**
+         * maximum value of comparable property.
+         */
+        MAX
+    }
+
+    private final EntityTemplate template;
+    private final List<String> groupBy = Lists.newArrayList();
+    private final List<Aggregate> aggregates = Lists.newArrayList();
+
+    private EntityAggregation(final EntityTemplate template) {
+        this.template = Preconditions.checkNotNull( template );
+    }
+
+    /**
+     * create new aggregation (without aggregate functions and grouping) over entities matching given template.
+     *
+     * @param template
+     *            typed template
+     * @return new aggregation
+     */
+    public static EntityAggregation of(final EntityTemplate template) {
+        return new EntityAggregation( template );
+    }
+
+    /**
+     * group entities by values of properties.
+     *
+     * @param properties
+     *            grouping properties
+     * @return this
+     */
+    public EntityAggregation groupBy(final String... properties) {
+        for ( String property : properties )
+            groupBy.add( Preconditions.checkNotNull( property ) );
+        return this;
+    }
+
+    /**
+     * add number of matched entities aggregate.
+     *
+     * @return this
+     */
+    public EntityAggregation count() {
+        aggregates.add( new Aggregate( Function.COUNT, null ) );
+        return this;
+    }
+
+    /**
+     * add sum of property aggregate.
+     *
+     * @param property
+     *            numeric property name
+     * @return this
+     */
+    public EntityAggregation sum(final String property) {
+        return add( Function.SUM, property );
+    }
+
+    /**
+     * add minimum of property aggregate.
+     *
+     * @param property
+     *            comparable property name
+     * @return this
+     */
+    public EntityAggregation min(final String property) {
+        return add( Function.MIN, property );
+    }
+
+    /**
+     * add maximum of property aggregate.
+     *
+     * @param property
+     *            comparable property name
+     * @return this
+     */
+    public EntityAggregation max(final String property) {
+        return add( Function.MAX, property );
+    }
+
+    /**
+     * @return aggregation template
+     */
+    public EntityTemplate getTemplate() {
+        return template;
+    }
+
+    /**
+     * @return persistent class
+     */
+    public Class<?> getType() {
+        return template.getType();
+    }
+
+    /**
+     * @return grouping properties
+     */
+    public List<String> getGroupBy() {
+        return Collections.unmodifiableList( groupBy );
+    }
+
+    /**
+     * @return aggregate functions in the order of definition (the same order as values of {@link AggregationResult})
+     */
+    public List<Aggregate> getAggregates() {
+        return Collections.unmodifiableList( aggregates );
+    }
+
+    @Override
+    public String toString() {
+        return Objects
+                .toStringHelper( this )
+                .add( "template", template )
+                .add( "groupBy", groupBy )
+                .add( "aggregates", aggregates )
+                .toString();
+    }
+
+    private EntityAggregation add(final Function function,
+                                  final String property) {
+        aggregates.add( new Aggregate( function, Preconditions.checkNotNull( property ) ) );
+        return this;
+    }
+
+    /**
+     * single aggregate function.
+     */
+    public static final class Aggregate {
+        private final Function function;
+        private final String property;
+
+        private Aggregate(final Function function, final String property) {
+            this.function = function;
+            this.property = property;
+        }
+
+        /**
+         * @return aggregate function
+         */
+        public Function getFunction() {
+            return function;
+        }
+
+        /**
+         * @return aggregated property name (<code>null</code> for {@link Function#COUNT})
+         */
+        public String getProperty() {
+            return property;
+        }
+
+        @Override
+        public String toString() {
+            return function.name().toLowerCase() + "(" + ( property == null ? "*" : property ) + ")";
+        }
+    }
+}
@@ -0,0 +1,287 @@
+/**
+ * Copyright (C) 2011-2012 Andrey Borisov <aandrey.borisov@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turbospaces.model;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * query over persistent entities of particular class - predicate tree (see {@link EntityTemplate}), ordering and
+ * paging (offset/limit and resumable cursor): </p>
+ *
+ * <pre>
+ * EntityQuery query = EntityQuery.of( EntityTemplate.of( User.class ).eq( &quot;country&quot;, &quot;UK&quot; ) ).orderBy( &quot;age&quot;, false ).limit( 50 );
+ * QueryPage&lt;User&gt; page = jspace.query( query );
+ * ...
+ * QueryPage&lt;User&gt; nextPage = jspace.query( query.after( page.getNextCursor() ) );
+ * </pre>
+ *
+ * Ordered results are sorted by ordering properties and then by unique identifier, so the order is total and the
+ * cursor (values of ordering properties and unique identifier of the last entity of page) allows to continue right after
+ * the last entity even if entities are added or removed between pages (unlike offset). Ordering properties must be
+ * primitives or {@link Comparable}, <code>null</code> values go first for ascending ordering.</p>
+ *
+ * Query is executed as streaming scan - unordered query stops scanning as soon as <code>offset + limit</code> entities
+ * matched, ordered query keeps only <code>offset + limit</code> best entities in memory (bounded top-N selection).
+ *
+ * @since 0.1
+ */
+public final class EntityQuery {
+    private final EntityTemplate template;
+    private final List<Order> orderBy = Lists.newArrayList();
+    private int offset;
+    private int limit = Integer.MAX_VALUE;
+    private Cursor cursor;
+
+    private EntityQuery(final EntityTemplate template) {
+        this.template = Preconditions.checkNotNull( template );
+    }
+
+    /**
+     * create new query (without ordering and restrictions) for entities matching given template.
+     *
+     * @param template
+     *            typed template
+     * @return new query
+     */
+    public static EntityQuery of(final EntityTemplate template) {
+        return new EntityQuery( template );
+    }
+
+    /**
+     * add ascending ordering by property.
+     *
+     * @param property
+     *            property name
+     * @return this
+     */
+    public EntityQuery orderBy(final String property) {
+        return orderBy( property, true );
+    }
+
+    /**
+     * add ordering by property (first ordering is the primary one).
+     *
+     * @param property
+     *            property name
+     * @param ascending
+     *            ascending or descending order
+     * @return this
+     */
+    public EntityQuery orderBy(final String property,
+                               final boolean ascending) {
+        orderBy.add( new Order( Preconditions.checkNotNull( property ), ascending ) );
+        return this;
+    }
+
+    /**
+     * skip given number of entities (applied after cursor).
+     *
+     * @param offset
+     *            number of entities to skip
+     * @return this
+     */
+    public EntityQuery offset(final int offset) {
+        Preconditions.checkArgument( offset >= 0, "negative offset %s", offset );
+        this.offset = offset;
+        return this;
+    }
+
+    /**
+     * restrict the maximum number of entities returned.
+     *
+     * @param limit
+     *            page size
+     * @return this
+     */
+    public EntityQuery limit(final int limit) {
+        Preconditions.checkArgument( limit > 0, "non-positive limit %s", limit );
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * continue from the given cursor (entities strictly after the cursor in query's ordering are returned). cursor
+     * paging requires ordering.
+     *
+     * @param cursor
+     *            cursor of previous page or <code>null</code> to start from the beginning
+     * @return this
+     */
+    public EntityQuery after(final Cursor cursor) {
+        this.cursor = cursor;
+        return this;
+    }
+
+    /**
+     * create query to be executed against single partition of partitioned space: partition must return first
+     * <code>offset + limit</code> entities, the offset is applied after merging of partitions results.
+     *
+     * @return new partition query
+     */
+    public EntityQuery partitionQuery() {
+        EntityQuery partitionQuery = new EntityQuery( template );
+        partitionQuery.orderBy.addAll( orderBy );
+        partitionQuery.limit = (int) Math.min( Integer.MAX_VALUE, (long) offset + limit );
+        partitionQuery.cursor = cursor;
+        return partitionQuery;
+    }
+
+    /**
+     * @return query template
+     */
+    public EntityTemplate getTemplate() {
+        return template;
+    }
+
+    /**
+     * @return persistent class
+     */
+    public Class<?> getType() {
+        return template.getType();
+    }
+
+    /**
+     * @return ordering properties (first ordering is the primary one)
+     */
+    public List<Order> getOrderBy() {
+        return Collections.unmodifiableList( orderBy );
+    }
+
+    /**
+     * @return true if query has ordering
+     */
+    public boolean isOrdered() {
+        return !orderBy.isEmpty();
+    }
+
+    /**
+     * @return number of entities to skip
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return maximum number of entities to return
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return cursor to continue from (or <code>null</code>)
+     */
+    public Cursor getCursor() {
+        return cursor;
+    }
+
+    @Override
+    public String toString() {
+        return Objects
+                .toStringHelper( this )
+                .add( "template", template )
+                .add( "orderBy", orderBy )
+                .add( "offset", offset )
+                .add( "limit", limit )
+                .add( "cursor", cursor )
+                .toString();
+    }
+
+    /**
+     * ordering by single property.
+     */
+    public static final class Order {
+        private final String property;
+        private final boolean ascending;
+
+        private Order(final String property, final boolean ascending) {
+            this.property = property;
+            this.ascending = ascending;
+        }
+
+        /**
+         * @return property name
+         */
+        public String getProperty() {
+            return property;
+        }
+
+        /**
+         * @return true for ascending order
+         */
+        public boolean isAscending() {
+            return ascending;
+        }
+
+        @Override
+        public String toString() {
+            return property + ( ascending ? " asc" : " desc" );
+        }
+    }
+
+    /**
+     * position in ordered query results - values of ordering properties and unique identifier of the last entity of
+     * page. cursor is just a set of values, so it can be safely kept by client (for example by paging UI) and restored
+     * later via {@link #valueOf(Object...)}.
+     */
+    public static final class Cursor {
+        private final Object[] keys;
+
+        private Cursor(final Object[] keys) {
+            this.keys = keys;
+        }
+
+        /**
+         * create cursor for given values.
+         *
+         * @param keys
+         *            values of ordering properties (in the order of query's ordering) followed by unique identifier
+         * @return cursor
+         */
+        public static Cursor valueOf(final Object... keys) {
+            Preconditions.checkArgument( keys.length > 1, "cursor must contain ordering values and unique identifier" );
+            return new Cursor( keys.clone() );
+        }
+
+        /**
+         * @return values of ordering properties followed by unique identifier
+         */
+        public Object[] getKeys() {
+            return keys.clone();
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            return obj instanceof Cursor && Arrays.equals( keys, ( (Cursor) obj ).keys );
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode( keys );
+        }
+
+        @Override
+        public String toString() {
+            return "after" + Arrays.toString( keys );
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/**
+ * Copyright (C) 2011-2012 Andrey Borisov <aandrey.borisov@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turbospaces.model;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * typed matching template with explicit per-property predicates. Unlike find-by-example template (where
+ * <code>null</code> and primitive properties are treated as 'match any'), only the properties mentioned in template
+ * are matched and primitive properties can be matched as well: </p>
+ *
+ * <pre>
+ * EntityTemplate template = EntityTemplate.of( User.class ).eq( &quot;age&quot;, 30 ).ne( &quot;active&quot;, false ).in( &quot;country&quot;, &quot;UK&quot;, &quot;US&quot; ).isNull( &quot;deletedAt&quot; );
+ * </pre>
+ *
+ * All predicates must be satisfied (logical AND). Disjunctions are expressed as groups of alternative templates, so
+ * predicates can be combined into arbitrary tree: </p>
+ *
+ * <pre>
+ * EntityTemplate.of( User.class ).eq( &quot;active&quot;, true ).anyOf( EntityTemplate.of( User.class ).eq( &quot;country&quot;, &quot;UK&quot; ),
+ *         EntityTemplate.of( User.class ).eq( &quot;age&quot;, 30 ).ne( &quot;country&quot;, &quot;US&quot; ) );
+ * </pre>
+ *
+ * Template is compiled once per type and evaluated against serialized
+ * entities directly, primitive values are compared without boxing (floating point values follow <code>==</code>
+ * semantics - <code>NaN</code> never matches and <code>0.0</code> matches <code>-0.0</code>), object values follow
+ * {@link Object#equals(Object)} semantics, <code>ne</code> matches <code>null</code> values.
+ *
+ * @since 0.1
+ */
+public final class EntityTemplate {
+    /**
+     * predicate operator.
+     */
+    public static enum Operator {
+        /**
+         * property is equal to value.
+         */
+        EQ,
+        /**
+         * property is not equal to value.
+         */
+        NE,
+        /**
+         * property is equal to any of values.
+         */
+        IN,
+        /**
+         * property is null.
+         */
+        IS_NULL
+    }
+
+    private final Class<?> type;
+    private final List<Predicate> predicates = Lists.newArrayList();
+    private final List<List<EntityTemplate>> alternatives = Lists.newArrayList();
+
+    private EntityTemplate(final Class<?> type) {
+        this.type = Preconditions.checkNotNull( type );
+    }
+
+    /**
+     * create new empty (matching everything) template for the given persistent class.
+     *
+     * @param type
+     *            persistent class
+     * @return new template
+     */
+    public static EntityTemplate of(final Class<?> type) {
+        return new EntityTemplate( type );
+    }
+
+    /**
+     * add 'property is equal to value' predicate.
+     *
+     * @param property
+     *            property name
+     * @param value
+     *            value (<code>null</code> is the same as {@link #isNull(String)})
+     * @return this
+     */
+    public EntityTemplate eq(final String property,
+                             final Object value) {
+        return add( property, Operator.EQ, new Object[] { value } );
+    }
+
+    /**
+     * add 'property is not equal to value' predicate.
+     *
+     * @param property
+     *            property name
+     * @param value
+     *            value (<code>null</code> means 'property is not null')
+     * @return this
+     */
+    public EntityTemplate ne(final String property,
+                             final Object value) {
+        return add( property, Operator.NE, new Object[] { value } );
+    }
+
+    /**
+     * add 'property is equal to any of values' predicate.
+     *
+     * @param property
+     *            property name
+     * @param values
+     *            values
+     * @return this
+     */
+    public EntityTemplate in(final String property,
+                             final Object... values) {
+        Preconditions.checkArgument( values.length > 0, "at least one value is expected for %s", property );
+        return add( property, Operator.IN, values.clone() );
+    }
+
+    /**
+     * add 'property is null' predicate.
+     *
+     * @param property
+     *            property name
+     * @return this
+     */
+    public EntityTemplate isNull(final String property) {
+        return add( property, Operator.IS_NULL, new Object[] { null } );
+    }
+
+    /**
+     * add group of alternatives - at least one of alternative templates must be satisfied (logical OR). Alternatives
+     * can have groups of alternatives as well.
+     *
+     * @param templates
+     *            alternative templates of the same persistent class
+     * @return this
+     */
+    public EntityTemplate anyOf(final EntityTemplate... templates) {
+        Preconditions.checkArgument( templates.length > 0, "at least one alternative is expected" );
+        for ( EntityTemplate template : templates ) {
+            Preconditions.checkArgument( template != this, "template can't be alternative of itself" );
+            Preconditions.checkArgument(
+                    template.getType() == type,
+                    "alternative of %s can't be used for %s",
+                    template.getType().getName(),
+                    type.getName() );
+        }
+        alternatives.add( ImmutableList.copyOf( templates ) );
+        return this;
+    }
+
+    /**
+     * @return persistent class this template is designed for
+     */
+    public Class<?> getType() {
+        return type;
+    }
+
+    /**
+     * @return all predicates of template in the order of definition
+     */
+    public List<Predicate> getPredicates() {
+        return Collections.unmodifiableList( predicates );
+    }
+
+    /**
+     * @return groups of alternative templates in the order of definition
+     */
+    public List<List<EntityTemplate>> getAlternatives() {
+        return Collections.unmodifiableList( alternatives );
+    }
+
+    @Override
+    public String toString() {
+        return Objects
+                .toStringHelper( this )
+                .add( "type", type.getName() )
+                .add( "predicates", predicates )
+                .add( "anyOf", alternatives )
+                .toString();
+    }
+
+    private EntityTemplate add(final String property,
+                               final Operator operator,
+                               final Object[] values) {
+        predicates.add( new Predicate( Preconditions.checkNotNull( property ), operator, values ) );
+        return this;
+    }
+
+    /**
+     * single property predicate.
+     */
+    public static final class Predicate {
+        private final String property;
+        private final Operator operator;
+        private final Object[] values;
+
+        private Predicate(final String property, final Operator operator, final Object[] values) {
+            this.property = property;
+            this.operator = operator;
+            this.values = values;
+        }
+
+        /**
+         * @return property name
+         */
+        public String getProperty() {
+            return property;
+        }
+
+        /**
+         * @return predicate's operator
+         */
+        public Operator getOperator() {
+            return operator;
+        }
+
+        /**
+         * @return values of predicate (single <code>null</code> value for {@link Operator#IS_NULL})
+         */
+        public Object[] getValues() {
+            return values.clone();
+        }
+
+        @Override
+        public String toString() {
+            return property + " " + operator + " " + ( values.length == 1 ? values[0] : Arrays.toString( values ) );
+        }
+    }
+}
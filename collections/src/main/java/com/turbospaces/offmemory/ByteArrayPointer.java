@@ -15,14 +15,18 @@
  */
 package com.turbospaces.offmemory;
 
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 
 import javax.annotation.concurrent.Immutable;
 
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.SerializationException;
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 import com.google.common.primitives.Ints;
 import com.google.common.primitives.Longs;
+import com.turbospaces.core.CompressionCodec;
 import com.turbospaces.core.EffectiveMemoryManager;
 
 /**
@@ -42,6 +46,7 @@ public final class ByteArrayPointer {
      * <li>creationTimestamp - long(when the entry has been been added in milliseconds)</li>
      * <li>timeToLive - long(how long to live after initial write)</li>
      * <li>hitsCount - long(how many hits)</li>
+     * <li>codec - int(id of compression codec or 0 if data is not compressed)</li>
      * <li>data - actual entitie's state in de-serialized format</li>
      * </ul>
      * 
@@ -52,6 +57,7 @@ public final class ByteArrayPointer {
         CREATION_TIMESTAMP(Longs.BYTES),
         TIME_TO_LIVE(Ints.BYTES),
         LAST_ACCESS_DATE(Longs.BYTES),
+        CODEC(Ints.BYTES),
         DATA(Integer.MAX_VALUE);
 
         private FormatFields(final int lenght) {
@@ -63,6 +69,16 @@ public final class ByteArrayPointer {
     }
 
     private static final int INTERNAL_BYTES_OCCUPATION;
+    private static final int INITIAL_SERIALIZATION_BUFFER_SIZE = 2 * 1024;
+    private static final int MAX_SERIALIZATION_BUFFER_SIZE = 64 * 1024 * 1024;
+    // buffer grown by large entity is not retained by thread (shrunk back to initial size)
+    private static final int RETAINED_SERIALIZATION_BUFFER_SIZE = 64 * 1024;
+    private static final ThreadLocal<ByteBuffer> SERIALIZATION_BUFFERS = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate( INITIAL_SERIALIZATION_BUFFER_SIZE );
+        }
+    };
 
     static {
         int offset = 0;
@@ -71,7 +87,7 @@ public final class ByteArrayPointer {
             offset += f.lenght;
         }
         INTERNAL_BYTES_OCCUPATION = FormatFields.LENGTH.lenght + FormatFields.CREATION_TIMESTAMP.lenght + FormatFields.TIME_TO_LIVE.lenght
-                + FormatFields.LAST_ACCESS_DATE.lenght;
+                + FormatFields.LAST_ACCESS_DATE.lenght + FormatFields.CODEC.lenght;
     }
 
     private final EffectiveMemoryManager memoryManager;
@@ -80,6 +96,10 @@ public final class ByteArrayPointer {
     private long address;
     private Object object;
     private int ttl;
+    private int length;
+    private boolean detached;
+    private byte[] compressedBytes;
+    private int codecId;
 
     /**
      * create new byte array pointer at given address and byte array(buffer) - this is constructor is used for reading
@@ -98,6 +118,7 @@ public final class ByteArrayPointer {
         this.memoryManager = memoryManager;
         this.address = address;
         this.serializedData = serializedData;
+        this.length = serializedData.capacity();
     }
 
     /**
@@ -119,9 +140,145 @@ public final class ByteArrayPointer {
         this.memoryManager = memoryManager;
         this.object = object;
         this.serializedBytes = serializedData;
+        this.length = serializedData.length;
         this.ttl = ttl;
     }
 
+    /**
+     * create new byte array pointer for the given de-serialized entry (the same as
+     * {@link #ByteArrayPointer(EffectiveMemoryManager, byte[], Object, int)}), but compress the serialized state with
+     * the given codec if state is bigger than codec's threshold.
+     * 
+     * @param memoryManager
+     *            off-heap memory manager
+     * @param serializedData
+     *            serialized entiti'es state
+     * @param object
+     *            target object (this {@link ByteArrayPointer} created over object)
+     * @param ttl
+     *            time-to-live
+     * @param codec
+     *            compression codec(optional)
+     */
+    public ByteArrayPointer(final EffectiveMemoryManager memoryManager,
+                            final byte[] serializedData,
+                            final Object object,
+                            final int ttl,
+                            final CompressionCodec codec) {
+        this( memoryManager, serializedData, object, ttl );
+        if ( codec != null ) {
+            byte[] compressed = codec.compress( serializedData, 0, serializedData.length );
+            if ( compressed != null ) {
+                this.compressedBytes = compressed;
+                this.codecId = codec.getId();
+                this.length = compressed.length;
+            }
+        }
+    }
+
+    private ByteArrayPointer(final EffectiveMemoryManager memoryManager, final Object object, final int ttl) {
+        this.memoryManager = memoryManager;
+        this.object = object;
+        this.ttl = ttl;
+    }
+
+    /**
+     * serialize the given entry with kryo straight into newly allocated off-heap memory (without intermediate byte
+     * array copy) and create new byte array pointer over it.</p>
+     * 
+     * Kryo writes into thread-local re-usable buffer which is then bulk-copied into off-heap memory, so there is no
+     * per-write garbage. The pointer owns allocated memory until it is dumped into off-heap collection(via
+     * {@link #dumpAndGetAddress()} or {@link #rellocateAndDump(long)}), so {@link #utilize()} must be called if the
+     * pointer is discarded before that.
+     * 
+     * @param memoryManager
+     *            off-heap memory manager
+     * @param kryo
+     *            kryo serializer
+     * @param entry
+     *            what needs to be serialized
+     * @param object
+     *            target object (this {@link ByteArrayPointer} created over object)
+     * @param ttl
+     *            time-to-live
+     * @return new pointer over already allocated off-heap memory
+     */
+    public static ByteArrayPointer serializeDirectly(final EffectiveMemoryManager memoryManager,
+                                                     final Kryo kryo,
+                                                     final Object entry,
+                                                     final Object object,
+                                                     final int ttl) {
+        return serializeDirectly( memoryManager, kryo, entry, object, ttl, null );
+    }
+
+    /**
+     * the same as {@link #serializeDirectly(EffectiveMemoryManager, Kryo, Object, Object, int)}, but the serialized
+     * state is compressed with the given codec (if state is bigger than codec's threshold) before being copied into
+     * off-heap memory.
+     * 
+     * @param memoryManager
+     *            off-heap memory manager
+     * @param kryo
+     *            kryo serializer
+     * @param entry
+     *            what needs to be serialized
+     * @param object
+     *            target object (this {@link ByteArrayPointer} created over object)
+     * @param ttl
+     *            time-to-live
+     * @param codec
+     *            compression codec(optional)
+     * @return new pointer over already allocated off-heap memory
+     */
+    public static ByteArrayPointer serializeDirectly(final EffectiveMemoryManager memoryManager,
+                                                     final Kryo kryo,
+                                                     final Object entry,
+                                                     final Object object,
+                                                     final int ttl,
+                                                     final CompressionCodec codec) {
+        ByteBuffer buffer = SERIALIZATION_BUFFERS.get();
+        try {
+            for ( ;; ) {
+                buffer.clear();
+                try {
+                    kryo.writeObjectData( buffer, entry );
+                    break;
+                }
+                catch ( SerializationException e ) {
+                    if ( !e.causedBy( BufferOverflowException.class ) || buffer.capacity() >= MAX_SERIALIZATION_BUFFER_SIZE )
+                        throw e;
+                    buffer = ByteBuffer.allocate( Math.min( buffer.capacity() * 2, MAX_SERIALIZATION_BUFFER_SIZE ) );
+                    SERIALIZATION_BUFFERS.set( buffer );
+                    Kryo.getContext().reset();
+                }
+            }
+
+            ByteArrayPointer p = new ByteArrayPointer( memoryManager, object, ttl );
+            byte[] compressed = codec != null ? codec.compress( buffer.array(), 0, buffer.position() ) : null;
+            p.length = compressed != null ? compressed.length : buffer.position();
+            p.codecId = compressed != null ? codec.getId() : 0;
+            p.address = memoryManager.allocateMemory( p.length + FormatFields.DATA.offset );
+            p.detached = true;
+            p.flushHeader();
+            if ( compressed != null )
+                memoryManager.writeBytesArray( p.address + FormatFields.DATA.offset, compressed );
+            else
+                memoryManager.writeBytesArray( p.address + FormatFields.DATA.offset, buffer.array(), 0, p.length );
+            return p;
+        }
+        finally {
+            if ( buffer.capacity() > RETAINED_SERIALIZATION_BUFFER_SIZE )
+                SERIALIZATION_BUFFERS.remove();
+        }
+    }
+
+    /**
+     * @return capacity of the current thread's serialization buffer
+     */
+    static int serializationBufferCapacity() {
+        return SERIALIZATION_BUFFERS.get().capacity();
+    }
+
     /**
      * read the latest access timestamp for this pointer.</p>
      * 
@@ -166,9 +323,50 @@ public final class ByteArrayPointer {
      */
     public static byte[] getEntityState(final long address,
                                         final EffectiveMemoryManager offHeapMmoryManager) {
-        return offHeapMmoryManager.readBytesArray(
+        byte[] state = offHeapMmoryManager.readBytesArray(
                 address + FormatFields.DATA.offset,
                 offHeapMmoryManager.getInt( address + FormatFields.LENGTH.offset ) );
+        int codecId = offHeapMmoryManager.getInt( address + FormatFields.CODEC.offset );
+        return codecId == 0 ? state : CompressionCodec.forId( codecId ).decompress( state );
+    }
+
+    /**
+     * check whether entity's state at the given address is compressed (and can't be accessed directly in off-heap
+     * memory).
+     * 
+     * @param address
+     *            off-heap memory address
+     * @param offHeapMmoryManager
+     *            off-heap memory manager
+     * @return true if entity's state is compressed
+     */
+    public static boolean isCompressed(final long address,
+                                       final EffectiveMemoryManager offHeapMmoryManager) {
+        return offHeapMmoryManager.getInt( address + FormatFields.CODEC.offset ) != 0;
+    }
+
+    /**
+     * @param address
+     *            off-heap memory address
+     * @return off-heap address of entity's actual state (without meta information)
+     */
+    public static long getEntityStateAddress(final long address) {
+        return address + FormatFields.DATA.offset;
+    }
+
+    /**
+     * read the length of entity's actual state (without meta information, compressed if entity is compressed) at the
+     * given address.
+     * 
+     * @param address
+     *            off-heap memory address
+     * @param offHeapMmoryManager
+     *            off-heap memory manager
+     * @return length of serialized entity
+     */
+    public static int getEntityStateLength(final long address,
+                                           final EffectiveMemoryManager offHeapMmoryManager) {
+        return offHeapMmoryManager.getInt( address + FormatFields.LENGTH.offset );
     }
 
     /**
@@ -221,7 +419,10 @@ public final class ByteArrayPointer {
     public byte[] getSerializedData() {
         if ( serializedBytes != null )
             return serializedBytes;
-        return serializedData.array();
+        if ( serializedData != null )
+            return serializedData.array();
+        serializedBytes = getEntityState( getAddress(), memoryManager );
+        return serializedBytes;
     }
 
     /**
@@ -232,7 +433,7 @@ public final class ByteArrayPointer {
     public ByteBuffer getSerializedDataBuffer() {
         if ( serializedData != null )
             return serializedData;
-        return ByteBuffer.wrap( serializedBytes );
+        return ByteBuffer.wrap( getSerializedData() );
     }
 
     /**
@@ -248,7 +449,7 @@ public final class ByteArrayPointer {
      * @return how many off-heap bytes are being occupied by this pointer
      */
     public int bytesOccupied() {
-        return getSerializedData().length + INTERNAL_BYTES_OCCUPATION;
+        return length + INTERNAL_BYTES_OCCUPATION;
     }
 
     /**
@@ -297,7 +498,13 @@ public final class ByteArrayPointer {
      * @return new address after the memory reallocation
      */
     public long rellocateAndDump(final long offHeapAddress) {
-        int bytesNeeded = getSerializedData().length + FormatFields.DATA.offset;
+        if ( detached ) {
+            // state is already off-heap, just release the previous entry's memory
+            memoryManager.freeMemory( offHeapAddress );
+            attach();
+            return this.address;
+        }
+        int bytesNeeded = length + FormatFields.DATA.offset;
         this.address = memoryManager.reallocateMemory( offHeapAddress, bytesNeeded );
         flush2offheap();
         return this.address;
@@ -310,20 +517,36 @@ public final class ByteArrayPointer {
      */
     public long dumpAndGetAddress() {
         if ( this.address == 0 ) {
-            int bytesNeeded = getSerializedData().length + FormatFields.DATA.offset;
+            int bytesNeeded = length + FormatFields.DATA.offset;
             this.address = memoryManager.allocateMemory( bytesNeeded );
             flush2offheap();
         }
+        else if ( detached )
+            attach();
         return this.address;
     }
 
+    /**
+     * off-heap collection takes ownership of directly serialized state, creation timestamp is reset to the moment of
+     * actual dump just like for regular pointers.
+     */
+    private void attach() {
+        detached = false;
+        flushHeader();
+    }
+
     private void flush2offheap() {
+        flushHeader();
+        memoryManager.writeBytesArray( address + FormatFields.DATA.offset, compressedBytes != null ? compressedBytes : getSerializedData() );
+    }
+
+    private void flushHeader() {
         long now = System.currentTimeMillis();
-        memoryManager.putInt( address + FormatFields.LENGTH.offset, getSerializedData().length );
+        memoryManager.putInt( address + FormatFields.LENGTH.offset, length );
         memoryManager.putLong( address + FormatFields.CREATION_TIMESTAMP.offset, now );
         memoryManager.putInt( address + FormatFields.TIME_TO_LIVE.offset, ttl );
         memoryManager.putLong( address + FormatFields.LAST_ACCESS_DATE.offset, now );
-        memoryManager.writeBytesArray( address + FormatFields.DATA.offset, getSerializedData() );
+        memoryManager.putInt( address + FormatFields.CODEC.offset, codecId );
     }
 
     private long getAddress() {
@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2011-2012 Andrey Borisov <aandrey.borisov@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turbospaces.serialization;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import com.esotericsoftware.kryo.serialize.IntSerializer;
+import com.esotericsoftware.kryo.serialize.SimpleSerializer;
+import com.google.common.collect.Maps;
+import com.turbospaces.model.AggregationResult;
+
+/**
+ * kryo serializer of {@link AggregationResult} (used for sending partial aggregation results from remote space nodes).
+ * Result is written as number of groups followed by values of grouping properties and values of aggregate functions
+ * of each group, all values are written with class information.
+ * 
+ * @since 0.1
+ */
+final class AggregationResultSerializer extends SimpleSerializer<AggregationResult> {
+    private final DecoratedKryo kryo;
+
+    AggregationResultSerializer(final DecoratedKryo kryo) {
+        this.kryo = kryo;
+    }
+
+    @Override
+    public AggregationResult read(final ByteBuffer buffer) {
+        int size = IntSerializer.get( buffer, true );
+        Map<List<Object>, Object[]> groups = Maps.newLinkedHashMap();
+        for ( int i = 0; i < size; i++ ) {
+            List<Object> groupKeys = Arrays.asList( readValues( buffer ) );
+            groups.put( groupKeys, readValues( buffer ) );
+        }
+        return new AggregationResult( groups );
+    }
+
+    @Override
+    public void write(final ByteBuffer buffer,
+                      final AggregationResult result) {
+        IntSerializer.put( buffer, result.size(), true );
+        for ( List<Object> groupKeys : result.getGroups() ) {
+            Object[] keys = groupKeys.toArray();
+            writeValues( buffer, keys );
+            writeValues( buffer, result.get( keys ) );
+        }
+    }
+
+    private Object[] readValues(final ByteBuffer buffer) {
+        Object[] values = new Object[IntSerializer.get( buffer, true )];
+        for ( int i = 0; i < values.length; i++ )
+            values[i] = kryo.readClassAndObject( buffer );
+        return values;
+    }
+
+    private void writeValues(final ByteBuffer buffer,
+                             final Object[] values) {
+        IntSerializer.put( buffer, values.length, true );
+        for ( Object value : values )
+            kryo.writeClassAndObject( buffer, value );
+    }
+}
@@ -0,0 +1,271 @@
+/**
+ * Copyright (C) 2011-2012 Andrey Borisov <aandrey.borisov@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turbospaces.serialization;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import com.google.common.primitives.Primitives;
+import com.turbospaces.model.AggregationResult;
+import com.turbospaces.model.EntityAggregation;
+
+/**
+ * {@link EntityAggregation} compiled for particular {@link MatchingSerializer} - accumulates values of aggregate
+ * functions over serialized entities matched by aggregation's template. Only grouping and aggregated properties are
+ * de-serialized (via field offset table).</p>
+ *
+ * Partial results are combinable - each segment of off-heap set is aggregated by separate {@link #fork()} of
+ * aggregator in parallel and partial results of segments/partitions are merged via
+ * {@link #combine(AggregationResult)}.
+ *
+ * @since 0.1
+ * @see MatchingSerializer#compile(EntityAggregation)
+ */
+@NotThreadSafe
+public final class Aggregator {
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static final Ordering<Object> NATURAL = (Ordering) Ordering.natural();
+    private static final List<Object> NO_GROUP = Collections.emptyList();
+
+    private final MatchingSerializer<?> serializer;
+    private final TemplateMatcher matcher;
+    private final int[] readIndexes;
+    private final int[] groupSlots;
+    private final EntityAggregation.Function[] functions;
+    private final int[] valueSlots;
+    private final boolean[] floating;
+    private final Map<List<Object>, Group> groups = Maps.newLinkedHashMap();
+
+    Aggregator(final MatchingSerializer<?> serializer, final EntityAggregation aggregation) {
+        this.serializer = serializer;
+        this.matcher = serializer.compile( aggregation.getTemplate() );
+
+        List<String> groupBy = aggregation.getGroupBy();
+        List<EntityAggregation.Aggregate> aggregates = aggregation.getAggregates();
+        int[] indexes = new int[groupBy.size() + aggregates.size()];
+        int properties = 0;
+
+        groupSlots = new int[groupBy.size()];
+        for ( int i = 0; i < groupSlots.length; i++ ) {
+            int index = indexOf( aggregation, groupBy.get( i ) );
+            groupSlots[i] = slotOf( indexes, properties, index );
+            if ( groupSlots[i] == properties )
+                indexes[properties++] = index;
+        }
+
+        functions = new EntityAggregation.Function[aggregates.size()];
+        valueSlots = new int[aggregates.size()];
+        floating = new boolean[aggregates.size()];
+        for ( int i = 0; i < functions.length; i++ ) {
+            EntityAggregation.Aggregate aggregate = aggregates.get( i );
+            functions[i] = aggregate.getFunction();
+            if ( functions[i] == EntityAggregation.Function.COUNT ) {
+                valueSlots[i] = -1;
+                continue;
+            }
+            int index = indexOf( aggregation, aggregate.getProperty() );
+            Class<?> type = Primitives.wrap( serializer.schema.propertyType( index ) );
+            if ( functions[i] == EntityAggregation.Function.SUM ) {
+                floating[i] = type == Double.class || type == Float.class;
+                Preconditions.checkArgument(
+                        floating[i] || type == Long.class || type == Integer.class || type == Short.class || type == Byte.class,
+                        "property %s of type %s can't be summed",
+                        aggregate.getProperty(),
+                        type.getName() );
+            }
+            else
+                Preconditions.checkArgument(
+                        Comparable.class.isAssignableFrom( type ),
+                        "property %s of type %s isn't comparable",
+                        aggregate.getProperty(),
+                        type.getName() );
+            valueSlots[i] = slotOf( indexes, properties, index );
+            if ( valueSlots[i] == properties )
+                indexes[properties++] = index;
+        }
+        readIndexes = Arrays.copyOf( indexes, properties );
+
+        // aggregation without grouping always has a result (count=0 for example)
+        if ( groupSlots.length == 0 )
+            groups.put( NO_GROUP, new Group() );
+    }
+
+    private Aggregator(final Aggregator prototype) {
+        this.serializer = prototype.serializer;
+        this.matcher = prototype.matcher;
+        this.readIndexes = prototype.readIndexes;
+        this.groupSlots = prototype.groupSlots;
+        this.functions = prototype.functions;
+        this.valueSlots = prototype.valueSlots;
+        this.floating = prototype.floating;
+        if ( groupSlots.length == 0 )
+            groups.put( NO_GROUP, new Group() );
+    }
+
+    /**
+     * @return compiled template of aggregation (entries must be matched before accumulating)
+     */
+    public TemplateMatcher getMatcher() {
+        return matcher;
+    }
+
+    /**
+     * create empty aggregator sharing compiled aggregation with this one (for partial aggregation by another thread).
+     *
+     * @return new aggregator
+     */
+    public Aggregator fork() {
+        return new Aggregator( this );
+    }
+
+    /**
+     * accumulate matched entry.
+     *
+     * @param entry
+     *            serialized entry (starting at position 0)
+     */
+    public void accumulate(final ByteBuffer entry) {
+        Object[] values = readIndexes.length == 0 ? null : serializer.readPropertyValues( entry, readIndexes );
+        Group group = groupFor( values );
+        for ( int i = 0; i < functions.length; i++ )
+            if ( functions[i] == EntityAggregation.Function.COUNT )
+                group.counts[i]++;
+            else
+                group.add( i, values[valueSlots[i]] );
+    }
+
+    /**
+     * combine partial result (of another segment or partition) with this aggregator.
+     *
+     * @param partial
+     *            partial result of the same aggregation
+     */
+    public void combine(final AggregationResult partial) {
+        for ( List<Object> groupKeys : partial.getGroups() ) {
+            Object[] values = partial.get( groupKeys.toArray() );
+            Preconditions.checkArgument( values.length == functions.length, "partial result %s doesn't match aggregation", partial );
+            Group group = groups.get( groupKeys );
+            if ( group == null ) {
+                group = new Group();
+                groups.put( groupKeys, group );
+            }
+            for ( int i = 0; i < functions.length; i++ )
+                if ( functions[i] == EntityAggregation.Function.COUNT )
+                    group.counts[i] += ( (Number) values[i] ).longValue();
+                else
+                    group.add( i, values[i] );
+        }
+    }
+
+    /**
+     * @return accumulated values of aggregate functions per group
+     */
+    public AggregationResult getResult() {
+        Map<List<Object>, Object[]> result = Maps.newLinkedHashMap();
+        for ( Map.Entry<List<Object>, Group> entry : groups.entrySet() )
+            result.put( entry.getKey(), entry.getValue().values() );
+        return new AggregationResult( result );
+    }
+
+    private Group groupFor(final Object[] values) {
+        if ( groupSlots.length == 0 )
+            return groups.get( NO_GROUP );
+        Object[] keys = new Object[groupSlots.length];
+        for ( int i = 0; i < keys.length; i++ )
+            keys[i] = values[groupSlots[i]];
+        List<Object> groupKeys = Arrays.asList( keys );
+        Group group = groups.get( groupKeys );
+        if ( group == null ) {
+            group = new Group();
+            groups.put( groupKeys, group );
+        }
+        return group;
+    }
+
+    private int indexOf(final EntityAggregation aggregation,
+                        final String property) {
+        int index = serializer.schema.indexOf( property );
+        Preconditions.checkArgument( index >= 0, "there is no property %s in %s", property, aggregation.getType().getName() );
+        return index;
+    }
+
+    private static int slotOf(final int[] indexes,
+                              final int properties,
+                              final int index) {
+        for ( int i = 0; i < properties; i++ )
+            if ( indexes[i] == index )
+                return i;
+        return properties;
+    }
+
+    private final class Group {
+        // COUNT - number of entries, others - number of non-null values
+        private final long[] counts = new long[functions.length];
+        private final long[] longs = new long[functions.length];
+        private final double[] doubles = new double[functions.length];
+        private final Object[] extremes = new Object[functions.length];
+
+        private void add(final int i,
+                         final Object value) {
+            if ( value == null )
+                return;
+            counts[i]++;
+            switch ( functions[i] ) {
+                case SUM:
+                    if ( floating[i] )
+                        doubles[i] += ( (Number) value ).doubleValue();
+                    else
+                        longs[i] += ( (Number) value ).longValue();
+                    break;
+                case MIN:
+                    if ( extremes[i] == null || NATURAL.compare( value, extremes[i] ) < 0 )
+                        extremes[i] = value;
+                    break;
+                case MAX:
+                    if ( extremes[i] == null || NATURAL.compare( value, extremes[i] ) > 0 )
+                        extremes[i] = value;
+                    break;
+                default:
+                    throw new IllegalStateException( "unexpected function " + functions[i] );
+            }
+        }
+
+        private Object[] values() {
+            Object[] values = new Object[functions.length];
+            for ( int i = 0; i < values.length; i++ )
+                switch ( functions[i] ) {
+                    case COUNT:
+                        values[i] = counts[i];
+                        break;
+                    case SUM:
+                        values[i] = counts[i] == 0 ? null : floating[i] ? (Object) doubles[i] : (Object) longs[i];
+                        break;
+                    default:
+                        values[i] = extremes[i];
+                        break;
+                }
+            return values;
+        }
+    }
+}
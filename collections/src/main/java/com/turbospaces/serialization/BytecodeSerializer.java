@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 2011-2012 Andrey Borisov <aandrey.borisov@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turbospaces.serialization;
+
+import java.nio.ByteBuffer;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.esotericsoftware.kryo.Serializer;
+
+/**
+ * base class for per-entity serializers generated at runtime by {@link BytecodeSerializerGenerator}. Generated
+ * sub-classes read/write all persistent properties in straight-line code (direct getter/setter invocations, unboxed
+ * primitives) and produce exactly the same binary format as {@link PropertiesSerializer}, so both can be used
+ * interchangeably.</p>
+ *
+ * This class needs to be considered as library internal, it is public only because generated classes are defined in
+ * separate class loader.
+ *
+ * @since 0.1
+ */
+@ThreadSafe
+public abstract class BytecodeSerializer {
+    private DecoratedKryo kryo;
+    private CachedSerializationProperty[] properties;
+    private Serializer[] serializers;
+
+    final void init(final DecoratedKryo kryo,
+                    final CachedSerializationProperty[] properties) {
+        this.kryo = kryo;
+        this.properties = properties;
+        this.serializers = new Serializer[properties.length];
+    }
+
+    /**
+     * write all persistent properties of the bean into buffer (field offset table must be already reserved).
+     *
+     * @param buffer
+     *            target buffer
+     * @param bean
+     *            entity
+     * @param table
+     *            position of field offset table
+     */
+    public abstract void write(ByteBuffer buffer,
+                               Object bean,
+                               int table);
+
+    /**
+     * create new instance of entity and read all persistent properties from buffer.
+     *
+     * @param buffer
+     *            source buffer
+     * @return new entity
+     */
+    public abstract Object read(ByteBuffer buffer);
+
+    /**
+     * remember the current position of buffer as offset of property.
+     */
+    @SuppressWarnings("javadoc")
+    protected final void offset(final ByteBuffer buffer,
+                                final int table,
+                                final int index) {
+        FieldOffsetTable.mark( buffer, table, properties.length, index );
+    }
+
+    /**
+     * write final(but nullable) property value via pre-resolved serializer.
+     */
+    @SuppressWarnings("javadoc")
+    protected final void writeObject(final ByteBuffer buffer,
+                                     final int index,
+                                     final Object value) {
+        serializer( index ).writeObject( buffer, value );
+    }
+
+    /**
+     * write primitive property value via pre-resolved serializer (only used if serializer's format is not known).
+     */
+    @SuppressWarnings("javadoc")
+    protected final void writeObjectData(final ByteBuffer buffer,
+                                         final int index,
+                                         final Object value) {
+        serializer( index ).writeObjectData( buffer, value );
+    }
+
+    /**
+     * write non-final property value (class and data).
+     */
+    @SuppressWarnings("javadoc")
+    protected final void writeClassAndObject(final ByteBuffer buffer,
+                                             final int index,
+                                             final Object value) {
+        DecoratedKryo.writePropertyValue( kryo, properties[index], value, buffer );
+    }
+
+    /**
+     * read final(but nullable) property value via pre-resolved serializer.
+     */
+    @SuppressWarnings("javadoc")
+    protected final Object readObject(final ByteBuffer buffer,
+                                      final int index) {
+        return serializer( index ).readObject( buffer, properties[index].getPropertyType() );
+    }
+
+    /**
+     * read primitive property value via pre-resolved serializer (only used if serializer's format is not known).
+     */
+    @SuppressWarnings("javadoc")
+    protected final Object readObjectData(final ByteBuffer buffer,
+                                          final int index) {
+        return serializer( index ).readObjectData( buffer, properties[index].getPropertyType() );
+    }
+
+    /**
+     * read non-final property value (class and data).
+     */
+    @SuppressWarnings("javadoc")
+    protected final Object readClassAndObject(final ByteBuffer buffer,
+                                              final int index) {
+        return DecoratedKryo.readPropertyValue( kryo, properties[index], buffer );
+    }
+
+    /**
+     * write boolean the same way as kryo's boolean serializer does.
+     */
+    @SuppressWarnings("javadoc")
+    protected static void putBoolean(final ByteBuffer buffer,
+                                     final boolean value) {
+        buffer.put( value ? (byte) 1 : (byte) 0 );
+    }
+
+    /**
+     * read boolean the same way as kryo's boolean serializer does.
+     */
+    @SuppressWarnings("javadoc")
+    protected static boolean getBoolean(final ByteBuffer buffer) {
+        return buffer.get() == 1;
+    }
+
+    private Serializer serializer(final int index) {
+        Serializer serializer = serializers[index];
+        if ( serializer == null ) {
+            // property specific serializer(dictionary encoding) takes precedence over registered one
+            serializer = properties[index].getSerializer();
+            // lazy resolution because nested types can be registered after the entity itself
+            if ( serializer == null )
+                serializer = kryo.getRegisteredClass( properties[index].getPropertyType() ).getSerializer();
+            serializers[index] = serializer;
+        }
+        return serializer;
+    }
+}
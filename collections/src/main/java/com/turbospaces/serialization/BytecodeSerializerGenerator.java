@@ -0,0 +1,471 @@
+/**
+ * Copyright (C) 2011-2012 Andrey Borisov <aandrey.borisov@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turbospaces.serialization;
+
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.springframework.data.mapping.PersistentProperty;
+
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.serialize.IntSerializer;
+import com.esotericsoftware.kryo.serialize.LongSerializer;
+import com.esotericsoftware.kryo.serialize.ShortSerializer;
+import com.esotericsoftware.minlog.Log;
+import com.turbospaces.model.BO;
+
+/**
+ * generates {@link BytecodeSerializer} sub-class for particular persistent entity using ASM. Generated class invokes
+ * getters/setters directly (without cglib's bulk bean and intermediate Object[] array), writes/reads primitive
+ * properties without boxing and uses pre-resolved kryo serializers for the rest of properties.</p>
+ *
+ * Unboxed primitive reads/writes are used only if registered kryo serializer for the primitive type produces the same
+ * bytes(this is verified by probing serializer with sample values), otherwise generated code falls back to boxed
+ * serializer invocation. This guarantees that generated serializers are binary compatible with
+ * {@link PropertiesSerializer}.
+ *
+ * @since 0.1
+ */
+@SuppressWarnings("rawtypes")
+final class BytecodeSerializerGenerator implements Opcodes {
+    private static final AtomicInteger IDS = new AtomicInteger();
+    private static final String BASE = Type.getInternalName( BytecodeSerializer.class );
+    private static final String BUFFER = Type.getInternalName( ByteBuffer.class );
+    private static final String BUFFER_DESC = Type.getDescriptor( ByteBuffer.class );
+
+    /**
+     * generate serializer for the given entity.
+     *
+     * @param kryo
+     *            serialization provider
+     * @param bo
+     *            entity meta-data
+     * @param properties
+     *            cached properties in the same order as {@link BO#getOrderedProperties()}
+     * @return generated serializer or <code>null</code> if entity does not follow java beans conventions and can't be
+     *         optimized
+     */
+    static BytecodeSerializer generate(final DecoratedKryo kryo,
+                                       final BO bo,
+                                       final CachedSerializationProperty[] properties) {
+        Class<?> type = bo.getOriginalPersistentEntity().getType();
+        PersistentProperty[] orderedProperties = bo.getOrderedProperties();
+        Method[] getters = new Method[orderedProperties.length];
+        Method[] setters = new Method[orderedProperties.length];
+
+        if ( !canInstantiate( type ) ) {
+            Log.warn( String.format( "unable to generate bytecode serializer for %s - class is not public or has no public constructor", type ) );
+            return null;
+        }
+        for ( int i = 0; i < orderedProperties.length; i++ ) {
+            PropertyDescriptor descriptor = orderedProperties[i].getPropertyDescriptor();
+            Class<?> propertyType = properties[i].getPropertyType();
+            if ( descriptor == null || descriptor.getReadMethod() == null || descriptor.getWriteMethod() == null
+                    || descriptor.getReadMethod().getReturnType() != propertyType
+                    || descriptor.getWriteMethod().getParameterTypes()[0] != propertyType ) {
+                Log.warn( String.format(
+                        "unable to generate bytecode serializer for %s - property %s does not follow java beans conventions",
+                        type,
+                        orderedProperties[i].getName() ) );
+                return null;
+            }
+            getters[i] = descriptor.getReadMethod();
+            setters[i] = descriptor.getWriteMethod();
+        }
+
+        ClassLoader parent = parentClassLoader( type );
+        if ( parent == null ) {
+            Log.warn( String.format( "unable to generate bytecode serializer for %s - class loaders are not compatible", type ) );
+            return null;
+        }
+
+        Boolean[] varintFlags = new Boolean[properties.length];
+        boolean[] unboxed = new boolean[properties.length];
+        for ( int i = 0; i < properties.length; i++ ) {
+            Class<?> propertyType = properties[i].getPropertyType();
+            if ( propertyType.isPrimitive() ) {
+                Serializer serializer = kryo.getRegisteredClass( propertyType ).getSerializer();
+                if ( propertyType == int.class || propertyType == long.class || propertyType == short.class ) {
+                    if ( sameEncoding( serializer, propertyType, true ) )
+                        varintFlags[i] = Boolean.TRUE;
+                    else if ( sameEncoding( serializer, propertyType, false ) )
+                        varintFlags[i] = Boolean.FALSE;
+                    unboxed[i] = varintFlags[i] != null;
+                }
+                else
+                    unboxed[i] = sameEncoding( serializer, propertyType, false );
+            }
+        }
+
+        String className = type.getName() + "$$BytecodeSerializer$" + IDS.incrementAndGet();
+        byte[] bytecode = generateBytecode( className, type, properties, getters, setters, unboxed, varintFlags );
+        try {
+            Class<?> serializerClass = new GeneratedClassLoader( parent ).define( className, bytecode );
+            BytecodeSerializer serializer = (BytecodeSerializer) serializerClass.newInstance();
+            serializer.init( kryo, properties );
+            return serializer;
+        }
+        catch ( Exception e ) {
+            Log.warn( String.format( "unable to generate bytecode serializer for %s", type ), e );
+            return null;
+        }
+    }
+
+    private static byte[] generateBytecode(final String className,
+                                           final Class<?> type,
+                                           final CachedSerializationProperty[] properties,
+                                           final Method[] getters,
+                                           final Method[] setters,
+                                           final boolean[] unboxed,
+                                           final Boolean[] varintFlags) {
+        String internalName = className.replace( '.', '/' );
+        String entity = Type.getInternalName( type );
+        ClassWriter cw = new ClassWriter( ClassWriter.COMPUTE_MAXS );
+        cw.visit( V1_5, ACC_PUBLIC + ACC_FINAL + ACC_SUPER, internalName, null, BASE, null );
+
+        MethodVisitor mv = cw.visitMethod( ACC_PUBLIC, "<init>", "()V", null, null );
+        mv.visitCode();
+        mv.visitVarInsn( ALOAD, 0 );
+        mv.visitMethodInsn( INVOKESPECIAL, BASE, "<init>", "()V" );
+        mv.visitInsn( RETURN );
+        mv.visitMaxs( 0, 0 );
+        mv.visitEnd();
+
+        // write(ByteBuffer buffer, Object bean, int table)
+        mv = cw.visitMethod( ACC_PUBLIC, "write", "(" + BUFFER_DESC + "Ljava/lang/Object;I)V", null, null );
+        mv.visitCode();
+        mv.visitVarInsn( ALOAD, 2 );
+        mv.visitTypeInsn( CHECKCAST, entity );
+        mv.visitVarInsn( ASTORE, 4 );
+        for ( int i = 0; i < properties.length; i++ ) {
+            Class<?> propertyType = properties[i].getPropertyType();
+            if ( i > 0 ) {
+                mv.visitVarInsn( ALOAD, 0 );
+                mv.visitVarInsn( ALOAD, 1 );
+                mv.visitVarInsn( ILOAD, 3 );
+                push( mv, i );
+                mv.visitMethodInsn( INVOKEVIRTUAL, BASE, "offset", "(" + BUFFER_DESC + "II)V" );
+            }
+            if ( unboxed[i] ) {
+                mv.visitVarInsn( ALOAD, 1 );
+                invokeGetter( mv, entity, getters[i] );
+                writeUnboxed( mv, propertyType, varintFlags[i] );
+            }
+            else {
+                mv.visitVarInsn( ALOAD, 0 );
+                mv.visitVarInsn( ALOAD, 1 );
+                push( mv, i );
+                invokeGetter( mv, entity, getters[i] );
+                String method = "writeClassAndObject";
+                if ( propertyType.isPrimitive() ) {
+                    box( mv, propertyType );
+                    method = "writeObjectData";
+                }
+                else if ( properties[i].isFinal() )
+                    method = "writeObject";
+                mv.visitMethodInsn( INVOKEVIRTUAL, BASE, method, "(" + BUFFER_DESC + "ILjava/lang/Object;)V" );
+            }
+        }
+        mv.visitInsn( RETURN );
+        mv.visitMaxs( 0, 0 );
+        mv.visitEnd();
+
+        // Object read(ByteBuffer buffer)
+        mv = cw.visitMethod( ACC_PUBLIC, "read", "(" + BUFFER_DESC + ")Ljava/lang/Object;", null, null );
+        mv.visitCode();
+        mv.visitTypeInsn( NEW, entity );
+        mv.visitInsn( DUP );
+        mv.visitMethodInsn( INVOKESPECIAL, entity, "<init>", "()V" );
+        mv.visitVarInsn( ASTORE, 2 );
+        for ( int i = 0; i < properties.length; i++ ) {
+            Class<?> propertyType = properties[i].getPropertyType();
+            mv.visitVarInsn( ALOAD, 2 );
+            if ( unboxed[i] ) {
+                mv.visitVarInsn( ALOAD, 1 );
+                readUnboxed( mv, propertyType, varintFlags[i] );
+            }
+            else {
+                mv.visitVarInsn( ALOAD, 0 );
+                mv.visitVarInsn( ALOAD, 1 );
+                push( mv, i );
+                String method = "readClassAndObject";
+                if ( propertyType.isPrimitive() )
+                    method = "readObjectData";
+                else if ( properties[i].isFinal() )
+                    method = "readObject";
+                mv.visitMethodInsn( INVOKEVIRTUAL, BASE, method, "(" + BUFFER_DESC + "I)Ljava/lang/Object;" );
+                if ( propertyType.isPrimitive() )
+                    unbox( mv, propertyType );
+                else if ( propertyType != Object.class )
+                    mv.visitTypeInsn( CHECKCAST, Type.getInternalName( propertyType ) );
+            }
+            Method setter = setters[i];
+            mv.visitMethodInsn( INVOKEVIRTUAL, entity, setter.getName(), Type.getMethodDescriptor( setter ) );
+            if ( setter.getReturnType() != void.class )
+                mv.visitInsn( setter.getReturnType() == long.class || setter.getReturnType() == double.class ? POP2 : POP );
+        }
+        mv.visitVarInsn( ALOAD, 2 );
+        mv.visitInsn( ARETURN );
+        mv.visitMaxs( 0, 0 );
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static void invokeGetter(final MethodVisitor mv,
+                                     final String entity,
+                                     final Method getter) {
+        mv.visitVarInsn( ALOAD, 4 );
+        mv.visitMethodInsn( INVOKEVIRTUAL, entity, getter.getName(), Type.getMethodDescriptor( getter ) );
+    }
+
+    private static void writeUnboxed(final MethodVisitor mv,
+                                     final Class<?> type,
+                                     final Boolean varintFlag) {
+        if ( type == int.class ) {
+            push( mv, varintFlag.booleanValue() ? 1 : 0 );
+            mv.visitMethodInsn( INVOKESTATIC, Type.getInternalName( IntSerializer.class ), "put", "(" + BUFFER_DESC + "IZ)I" );
+            mv.visitInsn( POP );
+        }
+        else if ( type == long.class ) {
+            push( mv, varintFlag.booleanValue() ? 1 : 0 );
+            mv.visitMethodInsn( INVOKESTATIC, Type.getInternalName( LongSerializer.class ), "put", "(" + BUFFER_DESC + "JZ)J" );
+            mv.visitInsn( POP2 );
+        }
+        else if ( type == short.class ) {
+            push( mv, varintFlag.booleanValue() ? 1 : 0 );
+            mv.visitMethodInsn( INVOKESTATIC, Type.getInternalName( ShortSerializer.class ), "put", "(" + BUFFER_DESC + "SZ)S" );
+            mv.visitInsn( POP );
+        }
+        else if ( type == boolean.class )
+            mv.visitMethodInsn( INVOKESTATIC, BASE, "putBoolean", "(" + BUFFER_DESC + "Z)V" );
+        else {
+            String method = type == byte.class ? "put" : "put" + Character.toUpperCase( type.getName().charAt( 0 ) ) + type.getName().substring( 1 );
+            mv.visitMethodInsn( INVOKEVIRTUAL, BUFFER, method, "(" + Type.getDescriptor( type ) + ")" + BUFFER_DESC );
+            mv.visitInsn( POP );
+        }
+    }
+
+    private static void readUnboxed(final MethodVisitor mv,
+                                    final Class<?> type,
+                                    final Boolean varintFlag) {
+        if ( type == int.class ) {
+            push( mv, varintFlag.booleanValue() ? 1 : 0 );
+            mv.visitMethodInsn( INVOKESTATIC, Type.getInternalName( IntSerializer.class ), "get", "(" + BUFFER_DESC + "Z)I" );
+        }
+        else if ( type == long.class ) {
+            push( mv, varintFlag.booleanValue() ? 1 : 0 );
+            mv.visitMethodInsn( INVOKESTATIC, Type.getInternalName( LongSerializer.class ), "get", "(" + BUFFER_DESC + "Z)J" );
+        }
+        else if ( type == short.class ) {
+            push( mv, varintFlag.booleanValue() ? 1 : 0 );
+            mv.visitMethodInsn( INVOKESTATIC, Type.getInternalName( ShortSerializer.class ), "get", "(" + BUFFER_DESC + "Z)S" );
+        }
+        else if ( type == boolean.class )
+            mv.visitMethodInsn( INVOKESTATIC, BASE, "getBoolean", "(" + BUFFER_DESC + ")Z" );
+        else {
+            String method = type == byte.class ? "get" : "get" + Character.toUpperCase( type.getName().charAt( 0 ) ) + type.getName().substring( 1 );
+            mv.visitMethodInsn( INVOKEVIRTUAL, BUFFER, method, "()" + Type.getDescriptor( type ) );
+        }
+    }
+
+    private static void box(final MethodVisitor mv,
+                            final Class<?> type) {
+        Type wrapper = Type.getType( wrapperOf( type ) );
+        mv.visitMethodInsn( INVOKESTATIC, wrapper.getInternalName(), "valueOf", "(" + Type.getDescriptor( type ) + ")" + wrapper.getDescriptor() );
+    }
+
+    private static void unbox(final MethodVisitor mv,
+                              final Class<?> type) {
+        String wrapper = Type.getInternalName( wrapperOf( type ) );
+        mv.visitTypeInsn( CHECKCAST, wrapper );
+        mv.visitMethodInsn( INVOKEVIRTUAL, wrapper, type.getName() + "Value", "()" + Type.getDescriptor( type ) );
+    }
+
+    private static void push(final MethodVisitor mv,
+                             final int value) {
+        if ( value >= -1 && value <= 5 )
+            mv.visitInsn( ICONST_0 + value );
+        else if ( value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE )
+            mv.visitIntInsn( BIPUSH, value );
+        else if ( value >= Short.MIN_VALUE && value <= Short.MAX_VALUE )
+            mv.visitIntInsn( SIPUSH, value );
+        else
+            mv.visitLdcInsn( Integer.valueOf( value ) );
+    }
+
+    private static Class<?> wrapperOf(final Class<?> type) {
+        if ( type == boolean.class )
+            return Boolean.class;
+        if ( type == byte.class )
+            return Byte.class;
+        if ( type == short.class )
+            return Short.class;
+        if ( type == char.class )
+            return Character.class;
+        if ( type == int.class )
+            return Integer.class;
+        if ( type == long.class )
+            return Long.class;
+        if ( type == float.class )
+            return Float.class;
+        return Double.class;
+    }
+
+    /**
+     * verify that registered kryo serializer writes/reads primitive exactly the same way as generated code would do.
+     */
+    private static boolean sameEncoding(final Serializer serializer,
+                                        final Class<?> type,
+                                        final boolean varintFlag) {
+        ByteBuffer expected = ByteBuffer.allocate( 32 );
+        ByteBuffer actual = ByteBuffer.allocate( 32 );
+        try {
+            for ( Object sample : samples( type ) ) {
+                expected.clear();
+                actual.clear();
+                serializer.writeObjectData( expected, sample );
+                writeUnboxed( actual, type, sample, varintFlag );
+                expected.flip();
+                actual.flip();
+                if ( !expected.equals( actual ) || !sample.equals( readUnboxed( actual, type, varintFlag ) ) )
+                    return false;
+            }
+            return true;
+        }
+        catch ( RuntimeException e ) {
+            Log.debug( String.format( "serializer %s can't be replaced with unboxed access", serializer ), e );
+            return false;
+        }
+    }
+
+    private static void writeUnboxed(final ByteBuffer buffer,
+                                     final Class<?> type,
+                                     final Object value,
+                                     final boolean varintFlag) {
+        if ( type == int.class )
+            IntSerializer.put( buffer, (Integer) value, varintFlag );
+        else if ( type == long.class )
+            LongSerializer.put( buffer, (Long) value, varintFlag );
+        else if ( type == short.class )
+            ShortSerializer.put( buffer, (Short) value, varintFlag );
+        else if ( type == boolean.class )
+            BytecodeSerializer.putBoolean( buffer, (Boolean) value );
+        else if ( type == byte.class )
+            buffer.put( (Byte) value );
+        else if ( type == char.class )
+            buffer.putChar( (Character) value );
+        else if ( type == float.class )
+            buffer.putFloat( (Float) value );
+        else
+            buffer.putDouble( (Double) value );
+    }
+
+    private static Object readUnboxed(final ByteBuffer buffer,
+                                      final Class<?> type,
+                                      final boolean varintFlag) {
+        if ( type == int.class )
+            return IntSerializer.get( buffer, varintFlag );
+        if ( type == long.class )
+            return LongSerializer.get( buffer, varintFlag );
+        if ( type == short.class )
+            return ShortSerializer.get( buffer, varintFlag );
+        if ( type == boolean.class )
+            return BytecodeSerializer.getBoolean( buffer );
+        if ( type == byte.class )
+            return buffer.get();
+        if ( type == char.class )
+            return buffer.getChar();
+        if ( type == float.class )
+            return buffer.getFloat();
+        return buffer.getDouble();
+    }
+
+    private static Object[] samples(final Class<?> type) {
+        if ( type == int.class )
+            return new Object[] { 0, 1, -1, 63, 64, 127, 128, 16384, Integer.MIN_VALUE, Integer.MAX_VALUE };
+        if ( type == long.class )
+            return new Object[] { 0L, 1L, -1L, 127L, 128L, 1L << 40, Long.MIN_VALUE, Long.MAX_VALUE };
+        if ( type == short.class )
+            return new Object[] { (short) 0, (short) 1, (short) -1, (short) 127, (short) 128, Short.MIN_VALUE, Short.MAX_VALUE };
+        if ( type == boolean.class )
+            return new Object[] { Boolean.TRUE, Boolean.FALSE };
+        if ( type == byte.class )
+            return new Object[] { (byte) 0, (byte) 1, (byte) -1, Byte.MIN_VALUE, Byte.MAX_VALUE };
+        if ( type == char.class )
+            return new Object[] { 'a', (char) 0, Character.MAX_VALUE };
+        if ( type == float.class )
+            return new Object[] { 0F, 1.5F, -1F, 0.1F, Float.MAX_VALUE, Float.MIN_VALUE };
+        return new Object[] { 0D, 1.5D, -1D, 0.1D, Double.MAX_VALUE, Double.MIN_VALUE };
+    }
+
+    private static boolean canInstantiate(final Class<?> type) {
+        if ( !Modifier.isPublic( type.getModifiers() ) || Modifier.isAbstract( type.getModifiers() ) )
+            return false;
+        if ( type.getEnclosingClass() != null && !Modifier.isStatic( type.getModifiers() ) )
+            return false;
+        try {
+            return Modifier.isPublic( type.getConstructor().getModifiers() );
+        }
+        catch ( NoSuchMethodException e ) {
+            return false;
+        }
+    }
+
+    /**
+     * generated class must see both entity class and turbospaces/kryo classes.
+     */
+    private static ClassLoader parentClassLoader(final Class<?> type) {
+        ClassLoader entityClassLoader = type.getClassLoader();
+        if ( isVisible( entityClassLoader, BytecodeSerializer.class ) && isVisible( entityClassLoader, IntSerializer.class ) )
+            return entityClassLoader;
+        ClassLoader ownClassLoader = BytecodeSerializer.class.getClassLoader();
+        if ( isVisible( ownClassLoader, type ) )
+            return ownClassLoader;
+        return null;
+    }
+
+    private static boolean isVisible(final ClassLoader classLoader,
+                                     final Class<?> type) {
+        try {
+            return Class.forName( type.getName(), false, classLoader ) == type;
+        }
+        catch ( ClassNotFoundException e ) {
+            return false;
+        }
+    }
+
+    private static final class GeneratedClassLoader extends ClassLoader {
+        private GeneratedClassLoader(final ClassLoader parent) {
+            super( parent );
+        }
+
+        private Class<?> define(final String name,
+                                final byte[] bytecode) {
+            return defineClass( name, bytecode, 0, bytecode.length );
+        }
+    }
+
+    private BytecodeSerializerGenerator() {}
+}
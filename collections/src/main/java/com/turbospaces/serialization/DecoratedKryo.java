@@ -47,7 +47,11 @@ import com.esotericsoftware.kryo.serialize.EnumSerializer;
 import com.esotericsoftware.kryo.serialize.MapSerializer;
 import com.esotericsoftware.kryo.serialize.SimpleSerializer;
 import com.google.common.collect.Maps;
+import com.turbospaces.model.AggregationResult;
 import com.turbospaces.model.CacheStoreEntryWrapper;
+import com.turbospaces.model.EntityAggregation;
+import com.turbospaces.model.EntityQuery;
+import com.turbospaces.model.EntityTemplate;
 import com.turbospaces.model.ExplicitCacheEntry;
 
 /**
@@ -59,6 +63,7 @@ import com.turbospaces.model.ExplicitCacheEntry;
 @SuppressWarnings({ "rawtypes" })
 public class DecoratedKryo extends Kryo {
     private ConcurrentMap<Class, RegisteredClass> serializers;
+    private volatile boolean dictionaryEncoding;
 
     /**
      * default constructor that performs decoration.
@@ -117,6 +122,9 @@ public class DecoratedKryo extends Kryo {
             }
         } );
         register( ExplicitCacheEntry.class, new ExplicitCacheEntrySerializer( this ) );
+        register( EntityQuery.class, new EntityQuerySerializer( this ) );
+        register( EntityAggregation.class, new EntityAggregationSerializer( this ) );
+        register( AggregationResult.class, new AggregationResultSerializer( this ) );
         register( RoundingMode.class, new EnumSerializer( RoundingMode.class ) );
     }
 
@@ -130,6 +138,16 @@ public class DecoratedKryo extends Kryo {
         return regClass;
     }
 
+    /**
+     * release off-heap resources of registered serializers (strings dictionaries of persistent classes).
+     */
+    public void destroy() {
+        if ( serializers != null )
+            for ( RegisteredClass registeredClass : serializers.values() )
+                if ( registeredClass.getSerializer() instanceof PropertiesSerializer )
+                    ( (PropertiesSerializer) registeredClass.getSerializer() ).destroy();
+    }
+
     /**
      * check whether given class has been registered.
      * 
@@ -141,6 +159,115 @@ public class DecoratedKryo extends Kryo {
         return serializers.containsKey( type );
     }
 
+    /**
+     * enable/disable dictionary encoding of properties marked with {@link org.springframework.data.annotation.Dictionary}
+     * annotation. Dictionaries are local to this kryo instance, so encoding should only be enabled for data which never
+     * leaves this JVM in serialized form (or is converted via {@link #toPortable(ByteBuffer, Class)} before). If
+     * disabled (default), such properties are written inline.
+     * 
+     * @param dictionaryEncoding
+     *            whether to write dictionary codes instead of strings
+     */
+    public void setDictionaryEncoding(final boolean dictionaryEncoding) {
+        this.dictionaryEncoding = dictionaryEncoding;
+    }
+
+    /**
+     * @return true if dictionary encoding is enabled
+     */
+    public boolean isDictionaryEncoding() {
+        return dictionaryEncoding;
+    }
+
+    /**
+     * check whether persistent class has dictionary encoded properties and serialized entities of such class need to
+     * be converted before sending to other nodes.
+     * 
+     * @param clazz
+     *            persistent class
+     * @return true if dictionary encoding is enabled and class has dictionary encoded properties
+     */
+    public boolean isDictionaryEncoded(final Class<?> clazz) {
+        Serializer serializer = getSerializer( clazz );
+        return dictionaryEncoding && serializer instanceof PropertiesSerializer && ( (PropertiesSerializer) serializer ).isDictionaryEncoded();
+    }
+
+    /**
+     * convert serialized entity into the form which can be read by any other kryo instance (dictionary codes are
+     * replaced with strings) without changing position/limit/mark or any other attributes of byte buffer.
+     * 
+     * @param source
+     *            byte array representation of entity (byte buffer)
+     * @param clazz
+     *            persistent class
+     * @return portable representation of entity
+     */
+    public byte[] toPortable(final ByteBuffer source,
+                             final Class<?> clazz) {
+        if ( !isDictionaryEncoded( clazz ) )
+            return source.array();
+        source.clear();
+        byte[] bytes = ( (PropertiesSerializer) getSerializer( clazz ) ).toPortable( source );
+        source.clear();
+        return bytes;
+    }
+
+    /**
+     * convert serialized entity into portable projection (only given properties are transferred, others are written as
+     * <code>null</code>) without changing position/limit/mark or any other attributes of byte buffer.
+     * 
+     * @param source
+     *            byte array representation of entity (byte buffer)
+     * @param clazz
+     *            persistent class
+     * @param propertyIndexes
+     *            indexes of properties to transfer
+     * @return portable projection of entity
+     * @see PropertiesSerializer#toPortable(ByteBuffer, int[])
+     */
+    public byte[] toPortable(final ByteBuffer source,
+                             final Class<?> clazz,
+                             final int[] propertyIndexes) {
+        source.clear();
+        byte[] bytes = ( (PropertiesSerializer) getSerializer( clazz ) ).toPortable( source, propertyIndexes );
+        source.clear();
+        return bytes;
+    }
+
+    /**
+     * register another version of persistent class's schema, so that entities written by nodes running another version
+     * of class can be read and migrated.
+     * 
+     * @param clazz
+     *            persistent class
+     * @param schema
+     *            schema of another version of persistent class
+     * @see PropertiesSerializer#registerSchema(EntitySchema)
+     */
+    public void registerSchema(final Class<?> clazz,
+                               final EntitySchema schema) {
+        ( (PropertiesSerializer) getSerializer( clazz ) ).registerSchema( schema );
+    }
+
+    /**
+     * migrate serialized entity to the current schema of persistent class (if entity has been written with another
+     * schema).
+     * 
+     * @param source
+     *            serialized entity
+     * @param clazz
+     *            persistent class
+     * @return source itself or entity re-written with the current schema
+     * @throws SerializationException
+     *             if entity's schema is unknown
+     */
+    public byte[] toCurrentSchema(final byte[] source,
+                                  final Class<?> clazz) {
+        MatchingSerializer<?> serializer = (MatchingSerializer<?>) getSerializer( clazz );
+        ByteBuffer buffer = ByteBuffer.wrap( source );
+        return serializer.isCurrentSchema( buffer ) ? source : serializer.migrate( buffer );
+    }
+
     /**
      * de-serialize the entitie's state from byte array to POJO state without changing position/limit/mark or any other
      * attributes of byte buffer.
@@ -162,6 +289,29 @@ public class DecoratedKryo extends Kryo {
         return entry;
     }
 
+    /**
+     * de-serialize only given properties of entity (projection) without changing position/limit/mark or any other
+     * attributes of byte buffer. this is much cheaper than full de-serialization if only few properties are required.
+     * 
+     * @param source
+     *            byte array representation of entity (byte buffer)
+     * @param clazz
+     *            persistent class
+     * @param propertyIndexes
+     *            indexes of required properties
+     * @return property values in the same order as indexes
+     * @throws SerializationException
+     *             IO exception if entity can't be de-serialized
+     */
+    public Object[] deserializeProperties(final ByteBuffer source,
+                                          final Class<?> clazz,
+                                          final int[] propertyIndexes) {
+        source.clear();
+        Object[] values = ( (PropertiesSerializer) getSerializer( clazz ) ).readPropertyValues( source, propertyIndexes );
+        source.clear();
+        return values;
+    }
+
     /**
      * perform find-by-example operation over serialized object's byte array storage and given template class without
      * changing byte buffer's position/limit or any other attributes.
@@ -185,6 +335,52 @@ public class DecoratedKryo extends Kryo {
         return match;
     }
 
+    /**
+     * compile find-by-example template for repeatable matching of multiple entities (template values are serialized only
+     * once).
+     * 
+     * @param cacheEntryTemplate
+     *            find-by-example template
+     * @return compiled template
+     */
+    public TemplateMatcher compileTemplate(final CacheStoreEntryWrapper cacheEntryTemplate) {
+        Serializer serializer = getSerializer( cacheEntryTemplate.getPersistentEntity().getOriginalPersistentEntity().getType() );
+        return ( (PropertiesSerializer) serializer ).compile( cacheEntryTemplate );
+    }
+
+    /**
+     * compile typed template with explicit per-property predicates for repeatable matching of multiple entities.
+     * 
+     * @param template
+     *            typed template
+     * @return compiled template
+     */
+    public TemplateMatcher compileTemplate(final EntityTemplate template) {
+        return ( (MatchingSerializer<?>) getSerializer( template.getType() ) ).compile( template );
+    }
+
+    /**
+     * compile query into collector of matched entities.
+     * 
+     * @param query
+     *            query
+     * @return new collector
+     */
+    public QueryCollector compileQuery(final EntityQuery query) {
+        return ( (MatchingSerializer<?>) getSerializer( query.getType() ) ).compile( query );
+    }
+
+    /**
+     * compile aggregation into aggregator using serializer of aggregation's persistent class.
+     * 
+     * @param aggregation
+     *            aggregation
+     * @return new aggregator
+     */
+    public Aggregator compileAggregation(final EntityAggregation aggregation) {
+        return ( (MatchingSerializer<?>) getSerializer( aggregation.getType() ) ).compile( aggregation );
+    }
+
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder();
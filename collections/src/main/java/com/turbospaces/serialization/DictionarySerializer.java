@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2011-2012 Andrey Borisov <aandrey.borisov@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turbospaces.serialization;
+
+import java.nio.ByteBuffer;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.serialize.IntSerializer;
+import com.esotericsoftware.kryo.serialize.StringSerializer;
+
+/**
+ * serializer of dictionary encoded string properties. The value is written as varint tag followed by optional data:
+ * <ul>
+ * <li><code>0</code> - string is written inline (portable form, used when dictionary encoding is disabled for kryo
+ * instance, for example on client side)</li>
+ * <li><code>n &gt; 0</code> - string is stored in {@link StringDictionary} under code <code>n - 1</code></li>
+ * </ul>
+ * reading understands both forms, so portable entities can be always read.
+ *
+ * @since 0.1
+ * @see DecoratedKryo#setDictionaryEncoding(boolean)
+ */
+@ThreadSafe
+final class DictionarySerializer extends Serializer {
+    private final DecoratedKryo kryo;
+    private final StringDictionary dictionary;
+
+    DictionarySerializer(final DecoratedKryo kryo, final StringDictionary dictionary) {
+        this.kryo = kryo;
+        this.dictionary = dictionary;
+    }
+
+    @Override
+    public void writeObjectData(final ByteBuffer buffer,
+                                final Object object) {
+        if ( kryo.isDictionaryEncoding() )
+            IntSerializer.put( buffer, dictionary.encode( (String) object ) + 1, true );
+        else
+            writeInline( buffer, (String) object );
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> T readObjectData(final ByteBuffer buffer,
+                                final Class<T> type) {
+        int tag = IntSerializer.get( buffer, true );
+        return (T) ( tag == 0 ? StringSerializer.get( buffer ) : dictionary.decode( tag - 1 ) );
+    }
+
+    /**
+     * write string in portable form regardless of dictionary encoding settings.
+     */
+    @SuppressWarnings("javadoc")
+    static void writeInline(final ByteBuffer buffer,
+                            final String value) {
+        IntSerializer.put( buffer, 0, true );
+        StringSerializer.put( buffer, value );
+    }
+
+    /**
+     * check whether entity with given property value can exist in the space (for template matching). If dictionary
+     * encoding is enabled, string must be already in dictionary.
+     */
+    @SuppressWarnings("javadoc")
+    boolean canExist(final String value) {
+        return !kryo.isDictionaryEncoding() || dictionary.lookup( value ) >= 0;
+    }
+
+    /**
+     * @return underlying strings dictionary
+     */
+    StringDictionary getDictionary() {
+        return dictionary;
+    }
+}
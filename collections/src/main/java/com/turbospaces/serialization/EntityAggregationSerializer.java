@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2011-2012 Andrey Borisov <aandrey.borisov@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turbospaces.serialization;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import com.esotericsoftware.kryo.serialize.IntSerializer;
+import com.esotericsoftware.kryo.serialize.SimpleSerializer;
+import com.esotericsoftware.kryo.serialize.StringSerializer;
+import com.turbospaces.model.EntityAggregation;
+
+/**
+ * kryo serializer of {@link EntityAggregation} (used for sending aggregations to remote space nodes). Aggregation is
+ * written as persistent class followed by predicates tree (see {@link EntityQuerySerializer}), grouping properties and
+ * aggregate functions.
+ * 
+ * @since 0.1
+ */
+final class EntityAggregationSerializer extends SimpleSerializer<EntityAggregation> {
+    private static final EntityAggregation.Function[] FUNCTIONS = EntityAggregation.Function.values();
+
+    private final DecoratedKryo kryo;
+
+    EntityAggregationSerializer(final DecoratedKryo kryo) {
+        this.kryo = kryo;
+    }
+
+    @Override
+    public EntityAggregation read(final ByteBuffer buffer) {
+        Class<?> type = kryo.readClass( buffer ).getType();
+        EntityAggregation aggregation = EntityAggregation.of( EntityQuerySerializer.readTemplate( kryo, buffer, type ) );
+        int groupBy = IntSerializer.get( buffer, true );
+        for ( int i = 0; i < groupBy; i++ )
+            aggregation.groupBy( StringSerializer.get( buffer ) );
+        int aggregates = IntSerializer.get( buffer, true );
+        for ( int i = 0; i < aggregates; i++ )
+            switch ( FUNCTIONS[buffer.get()] ) {
+                case COUNT:
+                    aggregation.count();
+                    break;
+                case SUM:
+                    aggregation.sum( StringSerializer.get( buffer ) );
+                    break;
+                case MIN:
+                    aggregation.min( StringSerializer.get( buffer ) );
+                    break;
+                case MAX:
+                    aggregation.max( StringSerializer.get( buffer ) );
+                    break;
+            }
+        return aggregation;
+    }
+
+    @Override
+    public void write(final ByteBuffer buffer,
+                      final EntityAggregation aggregation) {
+        kryo.writeClass( buffer, aggregation.getType() );
+        EntityQuerySerializer.writeTemplate( kryo, buffer, aggregation.getTemplate() );
+        List<String> groupBy = aggregation.getGroupBy();
+        IntSerializer.put( buffer, groupBy.size(), true );
+        for ( String property : groupBy )
+            StringSerializer.put( buffer, property );
+        List<EntityAggregation.Aggregate> aggregates = aggregation.getAggregates();
+        IntSerializer.put( buffer, aggregates.size(), true );
+        for ( EntityAggregation.Aggregate aggregate : aggregates ) {
+            buffer.put( (byte) aggregate.getFunction().ordinal() );
+            if ( aggregate.getProperty() != null )
+                StringSerializer.put( buffer, aggregate.getProperty() );
+        }
+    }
+}
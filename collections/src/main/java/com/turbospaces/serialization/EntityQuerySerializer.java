@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 2011-2012 Andrey Borisov <aandrey.borisov@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turbospaces.serialization;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import com.esotericsoftware.kryo.serialize.IntSerializer;
+import com.esotericsoftware.kryo.serialize.SimpleSerializer;
+import com.esotericsoftware.kryo.serialize.StringSerializer;
+import com.turbospaces.model.EntityQuery;
+import com.turbospaces.model.EntityTemplate;
+
+/**
+ * kryo serializer of {@link EntityQuery} (used for sending queries to remote space nodes). Query is written as
+ * persistent class followed by predicates tree, ordering, offset, limit and cursor, template values and cursor keys are
+ * written with class information.
+ * 
+ * @since 0.1
+ */
+final class EntityQuerySerializer extends SimpleSerializer<EntityQuery> {
+    private static final EntityTemplate.Operator[] OPERATORS = EntityTemplate.Operator.values();
+
+    private final DecoratedKryo kryo;
+
+    EntityQuerySerializer(final DecoratedKryo kryo) {
+        this.kryo = kryo;
+    }
+
+    @Override
+    public EntityQuery read(final ByteBuffer buffer) {
+        Class<?> type = kryo.readClass( buffer ).getType();
+        EntityQuery query = EntityQuery.of( readTemplate( kryo, buffer, type ) );
+        int orderBy = IntSerializer.get( buffer, true );
+        for ( int i = 0; i < orderBy; i++ )
+            query.orderBy( StringSerializer.get( buffer ), buffer.get() == 1 );
+        query.offset( IntSerializer.get( buffer, true ) );
+        query.limit( IntSerializer.get( buffer, true ) );
+        int keys = IntSerializer.get( buffer, true );
+        if ( keys > 0 )
+            query.after( EntityQuery.Cursor.valueOf( readValues( kryo, buffer, keys ) ) );
+        return query;
+    }
+
+    @Override
+    public void write(final ByteBuffer buffer,
+                      final EntityQuery query) {
+        kryo.writeClass( buffer, query.getType() );
+        writeTemplate( kryo, buffer, query.getTemplate() );
+        List<EntityQuery.Order> orderBy = query.getOrderBy();
+        IntSerializer.put( buffer, orderBy.size(), true );
+        for ( EntityQuery.Order order : orderBy ) {
+            StringSerializer.put( buffer, order.getProperty() );
+            buffer.put( (byte) ( order.isAscending() ? 1 : 0 ) );
+        }
+        IntSerializer.put( buffer, query.getOffset(), true );
+        IntSerializer.put( buffer, query.getLimit(), true );
+        if ( query.getCursor() == null )
+            IntSerializer.put( buffer, 0, true );
+        else {
+            Object[] keys = query.getCursor().getKeys();
+            IntSerializer.put( buffer, keys.length, true );
+            writeValues( kryo, buffer, keys );
+        }
+    }
+
+    /**
+     * read predicates tree of template (written by {@link #writeTemplate(DecoratedKryo, ByteBuffer, EntityTemplate)}).
+     */
+    @SuppressWarnings("javadoc")
+    static EntityTemplate readTemplate(final DecoratedKryo kryo,
+                                       final ByteBuffer buffer,
+                                       final Class<?> type) {
+        EntityTemplate template = EntityTemplate.of( type );
+        int predicates = IntSerializer.get( buffer, true );
+        for ( int i = 0; i < predicates; i++ ) {
+            String property = StringSerializer.get( buffer );
+            EntityTemplate.Operator operator = OPERATORS[buffer.get()];
+            Object[] values = readValues( kryo, buffer, IntSerializer.get( buffer, true ) );
+            switch ( operator ) {
+                case EQ:
+                    template.eq( property, values[0] );
+                    break;
+                case NE:
+                    template.ne( property, values[0] );
+                    break;
+                case IN:
+                    template.in( property, values );
+                    break;
+                case IS_NULL:
+                    template.isNull( property );
+                    break;
+            }
+        }
+        int groups = IntSerializer.get( buffer, true );
+        for ( int i = 0; i < groups; i++ ) {
+            EntityTemplate[] alternatives = new EntityTemplate[IntSerializer.get( buffer, true )];
+            for ( int j = 0; j < alternatives.length; j++ )
+                alternatives[j] = readTemplate( kryo, buffer, type );
+            template.anyOf( alternatives );
+        }
+        return template;
+    }
+
+    /**
+     * write predicates tree of template (persistent class itself is not written).
+     */
+    @SuppressWarnings("javadoc")
+    static void writeTemplate(final DecoratedKryo kryo,
+                              final ByteBuffer buffer,
+                              final EntityTemplate template) {
+        List<EntityTemplate.Predicate> predicates = template.getPredicates();
+        IntSerializer.put( buffer, predicates.size(), true );
+        for ( EntityTemplate.Predicate predicate : predicates ) {
+            StringSerializer.put( buffer, predicate.getProperty() );
+            buffer.put( (byte) predicate.getOperator().ordinal() );
+            Object[] values = predicate.getValues();
+            IntSerializer.put( buffer, values.length, true );
+            writeValues( kryo, buffer, values );
+        }
+        List<List<EntityTemplate>> groups = template.getAlternatives();
+        IntSerializer.put( buffer, groups.size(), true );
+        for ( List<EntityTemplate> alternatives : groups ) {
+            IntSerializer.put( buffer, alternatives.size(), true );
+            for ( EntityTemplate alternative : alternatives )
+                writeTemplate( kryo, buffer, alternative );
+        }
+    }
+
+    private static Object[] readValues(final DecoratedKryo kryo,
+                                       final ByteBuffer buffer,
+                                       final int length) {
+        Object[] values = new Object[length];
+        for ( int i = 0; i < length; i++ )
+            values[i] = kryo.readClassAndObject( buffer );
+        return values;
+    }
+
+    private static void writeValues(final DecoratedKryo kryo,
+                                    final ByteBuffer buffer,
+                                    final Object[] values) {
+        for ( Object value : values )
+            kryo.writeClassAndObject( buffer, value );
+    }
+}
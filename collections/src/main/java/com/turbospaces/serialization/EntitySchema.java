@@ -0,0 +1,169 @@
+/**
+ * Copyright (C) 2011-2012 Andrey Borisov <aandrey.borisov@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turbospaces.serialization;
+
+import java.util.Arrays;
+
+import javax.annotation.concurrent.Immutable;
+
+import org.springframework.data.mapping.PersistentProperty;
+import org.springframework.util.ClassUtils;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Iterables;
+import com.google.common.hash.Hashing;
+import com.turbospaces.model.BO;
+
+/**
+ * binary layout(schema) of serialized entity - the names and types of persistent properties in the same order as they
+ * are serialized. Each serialized entity starts with schema's fingerprint, so that entities written by nodes with
+ * different version of persistent class can be recognized and read by compatible reader (properties are matched by
+ * name, new properties get default values, removed properties are ignored).
+ *
+ * Schema can be persisted/transferred in textual form (see {@link #toString()} and {@link #valueOf(String)}) and
+ * registered on nodes running another version of class via {@link PropertiesSerializer#registerSchema(EntitySchema)}.
+ *
+ * @since 0.1
+ */
+@Immutable
+public final class EntitySchema {
+    private static final Joiner JOINER = Joiner.on( ',' );
+    private static final Splitter SPLITTER = Splitter.on( ',' ).omitEmptyStrings().trimResults();
+
+    private final String[] propertyNames;
+    private final Class<?>[] propertyTypes;
+    private final String description;
+    private final int fingerprint;
+
+    /**
+     * create schema for given properties.
+     *
+     * @param propertyNames
+     *            names of persistent properties in serialization order
+     * @param propertyTypes
+     *            types of persistent properties in serialization order
+     */
+    public EntitySchema(final String[] propertyNames, final Class<?>[] propertyTypes) {
+        Preconditions.checkArgument( propertyNames.length == propertyTypes.length, "property names and types mismatch" );
+        Preconditions.checkArgument( propertyNames.length > 0, "schema must have at least id property" );
+        this.propertyNames = propertyNames.clone();
+        this.propertyTypes = propertyTypes.clone();
+
+        String[] properties = new String[propertyNames.length];
+        for ( int i = 0; i < properties.length; i++ )
+            properties[i] = propertyNames[i] + ":" + propertyTypes[i].getName();
+        this.description = JOINER.join( properties );
+        this.fingerprint = Hashing.murmur3_32().hashString( description, Charsets.UTF_8 ).asInt();
+    }
+
+    /**
+     * create schema of the current version of persistent class.
+     *
+     * @param bo
+     *            class meta-data
+     * @return schema
+     */
+    public static EntitySchema of(final BO bo) {
+        PersistentProperty[] orderedProperties = bo.getOrderedProperties();
+        String[] names = new String[orderedProperties.length];
+        Class<?>[] types = new Class<?>[orderedProperties.length];
+        for ( int i = 0; i < orderedProperties.length; i++ ) {
+            names[i] = orderedProperties[i].getName();
+            types[i] = orderedProperties[i].getType();
+        }
+        return new EntitySchema( names, types );
+    }
+
+    /**
+     * parse schema from textual form.
+     *
+     * @param description
+     *            schema description in the format of {@link #toString()}
+     * @return schema
+     * @throws IllegalArgumentException
+     *             if description is malformed or property class can't be loaded
+     */
+    public static EntitySchema valueOf(final String description) {
+        String[] properties = Iterables.toArray( SPLITTER.split( description ), String.class );
+        String[] names = new String[properties.length];
+        Class<?>[] types = new Class<?>[properties.length];
+        for ( int i = 0; i < properties.length; i++ ) {
+            int separator = properties[i].indexOf( ':' );
+            Preconditions.checkArgument( separator > 0, "malformed schema property %s", properties[i] );
+            names[i] = properties[i].substring( 0, separator );
+            types[i] = ClassUtils.resolveClassName( properties[i].substring( separator + 1 ), EntitySchema.class.getClassLoader() );
+        }
+        return new EntitySchema( names, types );
+    }
+
+    /**
+     * @return 32-bit fingerprint of schema written in front of each serialized entity
+     */
+    public int getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return names of persistent properties in serialization order
+     */
+    public String[] getPropertyNames() {
+        return propertyNames.clone();
+    }
+
+    /**
+     * @return types of persistent properties in serialization order
+     */
+    public Class<?>[] getPropertyTypes() {
+        return propertyTypes.clone();
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        return obj instanceof EntitySchema && description.equals( ( (EntitySchema) obj ).description );
+    }
+
+    @Override
+    public int hashCode() {
+        return fingerprint;
+    }
+
+    /**
+     * @return textual form of schema: <code>name:type,name:type,...</code>
+     */
+    @Override
+    public String toString() {
+        return description;
+    }
+
+    int size() {
+        return propertyNames.length;
+    }
+
+    String propertyName(final int index) {
+        return propertyNames[index];
+    }
+
+    Class<?> propertyType(final int index) {
+        return propertyTypes[index];
+    }
+
+    int indexOf(final String propertyName) {
+        return Arrays.asList( propertyNames ).indexOf( propertyName );
+    }
+}
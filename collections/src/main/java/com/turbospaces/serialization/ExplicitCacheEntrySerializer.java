@@ -27,6 +27,8 @@ import com.turbospaces.model.ExplicitCacheEntry;
  * @see PropertiesSerializer
  */
 public final class ExplicitCacheEntrySerializer extends MatchingSerializer<ExplicitCacheEntry<?, ?>> {
+    private static final EntitySchema SCHEMA = new EntitySchema( new String[] { "key", "version", "routing", "bean" }, new Class<?>[] {
+            Object.class, Integer.class, Object.class, Object.class } );
 
     /**
      * create new explicit serializer suitable to work with {@link ExplicitCacheEntry} beans.
@@ -40,16 +42,17 @@ public final class ExplicitCacheEntrySerializer extends MatchingSerializer<Expli
                 new CachedSerializationProperty( Object.class, JVMUtil.fieldFor( ExplicitCacheEntry.class, "key" ) ),
                 new CachedSerializationProperty( Integer.class, JVMUtil.fieldFor( ExplicitCacheEntry.class, "version" ) ),
                 new CachedSerializationProperty( Object.class, JVMUtil.fieldFor( ExplicitCacheEntry.class, "routing" ) ),
-                new CachedSerializationProperty( Object.class, JVMUtil.fieldFor( ExplicitCacheEntry.class, "bean" ) ) } );
+                new CachedSerializationProperty( Object.class, JVMUtil.fieldFor( ExplicitCacheEntry.class, "bean" ) ) }, SCHEMA );
     }
 
     @SuppressWarnings({ "unchecked", "rawtypes" })
     @Override
     public ExplicitCacheEntry<?, ?> read(final ByteBuffer buffer) {
-        Object id = DecoratedKryo.readPropertyValue( kryo, cachedProperties[0], buffer ); // key
-        Integer version = (Integer) DecoratedKryo.readPropertyValue( kryo, cachedProperties[1], buffer ); // version
-        Object routing = DecoratedKryo.readPropertyValue( kryo, cachedProperties[2], buffer ); // routing
-        Object bean = DecoratedKryo.readPropertyValue( kryo, cachedProperties[3], buffer ); // bean
+        ByteBuffer source = skipOffsetTable( buffer );
+        Object id = DecoratedKryo.readPropertyValue( kryo, cachedProperties[0], source ); // key
+        Integer version = (Integer) DecoratedKryo.readPropertyValue( kryo, cachedProperties[1], source ); // version
+        Object routing = DecoratedKryo.readPropertyValue( kryo, cachedProperties[2], source ); // routing
+        Object bean = DecoratedKryo.readPropertyValue( kryo, cachedProperties[3], source ); // bean
 
         return new ExplicitCacheEntry( id, bean ).withRouting( routing ).withVersion( version );
     }
@@ -62,18 +65,18 @@ public final class ExplicitCacheEntrySerializer extends MatchingSerializer<Expli
         Object routing = object.getRouting();
         Object bean = object.getBean();
 
-        DecoratedKryo.writePropertyValue( kryo, cachedProperties[0], id, buffer ); // key
-        DecoratedKryo.writePropertyValue( kryo, cachedProperties[1], version, buffer ); // version
-        DecoratedKryo.writePropertyValue( kryo, cachedProperties[2], routing, buffer ); // routing
-        DecoratedKryo.writePropertyValue( kryo, cachedProperties[3], bean, buffer ); // bean
+        int table = writeOffsetTable( buffer );
+        writeProperty( buffer, table, 0, id ); // key
+        writeProperty( buffer, table, 1, version ); // version
+        writeProperty( buffer, table, 2, routing ); // routing
+        writeProperty( buffer, table, 3, bean ); // bean
+        completeOffsetTable( buffer, table );
     }
 
     @Override
     public Object readID(final ByteBuffer buffer) {
         buffer.clear();
-        Object id = DecoratedKryo.readPropertyValue( kryo, cachedProperties[0], buffer ); // key
-        buffer.clear();
-        return id;
+        return readPropertyValue( buffer, 0 ); // key
     }
 
     @Override
@@ -0,0 +1,226 @@
+/**
+ * Copyright (C) 2011-2012 Andrey Borisov <aandrey.borisov@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turbospaces.serialization;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import com.turbospaces.core.EffectiveMemoryManager;
+
+/**
+ * per-entry field offset table written in front of serialized properties by {@link MatchingSerializer}s. The layout
+ * is:
+ *
+ * <pre>
+ * [width:1 byte][offset(1)...offset(n-1): width bytes each][property(0)...property(n-1)]
+ * </pre>
+ *
+ * where each offset is the position of property relative to the start of properties block (offset of the first
+ * property is always 0 and not stored) and width is the smallest of 1/2/4 bytes capable to represent the length of
+ * properties block. This allows to jump directly to particular property (for matching, id extraction and index
+ * maintenance) without decoding all preceding properties.</p>
+ *
+ * The table is reserved with 4 bytes per offset at the beginning of write and compacted at the end of write once the
+ * actual size is known.
+ *
+ * @since 0.1
+ */
+final class FieldOffsetTable {
+    private static final int MAX_WIDTH = 4;
+
+    private FieldOffsetTable() {}
+
+    /**
+     * reserve space for offset table of maximum width at the current position of buffer.
+     *
+     * @param buffer
+     *            target buffer
+     * @param n
+     *            number of properties
+     * @return position of the table (the beginning of entry)
+     */
+    static int reserve(final ByteBuffer buffer,
+                       final int n) {
+        int table = buffer.position();
+        int dataStart = dataStart( table, n, MAX_WIDTH );
+        if ( dataStart > buffer.limit() )
+            throw new BufferOverflowException();
+        buffer.put( table, (byte) MAX_WIDTH );
+        buffer.position( dataStart );
+        return table;
+    }
+
+    /**
+     * remember the current position of buffer as the start of property with given index.
+     *
+     * @param buffer
+     *            target buffer
+     * @param table
+     *            table position
+     * @param n
+     *            number of properties
+     * @param index
+     *            property index
+     */
+    static void mark(final ByteBuffer buffer,
+                     final int table,
+                     final int n,
+                     final int index) {
+        if ( index > 0 )
+            buffer.putInt( table + 1 + ( index - 1 ) * MAX_WIDTH, buffer.position() - dataStart( table, n, MAX_WIDTH ) );
+    }
+
+    /**
+     * shrink the offset table to the minimal width (moving properties block left) after all properties have been
+     * written, buffer's position is adjusted to the end of entry.
+     *
+     * @param buffer
+     *            target buffer
+     * @param table
+     *            table position
+     * @param n
+     *            number of properties
+     */
+    static void compact(final ByteBuffer buffer,
+                        final int table,
+                        final int n) {
+        int dataStart = dataStart( table, n, MAX_WIDTH );
+        int length = buffer.position() - dataStart;
+        int width = length <= 0xFF ? 1 : ( length <= 0xFFFF ? 2 : MAX_WIDTH );
+        if ( width == MAX_WIDTH )
+            return;
+
+        // narrow offsets in-place, the target slot never overlaps not yet read wider slots
+        for ( int i = 1; i < n; i++ ) {
+            int offset = buffer.getInt( table + 1 + ( i - 1 ) * MAX_WIDTH );
+            int slot = table + 1 + ( i - 1 ) * width;
+            if ( width == 1 )
+                buffer.put( slot, (byte) offset );
+            else
+                buffer.putShort( slot, (short) offset );
+        }
+        buffer.put( table, (byte) width );
+
+        int target = dataStart( table, n, width );
+        if ( buffer.hasArray() ) {
+            byte[] array = buffer.array();
+            System.arraycopy( array, buffer.arrayOffset() + dataStart, array, buffer.arrayOffset() + target, length );
+        }
+        else
+            for ( int i = 0; i < length; i++ )
+                buffer.put( target + i, buffer.get( dataStart + i ) );
+        buffer.position( target + length );
+    }
+
+    /**
+     * skip the offset table of entry starting at the current position of buffer.
+     *
+     * @param buffer
+     *            source buffer
+     * @param n
+     *            number of properties
+     */
+    static void skip(final ByteBuffer buffer,
+                     final int n) {
+        int table = buffer.position();
+        buffer.position( dataStart( table, n, buffer.get( table ) ) );
+    }
+
+    /**
+     * position buffer at the start of property with given index.
+     *
+     * @param buffer
+     *            source buffer
+     * @param table
+     *            table position (the beginning of entry)
+     * @param n
+     *            number of properties
+     * @param index
+     *            property index
+     */
+    static void seek(final ByteBuffer buffer,
+                     final int table,
+                     final int n,
+                     final int index) {
+        buffer.position( position( buffer, table, n, index ) );
+    }
+
+    /**
+     * read the absolute position of property with given index.
+     *
+     * @param buffer
+     *            source buffer
+     * @param table
+     *            table position (the beginning of entry)
+     * @param n
+     *            number of properties
+     * @param index
+     *            property index
+     * @return absolute position of property within buffer
+     */
+    static int position(final ByteBuffer buffer,
+                        final int table,
+                        final int n,
+                        final int index) {
+        int width = buffer.get( table );
+        int offset = 0;
+        if ( index > 0 ) {
+            int slot = table + 1 + ( index - 1 ) * width;
+            if ( width == 1 )
+                offset = buffer.get( slot ) & 0xFF;
+            else if ( width == 2 )
+                offset = buffer.getShort( slot ) & 0xFFFF;
+            else
+                offset = buffer.getInt( slot );
+        }
+        return dataStart( table, n, width ) + offset;
+    }
+
+    /**
+     * read the position of property with given index directly from off-heap memory (relative to the beginning of
+     * entry).
+     *
+     * @param memoryManager
+     *            off-heap memory manager
+     * @param address
+     *            address of the beginning of entry
+     * @param n
+     *            number of properties
+     * @param index
+     *            property index
+     * @return position of property relative to address
+     */
+    static int position(final EffectiveMemoryManager memoryManager,
+                        final long address,
+                        final int n,
+                        final int index) {
+        int width = memoryManager.getByte( address );
+        int offset = 0;
+        if ( index > 0 ) {
+            // table is written in big-endian order by byte buffer
+            long slot = address + 1 + ( index - 1 ) * width;
+            for ( int i = 0; i < width; i++ )
+                offset = ( offset << 8 ) | ( memoryManager.getByte( slot + i ) & 0xFF );
+        }
+        return dataStart( 0, n, width ) + offset;
+    }
+
+    private static int dataStart(final int table,
+                                 final int n,
+                                 final int width) {
+        return table + 1 + ( n - 1 ) * width;
+    }
+}
@@ -17,14 +17,21 @@ package com.turbospaces.serialization;
 
 import java.nio.ByteBuffer;
 
+import com.esotericsoftware.kryo.SerializationException;
 import com.esotericsoftware.kryo.serialize.SimpleSerializer;
 import com.google.common.base.Preconditions;
-import com.turbospaces.core.JVMUtil;
 import com.turbospaces.model.CacheStoreEntryWrapper;
+import com.turbospaces.model.EntityAggregation;
+import com.turbospaces.model.EntityQuery;
+import com.turbospaces.model.EntityTemplate;
 
 /**
  * marker class - meaning that this serialized understands the concept of ID and can read the id property from buffer in
- * a fast manner as well as perform matching(like java spaces template matching).
+ * a fast manner as well as perform matching(like java spaces template matching). </p>
+ * 
+ * entries are written with schema fingerprint(4 bytes, see {@link EntitySchema}) and {@link FieldOffsetTable} in
+ * front of properties, so that single property can be read without decoding all preceding properties and entries
+ * written with another version of schema can be recognized.
  * 
  * @since 0.1
  * 
@@ -32,20 +39,22 @@ import com.turbospaces.model.CacheStoreEntryWrapper;
  *            value type
  */
 public abstract class MatchingSerializer<V> extends SimpleSerializer<V> {
-    private static boolean DEFAULT_BOOLEAN;
-    private static byte DEFAULT_BYTE;
-    private static short DEFAULT_SHORT;
-    private static int DEFAULT_INT;
-    private static long DEFAULT_LONG;
-    private static float DEFAULT_FLOAT;
-    private static double DEFAULT_DOUBLE;
+    /**
+     * size of schema fingerprint written in front of field offset table
+     */
+    static final int HEADER = 4;
 
     final DecoratedKryo kryo;
     final CachedSerializationProperty[] cachedProperties;
+    final EntitySchema schema;
+    final int fingerprint;
 
-    MatchingSerializer(final DecoratedKryo kryo, final CachedSerializationProperty[] cachedProperties) {
+    MatchingSerializer(final DecoratedKryo kryo, final CachedSerializationProperty[] cachedProperties, final EntitySchema schema) {
         this.kryo = Preconditions.checkNotNull( kryo );
         this.cachedProperties = Preconditions.checkNotNull( cachedProperties );
+        this.schema = Preconditions.checkNotNull( schema );
+        this.fingerprint = schema.getFingerprint();
+        Preconditions.checkArgument( schema.size() == cachedProperties.length, "schema doesn't match properties" );
     }
 
     /**
@@ -68,8 +77,8 @@ public abstract class MatchingSerializer<V> extends SimpleSerializer<V> {
      * 
      * if the match is happening, then construct new entity and return shallow copy of matched entity.</p>
      * 
-     * <strong>NOTE:</strong> you should be very careful with primitive types and default values as this it not handled
-     * at the time at all.
+     * <strong>NOTE:</strong> <code>null</code> and primitive properties of template are treated as 'match any', use
+     * {@link #compile(EntityTemplate)} in order to match primitive properties or <code>null</code> values explicitly.
      * 
      * @param cacheEntryTemplate
      *            matching template
@@ -79,62 +88,221 @@ public abstract class MatchingSerializer<V> extends SimpleSerializer<V> {
      */
     public final boolean matches(final ByteBuffer buffer,
                                  final CacheStoreEntryWrapper cacheEntryTemplate) {
+        return compile( cacheEntryTemplate ).matches( buffer );
+    }
+
+    /**
+     * compile template into matcher which compares template values with entitie's encoded properties directly. this is
+     * preferred way of matching multiple entries against the same template because template values are serialized
+     * only once.
+     * 
+     * @param cacheEntryTemplate
+     *            matching template
+     * @return compiled template
+     */
+    public final TemplateMatcher compile(final CacheStoreEntryWrapper cacheEntryTemplate) {
+        return TemplateMatcher.byExample( this, cacheEntryTemplate.asPropertyValuesArray() );
+    }
+
+    /**
+     * compile typed template with explicit per-property predicates into matcher.
+     * 
+     * @param template
+     *            typed template
+     * @return compiled template
+     * @throws IllegalArgumentException
+     *             if template refers to unknown property or value can't be assigned to property
+     */
+    public final TemplateMatcher compile(final EntityTemplate template) {
+        Preconditions.checkArgument(
+                template.getType() == getType(),
+                "template of %s can't be matched against %s",
+                template.getType().getName(),
+                getType().getName() );
+        return TemplateMatcher.of( this, template );
+    }
+
+    /**
+     * compile query into collector of matched entries (ordering, cursor, offset and limit are applied by collector).
+     * 
+     * @param query
+     *            query
+     * @return new collector
+     * @throws IllegalArgumentException
+     *             if query refers to unknown or non-comparable property or cursor doesn't match query's ordering
+     */
+    public final QueryCollector compile(final EntityQuery query) {
+        Preconditions.checkArgument(
+                query.getType() == getType(),
+                "query of %s can't be executed against %s",
+                query.getType().getName(),
+                getType().getName() );
+        return new QueryCollector( this, query );
+    }
+
+    /**
+     * compile aggregation into aggregator of matched entries.
+     * 
+     * @param aggregation
+     *            aggregation
+     * @return new aggregator
+     * @throws IllegalArgumentException
+     *             if aggregation refers to unknown property or property type doesn't suit aggregate function
+     */
+    public final Aggregator compile(final EntityAggregation aggregation) {
+        Preconditions.checkArgument(
+                aggregation.getType() == getType(),
+                "aggregation of %s can't be executed against %s",
+                aggregation.getType().getName(),
+                getType().getName() );
+        return new Aggregator( this, aggregation );
+    }
+
+    /**
+     * read the value of single property from byte array(buffer) source without de-serializing other properties (using
+     * field offset table). buffer is expected to contain exactly one entry starting at position 0.
+     * 
+     * @param buffer
+     *            byte array source
+     * @param index
+     *            index of property (in the same order as properties are serialized)
+     * @return property value
+     */
+    public final Object readPropertyValue(final ByteBuffer buffer,
+                                          final int index) {
+        ByteBuffer source = currentSchema( buffer );
+        FieldOffsetTable.seek( source, HEADER, cachedProperties.length, index );
+        Object value = DecoratedKryo.readPropertyValue( kryo, cachedProperties[index], source );
         buffer.clear();
-        Object[] values = new Object[cachedProperties.length];
-        Object[] templateValues = cacheEntryTemplate.asPropertyValuesArray();
-        boolean matches = true;
-        for ( int i = 0, n = cachedProperties.length; i < n; i++ ) {
-            CachedSerializationProperty cachedProperty = cachedProperties[i];
-            Object templateValue = templateValues[i];
-            Object value = DecoratedKryo.readPropertyValue( kryo, cachedProperty, buffer );
-            values[i] = value;
-            Class<?> propertyType = cachedProperty.getPropertyType();
-
-            if ( templateValue != null )
-                if ( propertyType.isPrimitive() ) {
-                    if ( propertyType.equals( boolean.class ) ) {
-                        boolean b = (Boolean) templateValue;
-                        if ( b != DEFAULT_BOOLEAN )
-                            matches = ( b == ( (Boolean) templateValue ) );
-                    }
-                    else if ( propertyType.equals( byte.class ) ) {
-                        byte b = (Byte) templateValue;
-                        if ( b != DEFAULT_BYTE )
-                            matches = ( b == ( (Byte) templateValue ) );
-                    }
-                    else if ( propertyType.equals( short.class ) ) {
-                        short s = (Short) templateValue;
-                        if ( s != DEFAULT_SHORT )
-                            matches = ( s == ( (Short) templateValue ) );
-                    }
-                    else if ( propertyType.equals( int.class ) ) {
-                        int ii = (Integer) templateValue;
-                        if ( ii != DEFAULT_INT )
-                            matches = ( ii == ( (Integer) templateValue ) );
-                    }
-                    else if ( propertyType.equals( long.class ) ) {
-                        long l = (Long) templateValue;
-                        if ( l != DEFAULT_LONG )
-                            matches = ( l == ( (Long) templateValue ) );
-                    }
-                    else if ( propertyType.equals( float.class ) ) {
-                        float f = (Float) templateValue;
-                        if ( f != DEFAULT_FLOAT )
-                            matches = ( f == ( (Float) templateValue ) );
-                    }
-                    else if ( propertyType.equals( double.class ) ) {
-                        double d = (Double) templateValue;
-                        if ( d != DEFAULT_DOUBLE )
-                            matches = ( d == ( (Double) templateValue ) );
-                    }
-                }
-                else
-                    matches = JVMUtil.equals( templateValue, value );
-
-            if ( !matches )
-                break;
+        return value;
+    }
+
+    /**
+     * read the values of given properties only from byte array(buffer) source (projection). other properties are
+     * skipped using field offset table. buffer is expected to contain exactly one entry starting at position 0.
+     * 
+     * @param buffer
+     *            byte array source
+     * @param indexes
+     *            indexes of properties (in the same order as properties are serialized)
+     * @return property values in the same order as indexes
+     */
+    public final Object[] readPropertyValues(final ByteBuffer buffer,
+                                             final int[] indexes) {
+        ByteBuffer source = currentSchema( buffer );
+        Object[] values = new Object[indexes.length];
+        for ( int i = 0; i < indexes.length; i++ ) {
+            FieldOffsetTable.seek( source, HEADER, cachedProperties.length, indexes[i] );
+            values[i] = DecoratedKryo.readPropertyValue( kryo, cachedProperties[indexes[i]], source );
         }
         buffer.clear();
-        return matches;
+        return values;
+    }
+
+    /**
+     * @return the current schema of entity
+     */
+    public final EntitySchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * @return fingerprint of the schema entries are written with
+     */
+    public final int getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * check whether entry starting at position 0 of byte buffer is written with the current schema.
+     * 
+     * @param buffer
+     *            serialized entry
+     * @return true if entry doesn't need migration
+     */
+    public final boolean isCurrentSchema(final ByteBuffer buffer) {
+        return buffer.getInt( 0 ) == fingerprint;
+    }
+
+    /**
+     * re-write entry written with another (registered) schema using the current schema. entry is read from the current
+     * position of buffer and buffer's position is moved to the end of entry.
+     * 
+     * @param buffer
+     *            serialized entry
+     * @return entry in the current schema
+     * @throws SerializationException
+     *             if schema of entry is unknown
+     */
+    public byte[] migrate(final ByteBuffer buffer) {
+        throw unknownSchema( buffer.getInt( buffer.position() ) );
+    }
+
+    /**
+     * @return entry starting at position 0 of buffer in the current schema (buffer itself or migrated copy)
+     */
+    @SuppressWarnings("javadoc")
+    final ByteBuffer currentSchema(final ByteBuffer buffer) {
+        if ( isCurrentSchema( buffer ) )
+            return buffer;
+        buffer.clear();
+        ByteBuffer migrated = ByteBuffer.wrap( migrate( buffer ) );
+        buffer.clear();
+        return migrated;
+    }
+
+    final SerializationException unknownSchema(final int entryFingerprint) {
+        return new SerializationException( String.format(
+                "entry of %s has been written with unknown schema (fingerprint=%s), register schema in order to read it",
+                getType().getName(),
+                entryFingerprint ) );
+    }
+
+    /**
+     * write schema fingerprint and reserve field offset table in front of properties.
+     * 
+     * @param buffer
+     *            target buffer
+     * @return position of field offset table
+     */
+    final int writeOffsetTable(final ByteBuffer buffer) {
+        buffer.putInt( fingerprint );
+        return FieldOffsetTable.reserve( buffer, cachedProperties.length );
+    }
+
+    /**
+     * write property value and remember it's offset.
+     */
+    @SuppressWarnings("javadoc")
+    final void writeProperty(final ByteBuffer buffer,
+                             final int table,
+                             final int index,
+                             final Object value) {
+        FieldOffsetTable.mark( buffer, table, cachedProperties.length, index );
+        DecoratedKryo.writePropertyValue( kryo, cachedProperties[index], value, buffer );
+    }
+
+    /**
+     * finish entry writing (compact field offset table).
+     */
+    @SuppressWarnings("javadoc")
+    final void completeOffsetTable(final ByteBuffer buffer,
+                                   final int table) {
+        FieldOffsetTable.compact( buffer, table, cachedProperties.length );
+    }
+
+    /**
+     * skip schema fingerprint and field offset table before sequential reading of properties. entry (top-level or
+     * nested into another entity) written with another schema is migrated first, buffer's position is moved to the end
+     * of entry in this case.
+     * 
+     * @return buffer to read properties from (buffer itself or migrated copy)
+     */
+    @SuppressWarnings("javadoc")
+    final ByteBuffer skipOffsetTable(final ByteBuffer buffer) {
+        ByteBuffer source = buffer.getInt( buffer.position() ) == fingerprint ? buffer : ByteBuffer.wrap( migrate( buffer ) );
+        source.position( source.position() + HEADER );
+        FieldOffsetTable.skip( source, cachedProperties.length );
+        return source;
     }
 }
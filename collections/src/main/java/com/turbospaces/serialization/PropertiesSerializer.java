@@ -15,11 +15,24 @@
  */
 package com.turbospaces.serialization;
 
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.springframework.data.mapping.PersistentProperty;
 
+import com.esotericsoftware.kryo.SerializationException;
+import com.esotericsoftware.kryo.Serializer;
+import com.google.common.base.Defaults;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.primitives.Primitives;
+
+import com.turbospaces.core.EffectiveMemoryManager;
+import com.turbospaces.core.UnsafeMemoryManager;
 import com.turbospaces.model.BO;
 import com.turbospaces.model.CacheStoreEntryWrapper;
 
@@ -27,13 +40,19 @@ import com.turbospaces.model.CacheStoreEntryWrapper;
  * Optimized/customized version of kryo's FieldSerializer, basically doing almost the same stuff, but with some
  * customization for reflection and spring-data's properties bindings as well as template matching. </p>
  * 
- * This class allows you to do template matching over all fields and is compatible with type safe specifications.
+ * This class allows you to do template matching over all fields and is compatible with type safe specifications.</p>
+ * 
+ * Entities written with another version of persistent class (see {@link EntitySchema}) can be read once the schema of
+ * that version is registered via {@link #registerSchema(EntitySchema)}.
  * 
  * @since 0.1
  */
 @SuppressWarnings("rawtypes")
 public final class PropertiesSerializer extends MatchingSerializer {
     private final BO entityMetadata;
+    private BytecodeSerializer bytecodeSerializer;
+    private final Object[] defaultValues;
+    private final ConcurrentMap<Integer, CompatibleReader> compatibleReaders = new ConcurrentHashMap<Integer, CompatibleReader>();
 
     /**
      * create new properties serialized with the provided entity meta-data information.
@@ -44,46 +63,268 @@ public final class PropertiesSerializer extends MatchingSerializer {
      *            class meta data provider
      */
     public PropertiesSerializer(final DecoratedKryo kryo, final BO entityMetadata) {
+        this( kryo, entityMetadata, false );
+    }
+
+    /**
+     * create new properties serialized with the provided entity meta-data information and optionally generate
+     * bytecode serializer for reading/writing entities (if entity follows java beans conventions).
+     * 
+     * @param kryo
+     *            kryo serialization provider
+     * @param entityMetadata
+     *            class meta data provider
+     * @param generateBytecode
+     *            whether to generate bytecode serializer
+     * @see BytecodeSerializerGenerator
+     */
+    public PropertiesSerializer(final DecoratedKryo kryo, final BO entityMetadata, final boolean generateBytecode) {
+        this( kryo, entityMetadata, generateBytecode, new UnsafeMemoryManager() );
+    }
+
+    /**
+     * create new properties serializer and allocate strings dictionaries of dictionary encoded properties via the given
+     * off-heap memory manager (dictionaries must be released via {@link #destroy()}).
+     * 
+     * @param kryo
+     *            kryo serialization provider
+     * @param entityMetadata
+     *            class meta data provider
+     * @param generateBytecode
+     *            whether to generate bytecode serializer
+     * @param memoryManager
+     *            off-heap memory manager of strings dictionaries
+     */
+    public PropertiesSerializer(final DecoratedKryo kryo,
+                                final BO entityMetadata,
+                                final boolean generateBytecode,
+                                final EffectiveMemoryManager memoryManager) {
         super( kryo, new ArrayList<CachedSerializationProperty>( entityMetadata.getOrderedProperties().length ) {
             private static final long serialVersionUID = 1L;
 
             {
                 PersistentProperty[] orderedProperties = entityMetadata.getOrderedProperties();
-                for ( PersistentProperty orderedProperty : orderedProperties )
-                    add( new CachedSerializationProperty( orderedProperty.getType(), orderedProperty.getField() ) );
+                for ( PersistentProperty orderedProperty : orderedProperties ) {
+                    CachedSerializationProperty property = new CachedSerializationProperty( orderedProperty.getType(), orderedProperty.getField() );
+                    if ( entityMetadata.isDictionaryEncoded( orderedProperty ) )
+                        property.setSerializer( new DictionarySerializer( kryo, new StringDictionary( memoryManager ) ) );
+                    add( property );
+                }
             }
-        }.toArray( new CachedSerializationProperty[entityMetadata.getOrderedProperties().length] ) );
+        }.toArray( new CachedSerializationProperty[entityMetadata.getOrderedProperties().length] ), EntitySchema.of( entityMetadata ) );
         this.entityMetadata = entityMetadata;
+        this.defaultValues = new Object[cachedProperties.length];
+        for ( int i = 0; i < cachedProperties.length; i++ )
+            defaultValues[i] = Defaults.defaultValue( cachedProperties[i].getPropertyType() );
+        if ( generateBytecode )
+            this.bytecodeSerializer = BytecodeSerializerGenerator.generate( kryo, entityMetadata, cachedProperties );
+    }
+
+    /**
+     * @return true if bytecode serializer has been generated and is used for reading/writing entities
+     */
+    public boolean isBytecodeGenerated() {
+        return bytecodeSerializer != null;
+    }
+
+    /**
+     * register another(previous or next) version of entity's schema, so that entities written by nodes running
+     * another version of persistent class can be read and migrated to the current schema. Properties are matched by
+     * name, properties which are missing in the current schema (or changed type) are ignored, new properties get
+     * default values.
+     * 
+     * @param otherSchema
+     *            schema of another version of persistent class
+     */
+    public void registerSchema(final EntitySchema otherSchema) {
+        if ( otherSchema.getFingerprint() != fingerprint )
+            compatibleReaders.put( otherSchema.getFingerprint(), new CompatibleReader( otherSchema ) );
+    }
+
+    @Override
+    public byte[] migrate(final ByteBuffer buffer) {
+        Object[] values = readCompatibleValues( buffer );
+        for ( int capacity = Math.max( 2 * buffer.capacity(), 1024 );; capacity <<= 1 )
+            try {
+                ByteBuffer target = ByteBuffer.allocate( capacity );
+                int table = writeOffsetTable( target );
+                for ( int i = 0, n = cachedProperties.length; i < n; i++ )
+                    writeProperty( target, table, i, values[i] );
+                completeOffsetTable( target, table );
+
+                byte[] bytes = new byte[target.position()];
+                System.arraycopy( target.array(), 0, bytes, 0, bytes.length );
+                return bytes;
+            }
+            catch ( BufferOverflowException e ) {
+                // retry with larger buffer
+            }
+            catch ( SerializationException e ) {
+                // nested serializers may wrap buffer overflow
+                if ( !( Throwables.getRootCause( e ) instanceof BufferOverflowException ) )
+                    throw e;
+            }
+    }
+
+    /**
+     * read property values of entry written with another schema (in the order of the current schema).
+     */
+    private Object[] readCompatibleValues(final ByteBuffer buffer) {
+        int entryFingerprint = buffer.getInt();
+        CompatibleReader reader = compatibleReaders.get( entryFingerprint );
+        if ( reader == null )
+            throw unknownSchema( entryFingerprint );
+        FieldOffsetTable.skip( buffer, reader.properties.length );
+
+        Object[] values = defaultValues.clone();
+        for ( int j = 0; j < reader.properties.length; j++ ) {
+            Object value = DecoratedKryo.readPropertyValue( kryo, reader.properties[j], buffer );
+            int i = reader.targets[j];
+            if ( i >= 0 && ( value == null ? cachedProperties[i].canBeNull() : Primitives.wrap( cachedProperties[i].getPropertyType() ).isInstance( value ) ) )
+                values[i] = value;
+        }
+        return values;
+    }
+
+    /**
+     * @return true if at least one property is dictionary encoded
+     * @see org.springframework.data.annotation.Dictionary
+     */
+    public boolean isDictionaryEncoded() {
+        for ( CachedSerializationProperty cachedProperty : cachedProperties )
+            if ( cachedProperty.getSerializer() instanceof DictionarySerializer )
+                return true;
+        return false;
+    }
+
+    /**
+     * release off-heap memory occupied by strings dictionaries of dictionary encoded properties.
+     */
+    public void destroy() {
+        for ( CachedSerializationProperty cachedProperty : cachedProperties )
+            if ( cachedProperty.getSerializer() instanceof DictionarySerializer )
+                ( (DictionarySerializer) cachedProperty.getSerializer() ).getDictionary().destroy();
+    }
+
+    /**
+     * get the strings dictionary of dictionary encoded property (for example in order to persist it).
+     * 
+     * @param propertyName
+     *            persistent property name
+     * @return strings dictionary
+     * @throws IllegalArgumentException
+     *             if property is not dictionary encoded
+     */
+    public StringDictionary getDictionary(final String propertyName) {
+        Serializer serializer = cachedProperties[entityMetadata.getPropertyIndex( propertyName )].getSerializer();
+        Preconditions.checkArgument( serializer instanceof DictionarySerializer, "%s is not dictionary encoded", propertyName );
+        return ( (DictionarySerializer) serializer ).getDictionary();
+    }
+
+    /**
+     * convert serialized entity (starting at position 0) into portable form - dictionary encoded properties are
+     * re-written inline, so that the entity can be read by other nodes (with different dictionaries). Other properties
+     * are copied as is.
+     * 
+     * @param buffer
+     *            serialized entity
+     * @return portable form of entity
+     */
+    public byte[] toPortable(final ByteBuffer buffer) {
+        return toPortable( buffer, null );
+    }
+
+    /**
+     * convert serialized entity (starting at position 0) into portable projection - the same as
+     * {@link #toPortable(ByteBuffer)}, but only given properties are transferred, other properties are written as
+     * <code>null</code> (primitives are copied as is), so that projection can be read by
+     * {@link #readPropertyValues(ByteBuffer, int[])} on other nodes.
+     * 
+     * @param buffer
+     *            serialized entity
+     * @param indexes
+     *            indexes of properties to transfer (<code>null</code> means all properties)
+     * @return portable projection of entity
+     */
+    public byte[] toPortable(final ByteBuffer buffer,
+                             final int[] indexes) {
+        ByteBuffer source = currentSchema( buffer );
+        int n = cachedProperties.length;
+        boolean[] skipped = new boolean[n];
+        if ( indexes != null ) {
+            Arrays.fill( skipped, true );
+            for ( int index : indexes )
+                skipped[index] = false;
+        }
+        String[] values = new String[n];
+        int capacity = source.limit();
+        for ( int i = 0; i < n; i++ )
+            if ( !skipped[i] && cachedProperties[i].getSerializer() instanceof DictionarySerializer ) {
+                values[i] = (String) readPropertyValue( source, i );
+                if ( values[i] != null )
+                    capacity += 3 * values[i].length() + 10;
+            }
+
+        ByteBuffer target = ByteBuffer.allocate( capacity + 4 * n + HEADER );
+        int table = writeOffsetTable( target );
+        for ( int i = 0; i < n; i++ ) {
+            FieldOffsetTable.mark( target, table, n, i );
+            int start = FieldOffsetTable.position( source, HEADER, n, i );
+            int end = i + 1 < n ? FieldOffsetTable.position( source, HEADER, n, i + 1 ) : source.limit();
+            if ( skipped[i] && cachedProperties[i].canBeNull() )
+                DecoratedKryo.writePropertyValue( kryo, cachedProperties[i], null, target );
+            else if ( values[i] != null ) {
+                // not-null marker and then inline string
+                target.put( source.get( start ) );
+                DictionarySerializer.writeInline( target, values[i] );
+            }
+            else
+                for ( int j = start; j < end; j++ )
+                    target.put( source.get( j ) );
+        }
+        completeOffsetTable( target, table );
+        buffer.clear();
+
+        byte[] bytes = new byte[target.position()];
+        System.arraycopy( target.array(), 0, bytes, 0, bytes.length );
+        return bytes;
     }
 
     @Override
     public void write(final ByteBuffer buffer,
                       final Object object) {
-        CacheStoreEntryWrapper cacheEntry = null;
-        if ( !( object instanceof CacheStoreEntryWrapper ) )
-            cacheEntry = CacheStoreEntryWrapper.writeValueOf( entityMetadata, object );
-
-        final Object[] bulkPropertyValues = ( cacheEntry == null ? (CacheStoreEntryWrapper) object : cacheEntry ).asPropertyValuesArray();
-        for ( int i = 0, n = cachedProperties.length; i < n; i++ ) {
-            CachedSerializationProperty cachedProperty = cachedProperties[i];
-            Object value = bulkPropertyValues[i];
-            DecoratedKryo.writePropertyValue( kryo, cachedProperty, value, buffer );
+        final int table = writeOffsetTable( buffer );
+        if ( bytecodeSerializer != null ) {
+            Object bean = object instanceof CacheStoreEntryWrapper ? ( (CacheStoreEntryWrapper) object ).getBean() : object;
+            if ( bean != null ) {
+                bytecodeSerializer.write( buffer, bean, table );
+                completeOffsetTable( buffer, table );
+                return;
+            }
         }
+
+        // there is no need to wrap plain bean (and extract id/version/routing) just to get property values
+        final Object[] bulkPropertyValues = object instanceof CacheStoreEntryWrapper ? ( (CacheStoreEntryWrapper) object )
+                .asPropertyValuesArray() : entityMetadata.getBulkPropertyValues( object, new Object[cachedProperties.length] );
+        for ( int i = 0, n = cachedProperties.length; i < n; i++ )
+            writeProperty( buffer, table, i, bulkPropertyValues[i] );
+        completeOffsetTable( buffer, table );
     }
 
     @Override
     public Object readID(final ByteBuffer buffer) {
-        final CachedSerializationProperty idProperty = cachedProperties[BO.getIdIndex()];
-        Object id = DecoratedKryo.readPropertyValue( kryo, idProperty, buffer );
         buffer.clear();
-        return id;
+        return readPropertyValue( buffer, BO.getIdIndex() );
     }
 
     @Override
     public Object read(final ByteBuffer buffer) {
+        ByteBuffer source = skipOffsetTable( buffer );
+        if ( bytecodeSerializer != null )
+            return bytecodeSerializer.read( source );
         final Object values[] = new Object[cachedProperties.length];
         for ( int i = 0, n = cachedProperties.length; i < n; i++ )
-            values[i] = DecoratedKryo.readPropertyValue( kryo, cachedProperties[i], buffer );
+            values[i] = DecoratedKryo.readPropertyValue( kryo, cachedProperties[i], source );
         return entityMetadata.setBulkPropertyValues( entityMetadata.newInstance(), values );
     }
 
@@ -94,7 +335,8 @@ public final class PropertiesSerializer extends MatchingSerializer {
      *            byte array pointer
      * @return de-serialized entry
      */
-    public SerializationEntry readToSerializedEntry(final ByteBuffer buffer) {
+    public SerializationEntry readToSerializedEntry(final ByteBuffer source) {
+        ByteBuffer buffer = skipOffsetTable( source );
         final Object values[] = new Object[cachedProperties.length];
         for ( int i = 0, n = cachedProperties.length; i < n; i++ )
             values[i] = DecoratedKryo.readPropertyValue( kryo, cachedProperties[i], buffer );
@@ -106,4 +348,36 @@ public final class PropertiesSerializer extends MatchingSerializer {
     public Class getType() {
         return entityMetadata.getOriginalPersistentEntity().getType();
     }
+
+    /**
+     * reads entries of another schema - maps properties of other schema to the properties of current schema by name.
+     */
+    private final class CompatibleReader {
+        private final CachedSerializationProperty[] properties;
+        private final int[] targets;
+
+        private CompatibleReader(final EntitySchema otherSchema) {
+            properties = new CachedSerializationProperty[otherSchema.size()];
+            targets = new int[otherSchema.size()];
+            for ( int j = 0; j < properties.length; j++ ) {
+                Class<?> type = otherSchema.propertyType( j );
+                int i = schema.indexOf( otherSchema.propertyName( j ) );
+                if ( i >= 0 && cachedProperties[i].getPropertyType() == type )
+                    // share serializer (and dictionary) with the current property
+                    properties[j] = cachedProperties[i];
+                else
+                    properties[j] = new CachedSerializationProperty( type, null );
+                targets[j] = i >= 0 && compatible( Primitives.wrap( cachedProperties[i].getPropertyType() ), Primitives.wrap( type ) ) ? i : -1;
+            }
+        }
+
+        /**
+         * property values can be potentially assigned if one type is sub-type of another (actual values are checked
+         * while reading).
+         */
+        private boolean compatible(final Class<?> currentType,
+                                   final Class<?> otherType) {
+            return currentType.isAssignableFrom( otherType ) || otherType.isAssignableFrom( currentType );
+        }
+    }
 }
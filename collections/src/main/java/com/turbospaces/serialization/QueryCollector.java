@@ -0,0 +1,206 @@
+/**
+ * Copyright (C) 2011-2012 Andrey Borisov <aandrey.borisov@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turbospaces.serialization;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
+import com.google.common.primitives.Primitives;
+import com.turbospaces.model.BO;
+import com.turbospaces.model.EntityQuery;
+
+/**
+ * {@link EntityQuery} compiled for particular {@link MatchingSerializer} - collects serialized entities matched by
+ * query's template and applies ordering, cursor, offset and limit on the fly:
+ * <ul>
+ * <li>unordered query - first <code>offset</code> entities are skipped, then entities are collected until
+ * <code>limit</code> is reached and {@link #offer(ByteBuffer)} asks to stop scanning</li>
+ * <li>ordered query - only ordering properties and unique identifier are de-serialized (via field offset table) and
+ * compared with cursor, the best <code>offset + limit</code> entities are kept in bounded max-heap, so the whole result
+ * is never sorted or materialized</li>
+ * </ul>
+ * The same collector can be used for merging of already ordered partition results.
+ * 
+ * @since 0.1
+ * @see MatchingSerializer#compile(EntityQuery)
+ */
+@NotThreadSafe
+public final class QueryCollector {
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static final Ordering<Object> NATURAL = (Ordering) Ordering.natural().nullsFirst();
+
+    private final MatchingSerializer<?> serializer;
+    private final TemplateMatcher matcher;
+    private final int offset, limit;
+    private final int[] keyIndexes;
+    private final boolean[] ascending;
+    private final Object[] cursor;
+    private final List<ByteBuffer> entries;
+    private final PriorityQueue<Row> best;
+    private final int capacity;
+    private final Comparator<Row> ordering = new Comparator<Row>() {
+        @Override
+        public int compare(final Row o1,
+                           final Row o2) {
+            return compareKeys( o1.keys, o2.keys );
+        }
+    };
+    private int skipped;
+
+    QueryCollector(final MatchingSerializer<?> serializer, final EntityQuery query) {
+        this.serializer = serializer;
+        this.matcher = serializer.compile( query.getTemplate() );
+        this.offset = query.getOffset();
+        this.limit = query.getLimit();
+        this.capacity = (int) Math.min( Integer.MAX_VALUE, (long) offset + limit );
+
+        if ( query.isOrdered() ) {
+            List<EntityQuery.Order> orderBy = query.getOrderBy();
+            keyIndexes = new int[orderBy.size() + 1];
+            ascending = new boolean[keyIndexes.length];
+            for ( int i = 0; i < orderBy.size(); i++ ) {
+                EntityQuery.Order order = orderBy.get( i );
+                int index = serializer.schema.indexOf( order.getProperty() );
+                Preconditions.checkArgument( index >= 0, "there is no property %s in %s", order.getProperty(), query.getType().getName() );
+                Class<?> propertyType = serializer.schema.propertyType( index );
+                Preconditions.checkArgument(
+                        Comparable.class.isAssignableFrom( Primitives.wrap( propertyType ) ),
+                        "property %s of type %s can't be used for ordering",
+                        order.getProperty(),
+                        propertyType.getName() );
+                keyIndexes[i] = index;
+                ascending[i] = order.isAscending();
+            }
+            // unique identifier makes the order total
+            keyIndexes[orderBy.size()] = BO.getIdIndex();
+            ascending[orderBy.size()] = true;
+            cursor = query.getCursor() == null ? null : query.getCursor().getKeys();
+            Preconditions.checkArgument(
+                    cursor == null || cursor.length == keyIndexes.length,
+                    "cursor %s doesn't match ordering %s",
+                    query.getCursor(),
+                    orderBy );
+            entries = null;
+            best = new PriorityQueue<Row>( Math.min( capacity, 1024 ), Collections.reverseOrder( ordering ) );
+        }
+        else {
+            Preconditions.checkArgument( query.getCursor() == null, "cursor paging requires ordering, query = %s", query );
+            keyIndexes = null;
+            ascending = null;
+            cursor = null;
+            entries = Lists.newArrayListWithCapacity( Math.min( limit, 1024 ) );
+            best = null;
+        }
+    }
+
+    /**
+     * @return compiled template of query (entries must be matched before offering)
+     */
+    public TemplateMatcher getMatcher() {
+        return matcher;
+    }
+
+    /**
+     * offer matched entry.
+     * 
+     * @param entry
+     *            serialized entry (starting at position 0)
+     * @return true if more entries are required, false if scanning can be stopped
+     */
+    public boolean offer(final ByteBuffer entry) {
+        if ( keyIndexes == null ) {
+            if ( skipped < offset ) {
+                skipped++;
+                return true;
+            }
+            if ( entries.size() == limit )
+                return false;
+            entries.add( entry );
+            return entries.size() < limit;
+        }
+
+        Object[] keys = serializer.readPropertyValues( entry, keyIndexes );
+        if ( cursor != null && compareKeys( keys, cursor ) <= 0 )
+            return true;
+        if ( best.size() < capacity )
+            best.add( new Row( keys, entry ) );
+        else if ( compareKeys( keys, best.peek().keys ) < 0 ) {
+            best.poll();
+            best.add( new Row( keys, entry ) );
+        }
+        return true;
+    }
+
+    /**
+     * @return collected entries in query's order (at most <code>limit</code> entries, <code>offset</code> is already
+     *         applied)
+     */
+    public ByteBuffer[] getResults() {
+        if ( keyIndexes == null )
+            return entries.toArray( new ByteBuffer[entries.size()] );
+        Row[] rows = sortedRows();
+        ByteBuffer[] results = new ByteBuffer[Math.max( 0, rows.length - offset )];
+        for ( int i = 0; i < results.length; i++ )
+            results[i] = rows[offset + i].entry;
+        return results;
+    }
+
+    /**
+     * @return cursor pointing to the last collected entry if the page is full and query is ordered, otherwise
+     *         <code>null</code>
+     */
+    public EntityQuery.Cursor getNextCursor() {
+        if ( keyIndexes == null || best.size() < capacity || best.size() <= offset )
+            return null;
+        // max-heap head is the last entry of the page
+        return EntityQuery.Cursor.valueOf( best.peek().keys );
+    }
+
+    private Row[] sortedRows() {
+        Row[] rows = best.toArray( new Row[best.size()] );
+        Arrays.sort( rows, ordering );
+        return rows;
+    }
+
+    private int compareKeys(final Object[] keys1,
+                            final Object[] keys2) {
+        for ( int i = 0; i < keyIndexes.length; i++ ) {
+            int c = NATURAL.compare( keys1[i], keys2[i] );
+            if ( c != 0 )
+                return ascending[i] ? c : -c;
+        }
+        return 0;
+    }
+
+    private static final class Row {
+        private final Object[] keys;
+        private final ByteBuffer entry;
+
+        private Row(final Object[] keys, final ByteBuffer entry) {
+            this.keys = keys;
+            this.entry = entry;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/**
+ * Copyright (C) 2011-2012 Andrey Borisov <aandrey.borisov@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turbospaces.serialization;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.turbospaces.core.EffectiveMemoryManager;
+
+/**
+ * append-only dictionary of strings which assigns sequential integer codes(starting from 0) to distinct strings. Strings
+ * themselves are stored in off-heap memory as <code>[hash:int][length:int][utf-8 bytes]</code> records, java heap
+ * holds only the addresses of records and open addressing hash table of codes.</p>
+ *
+ * Codes are assigned in the order of {@link #encode(String)} invocations, so the dictionary can be persisted as
+ * {@link #toArray()} and restored later by encoding the same strings in the same order.</p>
+ *
+ * Lookups and decoding are lock-free, new strings are added under lock.
+ *
+ * @since 0.1
+ */
+@ThreadSafe
+public final class StringDictionary {
+    private static final int HASH = 0;
+    private static final int LENGTH = 4;
+    private static final int DATA = 8;
+
+    private final EffectiveMemoryManager memoryManager;
+    private final Object monitor = new Object();
+    private volatile long[] addresses = new long[16];
+    private volatile int[] table = new int[32];
+    private volatile int size;
+
+    /**
+     * create new empty dictionary.
+     *
+     * @param memoryManager
+     *            off-heap memory manager
+     */
+    public StringDictionary(final EffectiveMemoryManager memoryManager) {
+        this.memoryManager = Preconditions.checkNotNull( memoryManager );
+    }
+
+    /**
+     * get the code of string adding string to the dictionary if necessary.
+     *
+     * @param value
+     *            string
+     * @return code of string
+     */
+    public int encode(final String value) {
+        int code = lookup( value );
+        if ( code >= 0 )
+            return code;
+
+        synchronized ( monitor ) {
+            byte[] bytes = value.getBytes( Charsets.UTF_8 );
+            code = find( value.hashCode(), bytes, size );
+            if ( code >= 0 )
+                return code;
+
+            code = size;
+            long address = memoryManager.allocateMemory( DATA + bytes.length );
+            memoryManager.putInt( address + HASH, value.hashCode() );
+            memoryManager.putInt( address + LENGTH, bytes.length );
+            memoryManager.writeBytesArray( address + DATA, bytes );
+
+            long[] a = addresses;
+            if ( code == a.length ) {
+                long[] copy = new long[a.length << 1];
+                System.arraycopy( a, 0, copy, 0, a.length );
+                a = copy;
+                addresses = copy;
+            }
+            a[code] = address;
+
+            int[] t = table;
+            if ( ( code + 1 ) << 1 > t.length ) {
+                t = new int[t.length << 1];
+                for ( int i = 0; i < code; i++ )
+                    insert( t, memoryManager.getInt( a[i] + HASH ), i );
+                insert( t, value.hashCode(), code );
+                table = t;
+            }
+            else
+                insert( t, value.hashCode(), code );
+
+            // publish new entry
+            size = code + 1;
+            return code;
+        }
+    }
+
+    /**
+     * get the code of string without adding string to the dictionary.
+     *
+     * @param value
+     *            string
+     * @return code of string or <code>-1</code> if there is no such string in dictionary
+     */
+    public int lookup(final String value) {
+        int n = size;
+        return n == 0 ? -1 : find( value.hashCode(), value.getBytes( Charsets.UTF_8 ), n );
+    }
+
+    /**
+     * read the string by code.
+     *
+     * @param code
+     *            string's code
+     * @return string value
+     * @throws IllegalArgumentException
+     *             if there is no such code in dictionary
+     */
+    public String decode(final int code) {
+        Preconditions.checkArgument( code >= 0 && code < size, "unknown dictionary code %s", code );
+        long address = addresses[code];
+        return new String( memoryManager.readBytesArray( address + DATA, memoryManager.getInt( address + LENGTH ) ), Charsets.UTF_8 );
+    }
+
+    /**
+     * @return number of distinct strings in dictionary
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return all strings of dictionary in the order of codes (this is persistent form of dictionary)
+     */
+    public String[] toArray() {
+        int n = size;
+        String[] values = new String[n];
+        for ( int i = 0; i < n; i++ )
+            values[i] = decode( i );
+        return values;
+    }
+
+    /**
+     * release off-heap memory occupied by dictionary's strings, dictionary is empty after this call.
+     */
+    public void destroy() {
+        synchronized ( monitor ) {
+            long[] a = addresses;
+            for ( int i = 0; i < size; i++ )
+                memoryManager.freeMemory( a[i] );
+            size = 0;
+            addresses = new long[16];
+            table = new int[32];
+        }
+    }
+
+    private int find(final int hash,
+                     final byte[] bytes,
+                     final int n) {
+        int[] t = table;
+        long[] a = addresses;
+        int mask = t.length - 1;
+        for ( int i = hash & mask;; i = ( i + 1 ) & mask ) {
+            int code = t[i] - 1;
+            // empty slot or entry which is not published yet
+            if ( code < 0 || code >= n )
+                return -1;
+            long address = a[code];
+            if ( memoryManager.getInt( address + HASH ) == hash && memoryManager.getInt( address + LENGTH ) == bytes.length
+                    && memoryManager.equalsBytesArray( address + DATA, bytes, 0, bytes.length ) )
+                return code;
+        }
+    }
+
+    private static void insert(final int[] t,
+                               final int hash,
+                               final int code) {
+        int mask = t.length - 1;
+        int i = hash & mask;
+        while ( t[i] != 0 )
+            i = ( i + 1 ) & mask;
+        t[i] = code + 1;
+    }
+}
@@ -0,0 +1,456 @@
+/**
+ * Copyright (C) 2011-2012 Andrey Borisov <aandrey.borisov@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turbospaces.serialization;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.concurrent.Immutable;
+
+import org.springframework.util.ClassUtils;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.turbospaces.core.EffectiveMemoryManager;
+import com.turbospaces.core.JVMUtil;
+import com.turbospaces.model.EntityTemplate;
+
+/**
+ * template compiled for particular {@link MatchingSerializer}. Template is a set of per-property conditions (property
+ * is equal to any of candidate values, optionally negated). Candidate values of strings, primitives, primitive wrappers
+ * and final enums are pre-serialized once and compared with entity's encoded property directly (using
+ * {@link FieldOffsetTable} to jump to the property), so there is no de-serialization, no boxing and no allocation per
+ * scanned entry. Dictionary encoded strings are pre-encoded as dictionary codes, so codes are compared instead of
+ * strings. Other values (collections, dates, arrays, user types) can't be safely compared in binary form and are
+ * matched by de-serializing just the single property and comparing with candidate values via {@link JVMUtil#equals}
+ * (off-heap entity's state is copied into per-thread scratch buffer for this, not into new byte array).</p>
+ * 
+ * Matching relies on the fact that kryo's encodings are self-delimiting - if the stored property starts with the
+ * candidate's encoding, then de-serialized property is equal to candidate value.</p>
+ * 
+ * Groups of alternatives (see {@link EntityTemplate#anyOf(EntityTemplate...)}) are compiled into nested matchers and
+ * evaluated after the property conditions of enclosing template, so the cheapest checks are performed first.
+ * 
+ * @since 0.1
+ * @see MatchingSerializer#compile(com.turbospaces.model.CacheStoreEntryWrapper)
+ * @see MatchingSerializer#compile(EntityTemplate)
+ */
+@Immutable
+public final class TemplateMatcher {
+    private static final ThreadLocal<ByteBuffer> SCRATCH = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate( 1024 );
+        }
+    };
+
+    private final MatchingSerializer<?> serializer;
+    private final int[] binaryIndexes;
+    private final byte[][][] binaryValues;
+    private final boolean[] binaryNegated;
+    private final int[] objectIndexes;
+    private final Object[][] objectValues;
+    private final boolean[] objectNegated;
+    private final TemplateMatcher[][] groups;
+    private final boolean unmatchable;
+    private final boolean incomplete;
+    private final byte[] header;
+
+    private TemplateMatcher(final MatchingSerializer<?> serializer,
+                            final List<Condition> conditions,
+                            final List<TemplateMatcher[]> alternatives) {
+        this.serializer = serializer;
+
+        CachedSerializationProperty[] cachedProperties = serializer.cachedProperties;
+        List<Condition> binary = Lists.newArrayList();
+        List<Condition> object = Lists.newArrayList();
+        boolean nothingMatches = false;
+        boolean missingValues = false;
+        for ( Condition condition : conditions ) {
+            CachedSerializationProperty cachedProperty = cachedProperties[condition.index];
+            for ( Object value : condition.values )
+                missingValues |= isMissingInDictionary( cachedProperty, value );
+            Object[] candidates = candidates( cachedProperty, condition.values );
+            // property can't be equal to any of values, so negated condition is always satisfied
+            if ( candidates.length == 0 ) {
+                if ( condition.negated )
+                    continue;
+                nothingMatches = true;
+                break;
+            }
+            boolean binaryComparable = true;
+            for ( Object candidate : candidates )
+                binaryComparable &= isBinaryComparable( cachedProperty, candidate );
+            ( binaryComparable ? binary : object ).add( new Condition( condition.index, candidates, condition.negated ) );
+        }
+
+        List<TemplateMatcher[]> nonTrivial = Lists.newArrayList();
+        for ( TemplateMatcher[] group : alternatives ) {
+            // none of alternatives can be satisfied
+            if ( group.length == 0 )
+                nothingMatches = true;
+            boolean matchesAll = false;
+            for ( TemplateMatcher alternative : group ) {
+                matchesAll |= alternative.matchesAll();
+                missingValues |= alternative.incomplete;
+            }
+            if ( !matchesAll )
+                nonTrivial.add( group );
+        }
+
+        unmatchable = nothingMatches;
+        incomplete = missingValues;
+        groups = nonTrivial.toArray( new TemplateMatcher[nonTrivial.size()][] );
+        header = ByteBuffer.allocate( MatchingSerializer.HEADER ).putInt( serializer.fingerprint ).array();
+        binaryIndexes = new int[binary.size()];
+        binaryValues = new byte[binary.size()][][];
+        binaryNegated = new boolean[binary.size()];
+        for ( int i = 0; i < binaryIndexes.length; i++ ) {
+            Condition condition = binary.get( i );
+            binaryIndexes[i] = condition.index;
+            binaryNegated[i] = condition.negated;
+            binaryValues[i] = new byte[condition.values.length][];
+            for ( int j = 0; j < condition.values.length; j++ )
+                binaryValues[i][j] = encode( serializer, cachedProperties[condition.index], condition.values[j] );
+        }
+        objectIndexes = new int[object.size()];
+        objectValues = new Object[object.size()][];
+        objectNegated = new boolean[object.size()];
+        for ( int i = 0; i < objectIndexes.length; i++ ) {
+            Condition condition = object.get( i );
+            objectIndexes[i] = condition.index;
+            objectValues[i] = condition.values;
+            objectNegated[i] = condition.negated;
+        }
+    }
+
+    /**
+     * compile find-by-example template (<code>null</code> and primitive template values are treated as 'match any',
+     * this is classical java spaces behavior because default values of primitives can't be distinguished from 'not
+     * set').
+     */
+    @SuppressWarnings("javadoc")
+    static TemplateMatcher byExample(final MatchingSerializer<?> serializer,
+                                     final Object[] templateValues) {
+        List<Condition> conditions = Lists.newArrayList();
+        for ( int i = 0; i < serializer.cachedProperties.length; i++ )
+            if ( templateValues[i] != null && !serializer.cachedProperties[i].getPropertyType().isPrimitive() )
+                conditions.add( new Condition( i, new Object[] { templateValues[i] }, false ) );
+        return new TemplateMatcher( serializer, conditions, Collections.<TemplateMatcher[]> emptyList() );
+    }
+
+    /**
+     * compile typed template with explicit per-property predicates.
+     */
+    @SuppressWarnings("javadoc")
+    static TemplateMatcher of(final MatchingSerializer<?> serializer,
+                              final EntityTemplate template) {
+        List<Condition> conditions = Lists.newArrayList();
+        for ( EntityTemplate.Predicate predicate : template.getPredicates() ) {
+            int index = serializer.schema.indexOf( predicate.getProperty() );
+            Preconditions.checkArgument( index >= 0, "there is no property %s in %s", predicate.getProperty(), template.getType().getName() );
+            Class<?> propertyType = serializer.cachedProperties[index].getPropertyType();
+            Object[] values = predicate.getValues();
+            for ( Object value : values )
+                Preconditions.checkArgument(
+                        value == null || ClassUtils.isAssignableValue( propertyType, value ),
+                        "value %s can't be matched against property %s of type %s",
+                        value,
+                        predicate.getProperty(),
+                        propertyType.getName() );
+            conditions.add( new Condition( index, values, predicate.getOperator() == EntityTemplate.Operator.NE ) );
+        }
+        List<TemplateMatcher[]> alternatives = Lists.newArrayList();
+        for ( List<EntityTemplate> group : template.getAlternatives() ) {
+            List<TemplateMatcher> matchers = Lists.newArrayListWithCapacity( group.size() );
+            for ( EntityTemplate alternative : group ) {
+                TemplateMatcher matcher = of( serializer, alternative );
+                // incomplete alternative is kept, so that enclosing matcher is known to be incomplete as well
+                if ( !matcher.unmatchable || matcher.incomplete )
+                    matchers.add( matcher );
+            }
+            alternatives.add( matchers.toArray( new TemplateMatcher[matchers.size()] ) );
+        }
+        return new TemplateMatcher( serializer, conditions, alternatives );
+    }
+
+    /**
+     * check whether entity stored in byte buffer (starting at position 0) matches this template. buffer is cleared
+     * after matching.
+     * 
+     * @param buffer
+     *            serialized entity
+     * @return true if entity matches template
+     */
+    public boolean matches(final ByteBuffer buffer) {
+        buffer.clear();
+        if ( unmatchable )
+            return false;
+        try {
+            // entries written with another schema are migrated first
+            return matchesCurrentSchema( serializer.currentSchema( buffer ) );
+        }
+        finally {
+            buffer.clear();
+        }
+    }
+
+    /**
+     * check whether entity stored in off-heap memory matches this template without copying entity's state into heap
+     * (unless some template values can't be compared in binary form).
+     * 
+     * @param memoryManager
+     *            off-heap memory manager
+     * @param address
+     *            the address of serialized entity
+     * @param length
+     *            length of serialized entity
+     * @return true if entity matches template
+     */
+    public boolean matches(final EffectiveMemoryManager memoryManager,
+                           final long address,
+                           final int length) {
+        if ( unmatchable )
+            return false;
+        if ( !memoryManager.equalsBytesArray( address, header, 0, header.length ) )
+            return matches( ByteBuffer.wrap( memoryManager.readBytesArray( address, length ) ) );
+        int n = serializer.cachedProperties.length;
+        for ( int i = 0; i < binaryIndexes.length; i++ ) {
+            int position = MatchingSerializer.HEADER
+                    + FieldOffsetTable.position( memoryManager, address + MatchingSerializer.HEADER, n, binaryIndexes[i] );
+            boolean equals = false;
+            for ( byte[] expected : binaryValues[i] )
+                if ( position + expected.length <= length && memoryManager.equalsBytesArray( address + position, expected, 0, expected.length ) ) {
+                    equals = true;
+                    break;
+                }
+            if ( equals == binaryNegated[i] )
+                return false;
+        }
+        for ( TemplateMatcher[] group : groups ) {
+            boolean any = false;
+            for ( TemplateMatcher alternative : group )
+                if ( alternative.matches( memoryManager, address, length ) ) {
+                    any = true;
+                    break;
+                }
+            if ( !any )
+                return false;
+        }
+        if ( objectIndexes.length == 0 )
+            return true;
+        ByteBuffer buffer = scratch( length );
+        memoryManager.readBytesArray( address, buffer.array(), 0, length );
+        return matchesObjects( buffer );
+    }
+
+    /**
+     * match entry already written with the current schema (nested matchers of alternatives share the same source).
+     */
+    private boolean matchesCurrentSchema(final ByteBuffer source) {
+        if ( unmatchable )
+            return false;
+        int n = serializer.cachedProperties.length;
+        for ( int i = 0; i < binaryIndexes.length; i++ ) {
+            int position = FieldOffsetTable.position( source, MatchingSerializer.HEADER, n, binaryIndexes[i] );
+            boolean equals = false;
+            for ( byte[] expected : binaryValues[i] )
+                if ( equalsAt( source, position, expected ) ) {
+                    equals = true;
+                    break;
+                }
+            if ( equals == binaryNegated[i] )
+                return false;
+        }
+        for ( TemplateMatcher[] group : groups ) {
+            boolean any = false;
+            for ( TemplateMatcher alternative : group )
+                if ( alternative.matchesCurrentSchema( source ) ) {
+                    any = true;
+                    break;
+                }
+            if ( !any )
+                return false;
+        }
+        return objectIndexes.length == 0 || matchesObjects( source );
+    }
+
+    /**
+     * check whether some template values have been skipped because they are not in strings dictionary yet. such
+     * matcher doesn't match entities written after those values have been added to dictionary, so long-living matcher
+     * (for example matcher of blocked fetch) must be re-compiled in order to see such entities.
+     * 
+     * @return true if matcher has been compiled against dictionary values which don't exist yet
+     */
+    public boolean isIncomplete() {
+        return incomplete;
+    }
+
+    /**
+     * @return true if there are no conditions at all (template matches every entry)
+     */
+    private boolean matchesAll() {
+        return !unmatchable && binaryIndexes.length == 0 && objectIndexes.length == 0 && groups.length == 0;
+    }
+
+    /**
+     * get the thread's scratch buffer of at least given length (entity's state is copied into re-usable buffer instead of
+     * allocating new byte array per scanned entry).
+     */
+    private static ByteBuffer scratch(final int length) {
+        ByteBuffer buffer = SCRATCH.get();
+        if ( buffer.capacity() < length ) {
+            buffer = ByteBuffer.allocate( Math.max( length, buffer.capacity() << 1 ) );
+            SCRATCH.set( buffer );
+        }
+        buffer.clear();
+        buffer.limit( length );
+        return buffer;
+    }
+
+    private static boolean equalsAt(final ByteBuffer source,
+                                    final int position,
+                                    final byte[] expected) {
+        if ( position + expected.length > source.limit() )
+            return false;
+        if ( source.hasArray() ) {
+            byte[] array = source.array();
+            int offset = source.arrayOffset() + position;
+            for ( int j = 0; j < expected.length; j++ )
+                if ( array[offset + j] != expected[j] )
+                    return false;
+        }
+        else
+            for ( int j = 0; j < expected.length; j++ )
+                if ( source.get( position + j ) != expected[j] )
+                    return false;
+        return true;
+    }
+
+    private boolean matchesObjects(final ByteBuffer buffer) {
+        int n = serializer.cachedProperties.length;
+        for ( int i = 0; i < objectIndexes.length; i++ ) {
+            int index = objectIndexes[i];
+            FieldOffsetTable.seek( buffer, MatchingSerializer.HEADER, n, index );
+            Object value = DecoratedKryo.readPropertyValue( serializer.kryo, serializer.cachedProperties[index], buffer );
+            boolean equals = false;
+            for ( Object candidate : objectValues[i] )
+                if ( JVMUtil.equals( candidate, value ) ) {
+                    equals = true;
+                    break;
+                }
+            if ( equals == objectNegated[i] )
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * filter out the values property can't be equal to and expand floating point zero (<code>0.0 == -0.0</code> for
+     * primitives, but encodings are different).
+     */
+    private static Object[] candidates(final CachedSerializationProperty cachedProperty,
+                                       final Object[] values) {
+        Class<?> propertyType = cachedProperty.getPropertyType();
+        List<Object> candidates = Lists.newArrayListWithCapacity( values.length );
+        for ( Object value : values ) {
+            if ( propertyType.isPrimitive() ) {
+                if ( value == null )
+                    continue;
+                if ( value instanceof Double ) {
+                    double d = (Double) value;
+                    if ( d != d )
+                        continue;
+                    if ( d == 0 ) {
+                        candidates.add( 0.0D );
+                        candidates.add( -0.0D );
+                        continue;
+                    }
+                }
+                else if ( value instanceof Float ) {
+                    float f = (Float) value;
+                    if ( f != f )
+                        continue;
+                    if ( f == 0 ) {
+                        candidates.add( 0.0F );
+                        candidates.add( -0.0F );
+                        continue;
+                    }
+                }
+            }
+            // there is no such string in dictionary (and template value must not pollute dictionary)
+            else if ( isMissingInDictionary( cachedProperty, value ) )
+                continue;
+            candidates.add( value );
+        }
+        return candidates.toArray();
+    }
+
+    private static boolean isMissingInDictionary(final CachedSerializationProperty cachedProperty,
+                                                 final Object value) {
+        return value != null && cachedProperty.getSerializer() instanceof DictionarySerializer
+                && !( (DictionarySerializer) cachedProperty.getSerializer() ).canExist( (String) value );
+    }
+
+    /**
+     * equality of such values implies equality of classes and kryo's encoding is deterministic, so binary equality is
+     * the same as object equality (primitives are written without class information, <code>NaN</code> and zero are
+     * already handled by {@link #candidates(CachedSerializationProperty, Object[])}).
+     */
+    private static boolean isBinaryComparable(final CachedSerializationProperty cachedProperty,
+                                              final Object value) {
+        if ( value == null || cachedProperty.getPropertyType().isPrimitive() )
+            return true;
+        if ( value instanceof String || value instanceof Integer || value instanceof Long || value instanceof Short
+                || value instanceof Byte || value instanceof Boolean || value instanceof Character )
+            return true;
+        // NaN can be encoded in different ways
+        if ( value instanceof Double )
+            return !( (Double) value ).isNaN();
+        if ( value instanceof Float )
+            return !( (Float) value ).isNaN();
+        // enum class name can be written for non-final properties
+        return value instanceof Enum && cachedProperty.isFinal();
+    }
+
+    private static byte[] encode(final MatchingSerializer<?> serializer,
+                                 final CachedSerializationProperty cachedProperty,
+                                 final Object value) {
+        // class id(varint) + length(varint) + at most 3 bytes per character for strings
+        int capacity = 32 + ( value instanceof String ? 3 * ( (String) value ).length() : 0 );
+        ByteBuffer buffer = ByteBuffer.allocate( capacity );
+        DecoratedKryo.writePropertyValue( serializer.kryo, cachedProperty, value, buffer );
+        byte[] bytes = new byte[buffer.position()];
+        System.arraycopy( buffer.array(), 0, bytes, 0, bytes.length );
+        return bytes;
+    }
+
+    /**
+     * property is equal to any of values (or not equal to all of values if negated).
+     */
+    private static final class Condition {
+        private final int index;
+        private final Object[] values;
+        private final boolean negated;
+
+        private Condition(final int index, final Object[] values, final boolean negated) {
+            this.index = index;
+            this.values = values;
+            this.negated = negated;
+        }
+    }
+}
@@ -24,10 +24,12 @@ import org.springframework.beans.factory.annotation.Autowire;
 
 import com.esotericsoftware.kryo.serialize.EnumSerializer;
 import com.google.common.base.Function;
+import com.google.common.base.Strings;
 import com.google.common.base.Throwables;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.Uninterruptibles;
 import com.turbospaces.api.SpaceExpirationListener;
+import com.turbospaces.core.CompressionCodec;
 import com.turbospaces.core.JVMUtil;
 import com.turbospaces.model.TestEntity1;
 import com.turbospaces.serialization.DecoratedKryo;
@@ -61,6 +63,20 @@ public class GuavaOffHeapCacheBuilderTest {
         cache.invalidateAll();
     }
 
+    @Test
+    public void canCompressEntries() {
+        cache = builder.compression( new CompressionCodec( 64 ) ).build( TestEntity1.class );
+
+        for ( int i = 0; i < 100; i++ ) {
+            TestEntity1 entity1 = new TestEntity1();
+            entity1.afterPropertiesSet();
+            entity1.s1 = Strings.repeat( entity1.s2, 10 );
+            cache.put( entity1.getUniqueIdentifier(), entity1 );
+            cache.getIfPresent( entity1.getUniqueIdentifier() ).assertMatch( entity1 );
+        }
+        assertThat( cache.size(), is( 100L ) );
+    }
+
     @Test
     public void trivialSunnyDayScenario()
                                          throws ExecutionException {
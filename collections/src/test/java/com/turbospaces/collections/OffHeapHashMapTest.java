@@ -3,6 +3,7 @@ package com.turbospaces.collections;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
 
 import java.util.Arrays;
 import java.util.List;
@@ -20,8 +21,10 @@ import org.springframework.beans.factory.InitializingBean;
 import com.esotericsoftware.kryo.ObjectBuffer;
 import com.esotericsoftware.minlog.Log;
 import com.google.common.base.Function;
+import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.turbospaces.api.SpaceExpirationListener;
 import com.turbospaces.core.CapacityMonitor;
@@ -30,6 +33,7 @@ import com.turbospaces.core.JVMUtil;
 import com.turbospaces.core.UnsafeMemoryManager;
 import com.turbospaces.model.BO;
 import com.turbospaces.model.CacheStoreEntryWrapper;
+import com.turbospaces.model.EntityTemplate;
 import com.turbospaces.model.TestEntity1;
 import com.turbospaces.offmemory.ByteArrayPointer;
 import com.turbospaces.serialization.DecoratedKryo;
@@ -153,6 +157,39 @@ public class OffHeapHashMapTest {
         assertThat( ByteArrayPointer.getEntityState( templateMatch2.iterator().next().dumpAndGetAddress(), memoryManager ), is( bytes2 ) );
         assertThat( ByteArrayPointer.getEntityState( templateMatch3.iterator().next().dumpAndGetAddress(), memoryManager ), is( bytes3 ) );
 
+        List<ByteArrayPointer> typedMatch = heapHashMap.match( EntityTemplate.of( TestEntity1.class ).eq( "fi1", entity2.fi1 ).eq( "s1", entity2.s1 ) );
+        assertThat( typedMatch.size(), is( 1 ) );
+        assertThat( ByteArrayPointer.getEntityState( typedMatch.iterator().next().dumpAndGetAddress(), memoryManager ), is( bytes2 ) );
+        assertThat( heapHashMap.match( EntityTemplate.of( TestEntity1.class ).eq( "fi1", entity2.fi1 + 1 ).eq( "s1", entity2.s1 ) ), is( nullValue() ) );
+
+        // streaming match stops as soon as visitor asks
+        final List<ByteArrayPointer> visited = Lists.newArrayList();
+        MatchedEntryVisitor visitor = new MatchedEntryVisitor() {
+            @Override
+            public boolean visit(final ByteArrayPointer entry) {
+                visited.add( entry );
+                return false;
+            }
+        };
+        assertThat( heapHashMap.match( propertySerializer.compile( EntityTemplate.of( TestEntity1.class ) ), visitor ), is( false ) );
+        assertThat( visited.size(), is( 1 ) );
+        assertThat( heapHashMap.match( propertySerializer.compile( EntityTemplate.of( TestEntity1.class ).eq( "s1", entity3.s1 ) ), visitor ), is( false ) );
+        assertThat( ByteArrayPointer.getEntityState( visited.get( 1 ).dumpAndGetAddress(), memoryManager ), is( bytes3 ) );
+
+        // parallel match passes all matched entries to per-segment visitors
+        List<CountingVisitor> visitors = heapHashMap.matchInParallel(
+                propertySerializer.compile( EntityTemplate.of( TestEntity1.class ) ),
+                new Supplier<CountingVisitor>() {
+                    @Override
+                    public CountingVisitor get() {
+                        return new CountingVisitor();
+                    }
+                } );
+        int matched = 0;
+        for ( CountingVisitor countingVisitor : visitors )
+            matched += countingVisitor.count;
+        assertThat( matched, is( 3 ) );
+
         Assert.assertTrue( heapHashMap.contains( key1 ) );
         Assert.assertTrue( heapHashMap.contains( key2 ) );
         Assert.assertTrue( heapHashMap.contains( key3 ) );
@@ -304,4 +341,14 @@ public class OffHeapHashMapTest {
         for ( TestEntity1 element : arr )
             Assert.assertTrue( heapHashMap.getAsPointer( element.getUniqueIdentifier() ) == null );
     }
+
+    private static final class CountingVisitor implements MatchedEntryVisitor {
+        int count;
+
+        @Override
+        public boolean visit(final ByteArrayPointer entry) {
+            count++;
+            return true;
+        }
+    }
 }
@@ -0,0 +1,106 @@
+package com.turbospaces.collections;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.carrotsearch.junitbenchmarks.AbstractBenchmark;
+import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
+import com.esotericsoftware.kryo.ObjectBuffer;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.turbospaces.api.CapacityRestriction;
+import com.turbospaces.core.EffectiveMemoryManager;
+import com.turbospaces.core.UnsafeMemoryManager;
+import com.turbospaces.model.BO;
+import com.turbospaces.model.CacheStoreEntryWrapper;
+import com.turbospaces.model.TestEntity1;
+import com.turbospaces.offmemory.ByteArrayPointer;
+import com.turbospaces.serialization.DecoratedKryo;
+import com.turbospaces.serialization.PropertiesSerializer;
+
+/**
+ * full scan of off-heap set by template with allocation profiling (bytes allocated by scanning thread per scanned
+ * entry). Run with <code>-Dentries=N</code> to change the size of set.
+ */
+@SuppressWarnings("javadoc")
+public class TemplateMatchingPerformanceTest extends AbstractBenchmark {
+    static int entries = Integer.getInteger( "entries", 1000 * 1000 );
+    static BO bo;
+    static OffHeapLinearProbingSet set;
+    static TestEntity1 sample;
+
+    @BeforeClass
+    public static void beforeClass()
+                                    throws Exception {
+        EffectiveMemoryManager memoryManager = new UnsafeMemoryManager();
+        bo = TestEntity1.getPersistentEntity();
+        DecoratedKryo kryo = new DecoratedKryo();
+        BO.registerPersistentClasses( kryo, bo.getOriginalPersistentEntity() );
+        PropertiesSerializer serializer = new PropertiesSerializer( kryo, bo );
+        set = new OffHeapLinearProbingSet(
+                memoryManager,
+                new CapacityRestriction().setMaxElements( entries ),
+                null,
+                serializer,
+                MoreExecutors.sameThreadExecutor() );
+
+        ObjectBuffer objectBuffer = new ObjectBuffer( kryo );
+        for ( int i = 0; i < entries; i++ ) {
+            TestEntity1 entity = new TestEntity1();
+            entity.afterPropertiesSet();
+            byte[] bytes = objectBuffer.writeObjectData( CacheStoreEntryWrapper.writeValueOf( bo, entity ) );
+            set.put( entity.getUniqueIdentifier(), new ByteArrayPointer( memoryManager, bytes, entity, Integer.MAX_VALUE ) );
+            if ( i == entries / 2 )
+                sample = entity;
+        }
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        set.evictAll();
+    }
+
+    @BenchmarkOptions(warmupRounds = 3, benchmarkRounds = 10)
+    @Test
+    public void scanByBinaryComparableTemplate() {
+        TestEntity1 template = new TestEntity1();
+        template.s1 = sample.s1;
+        template.l1 = sample.l1;
+        scan( "binary template->", template );
+    }
+
+    @BenchmarkOptions(warmupRounds = 3, benchmarkRounds = 10)
+    @Test
+    public void scanByObjectTemplate() {
+        TestEntity1 template = new TestEntity1();
+        template.dt1 = sample.dt1;
+        scan( "object template->", template );
+    }
+
+    private static void scan(final String prefix,
+                             final TestEntity1 template) {
+        CacheStoreEntryWrapper wrapper = CacheStoreEntryWrapper.writeValueOf( bo, template );
+        long allocated = allocatedBytes();
+        long now = System.nanoTime();
+        List<ByteArrayPointer> matches = set.match( wrapper );
+        long millis = ( System.nanoTime() - now ) / 1000000;
+        allocated = allocatedBytes() - allocated;
+        System.out.println( String.format(
+                "%s scanned %s entries in %s ms, matched = %s, allocated = %s bytes(%.3f bytes per entry)",
+                prefix,
+                entries,
+                millis,
+                matches == null ? 0 : matches.size(),
+                allocated,
+                (double) allocated / entries ) );
+    }
+
+    private static long allocatedBytes() {
+        return ( (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean() ).getThreadAllocatedBytes( Thread
+                .currentThread()
+                .getId() );
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2011 Andrey Borisov <aandrey.borisov@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turbospaces.core;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class CompressionCodecTest {
+
+    @Test
+    public void canCompressAndDecompress() {
+        CompressionCodec codec = new CompressionCodec( 16 );
+        StringBuilder builder = new StringBuilder();
+        for ( int i = 0; i < 200; i++ )
+            builder.append( "{\"status\":\"ACTIVE\",\"currency\":\"USD\",\"amount\":" ).append( i ).append( "}" );
+        byte[] data = builder.toString().getBytes();
+
+        byte[] compressed = codec.compress( data, 0, data.length );
+        assertThat( compressed.length, is( lessThan( data.length / 4 ) ) );
+        assertThat( codec.decompress( compressed ), is( data ) );
+        assertThat( CompressionCodec.forId( codec.getId() ).decompress( compressed ), is( data ) );
+        // codecs with the same dictionary are identified by the same id
+        assertThat( new CompressionCodec( 64 ).getId(), is( codec.getId() ) );
+    }
+
+    @Test
+    public void canHandleLongRunsAndRegions() {
+        CompressionCodec codec = new CompressionCodec( 1 );
+        byte[] data = new byte[100000];
+        for ( int i = 50000; i < data.length; i++ )
+            data[i] = (byte) ( i % 7 );
+        byte[] region = new byte[data.length + 10];
+        System.arraycopy( data, 0, region, 5, data.length );
+
+        byte[] compressed = codec.compress( region, 5, data.length );
+        assertThat( codec.decompress( compressed ), is( data ) );
+    }
+
+    @Test
+    public void doesNotCompressSmallOrRandomData() {
+        CompressionCodec codec = new CompressionCodec( 64 );
+        byte[] data = new byte[1024];
+        new Random().nextBytes( data );
+
+        assertThat( codec.compress( data, 0, 63 ), is( nullValue() ) );
+        assertThat( codec.compress( data, 0, data.length ), is( nullValue() ) );
+    }
+
+    @Test
+    public void dictionaryImprovesCompressionOfSmallRecords() {
+        Random random = new Random();
+        List<byte[]> samples = new ArrayList<byte[]>();
+        for ( int i = 0; i < 100; i++ )
+            samples.add( record( random ) );
+
+        byte[] dictionary = CompressionCodec.trainDictionary( samples, 4 * 1024 );
+        CompressionCodec plain = new CompressionCodec( 1 );
+        CompressionCodec trained = new CompressionCodec( 1, dictionary );
+
+        byte[] data = record( random );
+        byte[] compressed = trained.compress( data, 0, data.length );
+        byte[] plainCompressed = plain.compress( data, 0, data.length );
+        assertThat( compressed.length, is( lessThan( plainCompressed == null ? data.length : plainCompressed.length ) ) );
+        assertThat( trained.decompress( compressed ), is( data ) );
+        assertThat( new CompressionCodec( 16, dictionary ).getId(), is( trained.getId() ) );
+        assertThat( trained.getId() == plain.getId(), is( false ) );
+    }
+
+    private static byte[] record(final Random random) {
+        return String.format(
+                "{\"customerStatus\":\"%s\",\"billingCurrency\":\"%s\",\"shippingCountry\":\"%s\",\"balance\":%s}",
+                random.nextBoolean() ? "ACTIVE" : "SUSPENDED",
+                random.nextBoolean() ? "USD" : "EUR",
+                random.nextBoolean() ? "Germany" : "United Kingdom",
+                random.nextInt( 100000 ) ).getBytes();
+    }
+}
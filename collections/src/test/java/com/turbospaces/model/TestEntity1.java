@@ -30,6 +30,7 @@ import java.util.UUID;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowire;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Dictionary;
 import org.springframework.data.annotation.Routing;
 import org.springframework.data.annotation.Version;
 import org.springframework.data.mapping.model.BasicPersistentEntity;
@@ -40,6 +41,7 @@ import com.google.common.collect.Lists;
 @SuppressWarnings("javadoc")
 public class TestEntity1 implements InitializingBean, Cloneable {
     private static final Random random = new Random();
+    private static final String[] STATUSES = { "ACTIVE", "SUSPENDED", "CLOSED" };
 
     public String s1, s2, s3, s4;
     public Long l1, l2, l3, l4;
@@ -63,6 +65,9 @@ public class TestEntity1 implements InitializingBean, Cloneable {
     @Routing
     public String routing;
 
+    @Dictionary
+    public String status;
+
     public Object data1, data2;
 
     public RoundingMode mode;
@@ -111,6 +116,7 @@ public class TestEntity1 implements InitializingBean, Cloneable {
         mode = RoundingMode.FLOOR;
         autowire = Autowire.BY_TYPE;
         routing = "hash" + random.nextLong();
+        status = STATUSES[random.nextInt( STATUSES.length )];
         roundingModes = RoundingMode.values();
         longs = Lists.newArrayList();
         longs.add( Long.valueOf( 1L ) );
@@ -234,6 +240,7 @@ public class TestEntity1 implements InitializingBean, Cloneable {
         roundingModes = null;
         autowire = null;
         routing = null;
+        status = null;
         longs = null;
 
         b1 = false;
@@ -300,6 +307,7 @@ public class TestEntity1 implements InitializingBean, Cloneable {
         e1.uniqueIdentifier = uniqueIdentifier;
         e1.optimisticLockVersion = optimisticLockVersion;
         e1.routing = routing;
+        e1.status = status;
 
         e1.data1 = data1;
         e1.data2 = data2;
@@ -362,6 +370,7 @@ public class TestEntity1 implements InitializingBean, Cloneable {
         assertThat( data2.getRoundingModes(), is( getRoundingModes() ) );
         assertThat( data2.data1, is( data1 ) );
         assertThat( data2.routing, is( routing ) );
+        assertThat( data2.status, is( status ) );
         assertThat( data2.data2, is( nullValue() ) );
         assertThat( data2.data2, is( nullValue() ) );
         assertThat( data2.getLongs().size(), is( 3 ) );
@@ -717,6 +726,14 @@ public class TestEntity1 implements InitializingBean, Cloneable {
         this.routing = routing;
     }
 
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(final String status) {
+        this.status = status;
+    }
+
     public boolean getB1() {
         return b1;
     }
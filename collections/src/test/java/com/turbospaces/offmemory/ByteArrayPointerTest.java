@@ -10,9 +10,11 @@ import java.beans.IntrospectionException;
 import org.junit.Test;
 
 import com.esotericsoftware.kryo.ObjectBuffer;
+import com.google.common.base.Strings;
 import com.turbospaces.core.EffectiveMemoryManager;
 import com.turbospaces.core.UnsafeMemoryManager;
 import com.turbospaces.model.BO;
+import com.turbospaces.model.CacheStoreEntryWrapper;
 import com.turbospaces.model.TestEntity1;
 import com.turbospaces.serialization.DecoratedKryo;
 
@@ -46,4 +48,47 @@ public class ByteArrayPointerTest {
         assertThat( ByteArrayPointer.getLastAccessTime( p.dumpAndGetAddress(), memoryManager ), is( lastUpdateTmst ) );
         p.utilize();
     }
+
+    @Test
+    public void canSerializeDirectlyIntoOffHeapMemory()
+                                                      throws SecurityException,
+                                                      NoSuchMethodException,
+                                                      ClassNotFoundException,
+                                                      IntrospectionException {
+        DecoratedKryo kryo = new DecoratedKryo();
+        BO bo = TestEntity1.getPersistentEntity();
+        BO.registerPersistentClasses( kryo, bo.getOriginalPersistentEntity() );
+        ObjectBuffer objectBuffer = new ObjectBuffer( kryo );
+
+        TestEntity1 entity1 = new TestEntity1();
+        entity1.afterPropertiesSet();
+        entity1.s1 = Strings.repeat( "s1", 16 * 1024 );
+        CacheStoreEntryWrapper wrapper = CacheStoreEntryWrapper.writeValueOf( bo, entity1 );
+        byte[] serializedData = new ObjectBuffer( kryo, 2 * 1024, 128 * 1024 ).writeObjectData( wrapper );
+
+        ByteArrayPointer p = ByteArrayPointer.serializeDirectly( memoryManager, kryo, wrapper, entity1, Integer.MAX_VALUE );
+        assertThat( p.bytesOccupied(), is( new ByteArrayPointer( memoryManager, serializedData, entity1, Integer.MAX_VALUE ).bytesOccupied() ) );
+        long address = p.dumpAndGetAddress();
+        assertThat( ByteArrayPointer.getEntityState( address, memoryManager ), is( serializedData ) );
+        assertThat( p.getSerializedData(), is( serializedData ) );
+        objectBuffer.readObjectData( p.getSerializedData(), TestEntity1.class ).assertMatch( entity1 );
+
+        ByteArrayPointer override = ByteArrayPointer.serializeDirectly( memoryManager, kryo, wrapper, entity1, Integer.MAX_VALUE );
+        long overrideAddress = override.rellocateAndDump( address );
+        assertThat( ByteArrayPointer.getEntityState( overrideAddress, memoryManager ), is( serializedData ) );
+        override.utilize();
+
+        // buffer grown by large entity is shrunk back
+        entity1.s1 = Strings.repeat( "s1", 512 * 1024 );
+        ByteArrayPointer large = ByteArrayPointer.serializeDirectly(
+                memoryManager,
+                kryo,
+                CacheStoreEntryWrapper.writeValueOf( bo, entity1 ),
+                entity1,
+                Integer.MAX_VALUE );
+        assertThat( large.bytesOccupied() > 1024 * 1024, is( true ) );
+        assertThat( ByteArrayPointer.serializationBufferCapacity() <= 64 * 1024, is( true ) );
+        large.dumpAndGetAddress();
+        large.utilize();
+    }
 }
@@ -0,0 +1,168 @@
+/**
+ * Copyright (C) 2011 Andrey Borisov <aandrey.borisov@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turbospaces.serialization;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.esotericsoftware.kryo.ObjectBuffer;
+import com.google.common.collect.Lists;
+import com.turbospaces.model.AggregationResult;
+import com.turbospaces.model.BO;
+import com.turbospaces.model.EntityAggregation;
+import com.turbospaces.model.EntityTemplate;
+import com.turbospaces.model.TestEntity1;
+
+@SuppressWarnings("javadoc")
+public class AggregatorTest {
+    DecoratedKryo kryo;
+    PropertiesSerializer serializer;
+    List<ByteBuffer> entries;
+
+    @Before
+    public void before()
+                        throws Exception {
+        BO bo = TestEntity1.getPersistentEntity();
+        kryo = new DecoratedKryo();
+        BO.registerPersistentClasses( kryo, bo.getOriginalPersistentEntity() );
+        serializer = (PropertiesSerializer) kryo.getSerializer( TestEntity1.class );
+
+        entries = Lists.newArrayList();
+        ObjectBuffer objectBuffer = new ObjectBuffer( kryo );
+        for ( int i = 0; i < 100; i++ ) {
+            TestEntity1 entity = new TestEntity1();
+            entity.afterPropertiesSet( String.format( "id-%03d", i ) );
+            entity.fi1 = i % 10;
+            entity.l1 = i % 5 == 0 ? null : Long.valueOf( i );
+            entity.d1 = i / 2.0;
+            entity.s2 = i % 3 == 0 ? null : "s2";
+            entries.add( ByteBuffer.wrap( objectBuffer.writeObjectData( entity ) ) );
+        }
+        Collections.shuffle( entries );
+    }
+
+    @Test
+    public void canAggregateWithoutGrouping() {
+        AggregationResult result = aggregate( EntityAggregation
+                .of( EntityTemplate.of( TestEntity1.class ).ne( "s2", null ) )
+                .count()
+                .sum( "fi1" )
+                .sum( "d1" )
+                .min( "l1" )
+                .max( "l1" )
+                .max( "uniqueIdentifier" ) );
+        long count = 0, fi1 = 0;
+        double d1 = 0;
+        for ( int i = 0; i < 100; i++ )
+            if ( i % 3 != 0 ) {
+                count++;
+                fi1 += i % 10;
+                d1 += i / 2.0;
+            }
+        assertThat( result.size(), is( 1 ) );
+        assertThat( result.get(), is( new Object[] { count, fi1, d1, 1L, 98L, "id-098" } ) );
+    }
+
+    @Test
+    public void canGroupByProperties() {
+        AggregationResult result = aggregate( EntityAggregation
+                .of( EntityTemplate.of( TestEntity1.class ) )
+                .groupBy( "fi1" )
+                .count()
+                .sum( "l1" )
+                .min( "l1" ) );
+        assertThat( result.size(), is( 10 ) );
+        // l1 is null for fi1=0 and fi1=5
+        assertThat( result.get( 0 ), is( new Object[] { 10L, null, null } ) );
+        assertThat( result.get( 5 ), is( new Object[] { 10L, null, null } ) );
+        assertThat( result.get( 7 ), is( new Object[] { 10L, 7L * 10 + 450, 7L } ) );
+
+        result = aggregate( EntityAggregation.of( EntityTemplate.of( TestEntity1.class ) ).groupBy( "s2", "fi1" ).count() );
+        assertThat( result.size(), is( 20 ) );
+        assertThat( result.get( null, 3 ), is( new Object[] { 4L } ) );
+        assertThat( result.get( "s2", 3 ), is( new Object[] { 6L } ) );
+        assertThat( result.get( "s3", 3 ), is( nullValue() ) );
+    }
+
+    @Test
+    public void canAggregateNothing() {
+        EntityAggregation aggregation = EntityAggregation.of( EntityTemplate.of( TestEntity1.class ).eq( "fi1", 11 ) ).count().sum( "l1" ).max( "d1" );
+        assertThat( aggregate( aggregation ).get(), is( new Object[] { 0L, null, null } ) );
+        assertThat( aggregate( aggregation.groupBy( "s2" ) ).size(), is( 0 ) );
+    }
+
+    @Test
+    public void canCombinePartialResults() {
+        EntityAggregation aggregation = EntityAggregation.of( EntityTemplate.of( TestEntity1.class ) ).groupBy( "s2" ).count().sum( "d1" ).min( "l1" ).max( "l1" );
+        Aggregator aggregator = serializer.compile( aggregation );
+        Aggregator[] partials = new Aggregator[] { aggregator.fork(), aggregator.fork(), aggregator.fork() };
+        for ( int i = 0; i < entries.size(); i++ )
+            partials[i % partials.length].accumulate( entries.get( i ) );
+        for ( Aggregator partial : partials )
+            aggregator.combine( partial.getResult() );
+
+        AggregationResult expected = aggregate( aggregation );
+        AggregationResult result = aggregator.getResult();
+        assertThat( result.getGroups(), is( expected.getGroups() ) );
+        for ( List<Object> group : expected.getGroups() )
+            assertThat( result.get( group.toArray() ), is( expected.get( group.toArray() ) ) );
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cantSumNonNumericProperty() {
+        serializer.compile( EntityAggregation.of( EntityTemplate.of( TestEntity1.class ) ).sum( "s1" ) );
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cantGroupByUnknownProperty() {
+        serializer.compile( EntityAggregation.of( EntityTemplate.of( TestEntity1.class ) ).groupBy( "unknown" ).count() );
+    }
+
+    @Test
+    public void canSerializeAggregationAndResult() {
+        EntityAggregation aggregation = EntityAggregation
+                .of( EntityTemplate.of( TestEntity1.class ).in( "fi1", 1, 2 ) )
+                .groupBy( "s2" )
+                .count()
+                .sum( "l1" )
+                .min( "d1" )
+                .max( "uniqueIdentifier" );
+        ObjectBuffer objectBuffer = new ObjectBuffer( kryo );
+        EntityAggregation copy = (EntityAggregation) objectBuffer.readClassAndObject( objectBuffer.writeClassAndObject( aggregation ) );
+        assertThat( copy.toString(), is( aggregation.toString() ) );
+
+        AggregationResult result = aggregate( copy );
+        AggregationResult resultCopy = objectBuffer.readObjectData( objectBuffer.writeObjectData( result ), AggregationResult.class );
+        assertThat( resultCopy.toString(), is( result.toString() ) );
+        assertThat( resultCopy.get( (Object) null ), is( result.get( (Object) null ) ) );
+    }
+
+    private AggregationResult aggregate(final EntityAggregation aggregation) {
+        Aggregator aggregator = serializer.compile( aggregation );
+        for ( ByteBuffer entry : entries )
+            if ( aggregator.getMatcher().matches( entry ) )
+                aggregator.accumulate( entry );
+        return aggregator.getResult();
+    }
+}
@@ -18,6 +18,7 @@ package com.turbospaces.serialization;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
 
 import java.nio.ByteBuffer;
 import java.util.Date;
@@ -30,10 +31,17 @@ import org.junit.Before;
 import org.junit.Test;
 
 import com.esotericsoftware.kryo.ObjectBuffer;
+import com.esotericsoftware.kryo.SerializationException;
 import com.esotericsoftware.minlog.Log;
+import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.turbospaces.core.EffectiveMemoryManager;
 import com.turbospaces.core.JVMUtil;
+import com.turbospaces.core.UnsafeMemoryManager;
 import com.turbospaces.model.BO;
 import com.turbospaces.model.CacheStoreEntryWrapper;
+import com.turbospaces.model.EntityTemplate;
 import com.turbospaces.model.TestEntity1;
 
 @SuppressWarnings("javadoc")
@@ -73,6 +81,30 @@ public class PropertiesSerializerTest {
         clone.assertMatch( entity1 );
     }
 
+    @Test
+    public void bytecodeSerializerIsBinaryCompatible() {
+        PropertiesSerializer generated = new PropertiesSerializer( kryo, bo, true );
+        assertThat( generated.isBytecodeGenerated(), is( true ) );
+        assertThat( serializer.isBytecodeGenerated(), is( false ) );
+
+        entity1.fi1 = Integer.MIN_VALUE;
+        entity1.lp1 = Long.MAX_VALUE;
+        entity1.sh1 = -1;
+        entity1.s3 = null;
+
+        ByteBuffer b1 = ByteBuffer.allocate( 4 * 1024 );
+        ByteBuffer b2 = ByteBuffer.allocate( 4 * 1024 );
+        serializer.write( b1, CacheStoreEntryWrapper.writeValueOf( bo, entity1 ) );
+        generated.write( b2, entity1 );
+        b1.flip();
+        b2.flip();
+        assertThat( b2, is( b1 ) );
+
+        entity1.assertMatch( (TestEntity1) generated.read( b1 ) );
+        b2.clear();
+        entity1.assertMatch( (TestEntity1) serializer.read( b2 ) );
+    }
+
     @Test
     public void canReadIdProperty() {
         ObjectBuffer objectBuffer = new ObjectBuffer( kryo );
@@ -80,6 +112,28 @@ public class PropertiesSerializerTest {
         assertThat( serializer.readID( ByteBuffer.wrap( data ) ), is( notNullValue() ) );
     }
 
+    @Test
+    public void canReadSinglePropertyViaOffsetTable() {
+        PropertiesSerializer generated = new PropertiesSerializer( kryo, bo, true );
+        for ( int length : new int[] { 1, 1024, 128 * 1024 } ) {
+            entity1.s1 = Strings.repeat( "x", length );
+            Object[] values = CacheStoreEntryWrapper.writeValueOf( bo, entity1 ).asPropertyValuesArray();
+
+            ObjectBuffer objectBuffer = new ObjectBuffer( kryo, 1024, 256 * 1024 );
+            byte[] data = objectBuffer.writeObjectData( CacheStoreEntryWrapper.writeValueOf( bo, entity1 ) );
+            ByteBuffer b2 = ByteBuffer.allocate( 256 * 1024 );
+            generated.write( b2, entity1 );
+            b2.flip();
+            assertThat( b2, is( ByteBuffer.wrap( data ) ) );
+
+            ByteBuffer buffer = ByteBuffer.wrap( data );
+            for ( int i = values.length - 1; i >= 0; i-- )
+                assertThat( JVMUtil.equals( values[i], serializer.readPropertyValue( buffer, i ) ), is( true ) );
+            assertThat( serializer.readID( buffer ), is( (Object) entity1.getUniqueIdentifier() ) );
+            entity1.assertMatch( objectBuffer.readObjectData( data, TestEntity1.class ) );
+        }
+    }
+
     @Test
     public void canDeSerializeEntity() {
         ObjectBuffer objectBuffer = new ObjectBuffer( kryo );
@@ -269,6 +323,384 @@ public class PropertiesSerializerTest {
         Assert.assertFalse( serializer.matches( ByteBuffer.wrap( data ), CacheStoreEntryWrapper.writeValueOf( bo, template ) ) );
     }
 
+    @Test
+    public void canMatchCompiledTemplateOffHeap() {
+        EffectiveMemoryManager memoryManager = new UnsafeMemoryManager();
+        ObjectBuffer objectBuffer = new ObjectBuffer( kryo );
+        byte[] data = objectBuffer.writeObjectData( CacheStoreEntryWrapper.writeValueOf( bo, entity1 ) );
+        long address = memoryManager.allocateMemory( data.length );
+        try {
+            memoryManager.writeBytesArray( address, data );
+
+            TestEntity1 template = new TestEntity1();
+            template.cleanBeanProperties();
+            template.uniqueIdentifier = entity1.getUniqueIdentifier();
+            template.s1 = entity1.s1;
+            template.l4 = entity1.l4;
+            template.d1 = entity1.d1;
+            template.data1 = entity1.data1;
+            template.mode = entity1.mode;
+            template.dt1 = entity1.dt1;
+
+            TemplateMatcher matcher = serializer.compile( CacheStoreEntryWrapper.writeValueOf( bo, template ) );
+            Assert.assertTrue( matcher.matches( memoryManager, address, data.length ) );
+            Assert.assertTrue( matcher.matches( ByteBuffer.wrap( data ) ) );
+
+            template.s1 = entity1.s1 + "x";
+            matcher = serializer.compile( CacheStoreEntryWrapper.writeValueOf( bo, template ) );
+            Assert.assertFalse( matcher.matches( memoryManager, address, data.length ) );
+            Assert.assertFalse( matcher.matches( ByteBuffer.wrap( data ) ) );
+
+            template.s1 = entity1.s1;
+            template.dt1 = new Date( entity1.dt1.getTime() + 1 );
+            matcher = serializer.compile( CacheStoreEntryWrapper.writeValueOf( bo, template ) );
+            Assert.assertFalse( matcher.matches( memoryManager, address, data.length ) );
+            Assert.assertFalse( matcher.matches( ByteBuffer.wrap( data ) ) );
+        }
+        finally {
+            memoryManager.freeMemory( address );
+        }
+    }
+
+    @Test
+    public void canMatchTypedTemplate() {
+        entity1.fi1 = 7;
+        entity1.b1 = true;
+        entity1.dp1 = -0.0D;
+        entity1.fp1 = Float.NaN;
+        entity1.lp1 = 0L;
+        entity1.sh1 = 3;
+        entity1.s2 = null;
+
+        EffectiveMemoryManager memoryManager = new UnsafeMemoryManager();
+        for ( PropertiesSerializer s : new PropertiesSerializer[] { serializer, (PropertiesSerializer) kryo.getSerializer( TestEntity1.class ) } ) {
+            byte[] data = new ObjectBuffer( kryo ).writeObjectData( CacheStoreEntryWrapper.writeValueOf( bo, entity1 ) );
+            long address = memoryManager.allocateMemory( data.length );
+            try {
+                memoryManager.writeBytesArray( address, data );
+
+                assertMatch( s, EntityTemplate.of( TestEntity1.class ), data, address, memoryManager, true );
+                // primitives are compared explicitly, including default values
+                assertMatch( s, EntityTemplate.of( TestEntity1.class ).eq( "fi1", 7 ), data, address, memoryManager, true );
+                assertMatch( s, EntityTemplate.of( TestEntity1.class ).eq( "fi1", 8 ), data, address, memoryManager, false );
+                assertMatch( s, EntityTemplate.of( TestEntity1.class ).eq( "b1", false ), data, address, memoryManager, false );
+                assertMatch( s, EntityTemplate.of( TestEntity1.class ).ne( "b1", false ), data, address, memoryManager, true );
+                assertMatch( s, EntityTemplate.of( TestEntity1.class ).eq( "lp1", 0L ), data, address, memoryManager, true );
+                assertMatch( s, EntityTemplate.of( TestEntity1.class ).eq( "lp1", 1L ), data, address, memoryManager, false );
+                assertMatch( s, EntityTemplate.of( TestEntity1.class ).in( "sh1", (short) 1, (short) 3 ), data, address, memoryManager, true );
+                assertMatch( s, EntityTemplate.of( TestEntity1.class ).in( "sh1", (short) 1, (short) 2 ), data, address, memoryManager, false );
+                // floating point primitives follow == semantics
+                assertMatch( s, EntityTemplate.of( TestEntity1.class ).eq( "dp1", 0.0D ), data, address, memoryManager, true );
+                assertMatch( s, EntityTemplate.of( TestEntity1.class ).eq( "fp1", Float.NaN ), data, address, memoryManager, false );
+                assertMatch( s, EntityTemplate.of( TestEntity1.class ).ne( "fp1", Float.NaN ), data, address, memoryManager, true );
+                // primitives are never null
+                assertMatch( s, EntityTemplate.of( TestEntity1.class ).isNull( "fi1" ), data, address, memoryManager, false );
+                assertMatch( s, EntityTemplate.of( TestEntity1.class ).ne( "fi1", null ), data, address, memoryManager, true );
+                // null values
+                assertMatch( s, EntityTemplate.of( TestEntity1.class ).isNull( "s2" ), data, address, memoryManager, true );
+                assertMatch( s, EntityTemplate.of( TestEntity1.class ).ne( "s2", null ), data, address, memoryManager, false );
+                assertMatch( s, EntityTemplate.of( TestEntity1.class ).isNull( "s1" ), data, address, memoryManager, false );
+                assertMatch( s, EntityTemplate.of( TestEntity1.class ).ne( "s1", "x" ), data, address, memoryManager, true );
+                assertMatch( s, EntityTemplate.of( TestEntity1.class ).ne( "s1", entity1.s1 ), data, address, memoryManager, false );
+                // values which can't be compared in binary form
+                assertMatch(
+                        s,
+                        EntityTemplate.of( TestEntity1.class ).in( "dt1", new Date( entity1.dt1.getTime() + 1 ), entity1.dt1 ),
+                        data,
+                        address,
+                        memoryManager,
+                        true );
+                assertMatch( s, EntityTemplate.of( TestEntity1.class ).ne( "dt1", entity1.dt1 ), data, address, memoryManager, false );
+                // all predicates must be satisfied
+                assertMatch(
+                        s,
+                        EntityTemplate.of( TestEntity1.class ).eq( "fi1", 7 ).eq( "s1", entity1.s1 ).eq( "dt1", entity1.dt1 ),
+                        data,
+                        address,
+                        memoryManager,
+                        true );
+                assertMatch(
+                        s,
+                        EntityTemplate.of( TestEntity1.class ).eq( "fi1", 7 ).eq( "s1", entity1.s1 ).eq( "b1", false ),
+                        data,
+                        address,
+                        memoryManager,
+                        false );
+                // groups of alternatives (logical OR)
+                assertMatch(
+                        s,
+                        EntityTemplate.of( TestEntity1.class ).eq( "fi1", 7 ).anyOf(
+                                EntityTemplate.of( TestEntity1.class ).eq( "b1", false ),
+                                EntityTemplate.of( TestEntity1.class ).eq( "dt1", entity1.dt1 ) ),
+                        data,
+                        address,
+                        memoryManager,
+                        true );
+                assertMatch(
+                        s,
+                        EntityTemplate.of( TestEntity1.class ).anyOf(
+                                EntityTemplate.of( TestEntity1.class ).eq( "b1", false ),
+                                EntityTemplate.of( TestEntity1.class ).ne( "dt1", entity1.dt1 ) ),
+                        data,
+                        address,
+                        memoryManager,
+                        false );
+                assertMatch(
+                        s,
+                        EntityTemplate
+                                .of( TestEntity1.class )
+                                .anyOf( EntityTemplate.of( TestEntity1.class ).eq( "fi1", 8 ), EntityTemplate.of( TestEntity1.class ).isNull( "s2" ) )
+                                .anyOf(
+                                        EntityTemplate.of( TestEntity1.class ).eq( "b1", false ),
+                                        EntityTemplate.of( TestEntity1.class ).anyOf(
+                                                EntityTemplate.of( TestEntity1.class ).eq( "sh1", (short) 3 ).eq( "fi1", 7 ) ) ),
+                        data,
+                        address,
+                        memoryManager,
+                        true );
+                assertMatch(
+                        s,
+                        EntityTemplate.of( TestEntity1.class ).anyOf( EntityTemplate.of( TestEntity1.class ).eq( "fi1", 8 ) ),
+                        data,
+                        address,
+                        memoryManager,
+                        false );
+            }
+            finally {
+                memoryManager.freeMemory( address );
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cantMatchTypedTemplateWithWrongValueType() {
+        serializer.compile( EntityTemplate.of( TestEntity1.class ).eq( "fi1", 7L ) );
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cantMatchTypedTemplateWithUnknownProperty() {
+        serializer.compile( EntityTemplate.of( TestEntity1.class ).eq( "unknown", 7 ) );
+    }
+
+    private static void assertMatch(final PropertiesSerializer serializer,
+                                    final EntityTemplate template,
+                                    final byte[] data,
+                                    final long address,
+                                    final EffectiveMemoryManager memoryManager,
+                                    final boolean expected) {
+        TemplateMatcher matcher = serializer.compile( template );
+        assertThat( template.toString(), matcher.matches( ByteBuffer.wrap( data ) ), is( expected ) );
+        assertThat( template.toString(), matcher.matches( memoryManager, address, data.length ), is( expected ) );
+    }
+
+    @Test
+    public void canEncodeDictionaryProperties()
+                                                throws Exception {
+        kryo.setDictionaryEncoding( true );
+        PropertiesSerializer registered = (PropertiesSerializer) kryo.getSerializer( TestEntity1.class );
+        assertThat( registered.isDictionaryEncoded(), is( true ) );
+
+        ObjectBuffer objectBuffer = new ObjectBuffer( kryo );
+        byte[] data = objectBuffer.writeObjectData( entity1 );
+        objectBuffer.readObjectData( data, TestEntity1.class ).assertMatch( entity1 );
+        assertThat( registered.getDictionary( "status" ).toArray(), is( new String[] { entity1.status } ) );
+
+        // other node has own dictionary, so it can read portable form only
+        DecoratedKryo other = new DecoratedKryo();
+        BO.registerPersistentClasses( other, bo.getOriginalPersistentEntity() );
+        byte[] portable = kryo.toPortable( ByteBuffer.wrap( data ), TestEntity1.class );
+        assertThat( portable.length > data.length, is( true ) );
+        new ObjectBuffer( other ).readObjectData( portable, TestEntity1.class ).assertMatch( entity1 );
+        objectBuffer.readObjectData( portable, TestEntity1.class ).assertMatch( entity1 );
+
+        // off-heap dictionaries are released together with kryo
+        kryo.destroy();
+        other.destroy();
+        assertThat( registered.getDictionary( "status" ).size(), is( 0 ) );
+    }
+
+    @Test
+    public void canConvertEntityIntoPortableProjection()
+                                                        throws Exception {
+        kryo.setDictionaryEncoding( true );
+        entity1.s1 = Strings.repeat( "x", 4096 );
+        byte[] data = new ObjectBuffer( kryo ).writeObjectData( entity1 );
+        int[] indexes = new int[] { bo.getPropertyIndex( "status" ), bo.getPropertyIndex( "l4" ), bo.getPropertyIndex( "fi1" ) };
+
+        // other node has own dictionary and reads only projected properties
+        DecoratedKryo other = new DecoratedKryo();
+        BO.registerPersistentClasses( other, bo.getOriginalPersistentEntity() );
+        byte[] projection = kryo.toPortable( ByteBuffer.wrap( data ), TestEntity1.class, indexes );
+        assertThat( projection.length < data.length, is( true ) );
+        assertThat(
+                other.deserializeProperties( ByteBuffer.wrap( projection ), TestEntity1.class, indexes ),
+                is( new Object[] { entity1.status, entity1.l4, entity1.fi1 } ) );
+        TestEntity1 read = new ObjectBuffer( other ).readObjectData( projection, TestEntity1.class );
+        assertThat( read.s1, is( nullValue() ) );
+        assertThat( read.fi2, is( entity1.fi2 ) );
+        other.destroy();
+    }
+
+    @Test
+    public void canMatchDictionaryEncodedProperty() {
+        kryo.setDictionaryEncoding( true );
+        PropertiesSerializer registered = (PropertiesSerializer) kryo.getSerializer( TestEntity1.class );
+        EffectiveMemoryManager memoryManager = new UnsafeMemoryManager();
+        byte[] data = new ObjectBuffer( kryo ).writeObjectData( entity1 );
+        long address = memoryManager.allocateMemory( data.length );
+        try {
+            memoryManager.writeBytesArray( address, data );
+
+            TestEntity1 template = new TestEntity1();
+            template.cleanBeanProperties();
+            template.status = entity1.status;
+            TemplateMatcher matcher = registered.compile( CacheStoreEntryWrapper.writeValueOf( bo, template ) );
+            Assert.assertTrue( matcher.matches( memoryManager, address, data.length ) );
+            Assert.assertTrue( matcher.matches( ByteBuffer.wrap( data ) ) );
+
+            template.status = "UNKNOWN";
+            matcher = registered.compile( CacheStoreEntryWrapper.writeValueOf( bo, template ) );
+            Assert.assertFalse( matcher.matches( memoryManager, address, data.length ) );
+            Assert.assertFalse( matcher.matches( ByteBuffer.wrap( data ) ) );
+            assertThat( registered.getDictionary( "status" ).lookup( "UNKNOWN" ), is( -1 ) );
+        }
+        finally {
+            memoryManager.freeMemory( address );
+        }
+    }
+
+    @Test
+    public void canReadAndMigrateEntityWrittenWithAnotherSchema() {
+        PropertiesSerializer registered = (PropertiesSerializer) kryo.getSerializer( TestEntity1.class );
+        entity1.s1 = Strings.repeat( "x", 4096 );
+        EntitySchema current = registered.getSchema();
+        Object[] values = CacheStoreEntryWrapper.writeValueOf( bo, entity1 ).asPropertyValuesArray();
+
+        // previous version of class: without s4 property, but with legacy property and s2 of another type
+        List<String> names = Lists.newArrayList( current.getPropertyNames() );
+        List<Class<?>> types = Lists.<Class<?>> newArrayList( current.getPropertyTypes() );
+        List<Object> oldValues = Lists.newArrayList( values );
+        int s4 = names.indexOf( "s4" ), s2 = names.indexOf( "s2" );
+        names.remove( s4 );
+        types.remove( s4 );
+        oldValues.remove( s4 );
+        types.set( s2, Long.class );
+        oldValues.set( s2, 123L );
+        names.add( "legacy" );
+        types.add( String.class );
+        oldValues.add( "legacy value" );
+        EntitySchema previous = new EntitySchema( names.toArray( new String[names.size()] ), types.toArray( new Class<?>[types.size()] ) );
+        assertThat( EntitySchema.valueOf( previous.toString() ), is( previous ) );
+        byte[] data = write( previous, oldValues.toArray() );
+
+        try {
+            new ObjectBuffer( kryo ).readObjectData( data, TestEntity1.class );
+            Assert.fail();
+        }
+        catch ( SerializationException e ) {
+            assertThat( Throwables.getStackTraceAsString( e ).contains( "fingerprint=" + previous.getFingerprint() ), is( true ) );
+        }
+
+        kryo.registerSchema( TestEntity1.class, previous );
+        TestEntity1 read = new ObjectBuffer( kryo ).readObjectData( data, TestEntity1.class );
+        assertThat( read.s4, is( nullValue() ) );
+        assertThat( read.s2, is( nullValue() ) );
+        read.s2 = entity1.s2;
+        read.s4 = entity1.s4;
+        entity1.assertMatch( read );
+        assertThat( registered.readID( ByteBuffer.wrap( data ) ), is( (Object) entity1.getUniqueIdentifier() ) );
+
+        TestEntity1 template = new TestEntity1();
+        template.cleanBeanProperties();
+        template.s1 = entity1.s1;
+        template.dt1 = entity1.dt1;
+        Assert.assertTrue( registered.compile( CacheStoreEntryWrapper.writeValueOf( bo, template ) ).matches( ByteBuffer.wrap( data ) ) );
+
+        byte[] migrated = kryo.toCurrentSchema( data, TestEntity1.class );
+        assertThat( registered.isCurrentSchema( ByteBuffer.wrap( migrated ) ), is( true ) );
+        TestEntity1 migratedEntity = new ObjectBuffer( kryo ).readObjectData( migrated, TestEntity1.class );
+        migratedEntity.s2 = entity1.s2;
+        migratedEntity.s4 = entity1.s4;
+        entity1.assertMatch( migratedEntity );
+    }
+
+    @Test
+    public void canReadNestedEntityWrittenWithAnotherSchema() {
+        PropertiesSerializer registered = (PropertiesSerializer) kryo.getSerializer( TestEntity1.class );
+        EntitySchema current = registered.getSchema();
+
+        // nested entity written by previous version of class (without s4 property)
+        TestEntity1 nested = new TestEntity1();
+        nested.afterPropertiesSet();
+        List<String> names = Lists.newArrayList( current.getPropertyNames() );
+        List<Class<?>> types = Lists.<Class<?>> newArrayList( current.getPropertyTypes() );
+        List<Object> oldValues = Lists.newArrayList( CacheStoreEntryWrapper.writeValueOf( bo, nested ).asPropertyValuesArray() );
+        int s4 = names.indexOf( "s4" );
+        names.remove( s4 );
+        types.remove( s4 );
+        oldValues.remove( s4 );
+        EntitySchema previous = new EntitySchema( names.toArray( new String[names.size()] ), types.toArray( new Class<?>[types.size()] ) );
+        byte[] nestedData = write( previous, oldValues.toArray() );
+
+        // outer entity written with the current schema
+        Object[] values = CacheStoreEntryWrapper.writeValueOf( bo, entity1 ).asPropertyValuesArray();
+        int data1 = current.indexOf( "data1" );
+        values[data1] = nestedData;
+        byte[] data = write( current, values );
+
+        try {
+            new ObjectBuffer( kryo ).readObjectData( data, TestEntity1.class );
+            Assert.fail();
+        }
+        catch ( SerializationException e ) {
+            assertThat( Throwables.getStackTraceAsString( e ).contains( "fingerprint=" + previous.getFingerprint() ), is( true ) );
+        }
+
+        kryo.registerSchema( TestEntity1.class, previous );
+        TestEntity1 read = new ObjectBuffer( kryo ).readObjectData( data, TestEntity1.class );
+        TestEntity1 readNested = (TestEntity1) read.data1;
+        assertThat( readNested.s4, is( nullValue() ) );
+        readNested.s4 = nested.s4;
+        nested.assertMatch( readNested );
+        read.data1 = entity1.data1;
+        entity1.assertMatch( read );
+
+        readNested = (TestEntity1) registered.readPropertyValue( ByteBuffer.wrap( data ), data1 );
+        readNested.s4 = nested.s4;
+        nested.assertMatch( readNested );
+        readNested = (TestEntity1) kryo.deserialize( ByteBuffer.wrap( data ), TestEntity1.class ).getPropertyValues()[data1];
+        readNested.s4 = nested.s4;
+        nested.assertMatch( readNested );
+    }
+
+    private byte[] write(final EntitySchema schema,
+                         final Object[] values) {
+        PropertiesSerializer registered = (PropertiesSerializer) kryo.getSerializer( TestEntity1.class );
+        ByteBuffer buffer = ByteBuffer.allocate( 64 * 1024 );
+        String[] names = schema.getPropertyNames();
+        buffer.putInt( schema.getFingerprint() );
+        int table = FieldOffsetTable.reserve( buffer, names.length );
+        for ( int i = 0; i < names.length; i++ ) {
+            // properties which are not changed are written the same way(dictionary encoding for example)
+            int index = registered.getSchema().indexOf( names[i] );
+            CachedSerializationProperty property = index >= 0
+                    && registered.cachedProperties[index].getPropertyType() == schema.getPropertyTypes()[i] ? registered.cachedProperties[index]
+                    : new CachedSerializationProperty( schema.getPropertyTypes()[i], null );
+            FieldOffsetTable.mark( buffer, table, names.length, i );
+            if ( values[i] instanceof byte[] && schema.getPropertyTypes()[i] == Object.class ) {
+                // nested entity serialized in advance (possibly with another schema)
+                kryo.writeClass( buffer, TestEntity1.class );
+                buffer.put( (byte[]) values[i] );
+            }
+            else
+                DecoratedKryo.writePropertyValue( kryo, property, values[i], buffer );
+        }
+        FieldOffsetTable.compact( buffer, table, names.length );
+        byte[] data = new byte[buffer.position()];
+        System.arraycopy( buffer.array(), 0, data, 0, data.length );
+        return data;
+    }
+
     @Test
     public void tpsOverByteArray() {
         ObjectBuffer objectBuffer = new ObjectBuffer( kryo );
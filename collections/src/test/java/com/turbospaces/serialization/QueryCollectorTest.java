@@ -0,0 +1,164 @@
+/**
+ * Copyright (C) 2011 Andrey Borisov <aandrey.borisov@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turbospaces.serialization;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.esotericsoftware.kryo.ObjectBuffer;
+import com.google.common.collect.Lists;
+import com.turbospaces.model.BO;
+import com.turbospaces.model.EntityQuery;
+import com.turbospaces.model.EntityTemplate;
+import com.turbospaces.model.TestEntity1;
+
+@SuppressWarnings("javadoc")
+public class QueryCollectorTest {
+    DecoratedKryo kryo;
+    PropertiesSerializer serializer;
+    List<ByteBuffer> entries;
+
+    @Before
+    public void before()
+                        throws Exception {
+        BO bo = TestEntity1.getPersistentEntity();
+        kryo = new DecoratedKryo();
+        BO.registerPersistentClasses( kryo, bo.getOriginalPersistentEntity() );
+        serializer = (PropertiesSerializer) kryo.getSerializer( TestEntity1.class );
+
+        entries = Lists.newArrayList();
+        ObjectBuffer objectBuffer = new ObjectBuffer( kryo );
+        for ( int i = 0; i < 100; i++ ) {
+            TestEntity1 entity = new TestEntity1();
+            entity.afterPropertiesSet( String.format( "id-%03d", i ) );
+            entity.fi1 = i % 10;
+            entity.s2 = i % 3 == 0 ? null : "s2";
+            entries.add( ByteBuffer.wrap( objectBuffer.writeObjectData( entity ) ) );
+        }
+        Collections.shuffle( entries );
+    }
+
+    @Test
+    public void canSelectTopEntitiesAndPageWithCursor() {
+        EntityQuery query = EntityQuery.of( EntityTemplate.of( TestEntity1.class ) ).orderBy( "fi1", false ).limit( 15 );
+        List<String> ids = Lists.newArrayList();
+        int pages = 0;
+        EntityQuery.Cursor cursor = null;
+        do {
+            QueryCollector collector = collect( query.after( cursor ) );
+            ByteBuffer[] results = collector.getResults();
+            for ( ByteBuffer result : results ) {
+                TestEntity1 entity = new ObjectBuffer( kryo ).readObjectData( result.array(), TestEntity1.class );
+                // descending by fi1, then ascending by id
+                int expected = ids.size();
+                assertThat( entity.fi1, is( 9 - expected / 10 ) );
+                assertThat( entity.getUniqueIdentifier(), is( String.format( "id-%03d", ( 9 - expected / 10 ) + ( expected % 10 ) * 10 ) ) );
+                ids.add( entity.getUniqueIdentifier() );
+            }
+            cursor = collector.getNextCursor();
+            pages++;
+        }
+        while ( cursor != null );
+        assertThat( ids.size(), is( 100 ) );
+        assertThat( pages, is( 7 ) );
+    }
+
+    @Test
+    public void canApplyOffsetToOrderedQuery() {
+        EntityQuery query = EntityQuery.of( EntityTemplate.of( TestEntity1.class ).eq( "fi1", 4 ) ).orderBy( "uniqueIdentifier" ).offset( 3 ).limit( 5 );
+        QueryCollector collector = collect( query );
+        ByteBuffer[] results = collector.getResults();
+        assertThat( results.length, is( 5 ) );
+        for ( int i = 0; i < results.length; i++ )
+            assertThat( serializer.readID( results[i] ), is( (Object) String.format( "id-%03d", 34 + i * 10 ) ) );
+        assertThat( collector.getNextCursor(), is( EntityQuery.Cursor.valueOf( "id-074", "id-074" ) ) );
+
+        // the last page is not full
+        collector = collect( query.offset( 8 ) );
+        assertThat( collector.getResults().length, is( 2 ) );
+        assertThat( collector.getNextCursor(), is( nullValue() ) );
+    }
+
+    @Test
+    public void canOrderNullsFirst() {
+        QueryCollector collector = collect( EntityQuery.of( EntityTemplate.of( TestEntity1.class ) ).orderBy( "s2" ).limit( 34 ) );
+        ByteBuffer[] results = collector.getResults();
+        for ( ByteBuffer result : results )
+            assertThat( serializer.readPropertyValue( result, serializer.getSchema().indexOf( "s2" ) ), is( nullValue() ) );
+    }
+
+    @Test
+    public void canStopUnorderedScanAsSoonAsLimitIsReached() {
+        EntityQuery query = EntityQuery.of( EntityTemplate.of( TestEntity1.class ).eq( "fi1", 1 ) ).offset( 2 ).limit( 5 );
+        QueryCollector collector = serializer.compile( query );
+        int offered = 0;
+        for ( ByteBuffer entry : entries )
+            if ( collector.getMatcher().matches( entry ) ) {
+                offered++;
+                if ( !collector.offer( entry ) )
+                    break;
+            }
+        assertThat( offered, is( 7 ) );
+        assertThat( collector.getResults().length, is( 5 ) );
+        assertThat( collector.getNextCursor(), is( nullValue() ) );
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cantPageUnorderedQueryWithCursor() {
+        serializer.compile( EntityQuery.of( EntityTemplate.of( TestEntity1.class ) ).after( EntityQuery.Cursor.valueOf( 1, "id" ) ) );
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cantOrderByNonComparableProperty() {
+        serializer.compile( EntityQuery.of( EntityTemplate.of( TestEntity1.class ) ).orderBy( "longs" ) );
+    }
+
+    @Test
+    public void canSerializeQuery() {
+        EntityQuery query = EntityQuery
+                .of( EntityTemplate
+                        .of( TestEntity1.class )
+                        .eq( "fi1", 1 )
+                        .in( "s1", "a", "b" )
+                        .isNull( "s2" )
+                        .anyOf( EntityTemplate.of( TestEntity1.class ).ne( "b1", true ), EntityTemplate.of( TestEntity1.class ).eq( "l1", 5L ) ) )
+                .orderBy( "fi1", false )
+                .orderBy( "s1" )
+                .offset( 10 )
+                .limit( 20 )
+                .after( EntityQuery.Cursor.valueOf( 1, "a", "id" ) );
+        ObjectBuffer objectBuffer = new ObjectBuffer( kryo );
+        EntityQuery copy = (EntityQuery) objectBuffer.readClassAndObject( objectBuffer.writeClassAndObject( query ) );
+        assertThat( copy.toString(), is( query.toString() ) );
+        assertThat( copy.getCursor(), is( query.getCursor() ) );
+    }
+
+    private QueryCollector collect(final EntityQuery query) {
+        QueryCollector collector = serializer.compile( query );
+        for ( ByteBuffer entry : entries )
+            if ( collector.getMatcher().matches( entry ) && !collector.offer( entry ) )
+                break;
+        return collector;
+    }
+}
@@ -44,7 +44,7 @@ public class SerializationPerformanceTest extends AbstractBenchmark {
         kryo.register( cl2, s2 );
         kryo.register( Autowire.class, new EnumSerializer( Autowire.class ) );
         kryo.register( TestEntity1.class, new FieldsSerializer( kryo, new BasicBO( TestEntity1.class ) ) );
-        run( true );
+        run( "direct access:->" );
     }
 
     @SuppressWarnings({ "unchecked", "rawtypes" })
@@ -60,11 +60,29 @@ public class SerializationPerformanceTest extends AbstractBenchmark {
         mappingContext.afterPropertiesSet();
         BO bo = new BO( (BasicPersistentEntity) mappingContext.getPersistentEntity( TestEntity1.class ) );
         BO.registerPersistentClasses( kryo, bo.getOriginalPersistentEntity() );
-        run( false );
+        // override generated serializer with reflective one
+        kryo.register( TestEntity1.class, new PropertiesSerializer( kryo, bo ) );
+        run( "cglib access->" );
     }
 
-    private void run(final boolean nativeAccess) {
-        int iterations = 10 * 1000 * 1000;
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @BenchmarkOptions(warmupRounds = 1, benchmarkRounds = 1)
+    @Test
+    public void runBytecodeKryoSerialization()
+                                              throws SecurityException,
+                                              NoSuchMethodException,
+                                              ClassNotFoundException,
+                                              IntrospectionException {
+        SimpleMappingContext mappingContext = new SimpleMappingContext();
+        mappingContext.setInitialEntitySet( Collections.singleton( TestEntity1.class ) );
+        mappingContext.afterPropertiesSet();
+        BO bo = new BO( (BasicPersistentEntity) mappingContext.getPersistentEntity( TestEntity1.class ) );
+        BO.registerPersistentClasses( kryo, bo.getOriginalPersistentEntity() );
+        run( "bytecode access->" );
+    }
+
+    private void run(final String prefix) {
+        int iterations = Integer.getInteger( "iterations", 10 * 1000 * 1000 );
         long now = System.currentTimeMillis();
 
         JVMUtil.repeatConcurrently( Runtime.getRuntime().availableProcessors(), iterations, new Runnable() {
@@ -77,7 +95,7 @@ public class SerializationPerformanceTest extends AbstractBenchmark {
         } );
 
         double seconds = ( (double) ( System.currentTimeMillis() - now ) / 1000 );
-        System.out.println( ( nativeAccess ? "direct access:->" : "cglib access->" ) + "serialization TPS = " + ( (int) ( iterations / seconds ) ) );
+        System.out.println( prefix + "serialization TPS = " + ( (int) ( iterations / seconds ) ) );
 
         ObjectBuffer buffer = new ObjectBuffer( kryo );
         buffer.setKryo( kryo );
@@ -94,7 +112,6 @@ public class SerializationPerformanceTest extends AbstractBenchmark {
         } );
 
         seconds = ( (double) ( System.currentTimeMillis() - now ) / 1000 );
-        System.out
-                .println( ( nativeAccess ? "direct access:->" : "cglib access->" ) + "de-serialization TPS = " + ( (int) ( iterations / seconds ) ) );
+        System.out.println( prefix + "de-serialization TPS = " + ( (int) ( iterations / seconds ) ) );
     }
 }
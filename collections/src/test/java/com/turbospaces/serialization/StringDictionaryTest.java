@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2011 Andrey Borisov <aandrey.borisov@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turbospaces.serialization;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.turbospaces.core.UnsafeMemoryManager;
+
+@SuppressWarnings("javadoc")
+public class StringDictionaryTest {
+    StringDictionary dictionary = new StringDictionary( new UnsafeMemoryManager() );
+
+    @After
+    public void after() {
+        dictionary.destroy();
+    }
+
+    @Test
+    public void canEncodeAndDecode() {
+        assertThat( dictionary.lookup( "USD" ), is( -1 ) );
+        assertThat( dictionary.encode( "USD" ), is( 0 ) );
+        assertThat( dictionary.encode( "EUR" ), is( 1 ) );
+        assertThat( dictionary.encode( "USD" ), is( 0 ) );
+        assertThat( dictionary.encode( "" ), is( 2 ) );
+        assertThat( dictionary.encode( "\u041c\u043e\u0441\u043a\u0432\u0430" ), is( 3 ) );
+
+        assertThat( dictionary.lookup( "EUR" ), is( 1 ) );
+        assertThat( dictionary.decode( 0 ), is( "USD" ) );
+        assertThat( dictionary.decode( 2 ), is( "" ) );
+        assertThat( dictionary.decode( 3 ), is( "\u041c\u043e\u0441\u043a\u0432\u0430" ) );
+        assertThat( dictionary.size(), is( 4 ) );
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cantDecodeUnknownCode() {
+        dictionary.encode( "USD" );
+        dictionary.decode( 1 );
+    }
+
+    @Test
+    public void canGrowAndRestore() {
+        for ( int i = 0; i < 1000; i++ )
+            assertThat( dictionary.encode( "country-" + i ), is( i ) );
+        for ( int i = 0; i < 1000; i++ )
+            assertThat( dictionary.lookup( "country-" + i ), is( i ) );
+
+        StringDictionary restored = new StringDictionary( new UnsafeMemoryManager() );
+        try {
+            for ( String value : dictionary.toArray() )
+                restored.encode( value );
+            for ( int i = 0; i < 1000; i++ )
+                assertThat( restored.decode( i ), is( "country-" + i ) );
+        }
+        finally {
+            restored.destroy();
+        }
+    }
+
+    @Test
+    public void canEncodeConcurrently()
+                                       throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch( 8 );
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        for ( int t = 0; t < 8; t++ )
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for ( int i = 0; i < 500; i++ ) {
+                            String value = "status-" + i;
+                            assertThat( dictionary.decode( dictionary.encode( value ) ), is( value ) );
+                        }
+                    }
+                    catch ( Throwable e ) {
+                        error.set( e );
+                    }
+                    finally {
+                        latch.countDown();
+                    }
+                }
+            }.start();
+        latch.await();
+        assertThat( error.get() == null, is( true ) );
+        assertThat( dictionary.size(), is( 500 ) );
+    }
+}
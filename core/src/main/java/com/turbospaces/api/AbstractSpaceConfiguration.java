@@ -327,6 +327,9 @@ public abstract class AbstractSpaceConfiguration implements ApplicationContextAw
         }
         if ( executorService != null )
             executorService.shutdown();
+        // strings dictionaries are allocated off-heap
+        if ( kryo != null )
+            kryo.destroy();
     }
 
     /**
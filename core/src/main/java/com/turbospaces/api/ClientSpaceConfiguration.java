@@ -17,6 +17,8 @@ package com.turbospaces.api;
 
 import org.jgroups.util.UUID;
 
+import com.google.common.base.Preconditions;
+
 import com.turbospaces.network.NetworkCommunicationDispatcher;
 
 /**
@@ -26,7 +28,13 @@ import com.turbospaces.network.NetworkCommunicationDispatcher;
  * @since 0.1
  */
 public final class ClientSpaceConfiguration extends AbstractSpaceConfiguration {
+    private static final int DEFAULT_FETCH_CHUNK_SIZE = 256;
+
     private NetworkCommunicationDispatcher dispatcher;
+    /**
+     * max number of entities transferred in single response of streaming fetch.
+     */
+    private int fetchChunkSize = DEFAULT_FETCH_CHUNK_SIZE;
 
     @Override
     public void afterPropertiesSet()
@@ -46,4 +54,24 @@ public final class ClientSpaceConfiguration extends AbstractSpaceConfiguration {
     public NetworkCommunicationDispatcher getReceiever() {
         return dispatcher;
     }
+
+    /**
+     * @return max number of entities transferred in single response of streaming fetch
+     * @see JSpace#fetch(Object, int, int, int, FetchConsumer)
+     */
+    public int getFetchChunkSize() {
+        return fetchChunkSize;
+    }
+
+    /**
+     * change the default chunk size of streaming fetch (which is <b>256</b> entities). bigger chunks mean less network
+     * round-trips, smaller chunks mean less memory on both sides and faster reaction on consumer's stop.
+     * 
+     * @param chunkSize
+     *            max number of entities in single response
+     */
+    public void setFetchChunkSize(final int chunkSize) {
+        Preconditions.checkArgument( chunkSize > 0 );
+        this.fetchChunkSize = chunkSize;
+    }
 }
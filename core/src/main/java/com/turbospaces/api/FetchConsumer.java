@@ -0,0 +1,43 @@
+/**
+ * Copyright (C) 2011-2012 Andrey Borisov <aandrey.borisov@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turbospaces.api;
+
+import java.nio.ByteBuffer;
+
+/**
+ * consumer of streaming fetch results - matched entities are passed to consumer one by one as soon as they are
+ * fetched, so that caller doesn't need to hold the whole result in memory. Consumer controls the stream - it may stop
+ * fetching at any time by returning <code>false</code>.</p>
+ * 
+ * For remote jspace proxy results are transferred in chunks and the next chunk is requested only after consumer has
+ * processed the previous one (so slow consumer naturally slows down the server).
+ * 
+ * @param <T>
+ *            type of entity ({@link ByteBuffer} if {@link JSpace#RETURN_AS_BYTES} modifier is used)
+ * @since 0.1
+ * @see JSpace#fetch(Object, int, int, int, FetchConsumer)
+ */
+public interface FetchConsumer<T> {
+
+    /**
+     * callback triggered for each fetched entity.
+     * 
+     * @param entity
+     *            matched (and taken/exclusively locked if requested) entity
+     * @return <code>true</code> to continue fetching, <code>false</code> to stop
+     */
+    boolean accept(T entity);
+}
@@ -30,6 +30,9 @@ import org.springframework.remoting.RemoteLookupFailureException;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.turbospaces.collections.EvictableCache;
+import com.turbospaces.model.AggregationResult;
+import com.turbospaces.model.EntityAggregation;
+import com.turbospaces.model.EntityQuery;
 
 /**
  * core interface of the system which encapsulates concept of tuple spaces.
@@ -87,7 +90,8 @@ public interface JSpace extends InitializingBean, DisposableBean, EvictableCache
      * send notification to the listeners if entity was inserted into the space and matches with template. Currently
      * notification will happen after transaction completition only. Additionally you may want to specify
      * {@link #MATCH_BY_ID} modifier and be notified if matching occurs by primary key (all other fields are not taking
-     * part in matching process).
+     * part in matching process) and {@link #CONFLATE_NOTIFICATIONS} modifier to receive only the latest state of
+     * frequently modified entities.
      * 
      * @param template
      *            Java Object, basically just POJO
@@ -132,13 +136,19 @@ public interface JSpace extends InitializingBean, DisposableBean, EvictableCache
      * 
      * <li>Also you can treat fetch with {@link #EVICT_ONLY} modifier exactly the same as with {@link #TAKE_ONLY} with
      * small difference - evict does not remove entity from external data source if such data source configured.</li>
+     * 
+     * <li>If nothing matches template at the moment, read/take (but not evict and not {@link #MATCH_BY_ID} fetch) waits
+     * up to timeout for matching entity to be committed by concurrent transaction ({@link Integer#MAX_VALUE} means
+     * forever) - this allows to use space as blocking work queue without polling. Remote space can wait on single
+     * server node only (template of partitioned space with routing value), otherwise
+     * {@link org.springframework.dao.InvalidDataAccessApiUsageException} is raised.</li>
      * </ul>
      * 
      * @param template
      *            Java Object, basically just POJO
      * @param timeout
      *            allows to wait for concurrent transaction to complete if
-     *            any (in milliseconds).
+     *            any (in milliseconds), also the max time to wait for matching entity.
      * @param maxResults
      *            in case of multiple matches in space specify the maximum numbers of records to be fetched/deleted
      * @param modifiers
@@ -172,6 +182,98 @@ public interface JSpace extends InitializingBean, DisposableBean, EvictableCache
                                  RemoteLookupFailureException,
                                  RemoteInvocationFailureException;
 
+    /**
+     * streaming version of {@link #fetch(Object, int, int, int)} - instead of collecting all matched entities into
+     * array, entities are passed to consumer one by one as soon as they are fetched (matched entities are collected off
+     * the heap segment by segment, so that memory footprint doesn't depend on the size of the result). Consumer can
+     * stop fetching at any moment by returning <code>false</code>.</p>
+     * 
+     * For remote jspace proxy entities are transferred in chunks, the next chunk is requested only after all entities
+     * of previous chunk have been consumed. Note that with {@link #TAKE_ONLY}/{@link #EVICT_ONLY}/
+     * {@link #EXCLUSIVE_READ_LOCK} modifiers entities are locked by server chunk by chunk, so that if consumer stops in
+     * the middle of chunk, the rest of chunk has been taken/locked as well.
+     * 
+     * @param template
+     *            Java Object, basically just POJO
+     * @param timeout
+     *            allows to wait for concurrent transaction to complete if
+     *            any (in milliseconds).
+     * @param maxResults
+     *            maximum numbers of records to be fetched/deleted
+     * @param modifiers
+     *            the same modifiers as for {@link #fetch(Object, int, int, int)}
+     * @param consumer
+     *            fetched entities consumer
+     * @return number of entities passed to consumer
+     * 
+     * @throws CannotAcquireLockException
+     *             if concurrent "write" (or "exclusive-read") transaction
+     *             trying to update/delete the same object and is not completed within given
+     *             timeout.
+     * @throws RemoteConnectFailureException
+     *             for remote jspace proxy and for communication errors between client and server this exception being
+     *             raised
+     * @throws RemoteLookupFailureException
+     *             for remote jspace proxy in case when no remote server are being available indicates that client
+     *             unable to lookup any of remote server with-in some pre-configured timeout
+     * @throws RemoteInvocationFailureException
+     *             for remote jspace proxy indicates that server was not able to execute method due to user/internal
+     *             exception
+     */
+    <T> int fetch(@Nonnull Object template,
+                  @Nonnegative int timeout,
+                  @Nonnegative int maxResults,
+                  int modifiers,
+                  @Nonnull FetchConsumer<? super T> consumer)
+                                                             throws CannotAcquireLockException,
+                                                             RemoteConnectFailureException,
+                                                             RemoteLookupFailureException,
+                                                             RemoteInvocationFailureException;
+
+    /**
+     * projection version of {@link #fetch(Object, int, int, int)} - only given properties of matched entities are
+     * returned. only requested properties are de-serialized (other properties are skipped without decoding), for remote
+     * jspace proxy projection is made by server, so that only requested properties are transferred to client.
+     * 
+     * @param template
+     *            Java Object, basically just POJO
+     * @param timeout
+     *            allows to wait for concurrent transaction to complete if
+     *            any (in milliseconds).
+     * @param maxResults
+     *            maximum numbers of records to be fetched/deleted
+     * @param modifiers
+     *            the same modifiers as for {@link #fetch(Object, int, int, int)}
+     * @param properties
+     *            names of properties to return
+     * @return property values for each matched entity (in the same order as property names)
+     * 
+     * @throws IllegalArgumentException
+     *             if there is no properties or property is not persistent property of template's class
+     * @throws CannotAcquireLockException
+     *             if concurrent "write" (or "exclusive-read") transaction
+     *             trying to update/delete the same object and is not completed within given
+     *             timeout.
+     * @throws RemoteConnectFailureException
+     *             for remote jspace proxy and for communication errors between client and server this exception being
+     *             raised
+     * @throws RemoteLookupFailureException
+     *             for remote jspace proxy in case when no remote server are being available indicates that client
+     *             unable to lookup any of remote server with-in some pre-configured timeout
+     * @throws RemoteInvocationFailureException
+     *             for remote jspace proxy indicates that server was not able to execute method due to user/internal
+     *             exception
+     */
+    Object[][] fetchProperties(@Nonnull Object template,
+                               @Nonnegative int timeout,
+                               @Nonnegative int maxResults,
+                               int modifiers,
+                               @Nonnull String... properties)
+                                                             throws CannotAcquireLockException,
+                                                             RemoteConnectFailureException,
+                                                             RemoteLookupFailureException,
+                                                             RemoteInvocationFailureException;
+
     /**
      * write(insert/update) java object into the space, waiting for the concurrent "write" transaction to
      * commit/rollback within given timeout (concurrent "write" transaction means parallel
@@ -240,6 +342,66 @@ public interface JSpace extends InitializingBean, DisposableBean, EvictableCache
                              RemoteLookupFailureException,
                              RemoteInvocationFailureException;
 
+    /**
+     * execute query (predicate tree, ordering, offset/limit and cursor) and return single page of matched entities.
+     * unlike {@link #fetch(Object, int, int, int)} query doesn't modify space and doesn't acquire locks, so it is
+     * never blocked by concurrent transactions (uncommitted changes of other transactions are not visible, changes of
+     * the current transaction are).</p>
+     * 
+     * Query is executed as streaming scan over off-heap storage and only the requested page is kept in memory, for
+     * partitioned space each partition returns its best <code>offset + limit</code> entities and pages are merged by
+     * client.
+     * 
+     * @param query
+     *            query
+     * @return page of matched entities
+     * 
+     * @throws IllegalArgumentException
+     *             if query refers to unknown property, ordering property is not comparable or cursor doesn't match
+     *             query's ordering
+     * @throws RemoteConnectFailureException
+     *             for remote jspace proxy and for communication errors between client and server this exception being
+     *             raised
+     * @throws RemoteLookupFailureException
+     *             for remote jspace proxy in case when no remote server are being available indicates that client
+     *             unable to lookup any of remote server with-in some pre-configured timeout
+     * @throws RemoteInvocationFailureException
+     *             for remote jspace proxy indicates that server was not able to execute method due to user/internal
+     *             exception
+     */
+    <T> QueryPage<T> query(@Nonnull EntityQuery query)
+                                                      throws RemoteConnectFailureException,
+                                                      RemoteLookupFailureException,
+                                                      RemoteInvocationFailureException;
+
+    /**
+     * execute aggregation (count/sum/min/max optionally grouped by properties) over entities matching template. the
+     * aggregation is executed by space nodes over serialized entities (only grouping and aggregated properties are
+     * de-serialized, segments are aggregated in parallel), so that only aggregated values are transferred to client,
+     * for partitioned space partial results of partitions are combined by client. visibility rules are the same as for
+     * {@link #query(EntityQuery)}.
+     * 
+     * @param aggregation
+     *            aggregation
+     * @return values of aggregate functions per group
+     * 
+     * @throws IllegalArgumentException
+     *             if aggregation refers to unknown property or property type doesn't suit aggregate function
+     * @throws RemoteConnectFailureException
+     *             for remote jspace proxy and for communication errors between client and server this exception being
+     *             raised
+     * @throws RemoteLookupFailureException
+     *             for remote jspace proxy in case when no remote server are being available indicates that client
+     *             unable to lookup any of remote server with-in some pre-configured timeout
+     * @throws RemoteInvocationFailureException
+     *             for remote jspace proxy indicates that server was not able to execute method due to user/internal
+     *             exception
+     */
+    AggregationResult aggregate(@Nonnull EntityAggregation aggregation)
+                                                                      throws RemoteConnectFailureException,
+                                                                      RemoteLookupFailureException,
+                                                                      RemoteInvocationFailureException;
+
     /**
      * Gets number of elements in the jspace. theoretically size is not restricted by {@link Integer#MAX_VALUE} and can
      * exceed the int up to {@link Long#MAX_VALUE}
@@ -373,6 +535,16 @@ public interface JSpace extends InitializingBean, DisposableBean, EvictableCache
      */
     int RETURN_AS_BYTES = 1 << 9;
 
+    // NOTIFY MODIFIERS
+    /**
+     * Conflate notifications modifier. You can specify this modifier during notification registration. Notifications of
+     * the listener are collected per commit (or per time window if
+     * {@link SpaceConfiguration#setNotificationConflationWindow(long)} is configured) and repeated modifications of the
+     * same entity (by primary key) are conflated - only the latest state is delivered. If listener implements
+     * {@link SpaceBatchNotificationListener}, all collected notifications are delivered with single call.
+     */
+    int CONFLATE_NOTIFICATIONS = 1 << 10;
+
     // TERMINOLOGY
     /**
      * Jspace server identifier(prefix).
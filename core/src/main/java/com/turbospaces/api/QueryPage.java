@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2011-2012 Andrey Borisov <aandrey.borisov@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turbospaces.api;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.annotation.concurrent.Immutable;
+
+import com.google.common.base.Objects;
+import com.turbospaces.model.EntityQuery;
+
+/**
+ * page of query results - entities in query's order and the cursor pointing to the last entity of page (if the page is
+ * full and query is ordered).
+ * 
+ * @param <T>
+ *            persistent class
+ * @since 0.1
+ * @see JSpace#query(EntityQuery)
+ */
+@Immutable
+public final class QueryPage<T> implements Iterable<T> {
+    private final List<T> entities;
+    private final EntityQuery.Cursor nextCursor;
+
+    /**
+     * create page for given entities and next page cursor.
+     * 
+     * @param entities
+     *            page entities
+     * @param nextCursor
+     *            cursor for the next page (or <code>null</code>)
+     */
+    public QueryPage(final List<T> entities, final EntityQuery.Cursor nextCursor) {
+        this.entities = Collections.unmodifiableList( entities );
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * @return entities of page in query's order
+     */
+    public List<T> getEntities() {
+        return entities;
+    }
+
+    /**
+     * @return cursor to be passed to {@link EntityQuery#after(EntityQuery.Cursor)} for the next page or
+     *         <code>null</code> if there are no more entities (or query is not ordered)
+     */
+    public EntityQuery.Cursor getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * @return true if the next page may contain entities
+     */
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return entities.iterator();
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper( this ).add( "size", entities.size() ).add( "nextCursor", nextCursor ).toString();
+    }
+}
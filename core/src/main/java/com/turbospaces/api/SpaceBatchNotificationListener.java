@@ -0,0 +1,42 @@
+/**
+ * Copyright (C) 2011-2012 Andrey Borisov <aandrey.borisov@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turbospaces.api;
+
+import java.util.List;
+
+/**
+ * Jspace notification listener capable of receiving conflated notifications (see {@link JSpace#CONFLATE_NOTIFICATIONS})
+ * in batches - all notifications collected per commit (or per conflation time window) are delivered with single call
+ * instead of calling {@link #handleNotification(Object, SpaceOperation)} for each entity.</p>
+ * 
+ * This is useful for high-frequency updates of the same entities (market data for example) where listener is only
+ * interested in the latest state of entities.
+ * 
+ * @since 0.1
+ */
+public interface SpaceBatchNotificationListener extends SpaceNotificationListener {
+
+    /**
+     * callback triggered with conflated notifications (at most one notification per entity) in order of modifications.
+     * 
+     * @param entities
+     *            objects which were updated/written/deleted in/from space
+     * @param operations
+     *            operation identifiers (in the same order as entities)
+     */
+    void handleNotifications(List<Object> entities,
+                             List<SpaceOperation> operations);
+}
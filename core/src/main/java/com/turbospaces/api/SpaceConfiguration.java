@@ -15,6 +15,11 @@
  */
 package com.turbospaces.api;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
 import org.jgroups.util.UUID;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,12 +28,17 @@ import org.springframework.beans.factory.InitializingBean;
 import org.springframework.data.mapping.context.AbstractMappingContext;
 
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.lmax.disruptor.BlockingWaitStrategy;
+import com.lmax.disruptor.WaitStrategy;
 import com.turbospaces.core.Memory;
 import com.turbospaces.model.BO;
 import com.turbospaces.network.ServerCommunicationDispatcher;
 import com.turbospaces.network.SpaceNetworkServiceProvider;
 import com.turbospaces.serialization.DecoratedKryo;
+import com.turbospaces.spaces.NotificationPipeline;
 import com.turbospaces.spaces.SimplisticJSpace;
+import com.turbospaces.spaces.tx.SnapshotEpochs;
 
 /**
  * This is the server side {@link JSpace} configuration placeholder. Important consideration is that turbospaces relies
@@ -72,6 +82,17 @@ public final class SpaceConfiguration extends AbstractSpaceConfiguration {
     };
     private CapacityRestriction capacityRestriction = new CapacityRestriction();
     private ServerCommunicationDispatcher dispatcher;
+    private int notificationBufferSize = defaultNotificationBufferSize();
+    private int notificationThreads = defaultNotificationThreads();
+    private WaitStrategy notificationWaitStrategy = new BlockingWaitStrategy();
+    private NotificationPipeline notificationPipeline;
+    private long notificationConflationWindow;
+    private boolean snapshotReads;
+    private final SnapshotEpochs snapshotEpochs = new SnapshotEpochs();
+    private boolean groupCommit;
+    private long groupCommitWindow;
+    private int maxBlockedFetches = 1 << 6;
+    private ExecutorService blockedFetchExecutor;
 
     @Override
     protected void adjustBO(final BO bo) {
@@ -86,6 +107,9 @@ public final class SpaceConfiguration extends AbstractSpaceConfiguration {
         // propagate max memory if necessary
         if ( cr.getMaxMemorySizeInBytes() > getCapacityRestriction().getMaxMemorySizeInBytes() )
             cr.setMaxMemorySizeInMb( Memory.toMb( getCapacityRestriction().getMaxMemorySizeInBytes() ) );
+        // propagate global compression codec if there is no codec on class level
+        if ( cr.getCompressionCodec() == null )
+            cr.setCompressionCodec( getCapacityRestriction().getCompressionCodec() );
         super.adjustBO( bo );
     }
 
@@ -137,10 +161,190 @@ public final class SpaceConfiguration extends AbstractSpaceConfiguration {
         this.capacityRestriction = Preconditions.checkNotNull( capacityRestriction ).clone();
     }
 
+    /**
+     * set the size of post-commit notifications ring buffer (max number of notifications which are not delivered yet,
+     * committers are blocked once buffer is full).
+     * 
+     * @param notificationBufferSize
+     *            ring buffer size (must be power of 2)
+     */
+    public void setNotificationBufferSize(final int notificationBufferSize) {
+        Preconditions.checkArgument( Integer.bitCount( notificationBufferSize ) == 1, "buffer size %s is not power of 2", notificationBufferSize );
+        this.notificationBufferSize = notificationBufferSize;
+    }
+
+    /**
+     * set the number of post-commit notifications handler threads (each listener is notified by the same thread).
+     * 
+     * @param notificationThreads
+     *            number of handler threads
+     */
+    public void setNotificationThreads(final int notificationThreads) {
+        Preconditions.checkArgument( notificationThreads > 0 );
+        this.notificationThreads = notificationThreads;
+    }
+
+    /**
+     * set the strategy of waiting for post-commit notifications by handler threads - {@link BlockingWaitStrategy} by
+     * default, {@link com.lmax.disruptor.SleepingWaitStrategy}, {@link com.lmax.disruptor.YieldingWaitStrategy} or
+     * {@link com.lmax.disruptor.BusySpinWaitStrategy} trade CPU for lower notification latency.
+     * 
+     * @param notificationWaitStrategy
+     *            wait strategy
+     */
+    public void setNotificationWaitStrategy(final WaitStrategy notificationWaitStrategy) {
+        this.notificationWaitStrategy = Preconditions.checkNotNull( notificationWaitStrategy );
+    }
+
+    /**
+     * set the time window of conflated notifications (see {@link JSpace#CONFLATE_NOTIFICATIONS}) - notifications are
+     * collected and conflated for this period of time since the first pending notification of the listener. By default
+     * notifications are conflated per commit only.
+     * 
+     * @param notificationConflationWindow
+     *            time window in milliseconds (0 means per commit)
+     */
+    public void setNotificationConflationWindow(final long notificationConflationWindow) {
+        Preconditions.checkArgument( notificationConflationWindow >= 0 );
+        this.notificationConflationWindow = notificationConflationWindow;
+    }
+
+    /**
+     * @return time window of conflated notifications in milliseconds (0 means per commit)
+     */
+    public long getNotificationConflationWindow() {
+        return notificationConflationWindow;
+    }
+
+    /**
+     * enable multi-version (snapshot) reads - read-only fetches inside transaction see consistent snapshot taken at
+     * transaction begin and never wait for concurrent writers. previous versions of modified entities are retained
+     * off-heap until no active snapshot needs them, so each commit pays for extra copy of entity's state. By default
+     * read-only fetches see the latest committed state.
+     * 
+     * @param snapshotReads
+     *            whether snapshot reads are enabled
+     */
+    public void setSnapshotReads(final boolean snapshotReads) {
+        this.snapshotReads = snapshotReads;
+    }
+
+    /**
+     * @return whether multi-version (snapshot) reads are enabled
+     */
+    public boolean isSnapshotReads() {
+        return snapshotReads;
+    }
+
+    /**
+     * @return commit epochs clock of snapshot reads
+     */
+    public SnapshotEpochs getSnapshotEpochs() {
+        return snapshotEpochs;
+    }
+
+    /**
+     * enable group commit - concurrent commits of the same space store are collected and applied together by one of
+     * committers, so that each off-heap segment is locked once per group of commits rather than once per modified entity.
+     * Key locks are still released by each committer. By default each transaction is applied by its own committer.
+     * 
+     * @param groupCommit
+     *            whether group commit is enabled
+     */
+    public void setGroupCommit(final boolean groupCommit) {
+        this.groupCommit = groupCommit;
+    }
+
+    /**
+     * @return whether group commit is enabled
+     */
+    public boolean isGroupCommit() {
+        return groupCommit;
+    }
+
+    /**
+     * set the time the group commit leader waits for other concurrent committers to join the group. By default group
+     * is formed by the commits arrived while previous group has been applied (there is no extra latency).
+     * 
+     * @param groupCommitWindow
+     *            time window in microseconds
+     */
+    public void setGroupCommitWindow(final long groupCommitWindow) {
+        Preconditions.checkArgument( groupCommitWindow >= 0 );
+        this.groupCommitWindow = groupCommitWindow;
+    }
+
+    /**
+     * @return time window of group commit in microseconds
+     */
+    public long getGroupCommitWindow() {
+        return groupCommitWindow;
+    }
+
+    /**
+     * set the max number of remote blocking fetches (read/take by template waiting for matching entity) parked on this
+     * node at the same time. Each parked fetch holds one thread of dedicated pool for its whole wait (shared space
+     * executor is never blocked by waiting consumers), blocking fetch beyond this limit is rejected immediately with
+     * {@link SpaceException} rather than queued behind parked ones.
+     * 
+     * @param maxBlockedFetches
+     *            max number of parked remote fetches
+     */
+    public void setMaxBlockedFetches(final int maxBlockedFetches) {
+        Preconditions.checkArgument( maxBlockedFetches > 0 );
+        this.maxBlockedFetches = maxBlockedFetches;
+    }
+
+    /**
+     * @return max number of parked remote blocking fetches
+     */
+    public int getMaxBlockedFetches() {
+        return maxBlockedFetches;
+    }
+
+    /**
+     * @return dedicated executor of remote blocking fetches (rejects fetch if {@link #getMaxBlockedFetches()} fetches
+     *         are parked already)
+     */
+    public ExecutorService getBlockedFetchExecutor() {
+        return blockedFetchExecutor;
+    }
+
+    /**
+     * @return post-commit notifications pipeline
+     */
+    public NotificationPipeline getNotificationPipeline() {
+        return notificationPipeline;
+    }
+
+    @Override
+    public void destroy() {
+        try {
+            if ( notificationPipeline != null )
+                notificationPipeline.destroy();
+            // parked fetches are interrupted and respond with failure
+            if ( blockedFetchExecutor != null )
+                blockedFetchExecutor.shutdownNow();
+        }
+        finally {
+            super.destroy();
+        }
+    }
+
     @Override
     public void afterPropertiesSet()
                                     throws Exception {
         super.afterPropertiesSet();
+        notificationPipeline = new NotificationPipeline( notificationBufferSize, notificationThreads, notificationWaitStrategy );
+        blockedFetchExecutor = new ThreadPoolExecutor(
+                0,
+                maxBlockedFetches,
+                1,
+                TimeUnit.MINUTES,
+                new SynchronousQueue<Runnable>(),
+                new ThreadFactoryBuilder().setDaemon( true ).setNameFormat( "jspace-blocked-fetch-thread-%s" ).build() );
+        // serialized entities are converted to portable form before leaving server node
+        getKryo().setDictionaryEncoding( true );
         getJChannel().setName( JSpace.SSC + "-" + UUID.randomUUID().toString() );
         dispatcher = new ServerCommunicationDispatcher( this );
         getJChannel().setReceiver( dispatcher );
@@ -148,6 +352,20 @@ public final class SpaceConfiguration extends AbstractSpaceConfiguration {
         dumpConfiguration();
     }
 
+    /**
+     * @return default size of post-commit notifications ring buffer
+     */
+    public static int defaultNotificationBufferSize() {
+        return 1 << 13;
+    }
+
+    /**
+     * @return default number of post-commit notifications handler threads
+     */
+    public static int defaultNotificationThreads() {
+        return 1 << 2;
+    }
+
     /**
      * @return high-level service provider which is responsible for building 'over-jspace' communications.
      */
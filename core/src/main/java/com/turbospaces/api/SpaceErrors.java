@@ -48,6 +48,18 @@ public interface SpaceErrors {
      */
     String UNABLE_TO_ACQUIRE_LOCK = "unable to acquire %s lock for %s within %s millisecs, lock is held by concurrent transaction";
 
+    /**
+     * indicates that entity has been modified by concurrent transaction - optimistic lock version of the entity doesn't
+     * match the version being written (see {@link org.springframework.data.annotation.Version}).
+     */
+    String OPTIMISTIC_LOCK_VIOLATION = "optimistic lock violation: %s[%s] has version %s, but version %s is expected";
+
+    /**
+     * indicates that transaction waiting for lock has been chosen as deadlock victim (the youngest transaction of
+     * wait-for cycle is aborted).
+     */
+    String DEADLOCK_VICTIM = "transaction %s has been aborted as deadlock victim while waiting for lock of %s";
+
     /**
      * indicates that the timeout for space operation can't be negative.
      */
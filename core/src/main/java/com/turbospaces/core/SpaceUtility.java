@@ -30,8 +30,10 @@ import org.slf4j.LoggerFactory;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.dao.CannotAcquireLockException;
 import org.springframework.dao.DataRetrievalFailureException;
+import org.springframework.dao.DeadlockLoserDataAccessException;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.dao.IncorrectResultSizeDataAccessException;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.data.mapping.model.BasicPersistentEntity;
 import org.springframework.util.ObjectUtils;
 
@@ -50,20 +52,22 @@ import com.turbospaces.api.SpaceTopology;
 import com.turbospaces.model.BO;
 import com.turbospaces.model.BasicBO;
 import com.turbospaces.network.MethodCall;
+import com.turbospaces.network.MethodCall.AggregateMethodCall;
 import com.turbospaces.network.MethodCall.BeginTransactionMethodCall;
 import com.turbospaces.network.MethodCall.CommitRollbackMethodCall;
 import com.turbospaces.network.MethodCall.EvictAllMethodCall;
 import com.turbospaces.network.MethodCall.EvictElementsMethodCall;
 import com.turbospaces.network.MethodCall.EvictPercentageMethodCall;
+import com.turbospaces.network.MethodCall.FetchChunkMethodCall;
 import com.turbospaces.network.MethodCall.FetchMethodCall;
 import com.turbospaces.network.MethodCall.GetMbUsedMethodCall;
 import com.turbospaces.network.MethodCall.GetSizeMethodCall;
 import com.turbospaces.network.MethodCall.GetSpaceTopologyMethodCall;
 import com.turbospaces.network.MethodCall.NotifyListenerMethodCall;
+import com.turbospaces.network.MethodCall.QueryMethodCall;
 import com.turbospaces.network.MethodCall.WriteMethodCall;
 import com.turbospaces.serialization.DecoratedKryo;
 import com.turbospaces.serialization.FieldsSerializer;
-import com.turbospaces.spaces.EntryKeyLockQuard;
 import com.turbospaces.spaces.KeyLocker;
 import com.turbospaces.spaces.tx.TransactionScopeKeyLocker;
 
@@ -159,11 +163,14 @@ public abstract class SpaceUtility {
         kryo.register( EvictAllMethodCall.class, new FieldsSerializer( kryo, new BasicBO( EvictAllMethodCall.class ) ) );
         kryo.register( EvictPercentageMethodCall.class, new FieldsSerializer( kryo, new BasicBO( EvictPercentageMethodCall.class ) ) );
         kryo.register( EvictElementsMethodCall.class, new FieldsSerializer( kryo, new BasicBO( EvictElementsMethodCall.class ) ) );
+        kryo.register( QueryMethodCall.class, new FieldsSerializer( kryo, new BasicBO( QueryMethodCall.class ) ) );
+        kryo.register( AggregateMethodCall.class, new FieldsSerializer( kryo, new BasicBO( AggregateMethodCall.class ) ) );
+        kryo.register( FetchChunkMethodCall.class, new FieldsSerializer( kryo, new BasicBO( FetchChunkMethodCall.class ) ) );
 
         Collection persistentEntities = configuration.getMappingContext().getPersistentEntities();
         BasicPersistentEntity[] persistentEntitiesAsArray = (BasicPersistentEntity[]) persistentEntities
                 .toArray( new BasicPersistentEntity[persistentEntities.size()] );
-        BO.registerPersistentClasses( kryo, persistentEntitiesAsArray );
+        BO.registerPersistentClasses( kryo, configuration.getMemoryManager(), persistentEntitiesAsArray );
     }
 
     /**
@@ -231,40 +238,52 @@ public abstract class SpaceUtility {
     }
 
     /**
-     * wrap original key locker by applying load distribution hash function and make it more concurrent(parallel)
+     * raise new {@link DeadlockLoserDataAccessException} exception for transaction which has been chosen as deadlock
+     * victim while waiting for the lock of given key.
      * 
-     * @return more concurrent parallel key locker
+     * @param uniqueIdentifier
+     *            primary key
+     * @param transactionId
+     *            aborted transaction
+     * @see SpaceErrors#DEADLOCK_VICTIM
      */
-    public static KeyLocker parallelizedKeyLocker() {
-        KeyLocker locker = new KeyLocker() {
-            private final KeyLocker[] segments = new KeyLocker[1 << 8];
-            private int mask;
-
-            {
-                for ( int i = 0; i < segments.length; i++ )
-                    segments[i] = new TransactionScopeKeyLocker();
-                mask = segments.length - 1;
-            }
-
-            @Override
-            public void writeUnlock(final EntryKeyLockQuard guard,
-                                    final long transactionID) {
-                segmentFor( guard.getKey() ).writeUnlock( guard, transactionID );
-            }
+    public static void raiseDeadlockLoserException(final Object uniqueIdentifier,
+                                                   final long transactionId) {
+        throw new DeadlockLoserDataAccessException( String.format( SpaceErrors.DEADLOCK_VICTIM, transactionId, uniqueIdentifier ), null );
+    }
 
-            @Override
-            public EntryKeyLockQuard writeLock(final Object key,
-                                               final long transactionID,
-                                               final long timeout,
-                                               final boolean strict) {
-                return segmentFor( key ).writeLock( key, transactionID, timeout, strict );
-            }
+    /**
+     * raise new {@link OptimisticLockingFailureException} exception for given uniqueIdentifier and persistent class.
+     * 
+     * @param uniqueIdentifier
+     *            primary key
+     * @param persistentClass
+     *            space class
+     * @param actualVersion
+     *            the version of entity in space (<code>null</code> if there is no such entity)
+     * @param expectedVersion
+     *            the version of entity being written
+     * @see SpaceErrors#OPTIMISTIC_LOCK_VIOLATION
+     */
+    public static void raiseOptimisticLockingFailureException(final Object uniqueIdentifier,
+                                                              final Class<?> persistentClass,
+                                                              final Integer actualVersion,
+                                                              final Integer expectedVersion) {
+        throw new OptimisticLockingFailureException( String.format(
+                SpaceErrors.OPTIMISTIC_LOCK_VIOLATION,
+                persistentClass.getSimpleName(),
+                uniqueIdentifier,
+                actualVersion,
+                expectedVersion ) );
+    }
 
-            private KeyLocker segmentFor(final Object key) {
-                return segments[( JVMUtil.jdkRehash( key.hashCode() ) & Integer.MAX_VALUE ) & mask];
-            }
-        };
-        return locker;
+    /**
+     * create key locker with lock table striped proportionally to the number of available processors.
+     * 
+     * @return concurrent key locker
+     */
+    public static KeyLocker parallelizedKeyLocker() {
+        return new TransactionScopeKeyLocker( Runtime.getRuntime().availableProcessors() << 2 );
     }
 
     /**
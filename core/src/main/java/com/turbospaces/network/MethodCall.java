@@ -293,6 +293,8 @@ public class MethodCall {
     @SuppressWarnings("javadoc")
     public static final class FetchMethodCall extends ModifyMethodCall {
         private int maxResults;
+        // names of projected properties (whole entities are fetched if not set)
+        private String[] properties;
 
         public FetchMethodCall() {
             super();
@@ -307,10 +309,95 @@ public class MethodCall {
             this.maxResults = maxResults;
         }
 
+        public String[] getProperties() {
+            return properties;
+        }
+
+        public void setProperties(final String[] properties) {
+            this.properties = properties;
+        }
+
         @Override
         public void reset() {
             super.reset();
             maxResults = 0;
+            properties = null;
+        }
+    }
+
+    /**
+     * remote jspace streaming fetch method class - the first call opens fetch stream on server (template is passed as
+     * entity), subsequent calls pull the next chunks of opened stream by id. server responds with chunk of entities and
+     * the stream id (or <code>0</code> if the stream has been exhausted), zero chunk size cancels the stream.
+     * 
+     * @since 0.1
+     */
+    @SuppressWarnings("javadoc")
+    public static final class FetchChunkMethodCall extends ModifyMethodCall {
+        private int maxResults;
+        private int chunkSize;
+        private long streamId;
+
+        public FetchChunkMethodCall() {
+            super();
+            methodId = (short) SpaceMethodsMapping.FETCH_CHUNK.ordinal();
+        }
+
+        public int getMaxResults() {
+            return maxResults;
+        }
+
+        public void setMaxResults(final int maxResults) {
+            this.maxResults = maxResults;
+        }
+
+        public int getChunkSize() {
+            return chunkSize;
+        }
+
+        public void setChunkSize(final int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+
+        public long getStreamId() {
+            return streamId;
+        }
+
+        public void setStreamId(final long streamId) {
+            this.streamId = streamId;
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            maxResults = 0;
+            chunkSize = 0;
+        }
+    }
+
+    /**
+     * remote jspace query method class (query is passed as entity).
+     * 
+     * @since 0.1
+     */
+    @SuppressWarnings("javadoc")
+    public static final class QueryMethodCall extends ModifyMethodCall {
+        public QueryMethodCall() {
+            super();
+            methodId = (short) SpaceMethodsMapping.QUERY.ordinal();
+        }
+    }
+
+    /**
+     * remote jspace aggregation method class (aggregation is passed as entity).
+     * 
+     * @since 0.1
+     */
+    @SuppressWarnings("javadoc")
+    public static final class AggregateMethodCall extends ModifyMethodCall {
+        public AggregateMethodCall() {
+            super();
+            methodId = (short) SpaceMethodsMapping.AGGREGATE.ordinal();
         }
     }
 }
@@ -81,6 +81,27 @@ public final class NetworkCommunicationDispatcher extends ServerCommunicationDis
     public MethodCall[] sendAndReceive(final MethodCall methodCall,
                                        final ObjectBuffer objectBuffer,
                                        final Address... destinations) {
+        return sendAndReceive( methodCall, objectBuffer, configuration.getCommunicationTimeoutInMillis(), destinations );
+    }
+
+    /**
+     * send message(in form of {@link MethodCall}) to the remote destination with assigned correlation id and wait for
+     * responses up to the given timeout (for the long running remote operations like blocking take).
+     * 
+     * @param methodCall
+     *            remote method call
+     * @param objectBuffer
+     *            kryo's object buffer for entity serialization
+     * @param responseTimeoutInMillis
+     *            max time to wait for each response
+     * @param destinations
+     *            the target server nodes
+     * @return original methodCall (pre-populated with correlation id)
+     */
+    public MethodCall[] sendAndReceive(final MethodCall methodCall,
+                                       final ObjectBuffer objectBuffer,
+                                       final long responseTimeoutInMillis,
+                                       final Address... destinations) {
         int size = destinations.length;
         MethodCall[] result = new MethodCall[size];
         Long[] ids = new Long[size];
@@ -114,7 +135,7 @@ public final class NetworkCommunicationDispatcher extends ServerCommunicationDis
         for ( int i = 0; i < size; i++ ) {
             Long id = ids[i];
             Object monitor = monitors[i];
-            result[i] = requestResponseCorrelator.responseFor( id, monitor, configuration.getCommunicationTimeoutInMillis() );
+            result[i] = requestResponseCorrelator.responseFor( id, monitor, responseTimeoutInMillis );
         }
 
         return verifyNoExceptions( result, messages, methodCall );
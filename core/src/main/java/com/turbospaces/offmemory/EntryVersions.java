@@ -0,0 +1,218 @@
+/**
+ * Copyright (C) 2011-2012 Andrey Borisov <aandrey.borisov@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turbospaces.offmemory;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+import com.turbospaces.core.CompressionCodec;
+import com.turbospaces.core.EffectiveMemoryManager;
+import com.turbospaces.spaces.tx.SnapshotEpochs;
+
+/**
+ * previous versions of entities (of single off-heap store) retained for snapshot reads. each commit retains the state
+ * of modified entity as it was before commit (off-heap copy, or nothing if entity has been inserted) with commit's
+ * epoch - snapshot sees the previous state of the earliest commit after the snapshot's epoch (or current state if
+ * there is no such commit).</p>
+ * 
+ * versions of the same entity are chained from the newest to the oldest one, chain's head is replaced by committers
+ * (under key lock) without locking, readers just follow the chain. versions are reclaimed (memory released) once commit's
+ * epoch is behind the {@link SnapshotEpochs#horizon()}, reclaimers are serialized, but committers never wait for them.
+ * 
+ * @since 0.1
+ */
+@ThreadSafe
+final class EntryVersions implements Runnable {
+    private final ConcurrentHashMap<Object, Version> versions = new ConcurrentHashMap<Object, Version>();
+    private final Queue<Version> retained = new ConcurrentLinkedQueue<Version>();
+    private final ReentrantLock reclaimLock = new ReentrantLock();
+    private final SnapshotEpochs epochs;
+    private final EffectiveMemoryManager memoryManager;
+    private final CompressionCodec codec;
+
+    EntryVersions(final SnapshotEpochs epochs, final EffectiveMemoryManager memoryManager, final CompressionCodec codec) {
+        this.epochs = epochs;
+        this.memoryManager = memoryManager;
+        this.codec = codec;
+    }
+
+    /**
+     * retain previous state of entity, must be called under key lock <b>before</b> new state is applied.
+     * 
+     * @param key
+     *            primary key
+     * @param commit
+     *            commit's epoch
+     * @param previous
+     *            previous state of entity or <code>null</code> if there is no such entity
+     */
+    void retain(final Object key,
+                final long commit,
+                final ByteArrayPointer previous) {
+        long address = 0;
+        if ( previous != null )
+            address = new ByteArrayPointer( memoryManager, previous.getSerializedData(), null, Integer.MAX_VALUE, codec ).dumpAndGetAddress();
+        for ( ;; ) {
+            Version head = versions.get( key );
+            Version version = new Version( key, commit, address, head );
+            if ( head == null ? versions.putIfAbsent( key, version ) == null : versions.replace( key, head, version ) ) {
+                retained.add( version );
+                return;
+            }
+        }
+    }
+
+    /**
+     * read entity's state as it was at the moment of snapshot, current state must be read <b>before</b> (so that
+     * concurrent commit is either not visible in current state or has already retained previous version).
+     * 
+     * @param key
+     *            primary key
+     * @param snapshot
+     *            snapshot's epoch
+     * @param current
+     *            current state (or <code>null</code>)
+     * @return snapshot's state (current state if entity has not been modified after snapshot)
+     */
+    ByteBuffer read(final Object key,
+                    final long snapshot,
+                    final ByteBuffer current) {
+        Version visible = null;
+        for ( Version version = versions.get( key ); version != null && version.commit > snapshot; version = version.older )
+            visible = version;
+        if ( visible == null )
+            return current;
+        return visible.address == 0 ? null : ByteBuffer.wrap( ByteArrayPointer.getEntityState( visible.address, memoryManager ) );
+    }
+
+    /**
+     * @param snapshot
+     *            snapshot's epoch
+     * @return primary keys of entities modified after snapshot
+     */
+    List<Object> modifiedAfter(final long snapshot) {
+        List<Object> keys = Lists.newLinkedList();
+        for ( Map.Entry<Object, Version> entry : versions.entrySet() )
+            if ( entry.getValue().commit > snapshot )
+                keys.add( entry.getKey() );
+        return keys;
+    }
+
+    /**
+     * reclaim versions which are not needed by any snapshot anymore (skipped if reclamation is already in progress).
+     */
+    @Override
+    public void run() {
+        if ( retained.isEmpty() || !reclaimLock.tryLock() )
+            return;
+        try {
+            long horizon = epochs.horizon();
+            for ( Version version = retained.peek(); version != null && version.commit <= horizon; version = retained.peek() ) {
+                retained.poll();
+                reclaim( version.key, horizon );
+            }
+        }
+        finally {
+            reclaimLock.unlock();
+        }
+    }
+
+    /**
+     * release all retained versions.
+     */
+    void destroy() {
+        reclaimLock.lock();
+        try {
+            for ( Iterator<Version> it = versions.values().iterator(); it.hasNext(); ) {
+                release( it.next() );
+                it.remove();
+            }
+            retained.clear();
+        }
+        finally {
+            reclaimLock.unlock();
+        }
+    }
+
+    @VisibleForTesting
+    int size() {
+        int size = 0;
+        for ( Version head : versions.values() )
+            for ( Version version = head; version != null; version = version.older )
+                size++;
+        return size;
+    }
+
+    private void reclaim(final Object key,
+                         final long horizon) {
+        for ( ;; ) {
+            Version head = versions.get( key );
+            if ( head == null )
+                return;
+            if ( head.commit <= horizon ) {
+                if ( versions.remove( key, head ) ) {
+                    release( head );
+                    return;
+                }
+                continue;
+            }
+            // the chain's head is replaced by committers only, so the tail can be cut off in-place
+            Version last = head;
+            while ( last.older != null && last.older.commit > horizon )
+                last = last.older;
+            Version reclaimed = last.older;
+            last.older = null;
+            release( reclaimed );
+            return;
+        }
+    }
+
+    private void release(final Version chain) {
+        for ( Version version = chain; version != null; version = version.older )
+            if ( version.address != 0 )
+                memoryManager.freeMemory( version.address );
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper( this ).add( "entries", versions.size() ).add( "retained", retained.size() ).toString();
+    }
+
+    private static final class Version {
+        private final Object key;
+        private final long commit;
+        private final long address;
+        private volatile Version older;
+
+        private Version(final Object key, final long commit, final long address, final Version older) {
+            this.key = key;
+            this.commit = commit;
+            this.address = address;
+            this.older = older;
+        }
+    }
+}
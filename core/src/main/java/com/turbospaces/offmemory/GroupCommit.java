@@ -0,0 +1,181 @@
+/**
+ * Copyright (C) 2011-2012 Andrey Borisov <aandrey.borisov@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turbospaces.offmemory;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+import com.turbospaces.api.SpaceException;
+import com.turbospaces.spaces.tx.TransactionModificationContext;
+
+/**
+ * group commit stage of space store - concurrent committers enqueue their transactions and one of them (leader)
+ * applies all pending transactions at once, while the rest of committers (followers) wait until the leader signals
+ * that the group is applied. Leadership is handed off to one of the pending committers once the group is applied, so
+ * that the group is formed by commits arrived while previous group has been applied (optionally leader waits for the
+ * group commit window if there are other committers pending). </p>
+ * 
+ * Failure of particular transaction is reported to its own committer only, while {@link Error} raised while applying
+ * the group fails all transactions of the group (leader re-throws the error itself).
+ * 
+ * @since 0.1
+ */
+@ThreadSafe
+final class GroupCommit {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition applied = lock.newCondition();
+    @GuardedBy("lock")
+    private List<Commit> pending = Lists.newArrayList();
+    @GuardedBy("lock")
+    private boolean leading;
+    private final long windowNanos;
+    private final Applier applier;
+
+    GroupCommit(final long windowMicros, final Applier applier) {
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos( windowMicros );
+        this.applier = applier;
+    }
+
+    /**
+     * apply transaction's modifications as part of the group (blocks until applied).
+     * 
+     * @param modificationContext
+     *            transaction being committed
+     */
+    void commit(final TransactionModificationContext modificationContext) {
+        Commit commit = new Commit( modificationContext );
+        lock.lock();
+        try {
+            pending.add( commit );
+            while ( !commit.done )
+                if ( leading )
+                    applied.awaitUninterruptibly();
+                else
+                    lead();
+        }
+        finally {
+            lock.unlock();
+        }
+        if ( commit.failure != null )
+            throw commit.failure;
+    }
+
+    /**
+     * must be called under lock, lock is released while the group is applied.
+     */
+    private void lead() {
+        leading = true;
+        // other committers are about to join the group
+        if ( windowNanos > 0 && pending.size() > 1 )
+            awaitWindow();
+        List<Commit> group = pending;
+        pending = Lists.newArrayList();
+        Error error = null;
+        lock.unlock();
+        try {
+            applier.apply( group );
+        }
+        catch ( RuntimeException e ) {
+            for ( Commit commit : group )
+                commit.fail( e );
+        }
+        catch ( Error e ) {
+            // group might be applied partially, so none of commits can be reported as successful
+            SpaceException failure = new SpaceException( "unable to apply group of transactions", e );
+            for ( Commit commit : group )
+                commit.failure = failure;
+            error = e;
+        }
+        finally {
+            lock.lock();
+            leading = false;
+            for ( Commit commit : group )
+                commit.done = true;
+            // wake up followers of applied group and hand off leadership to pending committers
+            applied.signalAll();
+        }
+        if ( error != null )
+            throw error;
+    }
+
+    private void awaitWindow() {
+        long nanos = windowNanos;
+        try {
+            while ( nanos > 0 )
+                nanos = applied.awaitNanos( nanos );
+        }
+        catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper( this ).add( "leading", leading ).add( "windowNanos", windowNanos ).toString();
+    }
+
+    /**
+     * applies group of transactions.
+     */
+    static interface Applier {
+        /**
+         * apply all transactions of the group, failure of particular transaction must be assigned to its commit.
+         * 
+         * @param group
+         *            pending commits
+         */
+        void apply(List<Commit> group);
+    }
+
+    /**
+     * transaction being committed as part of the group.
+     */
+    static final class Commit {
+        private final TransactionModificationContext modificationContext;
+        // both are published to follower via group commit lock
+        private RuntimeException failure;
+        private boolean done;
+
+        private Commit(final TransactionModificationContext modificationContext) {
+            this.modificationContext = modificationContext;
+        }
+
+        /**
+         * @return transaction being committed
+         */
+        TransactionModificationContext getModificationContext() {
+            return modificationContext;
+        }
+
+        /**
+         * assign failure of transaction (the first failure is reported).
+         * 
+         * @param e
+         *            failure
+         */
+        void fail(final RuntimeException e) {
+            if ( failure == null )
+                failure = e;
+        }
+    }
+}
@@ -15,6 +15,7 @@
  */
 package com.turbospaces.offmemory;
 
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import javax.annotation.concurrent.ThreadSafe;
@@ -24,11 +25,14 @@ import org.springframework.beans.factory.InitializingBean;
 import org.springframework.data.mapping.model.MutablePersistentEntity;
 
 import com.google.common.base.Objects;
+import com.google.common.base.Supplier;
 import com.turbospaces.api.SpaceConfiguration;
 import com.turbospaces.collections.EvictableCache;
+import com.turbospaces.collections.MatchedEntryVisitor;
 import com.turbospaces.collections.OffHeapLinearProbingSet;
 import com.turbospaces.model.BO;
 import com.turbospaces.serialization.PropertiesSerializer;
+import com.turbospaces.serialization.TemplateMatcher;
 import com.turbospaces.spaces.EntryKeyLockQuard;
 
 /**
@@ -73,6 +77,26 @@ public class IndexManager implements DisposableBean, InitializingBean, Evictable
         return idCache.put( idGuard.getKey(), pointer );
     }
 
+    /**
+     * apply batch of modifications (put or remove) segment by segment, see
+     * {@link OffHeapLinearProbingSet#applyAll(Object[], ByteArrayPointer[], int[], RuntimeException[])}.
+     * 
+     * @param keys
+     *            primary keys
+     * @param pointers
+     *            byte array pointers (<code>null</code> means remove)
+     * @param occupations
+     *            how many bytes were previously occupied by key's value (result)
+     * @param failures
+     *            failures of modifications (result)
+     */
+    public void applyAll(final Object[] keys,
+                         final ByteArrayPointer[] pointers,
+                         final int[] occupations,
+                         final RuntimeException[] failures) {
+        idCache.applyAll( keys, pointers, occupations, failures );
+    }
+
     /**
      * check whether id cache contains <code>key=uniqueIdentifier</code>
      * 
@@ -98,6 +122,56 @@ public class IndexManager implements DisposableBean, InitializingBean, Evictable
         return asPointer ? idCache.getAsPointer( id ) : idCache.getAsSerializedData( id );
     }
 
+    /**
+     * stream committed entities matched by compiled template to visitor (full scan, entities are passed segment by
+     * segment until visitor asks to stop).
+     * 
+     * @param template
+     *            compiled template
+     * @param visitor
+     *            matched entities visitor
+     * @return false if scanning has been stopped by visitor
+     */
+    public boolean match(final TemplateMatcher template,
+                         final MatchedEntryVisitor visitor) {
+        return idCache.match( template, visitor );
+    }
+
+    /**
+     * pass committed entities matched by compiled template to per-segment visitors, segments are scanned in parallel.
+     * 
+     * @param template
+     *            compiled template
+     * @param visitors
+     *            factory of per-segment visitors
+     * @return visitors (one per segment)
+     */
+    public <V extends MatchedEntryVisitor> List<V> matchInParallel(final TemplateMatcher template,
+                                                                   final Supplier<V> visitors) {
+        return idCache.matchInParallel( template, visitors );
+    }
+
+    /**
+     * @return number of off-heap segments of primary key index
+     */
+    public int getSegmentsCount() {
+        return idCache.getSegmentsCount();
+    }
+
+    /**
+     * match committed entities of single off-heap segment against compiled template.
+     * 
+     * @param template
+     *            compiled template
+     * @param segment
+     *            index of segment
+     * @return matched entities or <code>null</code>
+     */
+    public List<ByteArrayPointer> matchSegment(final TemplateMatcher template,
+                                               final int segment) {
+        return idCache.matchSegment( template, segment );
+    }
+
     /**
      * remove byte array pointer by identifier it was added with.
      * 
@@ -0,0 +1,342 @@
+/**
+ * Copyright (C) 2011-2012 Andrey Borisov <aandrey.borisov@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turbospaces.offmemory;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.springframework.data.mapping.PersistentProperty;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Ints;
+import com.turbospaces.api.SpaceException;
+import com.turbospaces.model.CacheStoreEntryWrapper;
+import com.turbospaces.serialization.MatchingSerializer;
+import com.turbospaces.serialization.TemplateMatcher;
+
+/**
+ * registry of blocked fetches (read/take by template waiting for matching entity). Waiters are grouped by template, so
+ * that each committed entity is matched against each distinct template only once. Waiters are signalled by the space
+ * store when matching entity is committed (or becomes visible again after rollback of take) - nothing is polled.</p>
+ * 
+ * Registry belongs to the store of particular persistent class, templates are indexed by one of template's property
+ * values (the most selective one at the moment of registration), so that committed entity is matched against candidate
+ * templates only (the same way as {@link com.turbospaces.spaces.NotificationRegistry} does). Templates without
+ * indexable property values match everything and are kept separately. Templates are indexed by raw values, matcher
+ * compiled against strings which are not in dictionary yet is not cached, but re-compiled on signal instead (entity
+ * having such string adds it to dictionary before commit).</p>
+ * 
+ * All readers of matched template are signalled, but only one taker is signalled per matched entity (taker which has
+ * been signalled and lost the race for the entity simply waits again), so that single write doesn't wake up all
+ * competing consumers of work queue.
+ * 
+ * @since 0.1
+ */
+@ThreadSafe
+public final class MatchWaiters {
+    @GuardedBy("this")
+    private final Map<List<Object>, Group> groups = Maps.newHashMap();
+    /**
+     * template groups indexed by property index and property value
+     */
+    @GuardedBy("this")
+    private final Map<Integer, Map<Object, Set<Group>>> byProperty = Maps.newHashMap();
+    @GuardedBy("this")
+    private final Set<Group> wildcard = Sets.newLinkedHashSet();
+    /**
+     * indexes of properties having at least one indexed template (read by committers without lock)
+     */
+    private volatile int[] indexedProperties = new int[0];
+    private volatile int waiting;
+
+    /**
+     * register new waiter, waiter must be registered before the last attempt to find matching entity (otherwise commit
+     * between attempt and registration will be missed) and must be cancelled after all.
+     * 
+     * @param template
+     *            fetch template
+     * @param matcher
+     *            compiled template
+     * @param take
+     *            whether waiter is going to take (or exclusively lock) matched entity
+     * @return new waiter
+     */
+    public Waiter register(final CacheStoreEntryWrapper template,
+                           final TemplateMatcher matcher,
+                           final boolean take) {
+        Object[] templateValues = template.asPropertyValuesArray();
+        List<Object> key = Arrays.asList( templateValues );
+        Waiter waiter;
+        synchronized ( this ) {
+            Group group = groups.get( key );
+            if ( group == null ) {
+                int index = selectiveProperty( template.getPersistentEntity().getOrderedProperties(), templateValues );
+                group = new Group( key, template, matcher.isIncomplete() ? null : matcher, index, index < 0 ? null : templateValues[index] );
+                groups.put( key, group );
+                index( group );
+            }
+            waiter = new Waiter( group, take );
+            ( take ? group.takers : group.readers ).add( waiter );
+            waiting++;
+        }
+        return waiter;
+    }
+
+    /**
+     * @return true if there is at least one blocked fetch (cheap check for committers)
+     */
+    public boolean hasWaiters() {
+        return waiting > 0;
+    }
+
+    /**
+     * signal waiters of templates matching committed entity.
+     * 
+     * @param entity
+     *            entity's serialized state
+     * @param serializer
+     *            entity's serializer (indexed property values are read from serialized state)
+     */
+    public void signal(final ByteBuffer entity,
+                       final MatchingSerializer<?> serializer) {
+        // templates registered concurrently with entity's commit re-scan committed entities anyway
+        int[] properties = indexedProperties;
+        Object[] values = properties.length == 0 ? null : serializer.readPropertyValues( entity, properties );
+        synchronized ( this ) {
+            if ( groups.isEmpty() )
+                return;
+            List<Group> drained = Lists.newLinkedList();
+            if ( !wildcard.isEmpty() )
+                signal( wildcard, entity, serializer, drained );
+            if ( values != null )
+                for ( int i = 0; i < properties.length; i++ ) {
+                    Map<Object, Set<Group>> byValue = byProperty.get( properties[i] );
+                    Set<Group> candidates = byValue == null || values[i] == null ? null : byValue.get( values[i] );
+                    if ( candidates != null )
+                        signal( candidates, entity, serializer, drained );
+                }
+            for ( Group group : drained )
+                remove( group );
+        }
+    }
+
+    @GuardedBy("this")
+    private void signal(final Set<Group> candidates,
+                        final ByteBuffer entity,
+                        final MatchingSerializer<?> serializer,
+                        final List<Group> drained) {
+        for ( Group group : candidates )
+            if ( group.matcher( serializer ).matches( entity ) ) {
+                for ( Waiter reader : group.readers )
+                    reader.signal();
+                waiting -= group.readers.size();
+                group.readers.clear();
+                Iterator<Waiter> takers = group.takers.iterator();
+                if ( takers.hasNext() ) {
+                    takers.next().signal();
+                    takers.remove();
+                    waiting--;
+                }
+                if ( group.isEmpty() )
+                    drained.add( group );
+            }
+    }
+
+    private synchronized boolean cancel(final Waiter waiter) {
+        Group group = waiter.group;
+        if ( ( waiter.take ? group.takers : group.readers ).remove( waiter ) ) {
+            waiting--;
+            if ( group.isEmpty() )
+                remove( group );
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * find property value with the least number of indexed templates so far (<code>-1</code> if template has no
+     * indexable values).
+     */
+    @GuardedBy("this")
+    private int selectiveProperty(final PersistentProperty<?>[] properties,
+                                  final Object[] templateValues) {
+        int index = -1;
+        int candidates = Integer.MAX_VALUE;
+        for ( int i = 0; i < templateValues.length; i++ ) {
+            if ( !isIndexable( properties[i].getType(), templateValues[i] ) )
+                continue;
+            Map<Object, Set<Group>> byValue = byProperty.get( i );
+            Set<Group> bucket = byValue == null ? null : byValue.get( templateValues[i] );
+            int size = bucket == null ? 0 : bucket.size();
+            if ( size < candidates ) {
+                index = i;
+                candidates = size;
+            }
+        }
+        return index;
+    }
+
+    @GuardedBy("this")
+    private void index(final Group group) {
+        if ( group.property < 0 ) {
+            wildcard.add( group );
+            return;
+        }
+        Map<Object, Set<Group>> byValue = byProperty.get( group.property );
+        if ( byValue == null ) {
+            byValue = Maps.newHashMap();
+            byProperty.put( group.property, byValue );
+            indexedProperties = Ints.toArray( byProperty.keySet() );
+        }
+        Set<Group> bucket = byValue.get( group.value );
+        if ( bucket == null ) {
+            bucket = Sets.newLinkedHashSet();
+            byValue.put( group.value, bucket );
+        }
+        bucket.add( group );
+    }
+
+    @GuardedBy("this")
+    private void remove(final Group group) {
+        groups.remove( group.key );
+        if ( group.property < 0 ) {
+            wildcard.remove( group );
+            return;
+        }
+        Map<Object, Set<Group>> byValue = byProperty.get( group.property );
+        Set<Group> bucket = byValue.get( group.value );
+        bucket.remove( group );
+        if ( bucket.isEmpty() ) {
+            byValue.remove( group.value );
+            if ( byValue.isEmpty() ) {
+                byProperty.remove( group.property );
+                indexedProperties = Ints.toArray( byProperty.keySet() );
+            }
+        }
+    }
+
+    /**
+     * only values matched by find-by-example template (<code>null</code> and primitive values are 'match any') with
+     * equals/hashCode consistent with binary comparison can be used as hash keys.
+     */
+    private static boolean isIndexable(final Class<?> propertyType,
+                                       final Object value) {
+        if ( value == null || propertyType.isPrimitive() )
+            return false;
+        return value instanceof String || value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte
+                || value instanceof Boolean || value instanceof Character || value instanceof Enum;
+    }
+
+    /**
+     * single blocked fetch.
+     */
+    public final class Waiter {
+        private final CountDownLatch signal = new CountDownLatch( 1 );
+        private final Group group;
+        private final boolean take;
+
+        private Waiter(final Group group, final boolean take) {
+            this.group = group;
+            this.take = take;
+        }
+
+        /**
+         * wait until signalled.
+         * 
+         * @param timeoutInMillis
+         *            max wait time
+         * @return false if timeout elapsed without signal
+         */
+        public boolean await(final long timeoutInMillis) {
+            try {
+                return signal.await( timeoutInMillis, TimeUnit.MILLISECONDS );
+            }
+            catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new SpaceException( Thread.currentThread().toString() + " has been interrupted", e );
+            }
+        }
+
+        /**
+         * un-register waiter (no-op if waiter has been signalled already).
+         * 
+         * @return false if waiter has been signalled already
+         */
+        public boolean cancel() {
+            return MatchWaiters.this.cancel( this );
+        }
+
+        private void signal() {
+            signal.countDown();
+        }
+    }
+
+    private static final class Group {
+        private final List<Object> key;
+        private final CacheStoreEntryWrapper template;
+        /**
+         * compiled template (<code>null</code> until all template values are in dictionary)
+         */
+        @GuardedBy("MatchWaiters.this")
+        private TemplateMatcher matcher;
+        /**
+         * indexed property (<code>-1</code> for templates matching everything) and its value
+         */
+        private final int property;
+        private final Object value;
+        private final Set<Waiter> readers = Sets.newLinkedHashSet();
+        private final Set<Waiter> takers = Sets.newLinkedHashSet();
+
+        private Group(final List<Object> key,
+                      final CacheStoreEntryWrapper template,
+                      final TemplateMatcher matcher,
+                      final int property,
+                      final Object value) {
+            this.key = key;
+            this.template = template;
+            this.matcher = matcher;
+            this.property = property;
+            this.value = value;
+        }
+
+        private boolean isEmpty() {
+            return readers.isEmpty() && takers.isEmpty();
+        }
+
+        /**
+         * get cached matcher or re-compile template if some of template's strings were not in dictionary so far.
+         */
+        private TemplateMatcher matcher(final MatchingSerializer<?> serializer) {
+            if ( matcher != null )
+                return matcher;
+            TemplateMatcher compiled = serializer.compile( template );
+            if ( !compiled.isIncomplete() )
+                matcher = compiled;
+            return compiled;
+        }
+    }
+}
@@ -16,28 +16,45 @@
 package com.turbospaces.offmemory;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
 
 import javax.annotation.concurrent.ThreadSafe;
 
-import com.esotericsoftware.kryo.ObjectBuffer;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Objects;
+import com.google.common.base.Supplier;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.turbospaces.api.SpaceConfiguration;
 import com.turbospaces.api.SpaceOperation;
+import com.turbospaces.collections.MatchedEntryVisitor;
 import com.turbospaces.core.CacheStatisticsCounter;
 import com.turbospaces.core.CacheStatisticsCounter.CompleteCacheStats;
+import com.turbospaces.core.CompressionCodec;
 import com.turbospaces.core.SpaceUtility;
+import com.turbospaces.model.AggregationResult;
 import com.turbospaces.model.BO;
 import com.turbospaces.model.CacheStoreEntryWrapper;
+import com.turbospaces.model.EntityAggregation;
+import com.turbospaces.model.EntityQuery;
+import com.turbospaces.serialization.Aggregator;
+import com.turbospaces.serialization.MatchingSerializer;
+import com.turbospaces.serialization.QueryCollector;
+import com.turbospaces.serialization.TemplateMatcher;
 import com.turbospaces.spaces.EntryKeyLockQuard;
 import com.turbospaces.spaces.KeyLocker;
 import com.turbospaces.spaces.SpaceModifiers;
 import com.turbospaces.spaces.SpaceStore;
+import com.turbospaces.spaces.tx.OptimisticKeyGuard;
 import com.turbospaces.spaces.tx.TransactionModificationContext;
 import com.turbospaces.spaces.tx.WriteTakeEntry;
 
@@ -59,6 +76,15 @@ public class OffHeapCacheStore implements SpaceStore {
     private final IndexManager indexManager;
     private final CacheStatisticsCounter statsCounter;
     private final KeyLocker lockManager;
+    private final MatchWaiters waiters = new MatchWaiters();
+    /**
+     * previous versions of entities for snapshot reads (if enabled)
+     */
+    private final EntryVersions versions;
+    /**
+     * group commit stage (if enabled)
+     */
+    private final GroupCommit groupCommit;
 
     /**
      * create new off-heap memory buffer for the given configuration and particular entity class.
@@ -75,6 +101,16 @@ public class OffHeapCacheStore implements SpaceStore {
         this.statsCounter = new CacheStatisticsCounter();
         this.lockManager = SpaceUtility.parallelizedKeyLocker();
         this.bo = configuration.boFor( entityClass );
+        this.versions = configuration.isSnapshotReads() ? new EntryVersions(
+                configuration.getSnapshotEpochs(),
+                configuration.getMemoryManager(),
+                bo.getCapacityRestriction().getCompressionCodec() ) : null;
+        this.groupCommit = configuration.isGroupCommit() ? new GroupCommit( configuration.getGroupCommitWindow(), new GroupCommit.Applier() {
+            @Override
+            public void apply(final List<GroupCommit.Commit> group) {
+                applyGroup( group );
+            }
+        } ) : null;
     }
 
     @SuppressWarnings("unchecked")
@@ -83,26 +119,68 @@ public class OffHeapCacheStore implements SpaceStore {
                      final boolean apply) {
         int size = modificationContext.getWrites().size() + modificationContext.getTakes().size() + modificationContext.getExclusiveReads().size();
         Set<EntryKeyLockQuard> unlockKeys = size > 0 ? new HashSet<EntryKeyLockQuard>( size ) : Collections.EMPTY_SET;
+        boolean retainVersions = apply && versions != null && ( !modificationContext.getWrites().isEmpty() || !modificationContext.getTakes().isEmpty() );
+        if ( apply )
+            try {
+                lockOptimisticWrites( modificationContext );
+            }
+            catch ( RuntimeException e ) {
+                // conflicting transaction is rolled back entirely
+                sync( modificationContext, false );
+                throw e;
+            }
+        if ( apply && groupCommit != null && ( !modificationContext.getWrites().isEmpty() || !modificationContext.getTakes().isEmpty() ) ) {
+            try {
+                groupCommit.commit( modificationContext );
+            }
+            finally {
+                unlockKeys( modificationContext );
+            }
+            return;
+        }
+        long commit = retainVersions ? configuration.getSnapshotEpochs().beginCommit() : 0;
 
         try {
-            if ( !modificationContext.getWrites().isEmpty() )
-                for ( Entry<EntryKeyLockQuard, WriteTakeEntry> entry : modificationContext.getWrites().entrySet() ) {
-                    unlockKeys.add( entry.getKey() );
-                    if ( apply ) {
-                        WriteTakeEntry value = entry.getValue();
-                        int prevBytesOccupation = indexManager.add( value.getObj(), value.getIdLockQuard(), value.getPointer() );
-                        value.setSpaceOperation( prevBytesOccupation > 0 ? SpaceOperation.UPDATE : SpaceOperation.WRITE );
-                        statsCounter.recordPuts( 1 );
+            if ( !modificationContext.getWrites().isEmpty() ) {
+                Iterator<Entry<EntryKeyLockQuard, WriteTakeEntry>> it = modificationContext.getWrites().entrySet().iterator();
+                try {
+                    while ( it.hasNext() ) {
+                        Entry<EntryKeyLockQuard, WriteTakeEntry> entry = it.next();
+                        // optimistic writes hold no key lock (rollback only)
+                        if ( !entry.getValue().isOptimistic() )
+                            unlockKeys.add( entry.getKey() );
+                        if ( apply ) {
+                            WriteTakeEntry value = entry.getValue();
+                            if ( retainVersions )
+                                retainVersion( entry.getKey().getKey(), commit );
+                            int prevBytesOccupation = indexManager.add( value.getObj(), value.getIdLockQuard(), value.getPointer() );
+                            value.setSpaceOperation( prevBytesOccupation > 0 ? SpaceOperation.UPDATE : SpaceOperation.WRITE );
+                            statsCounter.recordPuts( 1 );
+                            assignVersion( value );
+                        }
+                        else
+                            entry.getValue().getPointer().utilize();
                     }
-                    else
+                }
+                catch ( RuntimeException e ) {
+                    // release off-heap memory of writes which will never be applied
+                    while ( it.hasNext() ) {
+                        Entry<EntryKeyLockQuard, WriteTakeEntry> entry = it.next();
+                        if ( !entry.getValue().isOptimistic() )
+                            unlockKeys.add( entry.getKey() );
                         entry.getValue().getPointer().utilize();
+                    }
+                    throw e;
                 }
+            }
 
             if ( !modificationContext.getTakes().isEmpty() )
                 for ( Entry<EntryKeyLockQuard, WriteTakeEntry> entry : modificationContext.getTakes().entrySet() ) {
                     unlockKeys.add( entry.getKey() );
                     if ( apply ) {
                         entry.getValue().setSpaceOperation( SpaceOperation.TAKE );
+                        if ( retainVersions )
+                            retainVersion( entry.getKey().getKey(), commit );
                         indexManager.takeByUniqueIdentifier( entry.getKey() );
                         statsCounter.recordTakes( 1 );
                     }
@@ -114,6 +192,11 @@ public class OffHeapCacheStore implements SpaceStore {
                         unlockKeys.add( keyGuard );
                         statsCounter.recordExclusiveReads( 1 );
                     }
+
+            // wake up blocked fetches while keys are still locked (pointers of writes/takes can't be released yet)
+            if ( waiters.hasWaiters() )
+                for ( WriteTakeEntry entry : apply ? modificationContext.getWrites().values() : modificationContext.getTakes().values() )
+                    waiters.signal( entry.getPointer().getSerializedDataBuffer(), serializer() );
         }
         finally {
             if ( !unlockKeys.isEmpty() ) {
@@ -121,6 +204,8 @@ public class OffHeapCacheStore implements SpaceStore {
                     lockManager.writeUnlock( keyGuard, modificationContext.getTransactionId() );
                 unlockKeys.clear();
             }
+            if ( retainVersions )
+                endCommit( commit );
         }
     }
 
@@ -131,16 +216,27 @@ public class OffHeapCacheStore implements SpaceStore {
                       final int timeout,
                       final int modifier) {
         Object uniqueIdentifier = entry.getId();
-        ObjectBuffer objectBuffer = new ObjectBuffer( configuration.getKryo() );
 
         boolean isWriteOnly = SpaceModifiers.isWriteOnly( modifier );
         boolean isUpdateOnly = SpaceModifiers.isUpdateOnly( modifier );
+        Integer version = versionOf( entry );
+
+        if ( version != null ) {
+            // versioned write doesn't lock the key unless it is already locked by transaction
+            WriteTakeEntry ownWrite = modificationContext.getWrite( uniqueIdentifier );
+            if ( ownWrite != null ? ownWrite.isOptimistic() : modificationContext.getTake( uniqueIdentifier ) == null
+                    && !modificationContext.getExclusiveReads().contains( new OptimisticKeyGuard( uniqueIdentifier ) ) ) {
+                writeOptimistically( entry, modificationContext, ownWrite, version, timeToLive, timeout, modifier );
+                return;
+            }
+        }
 
         /**
          * 1. acquire write lock guard to protected particular entity from concurrent modification
          * 2. raise duplicate key violation exception in write only modifier is used and entity already exists
          * 3. raise object retrieve exception if update_only modifier is used and there is no such entity in space
-         * 4. allocate memory and write serialized state to the off-heap memory
+         * 4. allocate memory and write serialized state to the off-heap memory (directly, unless state is already
+         * serialized by remote client)
          * 5. save write modification in scope of transaction modification context
          */
 
@@ -151,21 +247,100 @@ public class OffHeapCacheStore implements SpaceStore {
             SpaceUtility.raiseDuplicateException( uniqueIdentifier, entry.getPersistentEntity().getOriginalPersistentEntity().getType() );
         if ( isUpdateOnly && !hasWriteInModificationContext && !indexManager.containsUniqueIdentifier( uniqueIdentifier ) )
             SpaceUtility.raiseObjectRetrieveFailureException( uniqueIdentifier, entry.getPersistentEntity().getOriginalPersistentEntity().getType() );
+        if ( version != null ) {
+            ByteArrayPointer visible = modificationContext.getPointer( writeLockQuard, indexManager );
+            verifyVersion( entry, version, visible == null ? null : visible.getSerializedDataBuffer(), hasWriteInModificationContext );
+        }
 
-        ByteArrayPointer p = new ByteArrayPointer(
-                configuration.getMemoryManager(),
-                entry.asSerializedData( objectBuffer ),
-                entry.getBean(),
-                timeToLive );
         modificationContext.addWrite( writeLockQuard, new WriteTakeEntry(
                 entry.getBean(),
                 entry.asPropertyValuesArray(),
                 writeLockQuard,
-                p,
+                pointerOf( entry, timeToLive ),
                 bo,
                 configuration ) );
     }
 
+    @Override
+    public WriteTakeEntry writeDirectly(final CacheStoreEntryWrapper entry,
+                                        final long transactionId,
+                                        final int timeToLive,
+                                        final int timeout,
+                                        final int modifier,
+                                        final boolean keepSerializedState) {
+        Object uniqueIdentifier = entry.getId();
+        EntryKeyLockQuard writeLockQuard = acquireKeyLock( uniqueIdentifier, transactionId, timeout, true );
+        long commit = 0;
+
+        try {
+            boolean exists = indexManager.containsUniqueIdentifier( uniqueIdentifier );
+            if ( SpaceModifiers.isWriteOnly( modifier ) && exists )
+                SpaceUtility.raiseDuplicateException( uniqueIdentifier, entry.getPersistentEntity().getOriginalPersistentEntity().getType() );
+            if ( SpaceModifiers.isUpdateOnly( modifier ) && !exists )
+                SpaceUtility.raiseObjectRetrieveFailureException( uniqueIdentifier, entry.getPersistentEntity().getOriginalPersistentEntity().getType() );
+            Integer version = versionOf( entry );
+            if ( version != null )
+                verifyVersion( entry, version, exists ? (ByteBuffer) indexManager.getByUniqueIdentifier( uniqueIdentifier, false ) : null, false );
+
+            ByteArrayPointer p = pointerOf( entry, timeToLive );
+            if ( keepSerializedState )
+                p.getSerializedData();
+            WriteTakeEntry value = new WriteTakeEntry( entry.getBean(), entry.asPropertyValuesArray(), writeLockQuard, p, bo, configuration );
+            if ( versions != null ) {
+                commit = configuration.getSnapshotEpochs().beginCommit();
+                retainVersion( uniqueIdentifier, commit );
+            }
+            int prevBytesOccupation = indexManager.add( value.getObj(), writeLockQuard, p );
+            value.setSpaceOperation( prevBytesOccupation > 0 ? SpaceOperation.UPDATE : SpaceOperation.WRITE );
+            statsCounter.recordPuts( 1 );
+            assignVersion( value );
+            if ( waiters.hasWaiters() )
+                waiters.signal( p.getSerializedDataBuffer(), serializer() );
+            return value;
+        }
+        finally {
+            lockManager.writeUnlock( writeLockQuard, transactionId );
+            if ( commit != 0 )
+                endCommit( commit );
+        }
+    }
+
+    @Override
+    public WriteTakeEntry takeDirectly(final CacheStoreEntryWrapper template,
+                                       final long transactionId,
+                                       final int timeout) {
+        EntryKeyLockQuard writeLockQuard = acquireKeyLock( template.getId(), transactionId, timeout, true );
+        long commit = 0;
+
+        try {
+            ByteArrayPointer p = (ByteArrayPointer) indexManager.getByUniqueIdentifier( template.getId(), true );
+            if ( p == null )
+                return null;
+            WriteTakeEntry value = new WriteTakeEntry( writeLockQuard, p, bo, configuration );
+            value.setSpaceOperation( SpaceOperation.TAKE );
+            if ( versions != null ) {
+                commit = configuration.getSnapshotEpochs().beginCommit();
+                retainVersion( template.getId(), commit );
+            }
+            indexManager.takeByUniqueIdentifier( writeLockQuard );
+            statsCounter.recordTakes( 1 );
+            return value;
+        }
+        finally {
+            lockManager.writeUnlock( writeLockQuard, transactionId );
+            if ( commit != 0 )
+                endCommit( commit );
+        }
+    }
+
+    @Override
+    public ByteBuffer readDirectly(final Object id) {
+        ByteBuffer entryState = (ByteBuffer) indexManager.getByUniqueIdentifier( id, false );
+        if ( entryState != null )
+            statsCounter.recordHits( 1 );
+        return entryState;
+    }
+
     @Override
     public ByteBuffer[] fetch(final CacheStoreEntryWrapper template,
                               final TransactionModificationContext modificationContext,
@@ -203,6 +378,8 @@ public class OffHeapCacheStore implements SpaceStore {
             }
             else {
                 entryState = modificationContext.getPointerData( uniqueIdentifier, indexManager );
+                if ( isSnapshotRead( modificationContext ) && !modificationContext.isModified( uniqueIdentifier ) )
+                    entryState = versions.read( uniqueIdentifier, modificationContext.getSnapshotEpoch(), entryState );
                 if ( entryState != null )
                     statsCounter.recordHits( 1 );
             }
@@ -211,79 +388,563 @@ public class OffHeapCacheStore implements SpaceStore {
                 return new ByteBuffer[] { entryState };
         }
         else {
-            final List<ByteBuffer> l = Lists.newLinkedList();
-
-            for ( Entry<EntryKeyLockQuard, WriteTakeEntry> entry : modificationContext.getWrites().entrySet() ) {
-                EntryKeyLockQuard uniqueIdentifier = entry.getKey();
-                ByteArrayPointer pointer = entry.getValue().getPointer();
-                ByteBuffer data = pointer.getSerializedDataBuffer();
-                matchByTemplate( modificationContext, data, uniqueIdentifier, template, l, modifiers, timeout );
-                if ( l.size() == maxResults )
-                    return l.toArray( new ByteBuffer[l.size()] );
-            }
-
+            List<ByteBuffer> l = Lists.newArrayList();
+            Iterators.addAll( l, new FetchIterator( template, modificationContext, timeout, maxResults, modifiers ) );
             return l.toArray( new ByteBuffer[l.size()] );
         }
 
         return null;
     }
 
-    // TODO: un-used at the moment
-    private void matchByTemplate(final TransactionModificationContext modificationContext,
-                                 final ByteBuffer data,
-                                 final Object uniqueIdentifier,
-                                 final CacheStoreEntryWrapper template,
-                                 final List<ByteBuffer> l,
-                                 final int modifiers,
-                                 final long timeout) {
-        boolean isTakeOnly = SpaceModifiers.isTakeOnly( modifiers );
-        boolean isExclusiveRead = SpaceModifiers.isExclusiveRead( modifiers );
-        boolean isEvictOnly = SpaceModifiers.isEvictOnly( modifiers );
+    @Override
+    public Iterator<ByteBuffer> iterate(final CacheStoreEntryWrapper template,
+                                        final TransactionModificationContext modificationContext,
+                                        final int timeout,
+                                        final int maxResults,
+                                        final int modifiers) {
+        if ( SpaceModifiers.isMatchById( modifiers ) ) {
+            ByteBuffer[] entries = fetch( template, modificationContext, timeout, maxResults, modifiers );
+            return entries == null ? Iterators.<ByteBuffer> emptyIterator() : Iterators.forArray( entries );
+        }
+        return new FetchIterator( template, modificationContext, timeout, maxResults, modifiers );
+    }
 
-        boolean matches = configuration.getKryo().matchByTemplate( data, template );
+    @Override
+    public QueryCollector query(final EntityQuery query,
+                                final TransactionModificationContext modificationContext) {
+        final QueryCollector collector = configuration.getKryo().compileQuery( query );
+        final TemplateMatcher matcher = collector.getMatcher();
+        final List<ByteBuffer> ownWrites = Lists.newLinkedList();
+        final Set<Object> modifiedKeys = ownModifications( modificationContext, ownWrites );
+        boolean more = true;
+
+        for ( ByteBuffer data : ownWrites )
+            if ( more && matcher.matches( data ) )
+                more = collector.offer( data );
+
+        if ( more ) {
+            final MatchingSerializer<?> serializer = serializer();
+            indexManager.match( matcher, new MatchedEntryVisitor() {
+                @Override
+                public boolean visit(final ByteArrayPointer entry) {
+                    ByteBuffer data = entry.getSerializedDataBuffer();
+                    if ( !modifiedKeys.isEmpty() && modifiedKeys.contains( serializer.readID( data ) ) )
+                        return true;
+                    return collector.offer( data );
+                }
+            } );
+        }
+        return collector;
+    }
 
-        if ( matches )
-            if ( isTakeOnly || isEvictOnly ) {
-                EntryKeyLockQuard writeLockQuard = acquireKeyLock( uniqueIdentifier, modificationContext, timeout );
-                ByteArrayPointer p = modificationContext.getPointer( writeLockQuard, indexManager );
-                // if ( p != null )
-                // modificationContext.addTake( writeLockQuard, WriteTakeEntry.valueOf( match, writeLockQuard, p, bo )
-                // );
-                // l.add( match );
+    @Override
+    public AggregationResult aggregate(final EntityAggregation aggregation,
+                                       final TransactionModificationContext modificationContext) {
+        final Aggregator aggregator = configuration.getKryo().compileAggregation( aggregation );
+        final TemplateMatcher matcher = aggregator.getMatcher();
+        final List<ByteBuffer> ownWrites = Lists.newLinkedList();
+        final Set<Object> modifiedKeys = ownModifications( modificationContext, ownWrites );
+        final MatchingSerializer<?> serializer = serializer();
+
+        for ( ByteBuffer data : ownWrites )
+            if ( matcher.matches( data ) )
+                aggregator.accumulate( data );
+
+        // each segment is aggregated by its own partial aggregator in parallel
+        List<AggregatingVisitor> partials = indexManager.matchInParallel( matcher, new Supplier<AggregatingVisitor>() {
+            @Override
+            public AggregatingVisitor get() {
+                return new AggregatingVisitor( aggregator.fork(), serializer, modifiedKeys );
             }
-            else if ( isExclusiveRead ) {
-                EntryKeyLockQuard exclusiveReadLockGuard = acquireKeyLock( uniqueIdentifier, modificationContext, timeout );
-                ByteArrayPointer p = modificationContext.getPointer( exclusiveReadLockGuard, indexManager );
-                if ( p != null )
-                    modificationContext.addExclusiveReadLock( exclusiveReadLockGuard );
-                // l.add( match );
+        } );
+        for ( AggregatingVisitor partial : partials )
+            aggregator.combine( partial.aggregator.getResult() );
+        return aggregator.getResult();
+    }
+
+    /**
+     * optimistic write of versioned entity - key is not locked, stale version is rejected immediately (against
+     * transaction's own write or committed entity), the version of committed entity seen by transaction is verified at
+     * commit.
+     */
+    private void writeOptimistically(final CacheStoreEntryWrapper entry,
+                                     final TransactionModificationContext modificationContext,
+                                     final WriteTakeEntry ownWrite,
+                                     final int version,
+                                     final int timeToLive,
+                                     final int timeout,
+                                     final int modifier) {
+        Object uniqueIdentifier = entry.getId();
+        ByteBuffer visible = ownWrite != null ? ownWrite.getPointer().getSerializedDataBuffer()
+                : (ByteBuffer) indexManager.getByUniqueIdentifier( uniqueIdentifier, false );
+
+        if ( SpaceModifiers.isWriteOnly( modifier ) && visible != null )
+            SpaceUtility.raiseDuplicateException( uniqueIdentifier, entry.getPersistentEntity().getOriginalPersistentEntity().getType() );
+        if ( SpaceModifiers.isUpdateOnly( modifier ) && visible == null )
+            SpaceUtility.raiseObjectRetrieveFailureException( uniqueIdentifier, entry.getPersistentEntity().getOriginalPersistentEntity().getType() );
+        int expectedVersion = ownWrite != null ? ownWrite.getExpectedVersion() : versionOf( visible );
+        verifyVersion( entry, version, visible, ownWrite != null );
+
+        EntryKeyLockQuard guard = ownWrite != null ? ownWrite.getIdLockQuard() : new OptimisticKeyGuard( uniqueIdentifier );
+        modificationContext.addWrite( guard, new WriteTakeEntry(
+                entry.getBean(),
+                entry.asPropertyValuesArray(),
+                guard,
+                pointerOf( entry, timeToLive ),
+                bo,
+                configuration,
+                expectedVersion,
+                timeout ) );
+    }
+
+    /**
+     * acquire key locks of optimistic writes and verify that committed entities have not been modified since they
+     * have been seen by transaction.
+     */
+    @Override
+    public void prepare(final TransactionModificationContext modificationContext) {
+        lockOptimisticWrites( modificationContext );
+    }
+
+    private void lockOptimisticWrites(final TransactionModificationContext modificationContext) {
+        List<WriteTakeEntry> optimisticWrites = Lists.newArrayList();
+        for ( WriteTakeEntry value : modificationContext.getWrites().values() )
+            if ( value.isOptimistic() )
+                optimisticWrites.add( value );
+        for ( WriteTakeEntry value : optimisticWrites ) {
+            Object uniqueIdentifier = value.getIdLockQuard().getKey();
+            acquireKeyLock( uniqueIdentifier, modificationContext, value.getLockTimeout() );
+            modificationContext.addWrite( value.getIdLockQuard(), value.keyLocked() );
+            int committedVersion = versionOf( (ByteBuffer) indexManager.getByUniqueIdentifier( uniqueIdentifier, false ) );
+            if ( committedVersion != value.getExpectedVersion() )
+                SpaceUtility.raiseOptimisticLockingFailureException(
+                        uniqueIdentifier,
+                        value.getPersistentEntity().getOriginalPersistentEntity().getType(),
+                        committedVersion == WriteTakeEntry.ABSENT ? null : committedVersion,
+                        value.getExpectedVersion() == WriteTakeEntry.ABSENT ? null : value.getExpectedVersion() );
+        }
+    }
+
+    /**
+     * @return optimistic lock version of entity being written or <code>null</code> if entity is not versioned
+     */
+    private Integer versionOf(final CacheStoreEntryWrapper entry) {
+        return bo.getOptimisticLockVersionProperty() != null ? entry.getOptimisticLockVersion() : null;
+    }
+
+    /**
+     * @return optimistic lock version of serialized entity (<code>null</code> version is treated as 0) or
+     *         {@link WriteTakeEntry#ABSENT}
+     */
+    private int versionOf(final ByteBuffer entityState) {
+        if ( entityState == null )
+            return WriteTakeEntry.ABSENT;
+        Integer version = (Integer) serializer().readPropertyValue( entityState, bo.getOptimisticLockVersionIndex() );
+        return version == null ? 0 : version;
+    }
+
+    /**
+     * reject stale version of existing entity and increment version of entity being written (serialized state only, bean
+     * is updated after modification is applied). Uncommitted write of the same transaction has incremented version
+     * already, but the bean still has the version it had been written with.
+     */
+    private void verifyVersion(final CacheStoreEntryWrapper entry,
+                               final int version,
+                               final ByteBuffer visible,
+                               final boolean uncommitted) {
+        int currentVersion = versionOf( visible );
+        if ( uncommitted && currentVersion != WriteTakeEntry.ABSENT )
+            currentVersion--;
+        if ( currentVersion != WriteTakeEntry.ABSENT && currentVersion != version )
+            SpaceUtility.raiseOptimisticLockingFailureException(
+                    entry.getId(),
+                    entry.getPersistentEntity().getOriginalPersistentEntity().getType(),
+                    currentVersion,
+                    version );
+        entry.asPropertyValuesArray()[bo.getOptimisticLockVersionIndex()] = version + 1;
+        // state serialized by remote client has the previous version
+        entry.setBeanAsBytes( null );
+    }
+
+    /**
+     * propagate new version of applied write to the bean.
+     */
+    private static void assignVersion(final WriteTakeEntry value) {
+        BO persistentEntity = value.getPersistentEntity();
+        int index = persistentEntity.getOptimisticLockVersionIndex();
+        if ( index >= 0 && value.getPropertyValues() != null && value.getPropertyValues()[index] != null )
+            persistentEntity.setOptimisticLockVersion( value.getObj(), (Integer) value.getPropertyValues()[index] );
+    }
+
+    /**
+     * @return true if read-only fetch must be served from snapshot of the transaction
+     */
+    private boolean isSnapshotRead(final TransactionModificationContext modificationContext) {
+        return versions != null && modificationContext.hasSnapshot();
+    }
+
+    /**
+     * apply group of committed transactions - modifications of all transactions are applied segment by segment (single
+     * lock acquisition per segment), blocked fetches are signalled while keys are still locked by committers.
+     */
+    private void applyGroup(final List<GroupCommit.Commit> group) {
+        int size = 0;
+        for ( GroupCommit.Commit commit : group )
+            size += commit.getModificationContext().getWrites().size() + commit.getModificationContext().getTakes().size();
+        Object[] keys = new Object[size];
+        ByteArrayPointer[] pointers = new ByteArrayPointer[size];
+        WriteTakeEntry[] entries = new WriteTakeEntry[size];
+        GroupCommit.Commit[] owners = new GroupCommit.Commit[size];
+        long epoch = versions != null ? configuration.getSnapshotEpochs().beginCommit() : 0;
+
+        try {
+            int i = 0;
+            for ( GroupCommit.Commit commit : group ) {
+                TransactionModificationContext modificationContext = commit.getModificationContext();
+                for ( Entry<EntryKeyLockQuard, WriteTakeEntry> entry : modificationContext.getWrites().entrySet() ) {
+                    pointers[i] = entry.getValue().getPointer();
+                    i = addModification( keys, entries, owners, i, entry, commit, epoch );
+                }
+                for ( Entry<EntryKeyLockQuard, WriteTakeEntry> entry : modificationContext.getTakes().entrySet() ) {
+                    entry.getValue().setSpaceOperation( SpaceOperation.TAKE );
+                    i = addModification( keys, entries, owners, i, entry, commit, epoch );
+                }
             }
-            else {
-                ByteBuffer entityState = modificationContext.getPointerData( uniqueIdentifier, indexManager );
-                if ( entityState != null )
-                    statsCounter.recordHits( 1 );
-                // l.add( match );
+
+            int[] occupations = new int[size];
+            RuntimeException[] failures = new RuntimeException[size];
+            indexManager.applyAll( keys, pointers, occupations, failures );
+
+            for ( i = 0; i < size; i++ )
+                if ( failures[i] != null )
+                    owners[i].fail( failures[i] );
+                else if ( pointers[i] != null ) {
+                    entries[i].setSpaceOperation( occupations[i] > 0 ? SpaceOperation.UPDATE : SpaceOperation.WRITE );
+                    statsCounter.recordPuts( 1 );
+                    assignVersion( entries[i] );
+                    if ( waiters.hasWaiters() )
+                        waiters.signal( pointers[i].getSerializedDataBuffer(), serializer() );
+                }
+                else
+                    statsCounter.recordTakes( 1 );
+        }
+        finally {
+            if ( epoch != 0 )
+                endCommit( epoch );
+        }
+    }
+
+    private int addModification(final Object[] keys,
+                                final WriteTakeEntry[] entries,
+                                final GroupCommit.Commit[] owners,
+                                final int i,
+                                final Entry<EntryKeyLockQuard, WriteTakeEntry> entry,
+                                final GroupCommit.Commit commit,
+                                final long epoch) {
+        keys[i] = entry.getKey().getKey();
+        entries[i] = entry.getValue();
+        owners[i] = commit;
+        if ( epoch != 0 )
+            retainVersion( keys[i], epoch );
+        return i + 1;
+    }
+
+    /**
+     * release key locks of transaction applied by group commit (key locks are owned by committer).
+     */
+    private void unlockKeys(final TransactionModificationContext modificationContext) {
+        Set<EntryKeyLockQuard> unlockKeys = new HashSet<EntryKeyLockQuard>( modificationContext.getWrites().size()
+                + modificationContext.getTakes().size() + modificationContext.getExclusiveReads().size() );
+        for ( WriteTakeEntry entry : modificationContext.getWrites().values() )
+            if ( !entry.isOptimistic() )
+                unlockKeys.add( entry.getIdLockQuard() );
+        unlockKeys.addAll( modificationContext.getTakes().keySet() );
+        unlockKeys.addAll( modificationContext.getExclusiveReads() );
+        statsCounter.recordExclusiveReads( modificationContext.getExclusiveReads().size() );
+        for ( EntryKeyLockQuard keyGuard : unlockKeys )
+            lockManager.writeUnlock( keyGuard, modificationContext.getTransactionId() );
+    }
+
+    /**
+     * retain the current (previous after commit) state of entity for snapshot reads, must be called under key lock.
+     */
+    private void retainVersion(final Object key,
+                               final long commit) {
+        versions.retain( key, commit, (ByteArrayPointer) indexManager.getByUniqueIdentifier( key, true ) );
+    }
+
+    private void endCommit(final long commit) {
+        configuration.getSnapshotEpochs().endCommit( commit );
+        versions.run();
+    }
+
+    /**
+     * collect unique identifiers of entities (of this store's type) modified by transaction - transaction's own
+     * modifications shadow committed state. serialized state of transaction's writes is added to ownWrites.
+     */
+    private Set<Object> ownModifications(final TransactionModificationContext modificationContext,
+                                         final List<ByteBuffer> ownWrites) {
+        Class<?> type = bo.getOriginalPersistentEntity().getType();
+        Set<Object> modifiedKeys = Sets.newHashSet();
+        for ( WriteTakeEntry entry : modificationContext.getTakes().values() )
+            if ( entry.getPersistentEntity().getOriginalPersistentEntity().getType() == type )
+                modifiedKeys.add( entry.getIdLockQuard().getKey() );
+        for ( WriteTakeEntry entry : modificationContext.getWrites().values() )
+            if ( entry.getPersistentEntity().getOriginalPersistentEntity().getType() == type ) {
+                modifiedKeys.add( entry.getIdLockQuard().getKey() );
+                ownWrites.add( entry.getPointer().getSerializedDataBuffer() );
             }
+        return modifiedKeys;
+    }
+
+    private MatchingSerializer<?> serializer() {
+        return (MatchingSerializer<?>) configuration.getKryo().getSerializer( bo.getOriginalPersistentEntity().getType() );
     }
 
     private EntryKeyLockQuard acquireKeyLock(final Object key,
                                              final TransactionModificationContext modificationContext,
                                              final long timeout) {
-        EntryKeyLockQuard writeLockGuard = lockManager.writeLock(
-                key,
-                modificationContext.getTransactionId(),
-                timeout,
-                !modificationContext.isProxyMode() );
+        return acquireKeyLock( key, modificationContext.getTransactionId(), timeout, !modificationContext.isProxyMode() );
+    }
+
+    private EntryKeyLockQuard acquireKeyLock(final Object key,
+                                             final long transactionId,
+                                             final long timeout,
+                                             final boolean strict) {
+        EntryKeyLockQuard writeLockGuard = lockManager.writeLock( key, transactionId, timeout, strict );
         if ( writeLockGuard == null )
             SpaceUtility.raiseCannotAcquireLockException( key, timeout, true );
         return writeLockGuard;
     }
 
+    /**
+     * allocate byte array pointer for entity (directly serialized unless state is already serialized by remote client).
+     */
+    private ByteArrayPointer pointerOf(final CacheStoreEntryWrapper entry,
+                                       final int timeToLive) {
+        byte[] beanAsBytes = entry.getBeanAsBytes();
+        // entities written by nodes running another version of persistent class are migrated before storing
+        if ( beanAsBytes != null )
+            beanAsBytes = configuration.getKryo().toCurrentSchema( beanAsBytes, bo.getOriginalPersistentEntity().getType() );
+        CompressionCodec codec = bo.getCapacityRestriction().getCompressionCodec();
+        if ( beanAsBytes != null )
+            return new ByteArrayPointer( configuration.getMemoryManager(), beanAsBytes, entry.getBean(), timeToLive, codec );
+        Integer version = versionOf( entry );
+        if ( version == null || entry.getBean() == null )
+            return ByteArrayPointer.serializeDirectly( configuration.getMemoryManager(), configuration.getKryo(), entry, entry.getBean(), timeToLive, codec );
+        // bytecode serializer reads the bean directly - incremented version is serialized and the bean is restored
+        bo.setOptimisticLockVersion( entry.getBean(), version + 1 );
+        try {
+            return ByteArrayPointer.serializeDirectly( configuration.getMemoryManager(), configuration.getKryo(), entry, entry.getBean(), timeToLive, codec );
+        }
+        finally {
+            bo.setOptimisticLockVersion( entry.getBean(), version );
+        }
+    }
+
+    /**
+     * lazy fetch by template - transaction's own writes are matched first, then committed entities are matched segment
+     * by segment (so that only matches of single segment are held on heap). entities are locked (for
+     * take/evict/exclusive read) one by one as iterator advances and re-matched under lock, because committed state might
+     * have been changed by concurrent transaction after segment has been scanned.</p>
+     * 
+     * blocking fetch which found nothing registers itself in {@link MatchWaiters} and re-scans committed entities,
+     * then waits for signal from {@link OffHeapCacheStore#sync(TransactionModificationContext, boolean)} and re-scans
+     * again until something is found or timeout is exceeded (template is re-compiled before re-scan if some of its
+     * strings were not in dictionary at compile time).</p>
+     * 
+     * read-only fetch of transaction with snapshot never waits, committed entities are replaced by their snapshot state
+     * (if modified after snapshot) and re-matched, then entities modified after snapshot which have not been scanned
+     * (current state doesn't match or entity has been taken) are matched by their snapshot state.
+     */
+    private final class FetchIterator extends AbstractIterator<ByteBuffer> {
+        private final CacheStoreEntryWrapper template;
+        private final TransactionModificationContext modificationContext;
+        private TemplateMatcher matcher;
+        private final MatchingSerializer<?> serializer;
+        private final Iterator<ByteBuffer> ownWrites;
+        private final Set<Object> modifiedKeys;
+        private final Deque<ByteArrayPointer> candidates = new ArrayDeque<ByteArrayPointer>();
+        private final int timeout;
+        private final boolean isTake, isExclusiveRead, isBlocking;
+        private final int maxResults;
+        private int remaining, segment;
+        private long deadline;
+        private MatchWaiters.Waiter waiter;
+        /**
+         * ids of scanned committed entities (snapshot read only)
+         */
+        private final Set<Object> scanned;
+        private Iterator<Object> modifiedAfterSnapshot;
+
+        private FetchIterator(final CacheStoreEntryWrapper template,
+                              final TransactionModificationContext modificationContext,
+                              final int timeout,
+                              final int maxResults,
+                              final int modifiers) {
+            List<ByteBuffer> writes = Lists.newLinkedList();
+            this.template = template;
+            this.modificationContext = modificationContext;
+            this.matcher = configuration.getKryo().compileTemplate( template );
+            this.serializer = serializer();
+            this.modifiedKeys = ownModifications( modificationContext, writes );
+            this.ownWrites = writes.iterator();
+            this.timeout = timeout;
+            this.remaining = maxResults;
+            this.maxResults = maxResults;
+            this.isTake = SpaceModifiers.isTakeOnly( modifiers ) || SpaceModifiers.isEvictOnly( modifiers );
+            this.isExclusiveRead = SpaceModifiers.isExclusiveRead( modifiers );
+            this.scanned = !isTake && !isExclusiveRead && isSnapshotRead( modificationContext ) ? new HashSet<Object>() : null;
+            this.isBlocking = scanned == null && SpaceModifiers.isBlockingFetch( modifiers, timeout );
+        }
+
+        @Override
+        protected ByteBuffer computeNext() {
+            try {
+                return computeNext0();
+            }
+            finally {
+                if ( waiter != null ) {
+                    waiter.cancel();
+                    waiter = null;
+                }
+            }
+        }
+
+        private ByteBuffer computeNext0() {
+            while ( remaining > 0 ) {
+                ByteBuffer entryState = null;
+                if ( ownWrites.hasNext() ) {
+                    ByteBuffer data = ownWrites.next();
+                    if ( matcher.matches( data ) )
+                        entryState = fetch( serializer.readID( data ), data, true );
+                }
+                else if ( modifiedAfterSnapshot != null && modifiedAfterSnapshot.hasNext() ) {
+                    Object uniqueIdentifier = modifiedAfterSnapshot.next();
+                    if ( scanned.contains( uniqueIdentifier ) || modifiedKeys.contains( uniqueIdentifier ) )
+                        continue;
+                    ByteBuffer data = versions.read( uniqueIdentifier, modificationContext.getSnapshotEpoch(), null );
+                    if ( data != null && matcher.matches( data ) )
+                        entryState = fetch( uniqueIdentifier, data, false );
+                }
+                else {
+                    ByteArrayPointer candidate = candidates.poll();
+                    if ( candidate == null ) {
+                        if ( segment == indexManager.getSegmentsCount() ) {
+                            if ( scanned != null ) {
+                                if ( modifiedAfterSnapshot != null )
+                                    break;
+                                modifiedAfterSnapshot = versions.modifiedAfter( modificationContext.getSnapshotEpoch() ).iterator();
+                                continue;
+                            }
+                            if ( !awaitMatch() )
+                                break;
+                            segment = 0;
+                            continue;
+                        }
+                        List<ByteArrayPointer> matched = indexManager.matchSegment( matcher, segment++ );
+                        if ( matched != null )
+                            candidates.addAll( matched );
+                        continue;
+                    }
+                    ByteBuffer data = candidate.getSerializedDataBuffer();
+                    Object uniqueIdentifier = serializer.readID( data );
+                    // shadowed by transaction's own modifications
+                    if ( !modifiedKeys.isEmpty() && modifiedKeys.contains( uniqueIdentifier ) )
+                        continue;
+                    if ( scanned != null ) {
+                        scanned.add( uniqueIdentifier );
+                        ByteBuffer visible = versions.read( uniqueIdentifier, modificationContext.getSnapshotEpoch(), data );
+                        // modified after snapshot, so snapshot state must be re-matched
+                        if ( visible != data && ( visible == null || !matcher.matches( visible ) ) )
+                            continue;
+                        data = visible;
+                    }
+                    entryState = fetch( uniqueIdentifier, data, false );
+                }
+                if ( entryState != null ) {
+                    remaining--;
+                    entryState.clear();
+                    return entryState;
+                }
+            }
+            return endOfData();
+        }
+
+        /**
+         * @return true if committed entities must be re-scanned (waiter is registered before each re-scan, so that
+         *         commit in-between is not missed)
+         */
+        private boolean awaitMatch() {
+            // only the first entity is waited for, no need to wait for more
+            if ( !isBlocking || remaining < maxResults )
+                return false;
+            long now = System.currentTimeMillis();
+            if ( waiter != null ) {
+                boolean signalled = now < deadline && waiter.await( deadline - now );
+                // timeout might have been exceeded concurrently with signal
+                signalled = !waiter.cancel() || signalled;
+                waiter = null;
+                if ( !signalled )
+                    return false;
+                now = System.currentTimeMillis();
+            }
+            else if ( deadline != 0 )
+                return false;
+            else
+                deadline = timeout == Integer.MAX_VALUE ? Long.MAX_VALUE : now + timeout;
+            // template's strings might have been added to dictionary since matcher has been compiled
+            if ( matcher.isIncomplete() )
+                matcher = serializer.compile( template );
+            if ( now < deadline )
+                waiter = waiters.register( template, matcher, isTake || isExclusiveRead );
+            return true;
+        }
+
+        /**
+         * @return time left to the deadline of blocking fetch (full timeout if fetch hasn't waited for match yet)
+         */
+        private long lockTimeout() {
+            if ( deadline == 0 || deadline == Long.MAX_VALUE )
+                return timeout;
+            return Math.max( deadline - System.currentTimeMillis(), 0 );
+        }
+
+        private ByteBuffer fetch(final Object uniqueIdentifier,
+                                 final ByteBuffer data,
+                                 final boolean ownWrite) {
+            if ( !isTake && !isExclusiveRead ) {
+                if ( !ownWrite )
+                    statsCounter.recordHits( 1 );
+                return data;
+            }
+
+            EntryKeyLockQuard lockGuard = acquireKeyLock( uniqueIdentifier, modificationContext, lockTimeout() );
+            boolean wasHeld = ownWrite || modificationContext.getExclusiveReads().contains( lockGuard );
+            ByteArrayPointer p = modificationContext.getPointer( lockGuard, indexManager );
+            if ( p != null && ( ownWrite || matcher.matches( p.getSerializedDataBuffer() ) ) ) {
+                if ( isTake )
+                    modificationContext.addTake( lockGuard, new WriteTakeEntry( lockGuard, p, bo, configuration ) );
+                else
+                    modificationContext.addExclusiveReadLock( lockGuard );
+                return p.getSerializedDataBuffer();
+            }
+            if ( !wasHeld )
+                lockManager.writeUnlock( lockGuard, modificationContext.getTransactionId() );
+            return null;
+        }
+    }
+
     @Override
     public IndexManager getIndexManager() {
         return indexManager;
     }
 
+    @VisibleForTesting
+    EntryVersions getVersions() {
+        return versions;
+    }
+
     @Override
     public SpaceConfiguration getSpaceConfiguration() {
         return configuration;
@@ -296,16 +957,51 @@ public class OffHeapCacheStore implements SpaceStore {
 
     @Override
     public void destroy() {
-        indexManager.destroy();
+        try {
+            indexManager.destroy();
+        }
+        finally {
+            if ( versions != null ) {
+                configuration.getSnapshotEpochs().removeReclaimer( versions );
+                versions.destroy();
+            }
+        }
     }
 
     @Override
     public void afterPropertiesSet() {
         indexManager.afterPropertiesSet();
+        if ( versions != null )
+            configuration.getSnapshotEpochs().addReclaimer( versions );
     }
 
     @Override
     public String toString() {
-        return Objects.toStringHelper( this ).add( "indexManager", indexManager ).add( "lockManager", lockManager ).toString();
+        return Objects
+                .toStringHelper( this )
+                .add( "indexManager", indexManager )
+                .add( "lockManager", lockManager )
+                .add( "versions", versions )
+                .toString();
+    }
+
+    private static final class AggregatingVisitor implements MatchedEntryVisitor {
+        private final Aggregator aggregator;
+        private final MatchingSerializer<?> serializer;
+        private final Set<Object> modifiedKeys;
+
+        private AggregatingVisitor(final Aggregator aggregator, final MatchingSerializer<?> serializer, final Set<Object> modifiedKeys) {
+            this.aggregator = aggregator;
+            this.serializer = serializer;
+            this.modifiedKeys = modifiedKeys;
+        }
+
+        @Override
+        public boolean visit(final ByteArrayPointer entry) {
+            ByteBuffer data = entry.getSerializedDataBuffer();
+            if ( modifiedKeys.isEmpty() || !modifiedKeys.contains( serializer.readID( data ) ) )
+                aggregator.accumulate( data );
+            return true;
+        }
     }
 }
@@ -17,10 +17,9 @@ package com.turbospaces.spaces;
 
 import java.nio.ByteBuffer;
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.ConcurrentMap;
 
 import javax.annotation.concurrent.ThreadSafe;
@@ -30,22 +29,28 @@ import org.slf4j.LoggerFactory;
 import org.springframework.dao.InvalidDataAccessApiUsageException;
 import org.springframework.dao.InvalidDataAccessResourceUsageException;
 import org.springframework.transaction.support.TransactionSynchronizationManager;
-import org.springframework.util.ObjectUtils;
 
 import com.google.common.base.Function;
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 import com.google.common.primitives.Ints;
+import com.turbospaces.api.FetchConsumer;
 import com.turbospaces.api.JSpace;
+import com.turbospaces.api.QueryPage;
 import com.turbospaces.api.SpaceConfiguration;
 import com.turbospaces.api.SpaceErrors;
 import com.turbospaces.api.SpaceNotificationListener;
 import com.turbospaces.api.SpaceTopology;
 import com.turbospaces.core.Memory;
 import com.turbospaces.core.SpaceUtility;
+import com.turbospaces.model.AggregationResult;
 import com.turbospaces.model.BO;
 import com.turbospaces.model.CacheStoreEntryWrapper;
+import com.turbospaces.model.EntityAggregation;
+import com.turbospaces.model.EntityQuery;
 import com.turbospaces.offmemory.OffHeapCacheStore;
+import com.turbospaces.serialization.QueryCollector;
 import com.turbospaces.serialization.SerializationEntry;
 import com.turbospaces.spaces.tx.SpaceTransactionHolder;
 import com.turbospaces.spaces.tx.TransactionModificationContext;
@@ -67,7 +72,7 @@ public abstract class AbstractJSpace implements TransactionalJSpace, SpaceErrors
 
     private final ConcurrentMap<Class<?>, OffHeapCacheStore> offHeapBuffers;
     private final SpaceConfiguration configuration;
-    private final Set<NotificationContext> notificationContext;
+    private final NotificationRegistry notificationRegistry;
     private final SpaceReceiveAdapter messageListener;
 
     protected AbstractJSpace(final SpaceConfiguration configuration) {
@@ -82,7 +87,7 @@ public abstract class AbstractJSpace implements TransactionalJSpace, SpaceErrors
                 return cacheStore;
             }
         } );
-        notificationContext = new HashSet<NotificationContext>();
+        notificationRegistry = new NotificationRegistry();
         messageListener = new SpaceReceiveAdapter( this );
     }
 
@@ -157,7 +162,7 @@ public abstract class AbstractJSpace implements TransactionalJSpace, SpaceErrors
                     "Illegal attempt to perform matching by ID when id is not provided. Template = %s",
                     template ) );
 
-        this.notificationContext.add( new NotificationContext( cacheStoreEntryWrapper, listener, modifiers ) );
+        notificationRegistry.register( new NotificationContext( cacheStoreEntryWrapper, listener, modifiers ) );
     }
 
     @Override
@@ -169,6 +174,33 @@ public abstract class AbstractJSpace implements TransactionalJSpace, SpaceErrors
         return fetch( th, entry, timeout, maxResults, modifiers );
     }
 
+    @Override
+    public <T> int fetch(final Object entry,
+                         final int timeout,
+                         final int maxResults,
+                         final int modifiers,
+                         final FetchConsumer<? super T> consumer) {
+        SpaceTransactionHolder th = getTransactionHolder();
+        return fetch( th, entry, timeout, maxResults, modifiers, consumer );
+    }
+
+    @Override
+    public Object[][] fetchProperties(final Object entry,
+                                      final int timeout,
+                                      final int maxResults,
+                                      final int modifiers,
+                                      final String... properties) {
+        Class<?> type = typeOf( entry );
+        int[] indexes = getSpaceConfiguration().boFor( type ).getPropertyIndexes( properties );
+        Object[] buffers = fetch( getTransactionHolder(), entry, timeout, maxResults, modifiers | JSpace.RETURN_AS_BYTES );
+        if ( buffers == null )
+            return new Object[0][];
+        Object[][] result = new Object[buffers.length][];
+        for ( int i = 0; i < buffers.length; i++ )
+            result[i] = getSpaceConfiguration().getKryo().deserializeProperties( (ByteBuffer) buffers[i], type, indexes );
+        return result;
+    }
+
     @Override
     public void write(final Object entry,
                       final int timeToLive,
@@ -183,7 +215,6 @@ public abstract class AbstractJSpace implements TransactionalJSpace, SpaceErrors
                    final int timeout,
                    final int maxResults,
                    final int modifiers) {
-        SpaceStore buffer = storeFor( entry );
         int txTimeout = timeout;
         TransactionModificationContext txModification;
 
@@ -192,6 +223,8 @@ public abstract class AbstractJSpace implements TransactionalJSpace, SpaceErrors
                 txTimeout = Ints.checkedCast( th.getTimeToLiveInMillis() );
             txModification = (TransactionModificationContext) th.getModificationContext();
         }
+        else if ( SpaceModifiers.isMatchById( modifiers ) && !SpaceModifiers.isExclusiveRead( modifiers ) )
+            return fetchDirectly( entry, timeout, maxResults, modifiers );
         else
             txModification = new TransactionModificationContext();
 
@@ -201,8 +234,105 @@ public abstract class AbstractJSpace implements TransactionalJSpace, SpaceErrors
         finally {
             if ( th == null )
                 if ( txModification.isDirty() )
-                    txModification.flush( buffer, notificationContext );
+                    txModification.commit( notificationRegistry );
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    <T> int fetch(final SpaceTransactionHolder th,
+                  final Object entry,
+                  final int timeout,
+                  final int maxResults,
+                  final int modifiers,
+                  final FetchConsumer<? super T> consumer) {
+        Preconditions.checkNotNull( consumer );
+        TransactionModificationContext txModification = th != null ? (TransactionModificationContext) th.getModificationContext()
+                : new TransactionModificationContext();
+        boolean isReturnAsBytes = SpaceModifiers.isReturnAsBytes( modifiers );
+        int fetched = 0;
+
+        try {
+            // fetch lazily, entities are de-serialized one by one as consumer asks for more
+            Iterator<ByteBuffer> it = iterate( th, txModification, entry, timeout, maxResults, modifiers );
+            Class<?> type = typeOf( entry );
+            TransactionModificationContext storeModification = txModification.forStore( storeFor( entry ) );
+            while ( it.hasNext() ) {
+                ByteBuffer next = it.next();
+                fetched++;
+                if ( !consumer.accept( (T) ( isReturnAsBytes ? next : deserialize( storeModification, next, type ) ) ) )
+                    break;
+            }
+        }
+        finally {
+            if ( th == null )
+                flush( txModification, entry );
         }
+        return fetched;
+    }
+
+    /**
+     * lazy fetch - matched entities are fetched (taken/locked) as iterator advances. modifications of non-transactional
+     * fetch must be applied via {@link #flush(TransactionModificationContext, Object)} by caller.
+     */
+    Iterator<ByteBuffer> iterate(final SpaceTransactionHolder th,
+                                 final TransactionModificationContext txModification,
+                                 final Object entry,
+                                 final int timeout,
+                                 final int maxResults,
+                                 final int modifiers) {
+        int txTimeout = timeout;
+        if ( th != null && th.hasTimeout() && timeout > th.getTimeToLiveInMillis() )
+            txTimeout = Ints.checkedCast( th.getTimeToLiveInMillis() );
+        CacheStoreEntryWrapper cacheStoreEntryWrapper = fetchTemplate( txModification.getTransactionId(), entry, txTimeout, maxResults, modifiers );
+        SpaceStore store = storeFor( cacheStoreEntryWrapper );
+        return store.iterate( cacheStoreEntryWrapper, txModification.forStore( store ), txTimeout, maxResults, modifiers );
+    }
+
+    /**
+     * apply modifications of non-transactional operation over entity's store.
+     */
+    void flush(final TransactionModificationContext txModification,
+               final Object entry) {
+        if ( txModification.isDirty() )
+            txModification.commit( notificationRegistry );
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> QueryPage<T> query(final EntityQuery query) {
+        QueryCollector collector = query( getTransactionHolder(), query );
+        ByteBuffer[] buffers = collector.getResults();
+        List<T> entities = Lists.newArrayListWithCapacity( buffers.length );
+        for ( ByteBuffer buffer : buffers )
+            entities.add( (T) configuration.getKryo().deserialize( buffer, query.getType() ).getObject() );
+        return new QueryPage<T>( entities, collector.getNextCursor() );
+    }
+
+    QueryCollector query(final SpaceTransactionHolder th,
+                         final EntityQuery query) {
+        Preconditions.checkNotNull( query );
+        TransactionModificationContext txModification = th != null ? (TransactionModificationContext) th.getModificationContext()
+                : new TransactionModificationContext();
+        if ( logger.isDebugEnabled() )
+            logger.debug( "onQuery: query={}, transaction={}", query, txModification.getTransactionId() );
+        OffHeapCacheStore store = offHeapBuffers.get( query.getType() );
+        return store.query( query, txModification.forStore( store ) );
+    }
+
+    @Override
+    public AggregationResult aggregate(final EntityAggregation aggregation) {
+        return aggregate( getTransactionHolder(), aggregation );
+    }
+
+    AggregationResult aggregate(final SpaceTransactionHolder th,
+                                final EntityAggregation aggregation) {
+        Preconditions.checkNotNull( aggregation );
+        TransactionModificationContext txModification = th != null ? (TransactionModificationContext) th.getModificationContext()
+                : new TransactionModificationContext();
+        if ( logger.isDebugEnabled() )
+            logger.debug( "onAggregate: aggregation={}, transaction={}", aggregation, txModification.getTransactionId() );
+        OffHeapCacheStore store = offHeapBuffers.get( aggregation.getType() );
+        return store.aggregate( aggregation, txModification.forStore( store ) );
     }
 
     void write(final SpaceTransactionHolder th,
@@ -220,8 +350,10 @@ public abstract class AbstractJSpace implements TransactionalJSpace, SpaceErrors
                 txTimeout = Ints.checkedCast( th.getTimeToLiveInMillis() );
             txModification = (TransactionModificationContext) th.getModificationContext();
         }
-        else
-            txModification = new TransactionModificationContext();
+        else {
+            writeDirectly( buffer, entry, serializedEntry, timeToLive, timeout, modifier );
+            return;
+        }
 
         try {
             write0( txModification, entry, serializedEntry, timeToLive, txTimeout, modifier );
@@ -229,7 +361,7 @@ public abstract class AbstractJSpace implements TransactionalJSpace, SpaceErrors
         finally {
             if ( th == null )
                 if ( txModification.isDirty() )
-                    txModification.flush( buffer, notificationContext );
+                    txModification.commit( notificationRegistry );
         }
     }
 
@@ -239,13 +371,58 @@ public abstract class AbstractJSpace implements TransactionalJSpace, SpaceErrors
                         final int timeToLive,
                         final int timeout,
                         final int modifier) {
+        CacheStoreEntryWrapper cacheStoreEntryWrapper = writeTemplate(
+                modificationContext.getTransactionId(),
+                entry,
+                serializedEntry,
+                timeToLive,
+                timeout,
+                modifier );
+
+        // write
+        OffHeapCacheStore store = offHeapBuffers.get( entry.getClass() );
+        store.write( cacheStoreEntryWrapper, modificationContext.forStore( store ), timeToLive, timeout, modifier );
+    }
+
+    /**
+     * auto-commit write (outside of transaction) - entity is applied directly under key lock without transaction
+     * modification context, subscribers are notified the same way as after transaction commit.
+     */
+    private void writeDirectly(final SpaceStore buffer,
+                               final Object entry,
+                               final byte[] serializedEntry,
+                               final int timeToLive,
+                               final int timeout,
+                               final int modifier) {
+        long transactionId = TransactionModificationContext.nextTransactionId();
+        CacheStoreEntryWrapper cacheStoreEntryWrapper = writeTemplate( transactionId, entry, serializedEntry, timeToLive, timeout, modifier );
+        boolean notify = !notificationRegistry.isEmpty();
+
+        WriteTakeEntry write = buffer.writeDirectly(
+                cacheStoreEntryWrapper,
+                transactionId,
+                timeToLive,
+                timeout,
+                modifier,
+                notify && notificationRegistry.isAnyReturnAsBytes() );
+        if ( notify )
+            notificationRegistry.publish( Collections.singletonList( write ), configuration );
+    }
+
+    /**
+     * validate write parameters and modifiers and wrap entity.
+     */
+    private CacheStoreEntryWrapper writeTemplate(final long transactionId,
+                                                 final Object entry,
+                                                 final byte[] serializedEntry,
+                                                 final int timeToLive,
+                                                 final int timeout,
+                                                 final int modifier) {
         Preconditions.checkNotNull( entry );
 
         Preconditions.checkArgument( timeToLive >= 0, NEGATIVE_TTL );
         Preconditions.checkArgument( timeout >= 0, NEGATIVE_TIMEOUT );
 
-        Class<?> persistentClass = entry.getClass();
-        SpaceStore heapBuffer = offHeapBuffers.get( persistentClass );
         BO bo = configuration.boFor( entry.getClass() );
 
         boolean isWriteOnly = SpaceModifiers.isWriteOnly( modifier );
@@ -273,10 +450,8 @@ public abstract class AbstractJSpace implements TransactionalJSpace, SpaceErrors
         if ( logger.isDebugEnabled() )
             logger.debug( "onWrite: entity {}, id={}, version={}, routing={} under {} transaction. ttl = {}", new Object[] { entry,
                     cacheStoreEntryWrapper.getId(), cacheStoreEntryWrapper.getOptimisticLockVersion(), cacheStoreEntryWrapper.getRouting(),
-                    modificationContext.getTransactionId(), timeToLive } );
-
-        // write
-        heapBuffer.write( cacheStoreEntryWrapper, modificationContext, timeToLive, timeout, modifier );
+                    transactionId, timeToLive } );
+        return cacheStoreEntryWrapper;
     }
 
     private Object[] fetch0(final TransactionModificationContext modificationContext,
@@ -284,21 +459,91 @@ public abstract class AbstractJSpace implements TransactionalJSpace, SpaceErrors
                             final int timeout,
                             final int maxResults,
                             final int modifiers) {
+        CacheStoreEntryWrapper cacheStoreEntryWrapper = fetchTemplate(
+                modificationContext.getTransactionId(),
+                entry,
+                timeout,
+                maxResults,
+                modifiers );
+        SpaceStore heapBuffer = storeFor( cacheStoreEntryWrapper );
+        TransactionModificationContext storeModification = modificationContext.forStore( heapBuffer );
+
+        // fetch
+        ByteBuffer[] c = heapBuffer.fetch( cacheStoreEntryWrapper, storeModification, timeout, maxResults, modifiers );
+        if ( c != null )
+            if ( !SpaceModifiers.isReturnAsBytes( modifiers ) ) {
+                int size = c.length;
+                Class<?> type = cacheStoreEntryWrapper.getPersistentEntity().getOriginalPersistentEntity().getType();
+
+                Object[] result = new Object[size];
+                for ( int i = 0; i < size; i++ )
+                    result[i] = deserialize( storeModification, c[i], type );
+                return result;
+            }
+        return c;
+    }
+
+    /**
+     * auto-commit fetch by id (outside of transaction) - read doesn't acquire any locks, take/evict removes entity
+     * directly under key lock without transaction modification context. serialized entities are returned as array of
+     * buffers (the same as for transactional fetch).
+     */
+    private Object[] fetchDirectly(final Object entry,
+                                   final int timeout,
+                                   final int maxResults,
+                                   final int modifiers) {
+        long transactionId = TransactionModificationContext.nextTransactionId();
+        CacheStoreEntryWrapper cacheStoreEntryWrapper = fetchTemplate( transactionId, entry, timeout, maxResults, modifiers );
+        SpaceStore heapBuffer = storeFor( cacheStoreEntryWrapper );
+        boolean isReturnAsBytes = SpaceModifiers.isReturnAsBytes( modifiers );
+        Class<?> type = cacheStoreEntryWrapper.getPersistentEntity().getOriginalPersistentEntity().getType();
+
+        if ( SpaceModifiers.isTakeOnly( modifiers ) || SpaceModifiers.isEvictOnly( modifiers ) ) {
+            WriteTakeEntry take = heapBuffer.takeDirectly( cacheStoreEntryWrapper, transactionId, timeout );
+            if ( take == null )
+                return null;
+            ByteBuffer buffer = take.getPointer().getSerializedDataBuffer();
+            Object[] result;
+            if ( isReturnAsBytes )
+                result = new ByteBuffer[] { buffer };
+            else {
+                // bind de-serialized entity to the take, so that it is not de-serialized again for notifications
+                SerializationEntry sEntry = configuration.getKryo().deserialize( buffer, type );
+                take.setObj( sEntry.getObject() );
+                take.setPropertyValues( sEntry.getPropertyValues() );
+                result = new Object[] { sEntry.getObject() };
+            }
+            if ( !notificationRegistry.isEmpty() )
+                notificationRegistry.publish( Collections.singletonList( take ), configuration );
+            return result;
+        }
+
+        ByteBuffer buffer = heapBuffer.readDirectly( cacheStoreEntryWrapper.getId() );
+        if ( buffer == null )
+            return null;
+        return isReturnAsBytes ? new ByteBuffer[] { buffer } : new Object[] { configuration.getKryo().deserialize( buffer, type ).getObject() };
+    }
+
+    /**
+     * validate fetch parameters and modifiers and wrap template.
+     */
+    private CacheStoreEntryWrapper fetchTemplate(final long transactionId,
+                                                 final Object entry,
+                                                 final int timeout,
+                                                 final int maxResults,
+                                                 final int modifiers) {
         Preconditions.checkNotNull( entry );
         Preconditions.checkArgument( maxResults >= 1, NON_POSITIVE_MAX_RESULTS );
         Preconditions.checkArgument( timeout >= 0, NEGATIVE_TIMEOUT );
 
-        SpaceStore heapBuffer;
         CacheStoreEntryWrapper cacheStoreEntryWrapper;
         Object template;
 
         if ( entry instanceof CacheStoreEntryWrapper ) {
             cacheStoreEntryWrapper = (CacheStoreEntryWrapper) entry;
-            heapBuffer = offHeapBuffers.get( cacheStoreEntryWrapper.getPersistentEntity().getOriginalPersistentEntity().getType() );
             template = cacheStoreEntryWrapper.getBean();
         }
         else {
-            heapBuffer = offHeapBuffers.get( entry.getClass() );
             cacheStoreEntryWrapper = CacheStoreEntryWrapper.writeValueOf( configuration.boFor( entry.getClass() ), entry );
             template = entry;
         }
@@ -308,7 +553,6 @@ public abstract class AbstractJSpace implements TransactionalJSpace, SpaceErrors
         boolean isEvictOnly = SpaceModifiers.isEvictOnly( modifiers );
         boolean isExclusiveRead = SpaceModifiers.isExclusiveRead( modifiers );
         boolean isMatchById = SpaceModifiers.isMatchById( modifiers );
-        boolean isReturnAsBytes = SpaceModifiers.isReturnAsBytes( modifiers );
 
         if ( isTakeOnly && isReadOnly )
             throw new InvalidDataAccessResourceUsageException( String.format(
@@ -343,45 +587,45 @@ public abstract class AbstractJSpace implements TransactionalJSpace, SpaceErrors
         if ( logger.isDebugEnabled() )
             logger.debug( "onFetch: template={}, id={}, version={}, routing={}, timeout={}, maxResults={}, transaction={}", new Object[] {
                     cacheStoreEntryWrapper.getBean(), cacheStoreEntryWrapper.getId(), cacheStoreEntryWrapper.getOptimisticLockVersion(),
-                    cacheStoreEntryWrapper.getRouting(), timeout, maxResults, modificationContext.getTransactionId() } );
-
-        // fetch
-        ByteBuffer[] c = heapBuffer.fetch( cacheStoreEntryWrapper, modificationContext, timeout, maxResults, modifiers );
-        if ( c != null )
-            if ( !isReturnAsBytes ) {
-                int size = c.length;
-                Class type = cacheStoreEntryWrapper.getPersistentEntity().getOriginalPersistentEntity().getType();
+                    cacheStoreEntryWrapper.getRouting(), timeout, maxResults, transactionId } );
+        return cacheStoreEntryWrapper;
+    }
 
-                Object[] result = new Object[size];
-                Map<EntryKeyLockQuard, WriteTakeEntry> takes = modificationContext.getTakes();
-                for ( int i = 0; i < size; i++ ) {
-                    SerializationEntry sEntry = configuration.getKryo().deserialize( c[i], type );
-                    Object[] propertyValues = sEntry.getPropertyValues();
-                    Object id = propertyValues[BO.getIdIndex()];
-
-                    if ( !takes.isEmpty() )
-                        for ( Entry<EntryKeyLockQuard, WriteTakeEntry> next : takes.entrySet() )
-                            if ( ObjectUtils.nullSafeEquals( next.getKey().getKey(), id ) ) {
-                                next.getValue().setObj( sEntry.getObject() );
-                                next.getValue().setPropertyValues( propertyValues );
-                            }
-
-                    result[i] = sEntry.getObject();
-                }
-                return result;
-            }
-        return c;
+    /**
+     * de-serialize fetched entity and bind it to the take entry of transaction (if entity has been taken).
+     */
+    private Object deserialize(final TransactionModificationContext modificationContext,
+                               final ByteBuffer buffer,
+                               final Class<?> type) {
+        SerializationEntry sEntry = configuration.getKryo().deserialize( buffer, type );
+        Object[] propertyValues = sEntry.getPropertyValues();
+        Object id = propertyValues[BO.getIdIndex()];
+        WriteTakeEntry take = modificationContext.getTake( id );
+
+        if ( take != null ) {
+            take.setObj( sEntry.getObject() );
+            take.setPropertyValues( propertyValues );
+        }
+        return sEntry.getObject();
     }
 
     private SpaceStore storeFor(final Object entry) {
-        return offHeapBuffers.get( entry instanceof CacheStoreEntryWrapper ? ( (CacheStoreEntryWrapper) entry )
+        return offHeapBuffers.get( typeOf( entry ) );
+    }
+
+    /**
+     * @return persistent class of entity or template (unwrapping {@link CacheStoreEntryWrapper})
+     */
+    static Class<?> typeOf(final Object entry) {
+        return entry instanceof CacheStoreEntryWrapper ? ( (CacheStoreEntryWrapper) entry )
                 .getPersistentEntity()
                 .getOriginalPersistentEntity()
-                .getType() : entry.getClass() );
+                .getType() : entry.getClass();
     }
 
     /**
-     * synchronize modifications made within transaction modification context over internal space stores.
+     * synchronize modifications made within transaction modification context over internal space stores (only stores
+     * touched by transaction are synchronized).
      * 
      * @param ctx
      *            transaction modifications
@@ -393,11 +637,10 @@ public abstract class AbstractJSpace implements TransactionalJSpace, SpaceErrors
                        final boolean commit) {
         TransactionModificationContext c = (TransactionModificationContext) ctx;
 
-        for ( OffHeapCacheStore heapBuffer : offHeapBuffers.values() )
-            if ( commit )
-                c.flush( heapBuffer, notificationContext );
-            else
-                c.discard( heapBuffer );
+        if ( commit )
+            c.commit( notificationRegistry );
+        else
+            c.rollback();
     }
 
     @Override
@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2011-2012 Andrey Borisov <aandrey.borisov@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turbospaces.spaces;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.turbospaces.api.JSpace;
+import com.turbospaces.api.SpaceNotificationListener;
+import com.turbospaces.api.SpaceOperation;
+
+/**
+ * pending notifications of the listener registered with {@link JSpace#CONFLATE_NOTIFICATIONS} modifier - repeated
+ * notifications of the same entity (by primary key) replace previous one, so that only the latest state is delivered
+ * (in order of the latest modifications).</p>
+ * 
+ * Pending notifications are either drained by the committer itself (conflation per commit) or by scheduled task once
+ * conflation time window elapses.
+ * 
+ * @since 0.1
+ */
+@ThreadSafe
+public final class NotificationConflator {
+    private final SpaceNotificationListener listener;
+    @GuardedBy("this")
+    private final Map<Object, Pending> pending = Maps.newLinkedHashMap();
+
+    /**
+     * create conflator for the listener.
+     * 
+     * @param listener
+     *            notification listener
+     */
+    public NotificationConflator(final SpaceNotificationListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * add notification replacing pending notification of the same entity (if any).
+     * 
+     * @param id
+     *            primary key of entity
+     * @param entity
+     *            entity (or it's serialized form)
+     * @param operation
+     *            space operation
+     * @return <code>true</code> if this is the first pending notification since last drain
+     */
+    public synchronized boolean add(final Object id,
+                                    final Object entity,
+                                    final SpaceOperation operation) {
+        boolean first = pending.isEmpty();
+        // re-insert, so that order reflects the latest modification
+        pending.remove( id );
+        pending.put( id, new Pending( entity, operation ) );
+        return first;
+    }
+
+    /**
+     * move all pending notifications to the batch (as single batched notification).
+     * 
+     * @param batch
+     *            notifications batch
+     */
+    public void drainTo(final NotificationPipeline.Batch batch) {
+        List<Object> entities;
+        List<SpaceOperation> operations;
+        synchronized ( this ) {
+            if ( pending.isEmpty() )
+                return;
+            entities = Lists.newArrayListWithCapacity( pending.size() );
+            operations = Lists.newArrayListWithCapacity( pending.size() );
+            for ( Pending next : pending.values() ) {
+                entities.add( next.entity );
+                operations.add( next.operation );
+            }
+            pending.clear();
+        }
+        batch.add( listener, entities, operations );
+    }
+
+    /**
+     * drain pending notifications and publish them via pipeline once time window elapses.
+     * 
+     * @param scheduler
+     *            scheduled executor
+     * @param window
+     *            time window in milliseconds
+     * @param pipeline
+     *            notifications pipeline
+     */
+    public void scheduleDrain(final ScheduledExecutorService scheduler,
+                              final long window,
+                              final NotificationPipeline pipeline) {
+        scheduler.schedule( new Runnable() {
+            @Override
+            public void run() {
+                NotificationPipeline.Batch batch = new NotificationPipeline.Batch();
+                drainTo( batch );
+                if ( batch.size() > 0 )
+                    pipeline.publish( batch );
+            }
+        }, window, TimeUnit.MILLISECONDS );
+    }
+
+    @Override
+    public synchronized String toString() {
+        return Objects.toStringHelper( this ).add( "listener", listener ).add( "pending", pending.size() ).toString();
+    }
+
+    private static final class Pending {
+        private final Object entity;
+        private final SpaceOperation operation;
+
+        private Pending(final Object entity, final SpaceOperation operation) {
+            this.entity = entity;
+            this.operation = operation;
+        }
+    }
+}
@@ -31,6 +31,7 @@ public class NotificationContext {
     private final SpaceNotificationListener listener;
     private final int modifier;
     private final CacheStoreEntryWrapper templateEntry;
+    private final NotificationConflator conflator;
 
     /**
      * create space notification context for given space template matching entity, listener and matching modifiers.
@@ -48,6 +49,7 @@ public class NotificationContext {
         this.listener = listener;
         this.modifier = modifier;
         this.templateEntry = templateEntry;
+        this.conflator = SpaceModifiers.isConflateNotifications( modifier ) ? new NotificationConflator( listener ) : null;
     }
 
     /**
@@ -70,4 +72,11 @@ public class NotificationContext {
     public CacheStoreEntryWrapper getTemplateEntry() {
         return templateEntry;
     }
+
+    /**
+     * @return pending conflated notifications or <code>null</code> if notifications are not conflated
+     */
+    public NotificationConflator getConflator() {
+        return conflator;
+    }
 }
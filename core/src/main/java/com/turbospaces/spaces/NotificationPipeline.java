@@ -0,0 +1,365 @@
+/**
+ * Copyright (C) 2011-2012 Andrey Borisov <aandrey.borisov@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turbospaces.spaces;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.lmax.disruptor.BatchDescriptor;
+import com.lmax.disruptor.EventFactory;
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.ExceptionHandler;
+import com.lmax.disruptor.InsufficientCapacityException;
+import com.lmax.disruptor.LifecycleAware;
+import com.lmax.disruptor.MultiThreadedClaimStrategy;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.WaitStrategy;
+import com.lmax.disruptor.dsl.Disruptor;
+import com.turbospaces.api.SpaceBatchNotificationListener;
+import com.turbospaces.api.SpaceNotificationListener;
+import com.turbospaces.api.SpaceOperation;
+
+/**
+ * post-commit notifications pipeline backed by pre-allocated ring buffer - notifications of the whole commit are
+ * claimed and published as single batch, handler threads drain all available notifications without any further
+ * synchronization. Memory is bounded by ring buffer size - committers are blocked (after all locks have been released)
+ * until there is free capacity in ring buffer, so that bursts of notifications can't exhaust heap.</p>
+ * 
+ * Notifications are striped between handler threads by listener, so that each listener is notified by the same thread
+ * in order of commits. Slow listener delays other listeners of the same stripe and listener should never wait for
+ * another commit (otherwise pipeline can be dead-locked once ring buffer is full).</p>
+ * 
+ * Listener may write to the space itself - notifications published by handler threads never block: they are put into
+ * ring buffer if there is free capacity or delivered directly by the publishing handler thread otherwise (such
+ * notifications can be delivered out of order).
+ * 
+ * @since 0.1
+ */
+@ThreadSafe
+public final class NotificationPipeline implements DisposableBean {
+    private static final Logger LOGGER = LoggerFactory.getLogger( NotificationPipeline.class );
+
+    private final ExecutorService executor;
+    private final Disruptor<NotificationEvent> disruptor;
+    private final RingBuffer<NotificationEvent> ringBuffer;
+    private final int stripes;
+    private final ThreadLocal<Boolean> handlerThread = new ThreadLocal<Boolean>();
+
+    /**
+     * create and start new notifications pipeline.
+     * 
+     * @param bufferSize
+     *            ring buffer size (must be power of 2)
+     * @param stripes
+     *            number of handler threads
+     * @param waitStrategy
+     *            strategy of waiting for notifications by handler threads
+     */
+    @SuppressWarnings("unchecked")
+    public NotificationPipeline(final int bufferSize, final int stripes, final WaitStrategy waitStrategy) {
+        Preconditions.checkArgument( Integer.bitCount( bufferSize ) == 1, "buffer size %s is not power of 2", bufferSize );
+        Preconditions.checkArgument( stripes > 0, "at least one handler thread is required" );
+        Preconditions.checkNotNull( waitStrategy );
+
+        this.stripes = stripes;
+        this.executor = Executors.newFixedThreadPool( stripes, new ThreadFactoryBuilder()
+                .setDaemon( true )
+                .setNameFormat( "jspace-notification-thread-%s" )
+                .build() );
+        this.disruptor = new Disruptor<NotificationEvent>( new EventFactory<NotificationEvent>() {
+            @Override
+            public NotificationEvent newInstance() {
+                return new NotificationEvent();
+            }
+        }, executor, new MultiThreadedClaimStrategy( bufferSize ), waitStrategy );
+        this.disruptor.handleExceptionsWith( new ExceptionHandler() {
+            @Override
+            public void handleEventException(final Throwable ex,
+                                             final long sequence,
+                                             final Object event) {
+                LOGGER.error( "unable to deliver notification " + event, ex );
+            }
+
+            @Override
+            public void handleOnStartException(final Throwable ex) {
+                LOGGER.error( ex.getMessage(), ex );
+            }
+
+            @Override
+            public void handleOnShutdownException(final Throwable ex) {
+                LOGGER.error( ex.getMessage(), ex );
+            }
+        } );
+        EventHandler<NotificationEvent>[] handlers = new EventHandler[stripes];
+        for ( int i = 0; i < stripes; i++ )
+            handlers[i] = new StripeHandler( i, handlerThread );
+        this.disruptor.handleEventsWith( handlers );
+        this.ringBuffer = disruptor.start();
+    }
+
+    /**
+     * publish single notification.
+     * 
+     * @param listener
+     *            notification listener
+     * @param entity
+     *            entity (or it's serialized form)
+     * @param operation
+     *            space operation
+     */
+    public void publish(final SpaceNotificationListener listener,
+                        final Object entity,
+                        final SpaceOperation operation) {
+        if ( handlerThread.get() != null ) {
+            tryPublish( listener, entity, operation );
+            return;
+        }
+        long sequence = ringBuffer.next();
+        ringBuffer.get( sequence ).set( listener, entity, operation, stripes );
+        ringBuffer.publish( sequence );
+    }
+
+    /**
+     * publish all notifications of the batch (batch larger than ring buffer is published in several chunks) and clear
+     * batch.
+     * 
+     * @param batch
+     *            notifications to be published
+     */
+    public void publish(final Batch batch) {
+        if ( handlerThread.get() != null ) {
+            for ( int i = 0; i < batch.size; i++ )
+                tryPublish( batch.listeners[i], batch.entities[i], batch.operations[i] );
+            batch.clear();
+            return;
+        }
+        int offset = 0;
+        while ( offset < batch.size ) {
+            BatchDescriptor descriptor = ringBuffer.next( ringBuffer.newBatchDescriptor( Math.min(
+                    batch.size - offset,
+                    ringBuffer.getBufferSize() ) ) );
+            for ( long sequence = descriptor.getStart(); sequence <= descriptor.getEnd(); sequence++, offset++ )
+                ringBuffer.get( sequence ).set( batch.listeners[offset], batch.entities[offset], batch.operations[offset], stripes );
+            ringBuffer.publish( descriptor );
+        }
+        batch.clear();
+    }
+
+    /**
+     * publish notification on behalf of handler thread (listener writes to the space) - handler thread can't wait for
+     * free capacity because ring buffer is drained by handler threads only, so notification is delivered directly if
+     * ring buffer is full.
+     */
+    @SuppressWarnings("javadoc")
+    private void tryPublish(final SpaceNotificationListener listener,
+                            final Object entity,
+                            final SpaceOperation operation) {
+        long sequence;
+        try {
+            sequence = ringBuffer.tryNext( 1 );
+        }
+        catch ( InsufficientCapacityException e ) {
+            try {
+                deliver( listener, entity, operation );
+            }
+            catch ( RuntimeException ex ) {
+                LOGGER.error( "unable to deliver notification to " + listener, ex );
+            }
+            return;
+        }
+        ringBuffer.get( sequence ).set( listener, entity, operation, stripes );
+        ringBuffer.publish( sequence );
+    }
+
+    private static void deliver(final SpaceNotificationListener listener,
+                                final Object entity,
+                                final SpaceOperation operation) {
+        if ( entity instanceof Notifications )
+            ( (Notifications) entity ).deliver( listener );
+        else
+            listener.handleNotification( entity, operation );
+    }
+
+    /**
+     * deliver all published notifications and stop handler threads.
+     */
+    @Override
+    public void destroy() {
+        try {
+            disruptor.shutdown();
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return Objects
+                .toStringHelper( this )
+                .add( "bufferSize", ringBuffer.getBufferSize() )
+                .add( "remainingCapacity", ringBuffer.remainingCapacity() )
+                .add( "stripes", stripes )
+                .toString();
+    }
+
+    /**
+     * notifications collected by single commit.
+     */
+    @NotThreadSafe
+    public static final class Batch {
+        private SpaceNotificationListener[] listeners = new SpaceNotificationListener[1 << 3];
+        private Object[] entities = new Object[1 << 3];
+        private SpaceOperation[] operations = new SpaceOperation[1 << 3];
+        private int size;
+
+        /**
+         * add notification to batch.
+         * 
+         * @param listener
+         *            notification listener
+         * @param entity
+         *            entity (or it's serialized form)
+         * @param operation
+         *            space operation
+         */
+        public void add(final SpaceNotificationListener listener,
+                        final Object entity,
+                        final SpaceOperation operation) {
+            if ( size == listeners.length ) {
+                listeners = Arrays.copyOf( listeners, size << 1 );
+                entities = Arrays.copyOf( entities, size << 1 );
+                operations = Arrays.copyOf( operations, size << 1 );
+            }
+            listeners[size] = listener;
+            entities[size] = entity;
+            operations[size] = operation;
+            size++;
+        }
+
+        /**
+         * add conflated notifications of the listener to batch - notifications are delivered with single call if
+         * listener is {@link SpaceBatchNotificationListener} or one by one otherwise.
+         * 
+         * @param listener
+         *            notification listener
+         * @param entities
+         *            entities (or their serialized form)
+         * @param operations
+         *            space operations (in the same order as entities)
+         */
+        public void add(final SpaceNotificationListener listener,
+                        final List<Object> entities,
+                        final List<SpaceOperation> operations) {
+            Preconditions.checkArgument( entities.size() == operations.size() );
+            add( listener, new Notifications( entities, operations ), null );
+        }
+
+        /**
+         * @return number of notifications in batch
+         */
+        public int size() {
+            return size;
+        }
+
+        private void clear() {
+            Arrays.fill( listeners, 0, size, null );
+            Arrays.fill( entities, 0, size, null );
+            Arrays.fill( operations, 0, size, null );
+            size = 0;
+        }
+    }
+
+    private static final class NotificationEvent {
+        private SpaceNotificationListener listener;
+        private Object entity;
+        private SpaceOperation operation;
+        private int stripe;
+
+        private void set(final SpaceNotificationListener listener,
+                         final Object entity,
+                         final SpaceOperation operation,
+                         final int stripes) {
+            this.listener = listener;
+            this.entity = entity;
+            this.operation = operation;
+            this.stripe = ( listener.hashCode() & Integer.MAX_VALUE ) % stripes;
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toStringHelper( this ).add( "listener", listener ).add( "operation", operation ).toString();
+        }
+    }
+
+    private static final class Notifications {
+        private final List<Object> entities;
+        private final List<SpaceOperation> operations;
+
+        private Notifications(final List<Object> entities, final List<SpaceOperation> operations) {
+            this.entities = entities;
+            this.operations = operations;
+        }
+
+        private void deliver(final SpaceNotificationListener listener) {
+            if ( listener instanceof SpaceBatchNotificationListener )
+                ( (SpaceBatchNotificationListener) listener ).handleNotifications( entities, operations );
+            else
+                for ( int i = 0; i < entities.size(); i++ )
+                    listener.handleNotification( entities.get( i ), operations.get( i ) );
+        }
+    }
+
+    private static final class StripeHandler implements EventHandler<NotificationEvent>, LifecycleAware {
+        private final int stripe;
+        private final ThreadLocal<Boolean> handlerThread;
+
+        private StripeHandler(final int stripe, final ThreadLocal<Boolean> handlerThread) {
+            this.stripe = stripe;
+            this.handlerThread = handlerThread;
+        }
+
+        @Override
+        public void onStart() {
+            handlerThread.set( Boolean.TRUE );
+        }
+
+        @Override
+        public void onShutdown() {
+            handlerThread.remove();
+        }
+
+        @Override
+        public void onEvent(final NotificationEvent event,
+                            final long sequence,
+                            final boolean endOfBatch) {
+            if ( event.stripe == stripe )
+                deliver( event.listener, event.entity, event.operation );
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/**
+ * Copyright (C) 2011-2012 Andrey Borisov <aandrey.borisov@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turbospaces.spaces;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.turbospaces.api.SpaceConfiguration;
+import com.turbospaces.core.SpaceUtility;
+import com.turbospaces.model.BO;
+import com.turbospaces.spaces.tx.WriteTakeEntry;
+
+/**
+ * concurrent index of space notification subscriptions, so that commit visits only candidate subscriptions instead of
+ * matching each modified entity against all registered templates:
+ * <ul>
+ * <li>match-by-id subscriptions are indexed by class and id</li>
+ * <li>template subscriptions are indexed by class and by one of template's property values (the most selective one at
+ * the moment of registration)</li>
+ * <li>templates without property values (or with array values only) match everything of class and are kept in
+ * separate list</li>
+ * </ul>
+ * candidates of template subscriptions are verified against all template's property values.
+ * 
+ * @since 0.1
+ */
+@ThreadSafe
+public final class NotificationRegistry {
+    private final ConcurrentMap<Class<?>, ClassSubscriptions> subscriptions = new ConcurrentHashMap<Class<?>, ClassSubscriptions>();
+    private volatile boolean anyReturnAsBytes;
+
+    /**
+     * register new subscription.
+     * 
+     * @param subscription
+     *            space notification context
+     */
+    public void register(final NotificationContext subscription) {
+        Class<?> type = subscription.getTemplateEntry().getPersistentEntity().getOriginalPersistentEntity().getType();
+        ClassSubscriptions classSubscriptions = subscriptions.get( type );
+        if ( classSubscriptions == null ) {
+            ClassSubscriptions candidate = new ClassSubscriptions( subscription.getTemplateEntry().asPropertyValuesArray().length );
+            classSubscriptions = subscriptions.putIfAbsent( type, candidate );
+            if ( classSubscriptions == null )
+                classSubscriptions = candidate;
+        }
+        if ( SpaceModifiers.isReturnAsBytes( subscription.getModifier() ) )
+            anyReturnAsBytes = true;
+        classSubscriptions.add( subscription );
+    }
+
+    /**
+     * @return true if there are no subscriptions at all
+     */
+    public boolean isEmpty() {
+        return subscriptions.isEmpty();
+    }
+
+    /**
+     * @return true if at least one subscriber wants to be notified with serialized entities
+     */
+    public boolean isAnyReturnAsBytes() {
+        return anyReturnAsBytes;
+    }
+
+    /**
+     * collect subscriptions matching modified entity.
+     * 
+     * @param type
+     *            entity's persistent class
+     * @param id
+     *            entity's unique identifier
+     * @param propertyValues
+     *            entity's property values
+     * @param matched
+     *            target collection of matched subscriptions
+     */
+    public void match(final Class<?> type,
+                      final Object id,
+                      final Object[] propertyValues,
+                      final Collection<NotificationContext> matched) {
+        for ( Map.Entry<Class<?>, ClassSubscriptions> entry : subscriptions.entrySet() ) {
+            // templates of sub-class are notified about modification of super-class entities as well
+            if ( !type.isAssignableFrom( entry.getKey() ) )
+                continue;
+            ClassSubscriptions classSubscriptions = entry.getValue();
+            if ( entry.getKey() == type && id != null )
+                addAll( classSubscriptions.byId.get( id ), matched );
+            matchAll( classSubscriptions.wildcard, propertyValues, matched );
+            for ( int i = 0; i < propertyValues.length; i++ ) {
+                ConcurrentMap<Object, Queue<NotificationContext>> byValue = classSubscriptions.byProperty.get( i );
+                if ( byValue != null && propertyValues[i] != null )
+                    matchAll( byValue.get( propertyValues[i] ), propertyValues, matched );
+            }
+        }
+    }
+
+    /**
+     * notify subscribers matching applied modifications (writes/takes) via notifications pipeline. Conflated
+     * notifications are either published immediately (conflation per commit) or scheduled for publishing once
+     * conflation time window elapses.
+     * 
+     * @param modifications
+     *            applied modifications (space operation must be already assigned)
+     * @param configuration
+     *            space configuration
+     */
+    public void publish(final Iterable<WriteTakeEntry> modifications,
+                        final SpaceConfiguration configuration) {
+        NotificationPipeline.Batch batch = new NotificationPipeline.Batch();
+        List<NotificationContext> matched = Lists.newArrayList();
+        Set<NotificationConflator> conflated = Sets.newLinkedHashSet();
+        boolean windowless = configuration.getNotificationConflationWindow() == 0;
+
+        for ( WriteTakeEntry entry : modifications ) {
+            BO bo = entry.getPersistentEntity();
+            Object id = entry.getIdLockQuard().getKey();
+            Object[] propertyValues = entry.getPropertyValues();
+            // takes returned as bytes are never de-serialized
+            if ( propertyValues == null )
+                propertyValues = bo.getBulkPropertyValues( entry.getObj(), new Object[bo.getOrderedProperties().length] );
+
+            matched.clear();
+            match( bo.getOriginalPersistentEntity().getType(), id, propertyValues, matched );
+            for ( NotificationContext subscription : matched ) {
+                boolean returnAsBytes = SpaceModifiers.isReturnAsBytes( subscription.getModifier() );
+                Object entity = returnAsBytes ? entry.getPointer().getSerializedDataBuffer() : entry.getObj();
+                NotificationConflator conflator = subscription.getConflator();
+                if ( conflator == null )
+                    batch.add( subscription.getListener(), entity, entry.getSpaceOperation() );
+                // per commit all touched conflators are drained, within time window only the first one schedules drain
+                else if ( conflator.add( id, entity, entry.getSpaceOperation() ) || windowless )
+                    conflated.add( conflator );
+            }
+        }
+
+        for ( NotificationConflator conflator : conflated )
+            if ( windowless )
+                conflator.drainTo( batch );
+            else
+                conflator.scheduleDrain(
+                        configuration.getScheduledExecutorService(),
+                        configuration.getNotificationConflationWindow(),
+                        configuration.getNotificationPipeline() );
+        if ( batch.size() > 0 )
+            configuration.getNotificationPipeline().publish( batch );
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper( this ).add( "classes", subscriptions.keySet() ).toString();
+    }
+
+    private static void addAll(final Queue<NotificationContext> candidates,
+                               final Collection<NotificationContext> matched) {
+        if ( candidates != null )
+            matched.addAll( candidates );
+    }
+
+    private static void matchAll(final Queue<NotificationContext> candidates,
+                                 final Object[] propertyValues,
+                                 final Collection<NotificationContext> matched) {
+        if ( candidates != null )
+            for ( NotificationContext candidate : candidates )
+                if ( SpaceUtility.macthesByPropertyValues( candidate.getTemplateEntry().asPropertyValuesArray(), propertyValues ) )
+                    matched.add( candidate );
+    }
+
+    private static Queue<NotificationContext> bucket(final ConcurrentMap<Object, Queue<NotificationContext>> map,
+                                                     final Object key) {
+        Queue<NotificationContext> bucket = map.get( key );
+        if ( bucket == null ) {
+            Queue<NotificationContext> candidate = new ConcurrentLinkedQueue<NotificationContext>();
+            bucket = map.putIfAbsent( key, candidate );
+            if ( bucket == null )
+                bucket = candidate;
+        }
+        return bucket;
+    }
+
+    private static final class ClassSubscriptions {
+        private final ConcurrentMap<Object, Queue<NotificationContext>> byId = new ConcurrentHashMap<Object, Queue<NotificationContext>>();
+        private final Queue<NotificationContext> wildcard = new ConcurrentLinkedQueue<NotificationContext>();
+        private final AtomicReferenceArray<ConcurrentMap<Object, Queue<NotificationContext>>> byProperty;
+
+        private ClassSubscriptions(final int properties) {
+            byProperty = new AtomicReferenceArray<ConcurrentMap<Object, Queue<NotificationContext>>>( properties );
+        }
+
+        private void add(final NotificationContext subscription) {
+            if ( SpaceModifiers.isMatchById( subscription.getModifier() ) ) {
+                bucket( byId, subscription.getTemplateEntry().getId() ).add( subscription );
+                return;
+            }
+
+            // index by the property value with the least number of subscriptions so far
+            Object[] templateValues = subscription.getTemplateEntry().asPropertyValuesArray();
+            int index = -1;
+            int candidates = Integer.MAX_VALUE;
+            for ( int i = 0; i < templateValues.length; i++ ) {
+                Object value = templateValues[i];
+                // arrays are matched by content, can't be used as hash keys
+                if ( value == null || value.getClass().isArray() )
+                    continue;
+                ConcurrentMap<Object, Queue<NotificationContext>> byValue = byProperty.get( i );
+                Queue<NotificationContext> bucket = byValue == null ? null : byValue.get( value );
+                int size = bucket == null ? 0 : Iterables.size( Iterables.limit( bucket, candidates ) );
+                if ( size < candidates ) {
+                    index = i;
+                    candidates = size;
+                }
+            }
+            if ( index < 0 ) {
+                wildcard.add( subscription );
+                return;
+            }
+            byProperty.compareAndSet( index, null, new ConcurrentHashMap<Object, Queue<NotificationContext>>() );
+            bucket( byProperty.get( index ), templateValues[index] ).add( subscription );
+        }
+    }
+}
@@ -25,18 +25,24 @@ import javax.annotation.concurrent.ThreadSafe;
 import org.jgroups.Address;
 import org.jgroups.blocks.RequestOptions;
 import org.jgroups.blocks.ResponseMode;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
 import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import com.esotericsoftware.kryo.ObjectBuffer;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.turbospaces.api.ClientSpaceConfiguration;
+import com.turbospaces.api.FetchConsumer;
 import com.turbospaces.api.JSpace;
+import com.turbospaces.api.QueryPage;
 import com.turbospaces.api.SpaceErrors;
 import com.turbospaces.api.SpaceNotificationListener;
 import com.turbospaces.api.SpaceTopology;
+import com.turbospaces.model.AggregationResult;
 import com.turbospaces.model.BO;
 import com.turbospaces.model.CacheStoreEntryWrapper;
+import com.turbospaces.model.EntityAggregation;
+import com.turbospaces.model.EntityQuery;
 import com.turbospaces.network.MethodCall;
 import com.turbospaces.network.MethodCall.BeginTransactionMethodCall;
 import com.turbospaces.network.MethodCall.CommitRollbackMethodCall;
@@ -48,6 +54,8 @@ import com.turbospaces.network.MethodCall.GetSizeMethodCall;
 import com.turbospaces.network.MethodCall.GetSpaceTopologyMethodCall;
 import com.turbospaces.network.MethodCall.ModifyMethodCall;
 import com.turbospaces.network.NetworkCommunicationDispatcher;
+import com.turbospaces.serialization.Aggregator;
+import com.turbospaces.serialization.QueryCollector;
 import com.turbospaces.spaces.tx.SpaceTransactionHolder;
 import com.turbospaces.spaces.tx.TransactionModificationContextProxy;
 
@@ -95,12 +103,50 @@ public class RemoteJSpace implements TransactionalJSpace, SpaceErrors {
                           final int timeout,
                           final int maxResults,
                           final int modifiers) {
-        BO bo = getSpaceConfiguration().boFor( template.getClass() );
         ObjectBuffer objectBuffer = new ObjectBuffer( configuration.getKryo() );
+        boolean returnAsBytes = SpaceModifiers.isReturnAsBytes( modifiers );
+
+        List response = Lists.newLinkedList();
+        for ( byte[] bytes : fetchRemotely( objectBuffer, template, timeout, maxResults, modifiers, null ) ) {
+            Object obj = returnAsBytes ? ByteBuffer.wrap( bytes ) : objectBuffer.readObjectData( bytes, template.getClass() );
+            response.add( obj );
+        }
+        return response.toArray( returnAsBytes ? new ByteBuffer[response.size()] : new Object[response.size()] );
+    }
+
+    @Override
+    public Object[][] fetchProperties(final Object template,
+                                      final int timeout,
+                                      final int maxResults,
+                                      final int modifiers,
+                                      final String... properties) {
+        Class<?> type = template.getClass();
+        int[] indexes = getSpaceConfiguration().boFor( type ).getPropertyIndexes( properties );
+        ObjectBuffer objectBuffer = new ObjectBuffer( configuration.getKryo() );
+
+        // server sends back only requested properties
+        List<byte[]> entities = fetchRemotely( objectBuffer, template, timeout, maxResults, modifiers | JSpace.RETURN_AS_BYTES, properties );
+        Object[][] result = new Object[entities.size()][];
+        int i = 0;
+        for ( byte[] bytes : entities )
+            result[i++] = getSpaceConfiguration().getKryo().deserializeProperties( ByteBuffer.wrap( bytes ), type, indexes );
+        return result;
+    }
+
+    /**
+     * send fetch request to all nodes which might hold matching entities and collect entities (or projections of
+     * entities if properties are specified) in portable form.
+     */
+    @SuppressWarnings("javadoc")
+    private List<byte[]> fetchRemotely(final ObjectBuffer objectBuffer,
+                                       final Object template,
+                                       final int timeout,
+                                       final int maxResults,
+                                       final int modifiers,
+                                       final String[] properties) {
+        BO bo = getSpaceConfiguration().boFor( template.getClass() );
         SpaceTransactionHolder transactionHolder = getTransactionHolder();
         CacheStoreEntryWrapper entryWrapper = CacheStoreEntryWrapper.writeValueOf( bo, template );
-        Address[] serverNodes = clientReceiever.getServerNodes();
-        boolean returnAsBytes = SpaceModifiers.isReturnAsBytes( modifiers );
         boolean matchById = SpaceModifiers.isMatchById( modifiers );
 
         byte[] serializedData = objectBuffer.writeClassAndObject( entryWrapper.getBean() );
@@ -110,31 +156,122 @@ public class RemoteJSpace implements TransactionalJSpace, SpaceErrors {
         methodCall.setTimeout( timeout );
         methodCall.setModifiers( modifiers );
         methodCall.setMaxResults( maxResults );
+        methodCall.setProperties( properties );
 
-        Address[] addresses = serverNodes;
-        if ( getSpaceTopology().isPartitioned() )
-            /**
-             * 1. if routing field provided explicitly, you consistent hashing to determine target node
-             * 2. if no routing field is defined explicitly and matchById modifier specified, treat ID as routing
-             * 3. otherwise call needs to be broadcasted to all server nodes
-             */
-            if ( entryWrapper.getRouting() != null )
-                addresses = new Address[] { determineDestination( serverNodes, entryWrapper.getRouting() ) };
-            else if ( matchById )
-                addresses = new Address[] { determineDestination( serverNodes, entryWrapper.getRoutingOrId() ) };
-
+        Address[] addresses = fetchDestinations( entryWrapper, matchById );
+        checkBlockingFetch( template, addresses, timeout, modifiers );
         associateTransaction( addresses, objectBuffer, transactionHolder, methodCall );
 
-        List response = Lists.newLinkedList();
-        for ( MethodCall next : clientReceiever.sendAndReceive( methodCall, objectBuffer, addresses ) )
-            if ( next.getResponseBody() != null ) {
-                byte[][] readObjectData = objectBuffer.readObjectData( next.getResponseBody(), byte[][].class );
-                for ( byte[] bytes : readObjectData ) {
+        List<byte[]> response = Lists.newLinkedList();
+        for ( MethodCall next : clientReceiever.sendAndReceive( methodCall, objectBuffer, responseTimeout( timeout, modifiers ), addresses ) )
+            if ( next.getResponseBody() != null )
+                for ( byte[] bytes : objectBuffer.readObjectData( next.getResponseBody(), byte[][].class ) )
+                    response.add( bytes );
+        return response;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> int fetch(final Object template,
+                         final int timeout,
+                         final int maxResults,
+                         final int modifiers,
+                         final FetchConsumer<? super T> consumer) {
+        Preconditions.checkNotNull( consumer );
+        BO bo = getSpaceConfiguration().boFor( template.getClass() );
+        ObjectBuffer objectBuffer = new ObjectBuffer( configuration.getKryo() );
+        SpaceTransactionHolder transactionHolder = getTransactionHolder();
+        CacheStoreEntryWrapper entryWrapper = CacheStoreEntryWrapper.writeValueOf( bo, template );
+        boolean returnAsBytes = SpaceModifiers.isReturnAsBytes( modifiers );
+        byte[] serializedData = objectBuffer.writeClassAndObject( entryWrapper.getBean() );
+        int fetched = 0;
+
+        /**
+         * 1. open fetch stream on each node one by one (server responds with the first chunk)
+         * 2. pass chunk's entities to consumer and pull the next chunk only when all entities have been consumed
+         * 3. cancel opened stream if consumer asks to stop
+         */
+        Address[] addresses = fetchDestinations( entryWrapper, SpaceModifiers.isMatchById( modifiers ) );
+        checkBlockingFetch( template, addresses, timeout, modifiers );
+        for ( Address address : addresses ) {
+            MethodCall.FetchChunkMethodCall methodCall = new MethodCall.FetchChunkMethodCall();
+            methodCall.setEntity( serializedData );
+            methodCall.setTimeout( timeout );
+            methodCall.setModifiers( modifiers );
+            methodCall.setMaxResults( maxResults - fetched );
+            methodCall.setChunkSize( configuration.getFetchChunkSize() );
+            associateTransaction( new Address[] { address }, objectBuffer, transactionHolder, methodCall );
+
+            for ( ;; ) {
+                MethodCall.FetchChunkMethodCall response = (MethodCall.FetchChunkMethodCall) clientReceiever.sendAndReceive(
+                        methodCall,
+                        objectBuffer,
+                        responseTimeout( timeout, modifiers ),
+                        address )[0];
+                long streamId = response.getStreamId();
+                for ( byte[] bytes : objectBuffer.readObjectData( response.getResponseBody(), byte[][].class ) ) {
+                    fetched++;
                     Object obj = returnAsBytes ? ByteBuffer.wrap( bytes ) : objectBuffer.readObjectData( bytes, template.getClass() );
-                    response.add( obj );
+                    if ( !consumer.accept( (T) obj ) ) {
+                        if ( streamId != 0 )
+                            clientReceiever.sendAndReceive( nextChunk( streamId, 0 ), objectBuffer, address );
+                        return fetched;
+                    }
                 }
+                if ( streamId == 0 )
+                    break;
+                methodCall = nextChunk( streamId, configuration.getFetchChunkSize() );
             }
-        return response.toArray( returnAsBytes ? new ByteBuffer[response.size()] : new Object[response.size()] );
+            if ( fetched == maxResults )
+                break;
+        }
+        return fetched;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> QueryPage<T> query(final EntityQuery query) {
+        Preconditions.checkNotNull( query );
+        ObjectBuffer objectBuffer = new ObjectBuffer( configuration.getKryo() );
+        SpaceTransactionHolder transactionHolder = getTransactionHolder();
+        Address[] addresses = clientReceiever.getServerNodes( getSpaceTopology() );
+
+        // each partition returns its first offset + limit entities, offset is applied after merging
+        MethodCall.QueryMethodCall methodCall = new MethodCall.QueryMethodCall();
+        methodCall.setEntity( objectBuffer.writeClassAndObject( query.partitionQuery() ) );
+        associateTransaction( addresses, objectBuffer, transactionHolder, methodCall );
+
+        QueryCollector collector = configuration.getKryo().compileQuery( query );
+        for ( MethodCall next : clientReceiever.sendAndReceive( methodCall, objectBuffer, addresses ) )
+            if ( next.getResponseBody() != null )
+                for ( byte[] bytes : objectBuffer.readObjectData( next.getResponseBody(), byte[][].class ) )
+                    if ( !collector.offer( ByteBuffer.wrap( bytes ) ) )
+                        break;
+
+        ByteBuffer[] buffers = collector.getResults();
+        List<T> entities = Lists.newArrayListWithCapacity( buffers.length );
+        for ( ByteBuffer buffer : buffers )
+            entities.add( (T) objectBuffer.readObjectData( buffer.array(), query.getType() ) );
+        return new QueryPage<T>( entities, collector.getNextCursor() );
+    }
+
+    @Override
+    public AggregationResult aggregate(final EntityAggregation aggregation) {
+        Preconditions.checkNotNull( aggregation );
+        ObjectBuffer objectBuffer = new ObjectBuffer( configuration.getKryo() );
+        SpaceTransactionHolder transactionHolder = getTransactionHolder();
+        Address[] addresses = clientReceiever.getServerNodes( getSpaceTopology() );
+
+        MethodCall.AggregateMethodCall methodCall = new MethodCall.AggregateMethodCall();
+        methodCall.setEntity( objectBuffer.writeClassAndObject( aggregation ) );
+        associateTransaction( addresses, objectBuffer, transactionHolder, methodCall );
+
+        // each partition returns partial result, partial results are combined by client
+        Aggregator aggregator = configuration.getKryo().compileAggregation( aggregation );
+        for ( MethodCall next : clientReceiever.sendAndReceive( methodCall, objectBuffer, addresses ) )
+            if ( next.getResponseBody() != null )
+                aggregator.combine( objectBuffer.readObjectData( next.getResponseBody(), AggregationResult.class ) );
+        return aggregator.getResult();
     }
 
     @Override
@@ -335,6 +472,57 @@ public class RemoteJSpace implements TransactionalJSpace, SpaceErrors {
                     .getAssignedTransactionId( address ) );
     }
 
+    /**
+     * 1. if routing field provided explicitly, you consistent hashing to determine target node
+     * 2. if no routing field is defined explicitly and matchById modifier specified, treat ID as routing
+     * 3. otherwise call needs to be broadcasted to all server nodes
+     */
+    private Address[] fetchDestinations(final CacheStoreEntryWrapper entryWrapper,
+                                        final boolean matchById) {
+        Address[] serverNodes = clientReceiever.getServerNodes();
+        if ( getSpaceTopology().isPartitioned() )
+            if ( entryWrapper.getRouting() != null )
+                return new Address[] { determineDestination( serverNodes, entryWrapper.getRouting() ) };
+            else if ( matchById )
+                return new Address[] { determineDestination( serverNodes, entryWrapper.getRoutingOrId() ) };
+        return serverNodes;
+    }
+
+    /**
+     * blocking fetch can wait on single server node only - each node would commit its own take as soon as matching
+     * entity appears, while the client would still wait for the rest of nodes (and would get up to one entity per node
+     * instead of the first match).
+     */
+    private static void checkBlockingFetch(final Object template,
+                                           final Address[] addresses,
+                                           final int timeout,
+                                           final int modifiers) {
+        if ( addresses.length > 1 && SpaceModifiers.isBlockingFetch( modifiers, timeout ) )
+            throw new InvalidDataAccessApiUsageException( String.format(
+                    "Illegal attempt to wait for template %s on %s server nodes, provide routing value (partitioned space) or use zero timeout",
+                    template,
+                    addresses.length ) );
+    }
+
+    /**
+     * blocking fetch is held by server up to fetch timeout, so that response must be awaited longer.
+     */
+    private long responseTimeout(final int timeout,
+                                 final int modifiers) {
+        long communicationTimeout = configuration.getCommunicationTimeoutInMillis();
+        if ( !SpaceModifiers.isBlockingFetch( modifiers, timeout ) )
+            return communicationTimeout;
+        return timeout == Integer.MAX_VALUE ? Long.MAX_VALUE : timeout + communicationTimeout;
+    }
+
+    private static MethodCall.FetchChunkMethodCall nextChunk(final long streamId,
+                                                             final int chunkSize) {
+        MethodCall.FetchChunkMethodCall methodCall = new MethodCall.FetchChunkMethodCall();
+        methodCall.setStreamId( streamId );
+        methodCall.setChunkSize( chunkSize );
+        return methodCall;
+    }
+
     private static Address determineDestination(final Address[] addresses,
                                                 final Object key) {
         int index = ( key.hashCode() & Integer.MAX_VALUE ) % addresses.length;
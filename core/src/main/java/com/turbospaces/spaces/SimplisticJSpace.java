@@ -19,11 +19,16 @@ import org.springframework.transaction.TransactionStatus;
 
 import com.google.common.base.Optional;
 import com.turbospaces.api.AbstractSpaceConfiguration;
+import com.turbospaces.api.FetchConsumer;
 import com.turbospaces.api.JSpace;
+import com.turbospaces.api.QueryPage;
 import com.turbospaces.api.SpaceNotificationListener;
 import com.turbospaces.api.SpaceTopology;
 import com.turbospaces.core.SpaceUtility;
+import com.turbospaces.model.AggregationResult;
 import com.turbospaces.model.CacheStoreEntryWrapper;
+import com.turbospaces.model.EntityAggregation;
+import com.turbospaces.model.EntityQuery;
 import com.turbospaces.spaces.tx.SpaceTransactionHolder;
 
 /**
@@ -174,6 +179,41 @@ public class SimplisticJSpace implements TransactionalJSpace {
         return readByID( id, clazz, WITHOUT_TIMEOUT );
     }
 
+    // projections
+    @Override
+    public Object[][] fetchProperties(final Object template,
+                                      final int timeout,
+                                      final int maxResults,
+                                      final int modifiers,
+                                      final String... properties) {
+        return delegate.fetchProperties( template, timeout, maxResults, modifiers, properties );
+    }
+
+    /**
+     * the same as {@link #fetchProperties(Object, int, int, int, String...)} with {@link JSpace#READ_ONLY} modifier and
+     * <code>timeout={@link #WITHOUT_TIMEOUT}</code>.
+     */
+    @SuppressWarnings("javadoc")
+    public Object[][] readProperties(final Object template,
+                                     final int maxResults,
+                                     final String... properties) {
+        return fetchProperties( template, WITHOUT_TIMEOUT, maxResults, JSpace.READ_ONLY, properties );
+    }
+
+    /**
+     * the same as {@link #fetchProperties(Object, int, int, int, String...)} with {@link JSpace#READ_ONLY} +
+     * {@link JSpace#MATCH_BY_ID} modifier and <code>timeout={@link #WITHOUT_TIMEOUT}</code> and
+     * <code>maxElements=1</code>.
+     */
+    @SuppressWarnings("javadoc")
+    public Optional<Object[]> readPropertiesByID(final Object id,
+                                                 final Class<?> clazz,
+                                                 final String... properties) {
+        final CacheStoreEntryWrapper wrapper = CacheStoreEntryWrapper.readByIdValueOf( delegate.getSpaceConfiguration().boFor( clazz ), id );
+        final Object[][] values = fetchProperties( wrapper, WITHOUT_TIMEOUT, 1, JSpace.READ_ONLY | JSpace.MATCH_BY_ID, properties );
+        return SpaceUtility.singleResult( values );
+    }
+
     // take modifiers
     /**
      * the same as {@link #fetch(IBO, TransactionStatus, long, int, int)} with {@link JSpace#TAKE_ONLY} modifier and
@@ -192,7 +232,8 @@ public class SimplisticJSpace implements TransactionalJSpace {
      * the same as {@link #fetch(IBO, TransactionStatus, long, int, int)} with {@link JSpace#TAKE_ONLY} modifier and
      * <code>timeout={@link #WAIT_FOREVER_TIMEOUT}</code>. </p>
      * 
-     * This is analog of database delete by table columns where tables columns are fields from template.
+     * This is analog of database delete by table columns where tables columns are fields from template. If nothing
+     * matches template, waits for matching entity to be written (blocking work queue style consumption).
      */
     @SuppressWarnings("javadoc")
     public Object[] take(final Object template) {
@@ -294,6 +335,25 @@ public class SimplisticJSpace implements TransactionalJSpace {
         return delegate.fetch( template, timeout, maxResults, modifiers );
     }
 
+    @Override
+    public <T> int fetch(final Object template,
+                         final int timeout,
+                         final int maxResults,
+                         final int modifiers,
+                         final FetchConsumer<? super T> consumer) {
+        return delegate.fetch( template, timeout, maxResults, modifiers, consumer );
+    }
+
+    @Override
+    public <T> QueryPage<T> query(final EntityQuery query) {
+        return delegate.query( query );
+    }
+
+    @Override
+    public AggregationResult aggregate(final EntityAggregation aggregation) {
+        return delegate.aggregate( aggregation );
+    }
+
     @Override
     public void write(final Object entry,
                       final int timeToLive,
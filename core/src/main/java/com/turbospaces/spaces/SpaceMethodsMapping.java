@@ -99,5 +99,23 @@ public enum SpaceMethodsMapping {
      * 
      * @see SpaceTransactionManager#rollback(org.springframework.transaction.TransactionStatus)
      */
-    ROLLBACK_TRANSACTION;
+    ROLLBACK_TRANSACTION,
+    /**
+     * remote query method identifier
+     * 
+     * @see JSpace#query(com.turbospaces.model.EntityQuery)
+     */
+    QUERY,
+    /**
+     * remote aggregation method identifier
+     * 
+     * @see JSpace#aggregate(com.turbospaces.model.EntityAggregation)
+     */
+    AGGREGATE,
+    /**
+     * remote streaming fetch (chunk pull) method identifier
+     * 
+     * @see JSpace#fetch(Object, int, int, int, com.turbospaces.api.FetchConsumer)
+     */
+    FETCH_CHUNK;
 }
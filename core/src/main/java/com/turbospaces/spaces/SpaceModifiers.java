@@ -61,5 +61,18 @@ public abstract class SpaceModifiers {
         return ( modifier & JSpace.RETURN_AS_BYTES ) != 0;
     }
 
+    public static boolean isConflateNotifications(final int modifier) {
+        return ( modifier & JSpace.CONFLATE_NOTIFICATIONS ) != 0;
+    }
+
+    /**
+     * fetch by template with positive timeout waits for matching entity if nothing matches at the moment (evict and
+     * fetch by id never wait).
+     */
+    public static boolean isBlockingFetch(final int modifier,
+                                          final long timeout) {
+        return timeout > 0 && !isMatchById( modifier ) && !isEvictOnly( modifier );
+    }
+
     private SpaceModifiers() {}
 }
@@ -19,14 +19,17 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.concurrent.ThreadSafe;
 
@@ -52,15 +55,23 @@ import com.google.common.cache.RemovalListener;
 import com.google.common.cache.RemovalNotification;
 import com.turbospaces.api.AbstractSpaceConfiguration;
 import com.turbospaces.api.JSpace;
+import com.turbospaces.api.SpaceConfiguration;
+import com.turbospaces.api.SpaceException;
 import com.turbospaces.api.SpaceNotificationListener;
 import com.turbospaces.api.SpaceOperation;
+import com.turbospaces.model.EntityAggregation;
+import com.turbospaces.model.EntityQuery;
 import com.turbospaces.network.MethodCall;
+import com.turbospaces.network.MethodCall.AggregateMethodCall;
 import com.turbospaces.network.MethodCall.BeginTransactionMethodCall;
 import com.turbospaces.network.MethodCall.CommitRollbackMethodCall;
 import com.turbospaces.network.MethodCall.EvictElementsMethodCall;
 import com.turbospaces.network.MethodCall.EvictPercentageMethodCall;
+import com.turbospaces.network.MethodCall.FetchChunkMethodCall;
 import com.turbospaces.network.MethodCall.FetchMethodCall;
+import com.turbospaces.network.MethodCall.ModifyMethodCall;
 import com.turbospaces.network.MethodCall.NotifyListenerMethodCall;
+import com.turbospaces.network.MethodCall.QueryMethodCall;
 import com.turbospaces.network.MethodCall.WriteMethodCall;
 import com.turbospaces.spaces.tx.SpaceTransactionHolder;
 import com.turbospaces.spaces.tx.TransactionModificationContext;
@@ -75,6 +86,8 @@ class SpaceReceiveAdapter extends ReceiverAdapter implements InitializingBean, D
     private final Logger logger = LoggerFactory.getLogger( getClass() );
 
     private final ConcurrentHashMap<Address, Cache<Long, SpaceTransactionHolder>> durableTransactions;
+    private final Cache<Long, FetchStream> fetchStreams;
+    private final AtomicLong fetchStreamIds = new AtomicLong();
     private final AbstractJSpace jSpace;
     private ScheduledFuture<?> cleaupFuture;
     private volatile Address[] clientConnectors;
@@ -82,6 +95,11 @@ class SpaceReceiveAdapter extends ReceiverAdapter implements InitializingBean, D
     SpaceReceiveAdapter(final AbstractJSpace jSpace) {
         this.jSpace = jSpace;
         this.durableTransactions = new ConcurrentHashMap<Address, Cache<Long, SpaceTransactionHolder>>();
+        // abandoned streams hold neither locks nor pending modifications, so they are just forgotten
+        this.fetchStreams = CacheBuilder
+                .newBuilder()
+                .expireAfterAccess( AbstractSpaceConfiguration.defaultTransactionTimeout(), TimeUnit.SECONDS )
+                .build();
     }
 
     @Override
@@ -97,6 +115,7 @@ class SpaceReceiveAdapter extends ReceiverAdapter implements InitializingBean, D
                         cache.cleanUp();
                     }
                 }
+                fetchStreams.cleanUp();
             }
         }, 0, jSpace.getSpaceConfiguration().getCacheCleanupPeriod(), TimeUnit.MILLISECONDS );
     }
@@ -201,7 +220,11 @@ class SpaceReceiveAdapter extends ReceiverAdapter implements InitializingBean, D
                      */
                     RegisteredClass entryClass = jSpace.getSpaceConfiguration().getKryo().readClass( byteBuffer );
                     Class<?> entryType = entryClass.getType();
-                    byte[] entityData = Arrays.copyOfRange( byteBuffer.array(), byteBuffer.position(), byteBuffer.capacity() );
+                    // entities with dictionary encoded properties are re-serialized with local dictionaries
+                    byte[] entityData = jSpace.getSpaceConfiguration().getKryo().isDictionaryEncoded( entryType ) ? null : Arrays.copyOfRange(
+                            byteBuffer.array(),
+                            byteBuffer.position(),
+                            byteBuffer.capacity() );
                     Object entry = jSpace.getSpaceConfiguration().getKryo().readObjectData( byteBuffer, entryType );
 
                     SpaceTransactionHolder holder = null;
@@ -213,7 +236,7 @@ class SpaceReceiveAdapter extends ReceiverAdapter implements InitializingBean, D
                 }
             }, nodeRaised, objectBuffer );
         else if ( id == SpaceMethodsMapping.FETCH.ordinal() )
-            sendResponseBackAfterExecution( methodCall, new Runnable() {
+            sendResponseBackAfterBlockingExecution( (ModifyMethodCall) methodCall, new Runnable() {
                 @Override
                 public void run() {
                     FetchMethodCall fetchMethodCall = (FetchMethodCall) methodCall;
@@ -229,18 +252,127 @@ class SpaceReceiveAdapter extends ReceiverAdapter implements InitializingBean, D
                     if ( fetchMethodCall.getTransactionId() != 0 )
                         holder = modificationContextFor( nodeRaised ).getIfPresent( fetchMethodCall.getTransactionId() );
 
+                    // projection is made here, so that only requested properties are sent back
+                    Class<?> type = AbstractJSpace.typeOf( template );
+                    int[] indexes = fetchMethodCall.getProperties() != null ? jSpace
+                            .getSpaceConfiguration()
+                            .boFor( type )
+                            .getPropertyIndexes( fetchMethodCall.getProperties() ) : null;
+
                     ByteBuffer[] buffers = (ByteBuffer[]) jSpace.fetch( holder, template, timeout, maxResults, modifiers );
                     if ( buffers != null ) {
                         byte[][] response = new byte[buffers.length][];
                         for ( int i = 0; i < buffers.length; i++ ) {
                             ByteBuffer buffer = buffers[i];
-                            response[i] = buffer.array();
+                            response[i] = indexes != null ? jSpace.getSpaceConfiguration().getKryo().toPortable( buffer, type, indexes ) : jSpace
+                                    .getSpaceConfiguration()
+                                    .getKryo()
+                                    .toPortable( buffer, type );
                         }
                         fetchMethodCall.setResponseBody( objectBuffer.writeObjectData( response ) );
                     }
                     fetchMethodCall.reset();
                 }
             }, nodeRaised, objectBuffer );
+        else if ( id == SpaceMethodsMapping.FETCH_CHUNK.ordinal() )
+            sendResponseBackAfterBlockingExecution( (ModifyMethodCall) methodCall, new Runnable() {
+                @Override
+                public void run() {
+                    FetchChunkMethodCall fetchChunkMethodCall = (FetchChunkMethodCall) methodCall;
+                    long streamId = fetchChunkMethodCall.getStreamId();
+                    int chunkSize = fetchChunkMethodCall.getChunkSize();
+                    FetchStream stream;
+
+                    /**
+                     * 1. open new lazy fetch stream or claim existing stream (so that it is not expired while chunk is
+                     * being collected)
+                     * 2. collect up to chunk size entities, entities are taken/locked one by one
+                     * 3. apply modifications of non-transactional stream after each chunk, so that no locks are held
+                     * between chunks
+                     * 4. register stream back if chunk is full (there might be more entities), otherwise stream is
+                     * exhausted
+                     */
+                    if ( streamId == 0 ) {
+                        Object template = objectBuffer.readClassAndObject( fetchChunkMethodCall.getEntity() );
+                        int modifiers = fetchChunkMethodCall.getModifiers() | JSpace.RETURN_AS_BYTES;
+
+                        SpaceTransactionHolder holder = null;
+                        if ( fetchChunkMethodCall.getTransactionId() != 0 )
+                            holder = modificationContextFor( nodeRaised ).getIfPresent( fetchChunkMethodCall.getTransactionId() );
+                        TransactionModificationContext mc = holder != null ? (TransactionModificationContext) holder.getModificationContext()
+                                : new TransactionModificationContext();
+
+                        streamId = fetchStreamIds.incrementAndGet();
+                        stream = new FetchStream( nodeRaised, template, holder == null ? mc : null, jSpace.iterate(
+                                holder,
+                                mc,
+                                template,
+                                fetchChunkMethodCall.getTimeout(),
+                                fetchChunkMethodCall.getMaxResults(),
+                                modifiers ) );
+                    }
+                    else {
+                        stream = fetchStreams.asMap().remove( streamId );
+                        Preconditions.checkState(
+                                stream != null && stream.owner.equals( nodeRaised ),
+                                "unable to find fetch stream with id = %s",
+                                streamId );
+                    }
+
+                    List<byte[]> chunk = new ArrayList<byte[]>( Math.min( chunkSize, 1024 ) );
+                    try {
+                        while ( chunk.size() < chunkSize && stream.iterator.hasNext() )
+                            chunk.add( jSpace.getSpaceConfiguration().getKryo().toPortable( stream.iterator.next(), AbstractJSpace.typeOf( stream.template ) ) );
+                    }
+                    finally {
+                        if ( stream.nonTransactionalContext != null )
+                            jSpace.flush( stream.nonTransactionalContext, stream.template );
+                    }
+
+                    fetchChunkMethodCall.reset();
+                    fetchChunkMethodCall.setStreamId( 0 );
+                    if ( chunkSize > 0 && chunk.size() == chunkSize ) {
+                        fetchStreams.put( streamId, stream );
+                        fetchChunkMethodCall.setStreamId( streamId );
+                    }
+                    fetchChunkMethodCall.setResponseBody( objectBuffer.writeObjectData( chunk.toArray( new byte[chunk.size()][] ) ) );
+                }
+            }, nodeRaised, objectBuffer );
+        else if ( id == SpaceMethodsMapping.QUERY.ordinal() )
+            sendResponseBackAfterExecution( methodCall, new Runnable() {
+                @Override
+                public void run() {
+                    QueryMethodCall queryMethodCall = (QueryMethodCall) methodCall;
+                    EntityQuery query = (EntityQuery) objectBuffer.readClassAndObject( queryMethodCall.getEntity() );
+
+                    SpaceTransactionHolder holder = null;
+                    if ( queryMethodCall.getTransactionId() != 0 )
+                        holder = modificationContextFor( nodeRaised ).getIfPresent( queryMethodCall.getTransactionId() );
+
+                    ByteBuffer[] buffers = jSpace.query( holder, query ).getResults();
+                    byte[][] response = new byte[buffers.length][];
+                    for ( int i = 0; i < buffers.length; i++ )
+                        response[i] = jSpace.getSpaceConfiguration().getKryo().toPortable( buffers[i], query.getType() );
+                    queryMethodCall.setResponseBody( objectBuffer.writeObjectData( response ) );
+                    queryMethodCall.reset();
+                }
+            }, nodeRaised, objectBuffer );
+        else if ( id == SpaceMethodsMapping.AGGREGATE.ordinal() )
+            sendResponseBackAfterExecution( methodCall, new Runnable() {
+                @Override
+                public void run() {
+                    AggregateMethodCall aggregateMethodCall = (AggregateMethodCall) methodCall;
+                    EntityAggregation aggregation = (EntityAggregation) objectBuffer.readClassAndObject( aggregateMethodCall.getEntity() );
+
+                    SpaceTransactionHolder holder = null;
+                    if ( aggregateMethodCall.getTransactionId() != 0 )
+                        holder = modificationContextFor( nodeRaised ).getIfPresent( aggregateMethodCall.getTransactionId() );
+
+                    // only partial values of aggregate functions are sent back
+                    aggregateMethodCall.setResponseBody( objectBuffer.writeObjectData( jSpace.aggregate( holder, aggregation ) ) );
+                    aggregateMethodCall.reset();
+                }
+            }, nodeRaised, objectBuffer );
         else if ( id == SpaceMethodsMapping.NOTIFY.ordinal() )
             sendResponseBackAfterExecution( methodCall, new Runnable() {
                 @Override
@@ -249,7 +381,7 @@ class SpaceReceiveAdapter extends ReceiverAdapter implements InitializingBean, D
                     byte[] entityData = registerMethodCall.getEntity();
 
                     int originalModifiers = registerMethodCall.getModifiers();
-                    Object template = objectBuffer.readClassAndObject( entityData );
+                    final Object template = objectBuffer.readClassAndObject( entityData );
                     int modifiers = originalModifiers | JSpace.RETURN_AS_BYTES;
                     jSpace.notify( template, new SpaceNotificationListener() {
 
@@ -261,7 +393,7 @@ class SpaceReceiveAdapter extends ReceiverAdapter implements InitializingBean, D
                                 @Override
                                 public void run() {
                                     NotifyListenerMethodCall methodCall = new NotifyListenerMethodCall();
-                                    methodCall.setEntity( ( (ByteBuffer) entity ).array() );
+                                    methodCall.setEntity( jSpace.getSpaceConfiguration().getKryo().toPortable( (ByteBuffer) entity, AbstractJSpace.typeOf( template ) ) );
                                     methodCall.setOperation( operation );
                                 }
                             }, nodeRaised, innerObjectBuffer );
@@ -317,6 +449,41 @@ class SpaceReceiveAdapter extends ReceiverAdapter implements InitializingBean, D
             }, nodeRaised, objectBuffer );
     }
 
+    /**
+     * blocking fetch (which can wait for matching entity for a long time) must not hold receiver thread, because the same
+     * thread delivers commits of other clients which are supposed to wake up fetch. Parked fetch holds thread of
+     * dedicated bounded pool (so that shared space executor is never starved by waiting consumers), fetch is rejected
+     * if all threads of the pool are parked already.
+     */
+    private void sendResponseBackAfterBlockingExecution(final ModifyMethodCall methodCall,
+                                                        final Runnable task,
+                                                        final Address address,
+                                                        final ObjectBuffer objectBuffer) {
+        if ( !SpaceModifiers.isBlockingFetch( methodCall.getModifiers(), methodCall.getTimeout() ) ) {
+            sendResponseBackAfterExecution( methodCall, task, address, objectBuffer );
+            return;
+        }
+        final SpaceConfiguration configuration = jSpace.getSpaceConfiguration();
+        try {
+            configuration.getBlockedFetchExecutor().execute( new Runnable() {
+                @Override
+                public void run() {
+                    sendResponseBackAfterExecution( methodCall, task, address, objectBuffer );
+                }
+            } );
+        }
+        catch ( final RejectedExecutionException e ) {
+            sendResponseBackAfterExecution( methodCall, new Runnable() {
+                @Override
+                public void run() {
+                    throw new SpaceException( String.format(
+                            "unable to park blocking fetch, %s blocking fetches are waiting already",
+                            configuration.getMaxBlockedFetches() ), e );
+                }
+            }, address, objectBuffer );
+        }
+    }
+
     private void sendResponseBackAfterExecution(final MethodCall methodCall,
                                                 final Runnable task,
                                                 final Address address,
@@ -382,6 +549,26 @@ class SpaceReceiveAdapter extends ReceiverAdapter implements InitializingBean, D
         clientConnectors = newClientConnectors;
     }
 
+    /**
+     * server side state of remote streaming fetch.
+     */
+    private static final class FetchStream {
+        private final Address owner;
+        private final Object template;
+        private final TransactionModificationContext nonTransactionalContext;
+        private final Iterator<ByteBuffer> iterator;
+
+        private FetchStream(final Address owner,
+                            final Object template,
+                            final TransactionModificationContext nonTransactionalContext,
+                            final Iterator<ByteBuffer> iterator) {
+            this.owner = owner;
+            this.template = template;
+            this.nonTransactionalContext = nonTransactionalContext;
+            this.iterator = iterator;
+        }
+    }
+
     @VisibleForTesting
     Cache<Long, SpaceTransactionHolder> modificationContextFor(final Address address) {
         Cache<Long, SpaceTransactionHolder> cache = durableTransactions.get( address );
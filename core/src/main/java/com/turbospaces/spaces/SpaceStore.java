@@ -16,6 +16,7 @@
 package com.turbospaces.spaces;
 
 import java.nio.ByteBuffer;
+import java.util.Iterator;
 
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
@@ -23,9 +24,14 @@ import org.springframework.beans.factory.InitializingBean;
 import com.turbospaces.api.JSpace;
 import com.turbospaces.api.SpaceConfiguration;
 import com.turbospaces.core.CacheStatisticsCounter;
+import com.turbospaces.model.AggregationResult;
 import com.turbospaces.model.CacheStoreEntryWrapper;
+import com.turbospaces.model.EntityAggregation;
+import com.turbospaces.model.EntityQuery;
 import com.turbospaces.offmemory.IndexManager;
+import com.turbospaces.serialization.QueryCollector;
 import com.turbospaces.spaces.tx.TransactionModificationContext;
+import com.turbospaces.spaces.tx.WriteTakeEntry;
 
 /**
  * This is the central interface which is responsible for high-level jspace interactions orchestration (manage
@@ -49,6 +55,15 @@ public interface SpaceStore extends DisposableBean, InitializingBean {
     void sync(TransactionModificationContext modificationContext,
               boolean apply);
 
+    /**
+     * prepare transaction modification changes for commit: acquire key locks of optimistic writes and verify their
+     * versions, so that conflicts are detected before changes of any store are applied. nothing is applied here, caller
+     * must discard changes via {@link #sync(TransactionModificationContext, boolean)} if preparation fails.
+     * 
+     * @param modificationContext
+     */
+    void prepare(TransactionModificationContext modificationContext);
+
     /**
      * refer to JSpace#write(IBO, long, long, int) documentation. The only one difference is that instead of writing
      * everything to store, you need to register changes within transaction modification context.
@@ -84,6 +99,107 @@ public interface SpaceStore extends DisposableBean, InitializingBean {
                        int maxResults,
                        int modifiers);
 
+    /**
+     * auto-commit write of single entity (outside of transaction) - entity is applied to the index directly under key
+     * lock (without transaction modification context), key lock is released before returning.
+     * 
+     * @param entry
+     *            entity wrapper
+     * @param transactionId
+     *            identifier of auto-commit operation (key lock owner)
+     * @param timeToLive
+     *            entity's time-to-live
+     * @param timeout
+     *            key lock acquire timeout
+     * @param modifier
+     *            write modifiers
+     * @param keepSerializedState
+     *            whether serialized state must be kept on heap (for asynchronous notifications)
+     * @return applied write (with space operation assigned)
+     */
+    WriteTakeEntry writeDirectly(CacheStoreEntryWrapper entry,
+                                 long transactionId,
+                                 int timeToLive,
+                                 int timeout,
+                                 int modifier,
+                                 boolean keepSerializedState);
+
+    /**
+     * auto-commit take(evict) of single entity by primary key (outside of transaction) - entity is removed from the
+     * index directly under key lock.
+     * 
+     * @param template
+     *            template entry with primary key
+     * @param transactionId
+     *            identifier of auto-commit operation (key lock owner)
+     * @param timeout
+     *            key lock acquire timeout
+     * @return applied take or <code>null</code> if there is no such entity
+     */
+    WriteTakeEntry takeDirectly(CacheStoreEntryWrapper template,
+                                long transactionId,
+                                int timeout);
+
+    /**
+     * read committed entity by primary key (outside of transaction) without any locks.
+     * 
+     * @param id
+     *            primary key
+     * @return serialized entity or <code>null</code>
+     */
+    ByteBuffer readDirectly(Object id);
+
+    /**
+     * lazy version of {@link #fetch(CacheStoreEntryWrapper, TransactionModificationContext, int, int, int)} - matched
+     * entities are fetched (and taken/locked if requested) one by one as iterator advances, so that the whole result is
+     * never held in memory. iterator must be used by the thread which owns modification context.
+     * 
+     * @param template
+     *            template entry
+     * @param modificationContext
+     *            transaction modification context
+     * @param timeout
+     *            lock acquire timeout (and max time to wait for matching entity, see
+     *            {@link SpaceModifiers#isBlockingFetch(int, long)})
+     * @param maxResults
+     *            maximum number of entities to be fetched
+     * @param modifiers
+     *            fetch modifiers
+     * @return lazy iterator over matched entities (in serialized form)
+     */
+    Iterator<ByteBuffer> iterate(CacheStoreEntryWrapper template,
+                                 TransactionModificationContext modificationContext,
+                                 int timeout,
+                                 int maxResults,
+                                 int modifiers);
+
+    /**
+     * execute query over committed entities and entities modified by transaction (transaction's writes are visible,
+     * transaction's takes are not). query is read-only and doesn't acquire any locks.
+     * 
+     * @param query
+     *            query
+     * @param modificationContext
+     *            transaction modification context
+     * @return collector holding page of matched entities (in serialized form) and the cursor for the next page
+     */
+    QueryCollector query(EntityQuery query,
+                         TransactionModificationContext modificationContext);
+
+    /**
+     * execute aggregation over committed entities and entities modified by transaction (the same visibility rules as
+     * for {@link #query(EntityQuery, TransactionModificationContext)}). aggregation is read-only and doesn't acquire any
+     * locks.
+     * 
+     * @param aggregation
+     *            aggregation
+     * @param modificationContext
+     *            transaction modification context
+     * @return values of aggregate functions per group
+     */
+    AggregationResult aggregate(EntityAggregation aggregation,
+                                TransactionModificationContext modificationContext);
+
     /**
      * @return the index manager associated with this space store container.
      */
@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) 2011-2012 Andrey Borisov <aandrey.borisov@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turbospaces.spaces.tx;
+
+import javax.annotation.concurrent.Immutable;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.turbospaces.spaces.EntryKeyLockQuard;
+import com.turbospaces.spaces.KeyLocker;
+
+/**
+ * guard of the key which is not locked by transaction (yet) - optimistic write holds no key lock until commit, the key
+ * lock is acquired via {@link KeyLocker} just before the version of entity is verified and modification is applied.
+ * equals to any other {@link EntryKeyLockQuard} of the same key.
+ * 
+ * @since 0.1
+ */
+@Immutable
+public final class OptimisticKeyGuard implements EntryKeyLockQuard {
+    private final Object key;
+
+    /**
+     * create guard for the given key.
+     * 
+     * @param key
+     *            primary key
+     */
+    public OptimisticKeyGuard(final Object key) {
+        this.key = Preconditions.checkNotNull( key );
+    }
+
+    @Override
+    public Object getKey() {
+        return key;
+    }
+
+    @Override
+    public int hashCode() {
+        return key.hashCode();
+    }
+
+    @Override
+    public boolean equals(final Object another) {
+        if ( another instanceof EntryKeyLockQuard )
+            return key.equals( ( (EntryKeyLockQuard) another ).getKey() );
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper( this ).add( "key", key ).toString();
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2011-2012 Andrey Borisov <aandrey.borisov@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turbospaces.spaces.tx;
+
+import java.util.List;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * commit epochs clock of multi-version (snapshot) reads. each commit is assigned with next epoch and previous versions
+ * of modified entities are retained with commit's epoch, snapshot (taken at transaction begin) sees all commits
+ * completed before snapshot and none of the commits after (or in-flight at the moment of snapshot).</p>
+ * 
+ * previous versions are reclaimed once no active snapshot needs them (epoch reclamation) - see {@link #horizon()}.
+ * critical sections are tiny (just epoch bookkeeping), so neither readers nor committers wait for each other.
+ * 
+ * @since 0.1
+ */
+@ThreadSafe
+public final class SnapshotEpochs {
+    @GuardedBy("this")
+    private long epoch;
+    /**
+     * epochs of commits which are being applied right now
+     */
+    @GuardedBy("this")
+    private final SortedSet<Long> inFlight = Sets.newTreeSet();
+    /**
+     * active snapshots (epoch->number of snapshots)
+     */
+    @GuardedBy("this")
+    private final SortedMap<Long, Integer> snapshots = Maps.newTreeMap();
+    private final List<Runnable> reclaimers = new CopyOnWriteArrayList<Runnable>();
+
+    /**
+     * open new snapshot - the snapshot must be closed via {@link #close(long)} once transaction is completed.
+     * 
+     * @return snapshot's epoch (the latest epoch such that all commits before are completed)
+     */
+    public synchronized long open() {
+        long snapshot = visibleEpoch();
+        Integer count = snapshots.get( snapshot );
+        snapshots.put( snapshot, count == null ? 1 : count + 1 );
+        return snapshot;
+    }
+
+    /**
+     * close snapshot and reclaim previous versions which are not needed anymore.
+     * 
+     * @param snapshot
+     *            snapshot's epoch
+     */
+    public void close(final long snapshot) {
+        boolean oldest;
+        synchronized ( this ) {
+            Integer count = snapshots.get( snapshot );
+            Preconditions.checkState( count != null, "there is no active snapshot with epoch = %s", snapshot );
+            oldest = snapshots.firstKey() == snapshot;
+            if ( count == 1 )
+                snapshots.remove( snapshot );
+            else
+                snapshots.put( snapshot, count - 1 );
+        }
+        if ( oldest )
+            for ( Runnable reclaimer : reclaimers )
+                reclaimer.run();
+    }
+
+    /**
+     * assign epoch to the commit which is about to be applied.
+     * 
+     * @return commit's epoch
+     */
+    public synchronized long beginCommit() {
+        inFlight.add( ++epoch );
+        return epoch;
+    }
+
+    /**
+     * mark commit as completed (all modifications are applied).
+     * 
+     * @param commit
+     *            commit's epoch
+     */
+    public synchronized void endCommit(final long commit) {
+        inFlight.remove( commit );
+    }
+
+    /**
+     * @return the latest epoch such that previous versions retained by commits with this or earlier epoch are not
+     *         needed by neither active nor future snapshots
+     */
+    public synchronized long horizon() {
+        long horizon = visibleEpoch();
+        if ( !snapshots.isEmpty() )
+            horizon = Math.min( horizon, snapshots.firstKey() );
+        return horizon;
+    }
+
+    /**
+     * register action which reclaims previous versions (called after the oldest snapshot is closed).
+     * 
+     * @param reclaimer
+     *            reclamation action
+     */
+    public void addReclaimer(final Runnable reclaimer) {
+        reclaimers.add( Preconditions.checkNotNull( reclaimer ) );
+    }
+
+    /**
+     * remove previously registered reclamation action.
+     * 
+     * @param reclaimer
+     *            reclamation action
+     */
+    public void removeReclaimer(final Runnable reclaimer) {
+        reclaimers.remove( reclaimer );
+    }
+
+    private long visibleEpoch() {
+        return inFlight.isEmpty() ? epoch : inFlight.first() - 1;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return Objects.toStringHelper( this ).add( "epoch", epoch ).add( "inFlight", inFlight ).add( "snapshots", snapshots ).toString();
+    }
+}
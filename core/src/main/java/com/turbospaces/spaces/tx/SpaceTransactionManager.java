@@ -27,6 +27,7 @@ import com.google.common.base.Preconditions;
 import com.turbospaces.api.AbstractSpaceConfiguration;
 import com.turbospaces.api.ClientSpaceConfiguration;
 import com.turbospaces.api.JSpace;
+import com.turbospaces.api.SpaceConfiguration;
 import com.turbospaces.spaces.RemoteJSpace;
 import com.turbospaces.spaces.TransactionalJSpace;
 
@@ -65,6 +66,12 @@ public class SpaceTransactionManager extends AbstractPlatformTransactionManager
                            final TransactionDefinition definition) {
         SpaceTransactionObject txObject = (SpaceTransactionObject) transaction;
         Object mc = proxyMode ? new TransactionModificationContextProxy() : new TransactionModificationContext();
+        if ( !proxyMode ) {
+            // read-only fetches are served from consistent snapshot taken at transaction begin
+            SpaceConfiguration configuration = (SpaceConfiguration) getResourceFactory().getSpaceConfiguration();
+            if ( configuration.isSnapshotReads() )
+                ( (TransactionModificationContext) mc ).openSnapshot( configuration.getSnapshotEpochs() );
+        }
         SpaceTransactionHolder transactionHolder = new SpaceTransactionHolder();
         transactionHolder.setModificationContext( mc );
         txObject.setSpaceTransactionHolder( transactionHolder );
@@ -92,6 +99,8 @@ public class SpaceTransactionManager extends AbstractPlatformTransactionManager
     @Override
     protected void doCleanupAfterCompletion(final Object transaction) {
         SpaceTransactionObject txObject = (SpaceTransactionObject) transaction;
+        if ( !proxyMode )
+            ( (TransactionModificationContext) txObject.getSpaceTransactionHolder().getModificationContext() ).closeSnapshot();
         getResourceFactory().unbindTransactionHolder( txObject.getSpaceTransactionHolder() );
     }
 
@@ -16,28 +16,25 @@
 package com.turbospaces.spaces.tx;
 
 import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.util.CollectionUtils;
-import org.springframework.util.ObjectUtils;
 
 import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.lmax.disruptor.Sequence;
 import com.turbospaces.api.JSpace;
-import com.turbospaces.api.SpaceNotificationListener;
-import com.turbospaces.core.SpaceUtility;
-import com.turbospaces.model.CacheStoreEntryWrapper;
 import com.turbospaces.offmemory.ByteArrayPointer;
 import com.turbospaces.offmemory.IndexManager;
 import com.turbospaces.spaces.EntryKeyLockQuard;
-import com.turbospaces.spaces.NotificationContext;
-import com.turbospaces.spaces.SpaceModifiers;
+import com.turbospaces.spaces.NotificationRegistry;
 import com.turbospaces.spaces.SpaceStore;
 
 /**
@@ -76,21 +73,107 @@ public final class TransactionModificationContext {
      * @see JSpace#EXCLUSIVE_READ_LOCK
      */
     private final Set<EntryKeyLockQuard> exclusiveReads = Sets.newHashSet();
+    /**
+     * writes/takes indexed by raw primary key (read-your-writes lookups by key without lock guardian)
+     */
+    private final Map<Object, WriteTakeEntry> writesByKey = Maps.newHashMap();
+    private final Map<Object, WriteTakeEntry> takesByKey = Maps.newHashMap();
+    /**
+     * modifications partitioned by space store (in the order stores have been touched by transaction)
+     */
+    private final Map<SpaceStore, TransactionModificationContext> storeContexts = Maps.newLinkedHashMap();
+    private SpaceStore lastStore;
+    private TransactionModificationContext lastStoreContext;
 
     /**
      * unique identifier of transaction
      */
     private final long transactionId;
+    /**
+     * root transaction modification context (this for root context itself)
+     */
+    private final TransactionModificationContext root;
     /**
      * indicates that this transaction modification created for remote client(those behaves as proxy)
      */
     private boolean proxyMode;
+    /**
+     * snapshot of multi-version reads (if opened)
+     */
+    private SnapshotEpochs snapshotEpochs;
+    private long snapshotEpoch;
 
     /**
      * create new transaction modification context and assign auto-generated ID.
      */
     public TransactionModificationContext() {
-        this.transactionId = IDS.incrementAndGet();
+        this.transactionId = nextTransactionId();
+        this.root = this;
+    }
+
+    private TransactionModificationContext(final TransactionModificationContext root) {
+        this.transactionId = root.transactionId;
+        this.root = root;
+    }
+
+    /**
+     * generate new unique transaction identifier (for auto-commit operations which are applied without transaction
+     * modification context).
+     * 
+     * @return new transaction identifier
+     */
+    public static long nextTransactionId() {
+        return IDS.incrementAndGet();
+    }
+
+    /**
+     * open consistent snapshot for read-only fetches of this transaction, snapshot must be closed via
+     * {@link #closeSnapshot()} once transaction is completed.
+     * 
+     * @param epochs
+     *            commit epochs clock
+     */
+    public void openSnapshot(final SnapshotEpochs epochs) {
+        Preconditions.checkState( root == this, "snapshot can be opened by root context only" );
+        Preconditions.checkState( snapshotEpochs == null, "snapshot is already opened for %s", this );
+        snapshotEpoch = epochs.open();
+        snapshotEpochs = epochs;
+    }
+
+    /**
+     * close snapshot (if opened) and allow previous versions of entities to be reclaimed.
+     */
+    public void closeSnapshot() {
+        if ( snapshotEpochs != null ) {
+            SnapshotEpochs epochs = snapshotEpochs;
+            snapshotEpochs = null;
+            epochs.close( snapshotEpoch );
+        }
+    }
+
+    /**
+     * @return true if read-only fetches are served from consistent snapshot
+     */
+    public boolean hasSnapshot() {
+        return root.snapshotEpochs != null;
+    }
+
+    /**
+     * @return snapshot's epoch (applicable only if {@link #hasSnapshot()})
+     */
+    public long getSnapshotEpoch() {
+        return root.snapshotEpoch;
+    }
+
+    /**
+     * check whether entity has been written or taken by this transaction.
+     * 
+     * @param key
+     *            primary key
+     * @return true if transaction's own modification shadows committed state
+     */
+    public boolean isModified(final Object key) {
+        return ( !writesByKey.isEmpty() && writesByKey.containsKey( key ) ) || ( !takesByKey.isEmpty() && takesByKey.containsKey( key ) );
     }
 
     /**
@@ -116,8 +199,15 @@ public final class TransactionModificationContext {
      */
     public void addTake(final EntryKeyLockQuard guard,
                         final WriteTakeEntry value) {
-        getWrites().remove( guard );
+        WriteTakeEntry prevWrite = getWrites().remove( guard );
+        if ( prevWrite != null ) {
+            writesByKey.remove( guard.getKey() );
+            // take might share the pointer with previous write, so keep the state on heap before releasing memory
+            prevWrite.getPointer().getSerializedData();
+            prevWrite.getPointer().utilize();
+        }
         getTakes().put( guard, value );
+        takesByKey.put( guard.getKey(), value );
     }
 
     /**
@@ -131,8 +221,12 @@ public final class TransactionModificationContext {
      */
     public void addWrite(final EntryKeyLockQuard guard,
                          final WriteTakeEntry value) {
-        getWrites().put( guard, value );
-        getTakes().remove( guard );
+        WriteTakeEntry prevWrite = getWrites().put( guard, value );
+        writesByKey.put( guard.getKey(), value );
+        if ( prevWrite != null && prevWrite.getPointer() != value.getPointer() )
+            prevWrite.getPointer().utilize();
+        if ( getTakes().remove( guard ) != null )
+            takesByKey.remove( guard.getKey() );
     }
 
     /**
@@ -164,6 +258,28 @@ public final class TransactionModificationContext {
         return (ByteArrayPointer) indexManager.getByUniqueIdentifier( guard.getKey(), true );
     }
 
+    /**
+     * get write entry associated with the given primary key with-in transaction.
+     * 
+     * @param key
+     *            primary key
+     * @return write entry or <code>null</code> if entity has not been written by the current transaction
+     */
+    public WriteTakeEntry getWrite(final Object key) {
+        return writesByKey.isEmpty() ? null : writesByKey.get( key );
+    }
+
+    /**
+     * get take entry associated with the given primary key with-in transaction.
+     * 
+     * @param key
+     *            primary key
+     * @return take entry or <code>null</code> if entity has not been taken by the current transaction
+     */
+    public WriteTakeEntry getTake(final Object key) {
+        return takesByKey.isEmpty() ? null : takesByKey.get( key );
+    }
+
     /**
      * get byte array pointer associated with write/take for the given key if any or fetch byte array pointer from index
      * manager (if there is no direct key association with-in transaction).
@@ -176,24 +292,118 @@ public final class TransactionModificationContext {
      */
     public ByteBuffer getPointerData(final Object key,
                                      final IndexManager indexManager) {
-        if ( !getTakes().isEmpty() )
-            for ( EntryKeyLockQuard keyGuard : getTakes().keySet() )
-                if ( ObjectUtils.nullSafeEquals( keyGuard.getKey(), key ) )
-                    return null;
+        if ( !takesByKey.isEmpty() && takesByKey.containsKey( key ) )
+            return null;
 
-        if ( !getWrites().isEmpty() )
-            for ( Entry<EntryKeyLockQuard, WriteTakeEntry> next : getWrites().entrySet() )
-                if ( ObjectUtils.nullSafeEquals( next.getKey().getKey(), key ) )
-                    return next.getValue().getPointer().getSerializedDataBuffer();
+        if ( !writesByKey.isEmpty() ) {
+            WriteTakeEntry write = writesByKey.get( key );
+            if ( write != null )
+                return write.getPointer().getSerializedDataBuffer();
+        }
 
         return (ByteBuffer) indexManager.getByUniqueIdentifier( key, false );
     }
 
     /**
-     * @return true if there are writes/changes/takes associated with current transaction modification context.
+     * get (or lazily create) sub-context capturing modifications of the given space store only. all sub-contexts share
+     * transaction id, proxy mode and snapshot of the root context and are synchronized via
+     * {@link #commit(NotificationRegistry)} or {@link #rollback()} of root context.
+     * 
+     * @param store
+     *            space store
+     * @return store's modification context
+     */
+    public TransactionModificationContext forStore(final SpaceStore store) {
+        if ( root != this )
+            return root.forStore( store );
+        if ( lastStore == store )
+            return lastStoreContext;
+        TransactionModificationContext storeContext = storeContexts.get( store );
+        if ( storeContext == null ) {
+            storeContext = new TransactionModificationContext( this );
+            storeContexts.put( store, storeContext );
+        }
+        lastStore = store;
+        lastStoreContext = storeContext;
+        return storeContext;
+    }
+
+    /**
+     * @return space stores touched by transaction (those having sub-context)
+     */
+    public Set<SpaceStore> getTouchedStores() {
+        return Collections.unmodifiableSet( storeContexts.keySet() );
+    }
+
+    /**
+     * @return true if there are writes/changes/takes associated with current transaction modification context (or any
+     *         of its store's sub-contexts).
      */
     public boolean isDirty() {
-        return !getWrites().isEmpty() || !getTakes().isEmpty() || !getExclusiveReads().isEmpty();
+        if ( !getWrites().isEmpty() || !getTakes().isEmpty() || !getExclusiveReads().isEmpty() )
+            return true;
+        if ( !storeContexts.isEmpty() )
+            for ( TransactionModificationContext storeContext : storeContexts.values() )
+                if ( storeContext.isDirty() )
+                    return true;
+        return false;
+    }
+
+    /**
+     * synchronize pending modifications of all touched space stores with off-heap memory (each store is synchronized
+     * with its own sub-context, stores not touched by transaction are not visited at all). sub-contexts remain bound
+     * to stores, so that lazy fetch iterators can continue with the same context.</p>
+     * 
+     * all touched stores are prepared first (see {@link SpaceStore#prepare(TransactionModificationContext)}), so
+     * optimistic locking conflicts discard the whole transaction before any store applies changes. however stores are
+     * not committed atomically: if applying changes to some store fails after preparation (which is not expected under
+     * normal conditions), stores synchronized before remain committed and modifications of remaining stores are
+     * discarded.
+     * 
+     * @param notificationRegistry
+     *            space notification subscriptions
+     */
+    public void commit(final NotificationRegistry notificationRegistry) {
+        syncStores( notificationRegistry, true );
+    }
+
+    /**
+     * discard changes made by the current transaction in all touched space stores.
+     */
+    public void rollback() {
+        syncStores( null, false );
+    }
+
+    private void syncStores(final NotificationRegistry notificationRegistry,
+                            final boolean applyDiscard) {
+        if ( applyDiscard )
+            try {
+                for ( Map.Entry<SpaceStore, TransactionModificationContext> next : storeContexts.entrySet() )
+                    if ( next.getValue().isDirty() )
+                        next.getKey().prepare( next.getValue() );
+            }
+            catch ( RuntimeException e ) {
+                // nothing has been applied yet, so transaction is rolled back entirely
+                syncStores( null, false );
+                throw e;
+            }
+        Iterator<Map.Entry<SpaceStore, TransactionModificationContext>> it = storeContexts.entrySet().iterator();
+        try {
+            while ( it.hasNext() ) {
+                Map.Entry<SpaceStore, TransactionModificationContext> next = it.next();
+                if ( next.getValue().isDirty() )
+                    next.getValue().sync( next.getKey(), notificationRegistry, applyDiscard );
+            }
+        }
+        catch ( RuntimeException e ) {
+            // release locks of the stores which have not been synchronized yet
+            while ( it.hasNext() ) {
+                Map.Entry<SpaceStore, TransactionModificationContext> next = it.next();
+                if ( next.getValue().isDirty() )
+                    next.getValue().sync( next.getKey(), null, false );
+            }
+            throw e;
+        }
     }
 
     /**
@@ -201,12 +411,12 @@ public final class TransactionModificationContext {
      * 
      * @param memoryManager
      *            space store
-     * @param notificationContext
-     *            space notification context
+     * @param notificationRegistry
+     *            space notification subscriptions
      */
     public void flush(final SpaceStore memoryManager,
-                      final Set<NotificationContext> notificationContext) {
-        sync( memoryManager, notificationContext, true );
+                      final NotificationRegistry notificationRegistry) {
+        sync( memoryManager, notificationRegistry, true );
     }
 
     @SuppressWarnings("javadoc")
@@ -225,92 +435,36 @@ public final class TransactionModificationContext {
     }
 
     private void sync(final SpaceStore memoryManager,
-                      final Set<NotificationContext> notificationContext,
+                      final NotificationRegistry notificationRegistry,
                       final boolean applyDiscard) {
         LOGGER.debug( "synchronizing {} wih offheap cache store. commit/rollback = {}", this, applyDiscard ? "COMMIT" : "ROLLBACK" );
+        boolean notify = notificationRegistry != null && !notificationRegistry.isEmpty();
         try {
+            if ( applyDiscard && notify && notificationRegistry.isAnyReturnAsBytes() )
+                // listeners are notified asynchronously when off-heap memory is already owned by store
+                for ( WriteTakeEntry entry : getWrites().values() )
+                    entry.getPointer().getSerializedData();
             memoryManager.sync( this, applyDiscard );
-            if ( !CollectionUtils.isEmpty( notificationContext ) )
-                for ( NotificationContext item : notificationContext ) {
-                    SpaceNotificationListener listener = item.getListener();
-                    boolean matchById = SpaceModifiers.isMatchById( item.getModifier() );
-                    boolean returnAsBytes = SpaceModifiers.isReturnAsBytes( item.getModifier() );
-                    CacheStoreEntryWrapper template = item.getTemplateEntry();
-
-                    if ( matchById ) {
-                        notifyById( getWrites(), template.getId(), listener, memoryManager, template.getBean(), returnAsBytes );
-                        notifyById( getTakes(), template.getId(), listener, memoryManager, template.getBean(), returnAsBytes );
-                    }
-                    else {
-                        notifyByTemplate( getWrites(), listener, template, memoryManager, returnAsBytes );
-                        notifyByTemplate( getTakes(), listener, template, memoryManager, returnAsBytes );
-                    }
-                }
+            if ( notify )
+                notificationRegistry.publish( Iterables.concat( getWrites().values(), getTakes().values() ), memoryManager.getSpaceConfiguration() );
         }
         finally {
             clear();
         }
     }
 
-    private static void notifyByTemplate(final Map<EntryKeyLockQuard, WriteTakeEntry> map,
-                                         final SpaceNotificationListener listener,
-                                         final CacheStoreEntryWrapper template,
-                                         final SpaceStore memoryManager,
-                                         final boolean returnAsBytes) {
-        if ( !CollectionUtils.isEmpty( map ) )
-            for ( final WriteTakeEntry entry : map.values() )
-                if ( entry.getObj().getClass().isAssignableFrom( template.getPersistentEntity().getOriginalPersistentEntity().getType() ) ) {
-                    Object[] templatePropertyValues = template.asPropertyValuesArray();
-                    Object[] entryPropertyValues = entry.getPropertyValues();
-
-                    if ( SpaceUtility.macthesByPropertyValues( templatePropertyValues, entryPropertyValues ) ) {
-                        assert entry.getObj() != null;
-                        memoryManager.getSpaceConfiguration().getListeningExecutorService().execute( new Runnable() {
-                            @Override
-                            public void run() {
-                                listener.handleNotification(
-                                        returnAsBytes ? entry.getPointer().getSerializedDataBuffer() : entry.getObj(),
-                                        entry.getSpaceOperation() );
-                            }
-                        } );
-                    }
-                }
-    }
-
-    private static void notifyById(final Map<EntryKeyLockQuard, WriteTakeEntry> map,
-                                   final Object uniqueIdentifier,
-                                   final SpaceNotificationListener listener,
-                                   final SpaceStore memoryManager,
-                                   final Object template,
-                                   final boolean returnAsBytes) {
-        if ( !CollectionUtils.isEmpty( map ) )
-            for ( Entry<EntryKeyLockQuard, WriteTakeEntry> next : map.entrySet() ) {
-                Object keyCandidate = next.getKey().getKey();
-                final WriteTakeEntry entry = next.getValue();
-
-                if ( ObjectUtils.nullSafeEquals( keyCandidate, uniqueIdentifier )
-                        && ObjectUtils.nullSafeEquals( entry.getPersistentEntity().getOriginalPersistentEntity().getType(), template.getClass() ) ) {
-                    assert entry.getObj() != null;
-                    memoryManager.getSpaceConfiguration().getListeningExecutorService().execute( new Runnable() {
-                        @Override
-                        public void run() {
-                            listener.handleNotification(
-                                    returnAsBytes ? entry.getPointer().getSerializedDataBuffer() : entry.getObj(),
-                                    entry.getSpaceOperation() );
-                        }
-                    } );
-                }
-            }
-    }
-
     /**
      * clear all writes/changes/takes/exclusive reads.
      */
     public void clear() {
-        if ( !getWrites().isEmpty() )
+        if ( !getWrites().isEmpty() ) {
             getWrites().clear();
-        if ( !getTakes().isEmpty() )
+            writesByKey.clear();
+        }
+        if ( !getTakes().isEmpty() ) {
             getTakes().clear();
+            takesByKey.clear();
+        }
         if ( !getExclusiveReads().isEmpty() )
             getExclusiveReads().clear();
     }
@@ -330,7 +484,7 @@ public final class TransactionModificationContext {
      * @see #setProxyMode(boolean)
      */
     public boolean isProxyMode() {
-        return proxyMode;
+        return root.proxyMode;
     }
 
     /**
@@ -340,11 +494,12 @@ public final class TransactionModificationContext {
      *            whether this is remote transaction or local
      */
     public void setProxyMode(final boolean proxyMode) {
-        this.proxyMode = proxyMode;
+        root.proxyMode = proxyMode;
     }
 
     /**
-     * get collection of inserts associated with the current transaction (id->value)
+     * get collection of inserts associated with the current transaction (id->value), must be modified via
+     * {@link #addWrite(EntryKeyLockQuard, WriteTakeEntry)} only.
      * 
      * @return map of inserts
      */
@@ -353,7 +508,8 @@ public final class TransactionModificationContext {
     }
 
     /**
-     * get collection of deletes associated with the current transaction (id->value)
+     * get collection of deletes associated with the current transaction (id->value), must be modified via
+     * {@link #addTake(EntryKeyLockQuard, WriteTakeEntry)} only.
      * 
      * @return map of deletes
      */
@@ -378,6 +534,8 @@ public final class TransactionModificationContext {
                 .add( "writes", getWrites() )
                 .add( "takes", getTakes() )
                 .add( "exclusiveReads", getExclusiveReads() )
+                .add( "stores", storeContexts.size() )
+                .add( "snapshot", hasSnapshot() ? getSnapshotEpoch() : null )
                 .toString();
     }
 }
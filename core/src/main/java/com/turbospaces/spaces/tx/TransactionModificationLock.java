@@ -69,6 +69,14 @@ class TransactionModificationLock {
             return success;
         }
 
+        private boolean isLocked() {
+            return getState() != 0;
+        }
+
+        private long getOwner() {
+            return getState();
+        }
+
         @Override
         protected boolean tryRelease(final long transactionId) {
             long c = getState();
@@ -93,6 +101,15 @@ class TransactionModificationLock {
         return true;
     }
 
+    void lockInterruptibly(final long transactionID)
+                                                    throws InterruptedException {
+        sync.acquireInterruptibly( transactionID );
+    }
+
+    boolean tryLock(final long transactionID) {
+        return sync.tryAcquire( transactionID );
+    }
+
     boolean tryLock(final long transactionID,
                     final long timeout,
                     final TimeUnit unit)
@@ -103,4 +120,19 @@ class TransactionModificationLock {
     void unlock(final long transactionID) {
         sync.release( transactionID );
     }
+
+    boolean isLocked() {
+        return sync.isLocked();
+    }
+
+    /**
+     * @return transaction holding the lock or 0 if lock is not held
+     */
+    long getOwner() {
+        return sync.getOwner();
+    }
+
+    boolean isExclusiveMode() {
+        return sync.exclusiveMode;
+    }
 }
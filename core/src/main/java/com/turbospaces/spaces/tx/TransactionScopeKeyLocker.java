@@ -15,80 +15,210 @@
  */
 package com.turbospaces.spaces.tx;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.concurrent.ThreadSafe;
 
+import org.springframework.dao.DeadlockLoserDataAccessException;
+
 import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
 import com.turbospaces.api.SpaceException;
+import com.turbospaces.core.SpaceUtility;
 import com.turbospaces.spaces.EntryKeyLockQuard;
 import com.turbospaces.spaces.KeyLocker;
 
 /**
- * default key-lock manager implementation. this one uses write/read concurrent maps to store named locks and removes
- * lock objects only in case there is no threads(transactions) trying to acquire the same named lock. </p>
+ * default key-lock manager implementation. this one uses concurrent map to store named locks and removes lock objects
+ * only in case there is no threads(transactions) trying to acquire the same named lock. </p>
+ * 
+ * uncontended lock is acquired without any shared synchronization - lock monitor is inserted into the concurrent map
+ * (or reference counted via CAS if already present) and transaction lock is acquired via CAS. Monitor which is no longer
+ * referenced is retired first (so that it can't be referenced again) and only then removed from the map. Transaction
+ * locks (synchronizers) of retired monitors are recycled via small per-thread pool, so that auto-commit writes don't
+ * allocate synchronizer for each key lock. </p>
  * 
- * currently this class performs quite well, however uses shared synchronization lock which is a subject for revise
- * procedure.
+ * transactions blocked on locks form wait-for graph which is checked for cycles whenever transaction is about to block,
+ * the youngest transaction of the cycle is aborted immediately (see {@link WaitForGraph}) instead of resolving the
+ * deadlock by lock acquisition timeout.
  * 
  * @since 0.1
  */
 @ThreadSafe
 public final class TransactionScopeKeyLocker implements KeyLocker {
-    private final Map<Object, LockMonitor> writeLocks = new HashMap<Object, LockMonitor>();
+    private static final int POOL_SIZE = 1 << 4;
+    // transaction identifiers are unique within JVM, so that deadlocks across lockers (stores) are detected as well
+    private static final WaitForGraph WAIT_FOR_GRAPH = new WaitForGraph();
+
+    private final ConcurrentMap<Object, LockMonitor> writeLocks;
+    private final ThreadLocal<LockPool> pools = new ThreadLocal<LockPool>() {
+        @Override
+        protected LockPool initialValue() {
+            return new LockPool();
+        }
+    };
+
+    /**
+     * create key locker with default concurrency level.
+     */
+    public TransactionScopeKeyLocker() {
+        this( Runtime.getRuntime().availableProcessors() );
+    }
+
+    /**
+     * create key locker for the given number of concurrently modifying threads.
+     * 
+     * @param concurrencyLevel
+     *            estimated number of concurrently locking threads (number of stripes of lock table)
+     */
+    public TransactionScopeKeyLocker(final int concurrencyLevel) {
+        Preconditions.checkArgument( concurrencyLevel > 0 );
+        writeLocks = new ConcurrentHashMap<Object, LockMonitor>( concurrencyLevel << 4, 0.75f, concurrencyLevel );
+    }
 
     @Override
     public LockMonitor writeLock(final Object key,
                                  final long transactionId,
                                  final long timeout,
                                  final boolean strict) {
-        final Map<Object, LockMonitor> locks = writeLocks;
-        LockMonitor monitor = null;
-
-        synchronized ( locks ) {
-            monitor = locks.get( key );
-            if ( monitor == null ) {
-                monitor = new LockMonitor( new TransactionModificationLock( strict ), key );
-                locks.put( key, monitor );
-            }
-            monitor.acquires++;
-        }
-
+        final LockMonitor monitor = retain( key, strict );
+        boolean locked = false;
         try {
-            boolean locked = timeout == Long.MAX_VALUE ? monitor.lock.lock( transactionId ) : monitor.lock.tryLock(
-                    transactionId,
-                    timeout,
-                    TimeUnit.MILLISECONDS );
+            locked = monitor.lock.tryLock( transactionId ) || ( timeout > 0 && await( monitor, transactionId, timeout ) );
             return locked ? monitor : null;
         }
         catch ( InterruptedException e ) {
             Thread.currentThread().interrupt();
             throw new SpaceException( Thread.currentThread().toString() + " has been interrupted", e );
         }
+        finally {
+            if ( !locked )
+                release( monitor );
+        }
     }
 
     @Override
     public void writeUnlock(final EntryKeyLockQuard keyGuard,
                             final long transactionId) {
-        final Map<Object, LockMonitor> locks = writeLocks;
         final Object key = keyGuard.getKey();
+        LockMonitor monitor = key == null ? null : writeLocks.get( key );
+        if ( monitor == null )
+            throw new IllegalStateException( String.format( "Illegal attempt to unlock key=%s under transaction = %s!", key, transactionId ) );
+        monitor.lock.unlock( transactionId );
+        release( monitor );
+    }
+
+    /**
+     * block on contended lock, deadlock victim is aborted immediately with {@link DeadlockLoserDataAccessException}.
+     */
+    private static boolean await(final LockMonitor monitor,
+                                 final long transactionId,
+                                 final long timeout)
+                                                    throws InterruptedException {
+        WaitForGraph.Waiter waiter = WAIT_FOR_GRAPH.register( transactionId, monitor.lock );
+        if ( waiter == null )
+            return acquire( monitor, transactionId, timeout );
+
+        boolean locked = false, victim = false;
+        InterruptedException interruption = null;
+        try {
+            if ( !waiter.isVictim() )
+                locked = acquire( monitor, transactionId, timeout );
+        }
+        catch ( InterruptedException e ) {
+            interruption = e;
+        }
+        finally {
+            victim = WAIT_FOR_GRAPH.complete( waiter, interruption != null );
+        }
+        // victim which has acquired the lock anyway is not a part of the cycle any longer
+        if ( victim && !locked )
+            SpaceUtility.raiseDeadlockLoserException( monitor.getKey(), transactionId );
+        if ( interruption != null )
+            throw interruption;
+        return locked;
+    }
 
-        synchronized ( locks ) {
-            LockMonitor monitor = locks.get( key );
-            if ( monitor != null ) {
-                monitor.lock.unlock( transactionId );
-                if ( --monitor.acquires == 0 )
-                    locks.remove( key );
+    private static boolean acquire(final LockMonitor monitor,
+                                   final long transactionId,
+                                   final long timeout)
+                                                      throws InterruptedException {
+        if ( timeout != Long.MAX_VALUE )
+            return monitor.lock.tryLock( transactionId, timeout, TimeUnit.MILLISECONDS );
+        monitor.lock.lockInterruptibly( transactionId );
+        return true;
+    }
+
+    private LockMonitor retain(final Object key,
+                               final boolean strict) {
+        for ( ;; ) {
+            LockMonitor monitor = writeLocks.get( key );
+            if ( monitor == null ) {
+                LockPool pool = pools.get();
+                LockMonitor created = new LockMonitor( pool.borrow( strict ), key );
+                monitor = writeLocks.putIfAbsent( key, created );
+                if ( monitor == null )
+                    return created;
+                pool.recycle( created.lock );
+            }
+            // retired monitor is about to be removed from map, so just wait for removal and create new one
+            if ( monitor.retain() )
+                return monitor;
+            writeLocks.remove( key, monitor );
+        }
+    }
+
+    private void release(final LockMonitor monitor) {
+        if ( monitor.release() ) {
+            writeLocks.remove( monitor.getKey(), monitor );
+            pools.get().recycle( monitor.lock );
+        }
+    }
+
+    /**
+     * @return number of currently held (or awaited) key locks
+     */
+    int size() {
+        return writeLocks.size();
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper( this ).add( "locks", size() ).toString();
+    }
+
+    private static final class LockPool {
+        private final TransactionModificationLock[] strict = new TransactionModificationLock[POOL_SIZE];
+        private final TransactionModificationLock[] lenient = new TransactionModificationLock[POOL_SIZE];
+        private int strictSize, lenientSize;
+
+        private TransactionModificationLock borrow(final boolean exclusiveMode) {
+            if ( exclusiveMode )
+                return strictSize > 0 ? strict[--strictSize] : new TransactionModificationLock( true );
+            return lenientSize > 0 ? lenient[--lenientSize] : new TransactionModificationLock( false );
+        }
+
+        private void recycle(final TransactionModificationLock lock) {
+            // lock might be still held if it has been unlocked by foreign transaction
+            if ( lock.isLocked() )
+                return;
+            if ( lock.isExclusiveMode() ) {
+                if ( strictSize < POOL_SIZE )
+                    strict[strictSize++] = lock;
             }
-            else
-                throw new IllegalStateException( String.format( "Illegal attempt to unlock key=%s under transaction = %s!", key, transactionId ) );
+            else if ( lenientSize < POOL_SIZE )
+                lenient[lenientSize++] = lock;
         }
     }
 
     private static final class LockMonitor implements EntryKeyLockQuard {
-        private int acquires;
+        private static final int RETIRED = -1;
+
+        // number of transactions holding or waiting for the lock (or RETIRED)
+        private final AtomicInteger acquires = new AtomicInteger( 1 );
         private final TransactionModificationLock lock;
         private final Object key;
 
@@ -99,6 +229,23 @@ public final class TransactionScopeKeyLocker implements KeyLocker {
             this.lock = lock;
         }
 
+        private boolean retain() {
+            for ( ;; ) {
+                int current = acquires.get();
+                if ( current == RETIRED )
+                    return false;
+                if ( acquires.compareAndSet( current, current + 1 ) )
+                    return true;
+            }
+        }
+
+        /**
+         * @return true if monitor has been retired (no more references)
+         */
+        private boolean release() {
+            return acquires.decrementAndGet() == 0 && acquires.compareAndSet( 0, RETIRED );
+        }
+
         @Override
         public Object getKey() {
             return key;
@@ -116,8 +263,8 @@ public final class TransactionScopeKeyLocker implements KeyLocker {
 
         @Override
         public boolean equals(final Object another) {
-            if ( another instanceof LockMonitor )
-                return getKey().equals( ( (LockMonitor) another ).getKey() );
+            if ( another instanceof EntryKeyLockQuard )
+                return getKey().equals( ( (EntryKeyLockQuard) another ).getKey() );
 
             return super.equals( another );
         }
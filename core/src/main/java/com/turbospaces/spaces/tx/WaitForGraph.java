@@ -0,0 +1,169 @@
+/**
+ * Copyright (C) 2011-2012 Andrey Borisov <aandrey.borisov@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turbospaces.spaces.tx;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.Objects;
+
+/**
+ * wait-for graph of transactions blocked on key locks - each waiting transaction points to the transaction holding the
+ * lock it waits for. Cycle is checked by transaction which is about to block (deadlock can only be introduced by new
+ * wait edge), so that deadlocks are resolved immediately instead of waiting for lock acquisition timeout. </p>
+ * 
+ * The youngest transaction of the cycle (transaction identifiers are monotonic) is chosen as victim - either the
+ * waiting transaction itself (it doesn't block at all) or another transaction of the cycle which is interrupted. The
+ * graph is not locked during cycle detection, so that the cycle might be already broken by the time it is detected
+ * (victim transaction is aborted anyway, which is safe as it would be rolled back after lock timeout otherwise).
+ * 
+ * @since 0.1
+ */
+@ThreadSafe
+final class WaitForGraph {
+    private final ConcurrentMap<Long, Waiter> waiters = new ConcurrentHashMap<Long, Waiter>();
+
+    /**
+     * register wait edge for transaction which is about to block on the lock and check whether the edge introduces
+     * deadlock.
+     * 
+     * @param transactionId
+     *            waiting transaction
+     * @param lock
+     *            lock transaction is about to wait for
+     * @return waiter (check {@link Waiter#isVictim()} before blocking) or <code>null</code> if the same transaction is
+     *         already waiting in another thread (no deadlock detection for such transaction)
+     */
+    Waiter register(final long transactionId,
+                    final TransactionModificationLock lock) {
+        Waiter waiter = new Waiter( transactionId, lock );
+        if ( waiters.putIfAbsent( transactionId, waiter ) != null )
+            return null;
+        Waiter victim = victimOf( waiter );
+        if ( victim == waiter )
+            waiter.state = Waiter.VICTIM;
+        else if ( victim != null )
+            victim.abort();
+        return waiter;
+    }
+
+    /**
+     * remove wait edge once transaction stopped waiting (acquired lock, timed out or has been aborted). interrupt of
+     * deadlock detector which hasn't been consumed by lock acquisition is cleared, interrupt which didn't come from
+     * deadlock detector is preserved.
+     * 
+     * @param waiter
+     *            registered waiter
+     * @param interruptConsumed
+     *            whether lock acquisition has been interrupted (thrown {@link InterruptedException})
+     * @return true if transaction has been chosen as deadlock victim
+     */
+    boolean complete(final Waiter waiter,
+                     final boolean interruptConsumed) {
+        waiters.remove( waiter.transactionId, waiter );
+        return waiter.complete( interruptConsumed );
+    }
+
+    /**
+     * @return number of waiting transactions
+     */
+    int size() {
+        return waiters.size();
+    }
+
+    /**
+     * follow wait edges starting from new waiter.
+     * 
+     * @return youngest transaction of cycle or <code>null</code> if there is no cycle
+     */
+    private Waiter victimOf(final Waiter waiter) {
+        Waiter victim = waiter;
+        Waiter current = waiter;
+        // cycle which doesn't pass new waiter is detected by its own waiters, so the walk is bounded
+        for ( int i = waiters.size(); i >= 0; i-- ) {
+            long owner = current.lock.getOwner();
+            if ( owner == 0 )
+                return null;
+            if ( owner == waiter.transactionId )
+                return victim;
+            current = waiters.get( owner );
+            if ( current == null || current.state != Waiter.WAITING )
+                return null;
+            if ( current.transactionId > victim.transactionId )
+                victim = current;
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper( this ).add( "waiters", waiters.size() ).toString();
+    }
+
+    /**
+     * transaction waiting for the lock.
+     */
+    static final class Waiter {
+        private static final int WAITING = 0;
+        private static final int VICTIM = 1;
+        private static final int COMPLETED = 2;
+
+        private final long transactionId;
+        private final TransactionModificationLock lock;
+        private final Thread thread = Thread.currentThread();
+        private volatile int state;
+        // waiting thread has been interrupted by deadlock detector
+        private boolean aborted;
+        // waiting thread has been interrupted by someone else before deadlock detector
+        private boolean interruptedExternally;
+
+        private Waiter(final long transactionId, final TransactionModificationLock lock) {
+            this.transactionId = transactionId;
+            this.lock = lock;
+        }
+
+        /**
+         * @return true if transaction has been chosen as deadlock victim and must not block
+         */
+        boolean isVictim() {
+            return state == VICTIM;
+        }
+
+        private synchronized void abort() {
+            if ( state == WAITING ) {
+                state = VICTIM;
+                aborted = true;
+                interruptedExternally = thread.isInterrupted();
+                thread.interrupt();
+            }
+        }
+
+        private synchronized boolean complete(final boolean interruptConsumed) {
+            boolean victim = state == VICTIM;
+            state = COMPLETED;
+            if ( aborted ) {
+                // interrupt of deadlock detector might not be consumed by lock acquisition
+                if ( !interruptConsumed )
+                    Thread.interrupted();
+                if ( interruptedExternally )
+                    Thread.currentThread().interrupt();
+            }
+            return victim;
+        }
+    }
+}
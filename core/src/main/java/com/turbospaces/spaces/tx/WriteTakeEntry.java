@@ -34,6 +34,11 @@ import com.turbospaces.spaces.EntryKeyLockQuard;
  */
 @Immutable
 public final class WriteTakeEntry {
+    /**
+     * expected version of entity which doesn't exist
+     */
+    public static final int ABSENT = -1;
+
     /**
      * jspace entity itself
      */
@@ -62,6 +67,18 @@ public final class WriteTakeEntry {
      * jspace configuration
      */
     private final AbstractSpaceConfiguration configuration;
+    /**
+     * optimistic write (key is not locked until commit)
+     */
+    private final boolean optimistic;
+    /**
+     * version of committed entity which must be verified at commit
+     */
+    private final int expectedVersion;
+    /**
+     * key lock acquisition timeout at commit
+     */
+    private final int lockTimeout;
 
     /**
      * create(or get from pool) space operation wrapper for given object, id guard locker, entry pointer, property
@@ -87,12 +104,59 @@ public final class WriteTakeEntry {
                           final ByteArrayPointer pointer,
                           final BO bo,
                           final AbstractSpaceConfiguration spaceConfiguration) {
+        this( obj, propertyValues, idQuard, pointer, bo, spaceConfiguration, false, 0, 0 );
+    }
+
+    /**
+     * create optimistic write wrapper - key is not locked by transaction, but the version of committed entity must be
+     * verified at commit (under key lock acquired within the given timeout).
+     * 
+     * @param obj
+     *            the actual bean
+     * @param propertyValues
+     *            bean property values
+     * @param idQuard
+     *            key guardian (key is not locked)
+     * @param pointer
+     *            byte array pointer
+     * @param bo
+     *            class meta data holder
+     * @param spaceConfiguration
+     *            jspace configuration
+     * @param expectedVersion
+     *            committed version of entity seen by transaction (or {@link #ABSENT})
+     * @param lockTimeout
+     *            key lock acquisition timeout
+     */
+    public WriteTakeEntry(final Object obj,
+                          final Object[] propertyValues,
+                          final EntryKeyLockQuard idQuard,
+                          final ByteArrayPointer pointer,
+                          final BO bo,
+                          final AbstractSpaceConfiguration spaceConfiguration,
+                          final int expectedVersion,
+                          final int lockTimeout) {
+        this( obj, propertyValues, idQuard, pointer, bo, spaceConfiguration, true, expectedVersion, lockTimeout );
+    }
+
+    private WriteTakeEntry(final Object obj,
+                           final Object[] propertyValues,
+                           final EntryKeyLockQuard idQuard,
+                           final ByteArrayPointer pointer,
+                           final BO bo,
+                           final AbstractSpaceConfiguration spaceConfiguration,
+                           final boolean optimistic,
+                           final int expectedVersion,
+                           final int lockTimeout) {
         this.obj = obj;
         this.propertyValues = propertyValues;
         this.bo = bo;
         this.idQuard = idQuard;
         this.pointer = pointer;
         this.configuration = spaceConfiguration;
+        this.optimistic = optimistic;
+        this.expectedVersion = expectedVersion;
+        this.lockTimeout = lockTimeout;
     }
 
     /**
@@ -171,6 +235,38 @@ public final class WriteTakeEntry {
         this.spaceOperation = spaceOperation;
     }
 
+    /**
+     * key lock has been acquired (at commit), so the write is not optimistic anymore.
+     * 
+     * @return the same write (sharing the same pointer) holding key lock
+     */
+    public WriteTakeEntry keyLocked() {
+        WriteTakeEntry locked = new WriteTakeEntry( obj, propertyValues, idQuard, pointer, bo, configuration, false, expectedVersion, lockTimeout );
+        locked.setSpaceOperation( spaceOperation );
+        return locked;
+    }
+
+    /**
+     * @return true if key is not locked by transaction and version of committed entity must be verified at commit
+     */
+    public boolean isOptimistic() {
+        return optimistic;
+    }
+
+    /**
+     * @return committed version of entity seen by transaction (or {@link #ABSENT}), applicable for optimistic writes
+     */
+    public int getExpectedVersion() {
+        return expectedVersion;
+    }
+
+    /**
+     * @return key lock acquisition timeout at commit, applicable for optimistic writes
+     */
+    public int getLockTimeout() {
+        return lockTimeout;
+    }
+
     /**
      * associate write entry(as is) or de-serialized entry.
      * 
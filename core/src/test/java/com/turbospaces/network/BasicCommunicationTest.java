@@ -5,6 +5,7 @@ import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.notNullValue;
 
 import java.nio.ByteBuffer;
+import java.util.List;
 
 import org.junit.After;
 import org.junit.AfterClass;
@@ -14,11 +15,17 @@ import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.TransactionCallback;
 import org.springframework.transaction.support.TransactionTemplate;
 
+import com.google.common.collect.Lists;
 import com.turbospaces.api.ClientSpaceConfiguration;
 import com.turbospaces.api.EmbeddedJSpaceRunnerTest;
+import com.turbospaces.api.FetchConsumer;
 import com.turbospaces.api.JSpace;
+import com.turbospaces.api.QueryPage;
 import com.turbospaces.api.SpaceConfiguration;
 import com.turbospaces.api.SpaceTopology;
+import com.turbospaces.model.EntityAggregation;
+import com.turbospaces.model.EntityQuery;
+import com.turbospaces.model.EntityTemplate;
 import com.turbospaces.model.TestEntity1;
 import com.turbospaces.spaces.OffHeapJSpace;
 import com.turbospaces.spaces.RemoteJSpace;
@@ -116,6 +123,19 @@ public class BasicCommunicationTest {
                 .getObject() );
     }
 
+    @Test
+    public void canFetchPropertiesRemotely() {
+        TestEntity1 entity1 = new TestEntity1();
+        entity1.afterPropertiesSet();
+        remoteJSpace.write( entity1, JSpace.LEASE_FOREVER, 0, JSpace.WRITE_ONLY );
+        Object[][] resp = remoteJSpace.fetchProperties( entity1, 0, 1, JSpace.MATCH_BY_ID, "s1", "l4", "fi2" );
+        assertThat( resp.length, is( 1 ) );
+        assertThat( resp[0].length, is( 3 ) );
+        assertThat( (String) resp[0][0], is( entity1.s1 ) );
+        assertThat( (Long) resp[0][1], is( entity1.l4 ) );
+        assertThat( (Integer) resp[0][2], is( entity1.fi2 ) );
+    }
+
     @SuppressWarnings({ "unchecked", "rawtypes" })
     @Test
     public void canDoSomethingTransactionally() {
@@ -156,4 +176,160 @@ public class BasicCommunicationTest {
         resp = remoteJSpace.fetch( entity1, 0, 1, JSpace.READ_ONLY | JSpace.RETURN_AS_BYTES | JSpace.MATCH_BY_ID );
         assertThat( resp.length, is( 0 ) );
     }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Test
+    public void canQueryRemotelyAndSeeOwnTransactionalChanges() {
+        for ( int i = 0; i < 12; i++ ) {
+            TestEntity1 entity = new TestEntity1();
+            entity.afterPropertiesSet();
+            entity.uniqueIdentifier = String.format( "id-%02d", i );
+            simplisticJSpace.write( entity );
+        }
+        final EntityQuery query = EntityQuery.of( EntityTemplate.of( TestEntity1.class ) ).orderBy( "uniqueIdentifier" ).offset( 2 ).limit( 5 );
+        QueryPage<TestEntity1> page = remoteJSpace.query( query );
+        assertThat( page.getEntities().size(), is( 5 ) );
+        assertThat( page.getEntities().get( 0 ).getUniqueIdentifier(), is( "id-02" ) );
+        assertThat( page.getNextCursor(), is( EntityQuery.Cursor.valueOf( "id-06", "id-06" ) ) );
+
+        SpaceTransactionManager remoteTxManager = new SpaceTransactionManager();
+        remoteTxManager.setjSpace( remoteJSpace );
+        TransactionTemplate transactionTemplate = new TransactionTemplate( remoteTxManager );
+        transactionTemplate.setTimeout( 10000 );
+        transactionTemplate.execute( new TransactionCallback() {
+            @Override
+            public Object doInTransaction(final TransactionStatus status) {
+                TestEntity1 entity = new TestEntity1();
+                entity.afterPropertiesSet();
+                entity.uniqueIdentifier = "id-00a";
+                remoteJSpace.write( entity, JSpace.LEASE_FOREVER, 0, JSpace.WRITE_ONLY );
+                QueryPage<TestEntity1> txPage = remoteJSpace.query( query );
+                assertThat( txPage.getEntities().get( 0 ).getUniqueIdentifier(), is( "id-01" ) );
+                status.setRollbackOnly();
+                return null;
+            }
+        } );
+        page = remoteJSpace.query( query );
+        assertThat( page.getEntities().get( 0 ).getUniqueIdentifier(), is( "id-02" ) );
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Test
+    public void canAggregateRemotelyAndSeeOwnTransactionalChanges() {
+        for ( int i = 0; i < 10; i++ ) {
+            TestEntity1 entity = new TestEntity1();
+            entity.afterPropertiesSet();
+            entity.l1 = (long) i;
+            simplisticJSpace.write( entity );
+        }
+        final EntityAggregation aggregation = EntityAggregation.of( EntityTemplate.of( TestEntity1.class ) ).count().sum( "l1" ).min( "l1" );
+        assertThat( remoteJSpace.aggregate( aggregation ).get(), is( new Object[] { 10L, 45L, 0L } ) );
+
+        SpaceTransactionManager remoteTxManager = new SpaceTransactionManager();
+        remoteTxManager.setjSpace( remoteJSpace );
+        TransactionTemplate transactionTemplate = new TransactionTemplate( remoteTxManager );
+        transactionTemplate.setTimeout( 10000 );
+        transactionTemplate.execute( new TransactionCallback() {
+            @Override
+            public Object doInTransaction(final TransactionStatus status) {
+                TestEntity1 entity = new TestEntity1();
+                entity.afterPropertiesSet();
+                entity.l1 = -5L;
+                remoteJSpace.write( entity, JSpace.LEASE_FOREVER, 0, JSpace.WRITE_ONLY );
+                assertThat( remoteJSpace.aggregate( aggregation ).get(), is( new Object[] { 11L, 40L, -5L } ) );
+                status.setRollbackOnly();
+                return null;
+            }
+        } );
+        assertThat( remoteJSpace.aggregate( aggregation ).get(), is( new Object[] { 10L, 45L, 0L } ) );
+    }
+
+    @Test
+    public void canStreamFetchRemotelyInChunks() {
+        for ( int i = 0; i < 10; i++ ) {
+            TestEntity1 entity = new TestEntity1();
+            entity.afterPropertiesSet();
+            entity.s1 = "stream";
+            simplisticJSpace.write( entity );
+        }
+        final TestEntity1 template = new TestEntity1();
+        template.s1 = "stream";
+        clientConfiguration.setFetchChunkSize( 3 );
+        try {
+            final List<TestEntity1> read = Lists.newArrayList();
+            int fetched = remoteJSpace.fetch( template, 0, Integer.MAX_VALUE, JSpace.READ_ONLY, new FetchConsumer<TestEntity1>() {
+                @Override
+                public boolean accept(final TestEntity1 entity) {
+                    return read.add( entity );
+                }
+            } );
+            assertThat( fetched, is( 10 ) );
+            assertThat( read.get( 9 ).s1, is( "stream" ) );
+
+            // taken transactionally and rolled back
+            SpaceTransactionManager remoteTxManager = new SpaceTransactionManager();
+            remoteTxManager.setjSpace( remoteJSpace );
+            TransactionTemplate transactionTemplate = new TransactionTemplate( remoteTxManager );
+            transactionTemplate.setTimeout( 10000 );
+            transactionTemplate.execute( new TransactionCallback() {
+                @Override
+                public Object doInTransaction(final TransactionStatus status) {
+                    int taken = remoteJSpace.fetch( template, 0, 5, JSpace.TAKE_ONLY, new FetchConsumer<TestEntity1>() {
+                        @Override
+                        public boolean accept(final TestEntity1 entity) {
+                            return true;
+                        }
+                    } );
+                    assertThat( taken, is( 5 ) );
+                    status.setRollbackOnly();
+                    return null;
+                }
+            } );
+            assertThat( remoteJSpace.size(), is( 10L ) );
+
+            // consumer stops on the 4th entity, the whole 2nd chunk is taken anyway
+            final List<TestEntity1> taken = Lists.newArrayList();
+            fetched = remoteJSpace.fetch( template, 0, Integer.MAX_VALUE, JSpace.TAKE_ONLY, new FetchConsumer<TestEntity1>() {
+                @Override
+                public boolean accept(final TestEntity1 entity) {
+                    taken.add( entity );
+                    return taken.size() < 4;
+                }
+            } );
+            assertThat( fetched, is( 4 ) );
+            assertThat( remoteJSpace.size(), is( 4L ) );
+        }
+        finally {
+            clientConfiguration.setFetchChunkSize( 256 );
+        }
+    }
+
+    @Test
+    public void canBlockRemoteTakeUntilMatchingEntityIsWritten()
+                                                                throws Exception {
+        final TestEntity1 template = new TestEntity1();
+        template.s1 = "queue";
+        final List<Object[]> taken = Lists.newArrayList();
+
+        Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                taken.add( remoteJSpace.fetch( template, 10000, 1, JSpace.TAKE_ONLY ) );
+            }
+        };
+        consumer.start();
+        Thread.sleep( 100 );
+
+        // receiver thread is not blocked by waiting take
+        TestEntity1 entity = new TestEntity1();
+        entity.afterPropertiesSet();
+        entity.s1 = "queue";
+        remoteJSpace.write( entity, JSpace.LEASE_FOREVER, 0, JSpace.WRITE_ONLY );
+        consumer.join( 10000 );
+
+        assertThat( consumer.isAlive(), is( false ) );
+        assertThat( taken.get( 0 ).length, is( 1 ) );
+        ( (TestEntity1) taken.get( 0 )[0] ).assertMatch( entity );
+        assertThat( remoteJSpace.size(), is( 0L ) );
+    }
 }
@@ -5,9 +5,12 @@ import static org.hamcrest.Matchers.is;
 
 import java.util.List;
 
+import junit.framework.Assert;
+
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
 
 import com.turbospaces.api.ClientSpaceConfiguration;
 import com.turbospaces.api.EmbeddedJSpaceRunnerTest;
@@ -92,4 +95,23 @@ public class PartitionedBasicCommunicationTest {
 
         assertThat( errors.size(), is( 0 ) );
     }
+
+    @Test
+    public void canWaitForTemplateRoutedToSinglePartitionOnly() {
+        TestEntity1 entity = new TestEntity1();
+        entity.afterPropertiesSet();
+        remoteJSpace.write( entity, JSpace.LEASE_FOREVER, 0, JSpace.WRITE_ONLY );
+
+        TestEntity1 template = new TestEntity1();
+        template.s1 = entity.s1;
+        try {
+            remoteJSpace.fetch( template, 1000, 1, JSpace.TAKE_ONLY );
+            Assert.fail();
+        }
+        catch ( InvalidDataAccessApiUsageException e ) {}
+
+        template.setRouting( entity.getRouting() );
+        Object[] resp = remoteJSpace.fetch( template, 1000, 1, JSpace.TAKE_ONLY );
+        entity.assertMatch( (TestEntity1) resp[0] );
+    }
 }
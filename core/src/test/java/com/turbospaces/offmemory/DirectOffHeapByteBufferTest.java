@@ -24,20 +24,25 @@ import org.junit.runners.Parameterized.Parameters;
 import org.springframework.dao.CannotAcquireLockException;
 import org.springframework.dao.DataRetrievalFailureException;
 import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.data.mapping.model.BasicPersistentEntity;
 import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
 
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
 import com.turbospaces.api.CapacityRestriction;
 import com.turbospaces.api.EmbeddedJSpaceRunnerTest;
 import com.turbospaces.api.JSpace;
 import com.turbospaces.api.SpaceCapacityOverflowException;
 import com.turbospaces.api.SpaceConfiguration;
+import com.turbospaces.api.SpaceOperation;
 import com.turbospaces.core.JVMUtil;
 import com.turbospaces.model.BO;
 import com.turbospaces.model.CacheStoreEntryWrapper;
 import com.turbospaces.model.TestEntity1;
 import com.turbospaces.spaces.CountingSpaceNotificationListener;
 import com.turbospaces.spaces.NotificationContext;
+import com.turbospaces.spaces.NotificationRegistry;
 import com.turbospaces.spaces.tx.TransactionModificationContext;
 
 @RunWith(Parameterized.class)
@@ -126,6 +131,255 @@ public class DirectOffHeapByteBufferTest {
         }
     }
 
+    @Test
+    public void canLookupOwnWritesAndTakesByKey() {
+        TransactionModificationContext modificationContext = new TransactionModificationContext();
+        List<TestEntity1> entities = Lists.newArrayList();
+        for ( int i = 0; i < 100; i++ ) {
+            TestEntity1 entity = new TestEntity1();
+            entity.afterPropertiesSet();
+            entities.add( entity );
+            buffer.write( CacheStoreEntryWrapper.writeValueOf( bo, entity ), modificationContext, JSpace.LEASE_FOREVER, Integer.MAX_VALUE, JSpace.WRITE_ONLY );
+        }
+        for ( TestEntity1 entity : entities )
+            assertThat( modificationContext.getPointerData( entity.getUniqueIdentifier(), buffer.getIndexManager() ), is( notNullValue() ) );
+
+        TestEntity1 taken = entities.get( 50 );
+        CacheStoreEntryWrapper wrapper = CacheStoreEntryWrapper.writeValueOf( bo, taken );
+        assertThat( buffer.fetch( wrapper, modificationContext, 0, 1, JSpace.TAKE_ONLY | JSpace.MATCH_BY_ID ).length, is( 1 ) );
+        assertThat( modificationContext.getTake( taken.getUniqueIdentifier() ), is( notNullValue() ) );
+        assertThat( modificationContext.getPointerData( taken.getUniqueIdentifier(), buffer.getIndexManager() ), is( nullValue() ) );
+
+        // write after take in the same transaction
+        buffer.write( wrapper, modificationContext, JSpace.LEASE_FOREVER, Integer.MAX_VALUE, JSpace.WRITE_ONLY );
+        assertThat( modificationContext.getTake( taken.getUniqueIdentifier() ), is( nullValue() ) );
+        assertThat( modificationContext.getPointerData( taken.getUniqueIdentifier(), buffer.getIndexManager() ), is( notNullValue() ) );
+
+        modificationContext.flush( buffer );
+        assertThat( buffer.getIndexManager().size(), is( 100L ) );
+        assertThat( modificationContext.getTake( taken.getUniqueIdentifier() ), is( nullValue() ) );
+    }
+
+    @Test
+    public void canWriteAndTakeDirectlyWithoutModificationContext() {
+        TestEntity1 entity = new TestEntity1();
+        entity.afterPropertiesSet();
+        CacheStoreEntryWrapper wrapper = CacheStoreEntryWrapper.writeValueOf( bo, entity );
+
+        assertThat( buffer.writeDirectly( wrapper, 1, JSpace.LEASE_FOREVER, 0, JSpace.WRITE_ONLY, false ).getSpaceOperation(), is( SpaceOperation.WRITE ) );
+        assertThat( buffer.writeDirectly( wrapper, 2, JSpace.LEASE_FOREVER, 0, JSpace.UPDATE_ONLY, true ).getSpaceOperation(), is( SpaceOperation.UPDATE ) );
+        assertThat( buffer.readDirectly( entity.getUniqueIdentifier() ), is( notNullValue() ) );
+        try {
+            buffer.writeDirectly( wrapper, 3, JSpace.LEASE_FOREVER, 0, JSpace.WRITE_ONLY, false );
+            Assert.fail();
+        }
+        catch ( DuplicateKeyException e ) {}
+
+        // key locked by concurrent transaction can't be modified directly
+        TransactionModificationContext modificationContext = new TransactionModificationContext();
+        buffer.write( wrapper, modificationContext, JSpace.LEASE_FOREVER, 0, JSpace.WRITE_OR_UPDATE );
+        try {
+            buffer.takeDirectly( wrapper, 4, 0 );
+            Assert.fail();
+        }
+        catch ( CannotAcquireLockException e ) {}
+        modificationContext.flush( buffer );
+
+        assertThat( buffer.takeDirectly( wrapper, 5, 0 ).getSpaceOperation(), is( SpaceOperation.TAKE ) );
+        assertThat( buffer.takeDirectly( wrapper, 6, 0 ), is( nullValue() ) );
+        assertThat( buffer.readDirectly( entity.getUniqueIdentifier() ), is( nullValue() ) );
+        assertThat( buffer.getIndexManager().size(), is( 0L ) );
+    }
+
+    @Test
+    public void canReadConsistentSnapshotWhileConcurrentTransactionsCommit() {
+        buffer.destroy();
+        configuration.setSnapshotReads( true );
+        buffer = new OffHeapCacheStore( configuration, TestEntity1.class );
+        buffer.afterPropertiesSet();
+
+        TestEntity1 entity1 = new TestEntity1();
+        TestEntity1 entity2 = new TestEntity1();
+        TestEntity1 entity3 = new TestEntity1();
+        entity1.afterPropertiesSet();
+        entity2.afterPropertiesSet();
+        entity3.afterPropertiesSet();
+
+        TransactionModificationContext writer = new TransactionModificationContext();
+        buffer.write( CacheStoreEntryWrapper.writeValueOf( bo, entity1 ), writer, JSpace.LEASE_FOREVER, 0, JSpace.WRITE_ONLY );
+        buffer.write( CacheStoreEntryWrapper.writeValueOf( bo, entity2 ), writer, JSpace.LEASE_FOREVER, 0, JSpace.WRITE_ONLY );
+        writer.flush( buffer );
+        // nobody needs previous versions
+        assertThat( buffer.getVersions().size(), is( 0 ) );
+
+        TransactionModificationContext reader = new TransactionModificationContext();
+        reader.openSnapshot( configuration.getSnapshotEpochs() );
+
+        TestEntity1 update1 = entity1.clone();
+        update1.s1 = "updated";
+        buffer.write( CacheStoreEntryWrapper.writeValueOf( bo, update1 ), writer, JSpace.LEASE_FOREVER, 0, JSpace.UPDATE_ONLY );
+        buffer.fetch( CacheStoreEntryWrapper.writeValueOf( bo, entity2 ), writer, 0, 1, JSpace.TAKE_ONLY | JSpace.MATCH_BY_ID );
+        writer.flush( buffer );
+        buffer.writeDirectly( CacheStoreEntryWrapper.writeValueOf( bo, entity3 ), 1, JSpace.LEASE_FOREVER, 0, JSpace.WRITE_ONLY, false );
+        assertThat( buffer.getVersions().size(), is( 3 ) );
+
+        // by id
+        ByteBuffer[] match1 = buffer.fetch( CacheStoreEntryWrapper.writeValueOf( bo, entity1 ), reader, 0, 1, JSpace.READ_ONLY | JSpace.MATCH_BY_ID );
+        ByteBuffer[] match2 = buffer.fetch( CacheStoreEntryWrapper.writeValueOf( bo, entity2 ), reader, 0, 1, JSpace.READ_ONLY | JSpace.MATCH_BY_ID );
+        ByteBuffer[] match3 = buffer.fetch( CacheStoreEntryWrapper.writeValueOf( bo, entity3 ), reader, 0, 1, JSpace.READ_ONLY | JSpace.MATCH_BY_ID );
+        ( (TestEntity1) configuration.getKryo().deserialize( match1[0], TestEntity1.class ).getObject() ).assertMatch( entity1 );
+        ( (TestEntity1) configuration.getKryo().deserialize( match2[0], TestEntity1.class ).getObject() ).assertMatch( entity2 );
+        assertThat( match3, is( nullValue() ) );
+
+        // by template - current state of entity1 doesn't match, entity2 has been taken, entity3 is not in snapshot
+        TestEntity1 template = new TestEntity1();
+        template.s1 = entity1.s1;
+        match1 = buffer.fetch( CacheStoreEntryWrapper.writeValueOf( bo, template ), reader, 0, Integer.MAX_VALUE, JSpace.READ_ONLY );
+        assertThat( match1.length, is( 1 ) );
+        ( (TestEntity1) configuration.getKryo().deserialize( match1[0], TestEntity1.class ).getObject() ).assertMatch( entity1 );
+        ByteBuffer[] all = buffer.fetch( CacheStoreEntryWrapper.writeValueOf( bo, new TestEntity1() ), reader, 0, Integer.MAX_VALUE, JSpace.READ_ONLY );
+        assertThat( all.length, is( 2 ) );
+
+        // transaction without snapshot sees the latest committed state
+        TransactionModificationContext latest = new TransactionModificationContext();
+        match1 = buffer.fetch( CacheStoreEntryWrapper.writeValueOf( bo, entity1 ), latest, 0, 1, JSpace.READ_ONLY | JSpace.MATCH_BY_ID );
+        ( (TestEntity1) configuration.getKryo().deserialize( match1[0], TestEntity1.class ).getObject() ).assertMatch( update1 );
+        all = buffer.fetch( CacheStoreEntryWrapper.writeValueOf( bo, new TestEntity1() ), latest, 0, Integer.MAX_VALUE, JSpace.READ_ONLY );
+        assertThat( all.length, is( 2 ) );
+
+        reader.closeSnapshot();
+        assertThat( buffer.getVersions().size(), is( 0 ) );
+    }
+
+    @Test
+    public void canDetectConcurrentModificationOfVersionedEntityAtCommit() {
+        TestEntity1 entity = new TestEntity1();
+        entity.afterPropertiesSet();
+        entity.optimisticLockVersion = 0;
+        buffer.writeDirectly( CacheStoreEntryWrapper.writeValueOf( bo, entity ), 1, JSpace.LEASE_FOREVER, 0, JSpace.WRITE_ONLY, false );
+        assertThat( entity.optimisticLockVersion, is( 1 ) );
+
+        // both transactions read version 1, key is not locked by versioned writes
+        TestEntity1 update1 = entity.clone();
+        TestEntity1 update2 = entity.clone();
+        update1.s1 = "update1";
+        update2.s1 = "update2";
+        TransactionModificationContext modificationContext1 = new TransactionModificationContext();
+        TransactionModificationContext modificationContext2 = new TransactionModificationContext();
+        buffer.write( CacheStoreEntryWrapper.writeValueOf( bo, update1 ), modificationContext1, JSpace.LEASE_FOREVER, 0, JSpace.UPDATE_ONLY );
+        buffer.write( CacheStoreEntryWrapper.writeValueOf( bo, update2 ), modificationContext2, JSpace.LEASE_FOREVER, 0, JSpace.UPDATE_ONLY );
+        // the second write of the same transaction is verified against its own write
+        update1.s2 = "update1";
+        buffer.write( CacheStoreEntryWrapper.writeValueOf( bo, update1 ), modificationContext1, JSpace.LEASE_FOREVER, 0, JSpace.UPDATE_ONLY );
+        assertThat( buffer.toString().contains( "locks=0" ), is( true ) );
+
+        modificationContext1.flush( buffer );
+        assertThat( update1.optimisticLockVersion, is( 2 ) );
+        try {
+            modificationContext2.flush( buffer );
+            Assert.fail();
+        }
+        catch ( OptimisticLockingFailureException e ) {
+            assertThat( update2.optimisticLockVersion, is( 1 ) );
+        }
+        assertThat( buffer.toString().contains( "locks=0" ), is( true ) );
+
+        ByteBuffer[] match = buffer.fetch(
+                CacheStoreEntryWrapper.writeValueOf( bo, entity ),
+                new TransactionModificationContext(),
+                0,
+                1,
+                JSpace.READ_ONLY | JSpace.MATCH_BY_ID );
+        ( (TestEntity1) configuration.getKryo().deserialize( match[0], TestEntity1.class ).getObject() ).assertMatch( update1 );
+    }
+
+    @Test
+    public void canRejectStaleVersionOfEntity() {
+        TestEntity1 entity = new TestEntity1();
+        entity.afterPropertiesSet();
+        entity.optimisticLockVersion = 0;
+        TransactionModificationContext modificationContext = new TransactionModificationContext();
+        buffer.write( CacheStoreEntryWrapper.writeValueOf( bo, entity ), modificationContext, JSpace.LEASE_FOREVER, 0, JSpace.WRITE_ONLY );
+        modificationContext.flush( buffer );
+        assertThat( entity.optimisticLockVersion, is( 1 ) );
+
+        TestEntity1 stale = entity.clone();
+        stale.optimisticLockVersion = 0;
+        try {
+            buffer.write( CacheStoreEntryWrapper.writeValueOf( bo, stale ), modificationContext, JSpace.LEASE_FOREVER, 0, JSpace.WRITE_OR_UPDATE );
+            Assert.fail();
+        }
+        catch ( OptimisticLockingFailureException e ) {}
+        try {
+            buffer.writeDirectly( CacheStoreEntryWrapper.writeValueOf( bo, stale ), 1, JSpace.LEASE_FOREVER, 0, JSpace.WRITE_OR_UPDATE, false );
+            Assert.fail();
+        }
+        catch ( OptimisticLockingFailureException e ) {}
+        modificationContext.discard( buffer );
+
+        // exclusively locked entity is verified immediately as well
+        buffer.fetch( CacheStoreEntryWrapper.writeValueOf( bo, entity ), modificationContext, 0, 1, JSpace.EXCLUSIVE_READ_LOCK | JSpace.MATCH_BY_ID );
+        try {
+            buffer.write( CacheStoreEntryWrapper.writeValueOf( bo, stale ), modificationContext, JSpace.LEASE_FOREVER, 0, JSpace.UPDATE_ONLY );
+            Assert.fail();
+        }
+        catch ( OptimisticLockingFailureException e ) {}
+        buffer.write( CacheStoreEntryWrapper.writeValueOf( bo, entity ), modificationContext, JSpace.LEASE_FOREVER, 0, JSpace.UPDATE_ONLY );
+        modificationContext.flush( buffer );
+        assertThat( entity.optimisticLockVersion, is( 2 ) );
+    }
+
+    @Test
+    public void canApplyConcurrentCommitsAsGroup() {
+        buffer.destroy();
+        configuration.setGroupCommit( true );
+        configuration.setGroupCommitWindow( 50 );
+        buffer = new OffHeapCacheStore( configuration, TestEntity1.class );
+        buffer.afterPropertiesSet();
+
+        final TestEntity1 taken = new TestEntity1();
+        taken.afterPropertiesSet();
+        buffer.writeDirectly( CacheStoreEntryWrapper.writeValueOf( bo, taken ), 1, JSpace.LEASE_FOREVER, 0, JSpace.WRITE_ONLY, false );
+        final AtomicInteger takes = new AtomicInteger();
+
+        List<Throwable> errors = JVMUtil.repeatConcurrently( 16, 1000, new Function<Integer, Object>() {
+            @Override
+            public Object apply(final Integer iteration) {
+                TransactionModificationContext modificationContext = new TransactionModificationContext();
+                for ( int i = 0; i < 2; i++ ) {
+                    TestEntity1 entity = new TestEntity1();
+                    entity.afterPropertiesSet();
+                    buffer.write(
+                            CacheStoreEntryWrapper.writeValueOf( bo, entity ),
+                            modificationContext,
+                            JSpace.LEASE_FOREVER,
+                            Integer.MAX_VALUE,
+                            JSpace.WRITE_ONLY );
+                }
+                ByteBuffer[] take = null;
+                try {
+                    take = buffer.fetch(
+                            CacheStoreEntryWrapper.writeValueOf( bo, taken ),
+                            modificationContext,
+                            0,
+                            1,
+                            JSpace.TAKE_ONLY | JSpace.MATCH_BY_ID );
+                }
+                catch ( CannotAcquireLockException e ) {
+                    // entity is being taken by concurrent transaction
+                }
+                modificationContext.flush( buffer );
+                if ( take != null )
+                    takes.incrementAndGet();
+                return this;
+            }
+        } );
+        Assert.assertTrue( errors.toString(), errors.isEmpty() );
+        assertThat( takes.get(), is( 1 ) );
+        assertThat( buffer.getIndexManager().size(), is( 2000L ) );
+        assertThat( buffer.toString().contains( "locks=0" ), is( true ) );
+    }
+
     @Test
     public void bahaveCorrectly()
                                  throws InterruptedException {
@@ -156,7 +410,7 @@ public class DirectOffHeapByteBufferTest {
         CountingSpaceNotificationListener listener = new CountingSpaceNotificationListener();
         modificationContext.flush(
                 buffer,
-                Collections.singleton( new NotificationContext( CacheStoreEntryWrapper.writeValueOf( bo, entity ), listener, readModifier ) ) );
+                subscriptionOf( new NotificationContext( CacheStoreEntryWrapper.writeValueOf( bo, entity ), listener, readModifier ) ) );
         Thread.sleep( 10 );
         assertThat( listener.getWrites().size(), is( 1 ) );
 
@@ -164,7 +418,7 @@ public class DirectOffHeapByteBufferTest {
         listener = new CountingSpaceNotificationListener();
         modificationContext.flush(
                 buffer,
-                Collections.singleton( new NotificationContext( CacheStoreEntryWrapper.writeValueOf( bo, entity ), listener, readModifier ) ) );
+                subscriptionOf( new NotificationContext( CacheStoreEntryWrapper.writeValueOf( bo, entity ), listener, readModifier ) ) );
         Thread.sleep( 10 );
         assertThat( listener.getChanges().size(), is( 1 ) );
 
@@ -176,11 +430,108 @@ public class DirectOffHeapByteBufferTest {
         listener = new CountingSpaceNotificationListener();
         modificationContext.flush(
                 buffer,
-                Collections.singleton( new NotificationContext( CacheStoreEntryWrapper.writeValueOf( bo, entity ), listener, readModifier ) ) );
+                subscriptionOf( new NotificationContext( CacheStoreEntryWrapper.writeValueOf( bo, entity ), listener, readModifier ) ) );
         Thread.sleep( 10 );
         assertThat( listener.getTakes().size(), is( 1 ) );
     }
 
+    @Test
+    public void canSyncOnlyTouchedStoresOfTransaction()
+                                                       throws Exception {
+        OffHeapCacheStore another = new OffHeapCacheStore( configuration, TestEntity1.class );
+        another.afterPropertiesSet();
+        try {
+            TestEntity1 entity1 = new TestEntity1();
+            TestEntity1 entity2 = new TestEntity1();
+            entity1.afterPropertiesSet();
+            entity2.afterPropertiesSet();
+
+            TransactionModificationContext modificationContext = new TransactionModificationContext();
+            buffer.write(
+                    CacheStoreEntryWrapper.writeValueOf( bo, entity1 ),
+                    modificationContext.forStore( buffer ),
+                    JSpace.LEASE_FOREVER,
+                    Integer.MAX_VALUE,
+                    JSpace.WRITE_ONLY );
+            another.write(
+                    CacheStoreEntryWrapper.writeValueOf( bo, entity2 ),
+                    modificationContext.forStore( another ),
+                    JSpace.LEASE_FOREVER,
+                    Integer.MAX_VALUE,
+                    JSpace.WRITE_ONLY );
+            assertThat( modificationContext.forStore( buffer ).getTransactionId(), is( modificationContext.getTransactionId() ) );
+            assertThat( modificationContext.getTouchedStores().size(), is( 2 ) );
+            Assert.assertTrue( modificationContext.isDirty() );
+
+            modificationContext.commit( null );
+            Assert.assertFalse( modificationContext.isDirty() );
+            assertThat( buffer.readDirectly( entity1.getUniqueIdentifier() ), is( notNullValue() ) );
+            assertThat( buffer.readDirectly( entity2.getUniqueIdentifier() ), is( nullValue() ) );
+            assertThat( another.readDirectly( entity2.getUniqueIdentifier() ), is( notNullValue() ) );
+            assertThat( another.readDirectly( entity1.getUniqueIdentifier() ), is( nullValue() ) );
+
+            // rollback releases key locks of every touched store
+            modificationContext = new TransactionModificationContext();
+            buffer.fetch( CacheStoreEntryWrapper.writeValueOf( bo, entity1 ), modificationContext.forStore( buffer ), 0, 1, JSpace.TAKE_ONLY
+                    | JSpace.MATCH_BY_ID );
+            another.fetch( CacheStoreEntryWrapper.writeValueOf( bo, entity2 ), modificationContext.forStore( another ), 0, 1, JSpace.TAKE_ONLY
+                    | JSpace.MATCH_BY_ID );
+            modificationContext.rollback();
+            assertThat( buffer.takeDirectly( CacheStoreEntryWrapper.writeValueOf( bo, entity1 ), 1, 0 ).getSpaceOperation(), is( SpaceOperation.TAKE ) );
+            assertThat( another.takeDirectly( CacheStoreEntryWrapper.writeValueOf( bo, entity2 ), 2, 0 ).getSpaceOperation(), is( SpaceOperation.TAKE ) );
+        }
+        finally {
+            another.destroy();
+        }
+    }
+
+    @Test
+    public void canRollbackAllStoresIfAnyStoreHasOptimisticLockingConflict()
+                                                                           throws Exception {
+        OffHeapCacheStore another = new OffHeapCacheStore( configuration, TestEntity1.class );
+        another.afterPropertiesSet();
+        try {
+            TestEntity1 entity1 = new TestEntity1();
+            TestEntity1 entity2 = new TestEntity1();
+            entity1.afterPropertiesSet();
+            entity2.afterPropertiesSet();
+            entity2.optimisticLockVersion = 0;
+            another.writeDirectly( CacheStoreEntryWrapper.writeValueOf( bo, entity2 ), 1, JSpace.LEASE_FOREVER, 0, JSpace.WRITE_ONLY, false );
+
+            TransactionModificationContext modificationContext = new TransactionModificationContext();
+            TestEntity1 update = entity2.clone();
+            update.s1 = "update";
+            buffer.write(
+                    CacheStoreEntryWrapper.writeValueOf( bo, entity1 ),
+                    modificationContext.forStore( buffer ),
+                    JSpace.LEASE_FOREVER,
+                    Integer.MAX_VALUE,
+                    JSpace.WRITE_ONLY );
+            another.write(
+                    CacheStoreEntryWrapper.writeValueOf( bo, update ),
+                    modificationContext.forStore( another ),
+                    JSpace.LEASE_FOREVER,
+                    0,
+                    JSpace.UPDATE_ONLY );
+            // concurrent modification of the entity updated optimistically
+            another.writeDirectly( CacheStoreEntryWrapper.writeValueOf( bo, entity2.clone() ), 2, JSpace.LEASE_FOREVER, 0, JSpace.UPDATE_ONLY, false );
+
+            try {
+                modificationContext.commit( null );
+                Assert.fail();
+            }
+            catch ( OptimisticLockingFailureException e ) {}
+            Assert.assertFalse( modificationContext.isDirty() );
+            // the store synchronized first must not keep its part of the transaction
+            assertThat( buffer.readDirectly( entity1.getUniqueIdentifier() ), is( nullValue() ) );
+            assertThat( buffer.takeDirectly( CacheStoreEntryWrapper.writeValueOf( bo, entity1 ), 3, 0 ), is( nullValue() ) );
+            assertThat( another.takeDirectly( CacheStoreEntryWrapper.writeValueOf( bo, entity2 ), 3, 0 ).getSpaceOperation(), is( SpaceOperation.TAKE ) );
+        }
+        finally {
+            another.destroy();
+        }
+    }
+
     @Test
     public void canAdd3EntitiesAndFindByItself()
                                                 throws InterruptedException {
@@ -236,7 +587,7 @@ public class DirectOffHeapByteBufferTest {
         CountingSpaceNotificationListener listener = new CountingSpaceNotificationListener();
         modificationContext.flush(
                 buffer,
-                Collections.singleton( new NotificationContext( CacheStoreEntryWrapper.writeValueOf( bo, entity1 ), listener, modifier ) ) );
+                subscriptionOf( new NotificationContext( CacheStoreEntryWrapper.writeValueOf( bo, entity1 ), listener, modifier ) ) );
         Thread.sleep( 10 );
         assertThat( listener.getWrites().size(), is( 1 ) );
     }
@@ -546,8 +897,8 @@ public class DirectOffHeapByteBufferTest {
             readModifier = readModifier | JSpace.MATCH_BY_ID;
         }
 
-        buffer.fetch( CacheStoreEntryWrapper.writeValueOf( bo, entity ), modificationContext, Integer.MAX_VALUE, 1, takeModifier );
-        buffer.fetch( CacheStoreEntryWrapper.writeValueOf( bo, entity ), modificationContext, Integer.MAX_VALUE, 1, readModifier );
+        buffer.fetch( CacheStoreEntryWrapper.writeValueOf( bo, entity ), modificationContext, 0, 1, takeModifier );
+        buffer.fetch( CacheStoreEntryWrapper.writeValueOf( bo, entity ), modificationContext, 0, 1, readModifier );
     }
 
     @Test
@@ -573,9 +924,15 @@ public class DirectOffHeapByteBufferTest {
         }
 
         ByteBuffer[] list = buffer
-                .fetch( CacheStoreEntryWrapper.writeValueOf( bo, entity1 ), modificationContext, Integer.MAX_VALUE, 1, takeModifier );
+                .fetch( CacheStoreEntryWrapper.writeValueOf( bo, entity1 ), modificationContext, 0, 1, takeModifier );
         assertThat( list, is( nullValue() ) );
-        list = buffer.fetch( CacheStoreEntryWrapper.writeValueOf( bo, entity2 ), modificationContext, Integer.MAX_VALUE, 1, readModifier );
+        list = buffer.fetch( CacheStoreEntryWrapper.writeValueOf( bo, entity2 ), modificationContext, 0, 1, readModifier );
         assertThat( list, is( nullValue() ) );
     }
+
+    private static NotificationRegistry subscriptionOf(final NotificationContext subscription) {
+        NotificationRegistry registry = new NotificationRegistry();
+        registry.register( subscription );
+        return registry;
+    }
 }
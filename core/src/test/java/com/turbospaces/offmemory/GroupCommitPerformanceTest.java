@@ -0,0 +1,107 @@
+package com.turbospaces.offmemory;
+
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.base.Function;
+import com.turbospaces.api.EmbeddedJSpaceRunnerTest;
+import com.turbospaces.api.JSpace;
+import com.turbospaces.api.SpaceConfiguration;
+import com.turbospaces.core.JVMUtil;
+import com.turbospaces.model.BO;
+import com.turbospaces.model.CacheStoreEntryWrapper;
+import com.turbospaces.model.TestEntity1;
+import com.turbospaces.spaces.tx.TransactionModificationContext;
+
+/**
+ * commits per second of 64 concurrent committers (each transaction writes 4 entities) with and without group commit.
+ * Run with <code>-Dcommits=N</code> to change the number of commits.
+ */
+@SuppressWarnings("javadoc")
+public class GroupCommitPerformanceTest {
+    static final int COMMITTERS = 64;
+    static final int WRITES_PER_COMMIT = 4;
+    static int commits = Integer.getInteger( "commits", 1000000 );
+
+    SpaceConfiguration configuration;
+    OffHeapCacheStore store;
+
+    @After
+    public void after()
+                       throws Exception {
+        try {
+            store.destroy();
+        }
+        finally {
+            configuration.destroy();
+        }
+    }
+
+    @Test
+    public void commitPerTransaction()
+                                      throws Exception {
+        run( "per transaction->", false, 0 );
+    }
+
+    @Test
+    public void groupCommit()
+                             throws Exception {
+        run( "group commit->", true, 0 );
+    }
+
+    @Test
+    public void groupCommitWithWindow()
+                                       throws Exception {
+        run( "group commit(100 micros window)->", true, 100 );
+    }
+
+    private void run(final String prefix,
+                     final boolean groupCommit,
+                     final long window)
+                                       throws Exception {
+        configuration = EmbeddedJSpaceRunnerTest.configurationFor();
+        configuration.setGroupCommit( groupCommit );
+        configuration.setGroupCommitWindow( window );
+        store = new OffHeapCacheStore( configuration, TestEntity1.class );
+        store.afterPropertiesSet();
+        final BO bo = configuration.boFor( TestEntity1.class );
+        final TestEntity1 prototype = new TestEntity1();
+        prototype.afterPropertiesSet();
+
+        Function<Integer, Object> commit = new Function<Integer, Object>() {
+            @Override
+            public Object apply(final Integer iteration) {
+                TransactionModificationContext modificationContext = new TransactionModificationContext();
+                for ( int i = 0; i < WRITES_PER_COMMIT; i++ ) {
+                    TestEntity1 entity = prototype.clone();
+                    entity.setUniqueIdentifier( "key-" + ( iteration % 100000 ) + "-" + i );
+                    store.write(
+                            CacheStoreEntryWrapper.writeValueOf( bo, entity ),
+                            modificationContext,
+                            JSpace.LEASE_FOREVER,
+                            Integer.MAX_VALUE,
+                            JSpace.WRITE_OR_UPDATE );
+                }
+                modificationContext.flush( store );
+                return this;
+            }
+        };
+
+        // warm-up
+        JVMUtil.repeatConcurrently( COMMITTERS, commits / 10, commit );
+        long now = System.nanoTime();
+        List<Throwable> errors = JVMUtil.repeatConcurrently( COMMITTERS, commits, commit );
+        long millis = Math.max( ( System.nanoTime() - now ) / 1000000, 1 );
+        if ( !errors.isEmpty() )
+            throw new AssertionError( "unexpected errors = " + errors.toString() );
+        System.out.println( String.format(
+                "%s %s commits by %s committers in %s ms (%s commits/s)",
+                prefix,
+                commits,
+                COMMITTERS,
+                millis,
+                commits * 1000L / millis ) );
+    }
+}
@@ -0,0 +1,87 @@
+package com.turbospaces.offmemory;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.turbospaces.api.SpaceException;
+import com.turbospaces.spaces.tx.TransactionModificationContext;
+
+@SuppressWarnings("javadoc")
+public class GroupCommitTest {
+
+    @Test
+    public void errorFailsEveryCommitOfTheGroup()
+                                                 throws Exception {
+        final CountDownLatch applying = new CountDownLatch( 1 );
+        final CountDownLatch release = new CountDownLatch( 1 );
+        final AtomicInteger groups = new AtomicInteger();
+        final List<Integer> groupSizes = Lists.newArrayList();
+        final GroupCommit groupCommit = new GroupCommit( 0, new GroupCommit.Applier() {
+            @Override
+            public void apply(final List<GroupCommit.Commit> group) {
+                groupSizes.add( group.size() );
+                if ( groups.incrementAndGet() == 1 ) {
+                    applying.countDown();
+                    try {
+                        release.await();
+                    }
+                    catch ( InterruptedException e ) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return;
+                }
+                throw new OutOfMemoryError( "unable to allocate memory" );
+            }
+        } );
+
+        final Throwable[] failures = new Throwable[3];
+        Thread[] committers = new Thread[3];
+        for ( int i = 0; i < committers.length; i++ ) {
+            final int idx = i;
+            committers[i] = new Thread( new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        groupCommit.commit( new TransactionModificationContext() );
+                    }
+                    catch ( Throwable e ) {
+                        failures[idx] = e;
+                    }
+                }
+            } );
+        }
+
+        // the first committer leads the first group, the rest form the next group while the first one is applied
+        committers[0].start();
+        applying.await();
+        committers[1].start();
+        committers[2].start();
+        Thread.sleep( 100 );
+        release.countDown();
+        for ( Thread committer : committers )
+            committer.join();
+
+        assertThat( groupSizes.toString(), is( "[1, 2]" ) );
+        Assert.assertNull( failures[0] );
+        int errors = 0;
+        for ( int i = 1; i < failures.length; i++ )
+            if ( failures[i] instanceof OutOfMemoryError )
+                errors++;
+            else {
+                assertThat( failures[i], is( instanceOf( SpaceException.class ) ) );
+                assertThat( failures[i].getCause(), is( instanceOf( OutOfMemoryError.class ) ) );
+            }
+        // only the leader re-throws the error itself
+        assertThat( errors, is( 1 ) );
+    }
+}
@@ -0,0 +1,157 @@
+package com.turbospaces.offmemory;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.mapping.model.BasicPersistentEntity;
+
+import com.google.common.collect.Lists;
+import com.turbospaces.api.EmbeddedJSpaceRunnerTest;
+import com.turbospaces.api.JSpace;
+import com.turbospaces.api.SpaceConfiguration;
+import com.turbospaces.model.BO;
+import com.turbospaces.model.CacheStoreEntryWrapper;
+import com.turbospaces.model.TestEntity1;
+import com.turbospaces.serialization.MatchingSerializer;
+import com.turbospaces.serialization.TemplateMatcher;
+import com.turbospaces.spaces.tx.TransactionModificationContext;
+
+@SuppressWarnings({ "javadoc", "rawtypes" })
+public class MatchWaitersTest {
+    OffHeapCacheStore buffer;
+    SpaceConfiguration configuration;
+    MatchingSerializer<?> serializer;
+    MatchWaiters waiters;
+    BO bo;
+
+    @SuppressWarnings("unchecked")
+    @Before
+    public void before()
+                        throws Exception {
+        configuration = EmbeddedJSpaceRunnerTest.configurationFor();
+        buffer = new OffHeapCacheStore( configuration, TestEntity1.class );
+        buffer.afterPropertiesSet();
+        bo = new BO( (BasicPersistentEntity) configuration.getMappingContext().getPersistentEntity( TestEntity1.class ) );
+        serializer = (MatchingSerializer<?>) configuration.getKryo().getSerializer( TestEntity1.class );
+        waiters = new MatchWaiters();
+    }
+
+    @After
+    public void after()
+                       throws Exception {
+        buffer.destroy();
+        configuration.destroy();
+    }
+
+    @Test
+    public void canSignalOnlyWaitersOfMatchingTemplates() {
+        MatchWaiters.Waiter readerA = register( "a", false );
+        MatchWaiters.Waiter readerB = register( "b", false );
+        MatchWaiters.Waiter readerAny = register( null, false );
+        MatchWaiters.Waiter takerA1 = register( "a", true );
+        MatchWaiters.Waiter takerA2 = register( "a", true );
+
+        waiters.signal( committed( "a" ), serializer );
+        Assert.assertTrue( readerA.await( 0 ) );
+        Assert.assertTrue( readerAny.await( 0 ) );
+        Assert.assertFalse( readerB.await( 0 ) );
+        // only one taker is signalled per matched entity
+        Assert.assertTrue( takerA1.await( 0 ) );
+        Assert.assertFalse( takerA2.await( 0 ) );
+        Assert.assertTrue( waiters.hasWaiters() );
+
+        waiters.signal( committed( "c" ), serializer );
+        Assert.assertFalse( readerB.await( 0 ) );
+        Assert.assertFalse( takerA2.await( 0 ) );
+
+        waiters.signal( committed( "b" ), serializer );
+        Assert.assertTrue( readerB.await( 0 ) );
+        Assert.assertFalse( readerB.cancel() );
+        Assert.assertTrue( takerA2.cancel() );
+        assertThat( waiters.hasWaiters(), is( false ) );
+    }
+
+    @Test
+    public void canSignalWaiterOfTemplateValueAbsentInDictionary() {
+        TestEntity1 template = new TestEntity1();
+        template.status = "READY";
+        CacheStoreEntryWrapper wrapper = CacheStoreEntryWrapper.writeValueOf( bo, template );
+        TemplateMatcher matcher = configuration.getKryo().compileTemplate( wrapper );
+        Assert.assertTrue( matcher.isIncomplete() );
+        MatchWaiters.Waiter taker = waiters.register( wrapper, matcher, true );
+
+        TestEntity1 entity = new TestEntity1();
+        entity.afterPropertiesSet();
+        entity.status = "READY";
+        waiters.signal( committed( entity ), serializer );
+        Assert.assertTrue( taker.await( 0 ) );
+        Assert.assertFalse( configuration.getKryo().compileTemplate( wrapper ).isIncomplete() );
+    }
+
+    @Test
+    public void canTakeBlockingByTemplateValueAbsentInDictionary()
+                                                                  throws Exception {
+        final TestEntity1 template = new TestEntity1();
+        template.status = "READY";
+        final List<ByteBuffer[]> taken = Collections.synchronizedList( Lists.<ByteBuffer[]> newArrayList() );
+        Thread consumer = new Thread( new Runnable() {
+            @Override
+            public void run() {
+                TransactionModificationContext modificationContext = new TransactionModificationContext();
+                taken.add( buffer.fetch(
+                        CacheStoreEntryWrapper.writeValueOf( bo, template ),
+                        modificationContext,
+                        (int) TimeUnit.SECONDS.toMillis( 30 ),
+                        1,
+                        JSpace.TAKE_ONLY ) );
+                modificationContext.flush( buffer );
+            }
+        } );
+        consumer.start();
+        // consumer is blocked before any entity with such status has been written
+        Thread.sleep( 100 );
+
+        TestEntity1 entity = new TestEntity1();
+        entity.afterPropertiesSet();
+        entity.status = "READY";
+        TransactionModificationContext modificationContext = new TransactionModificationContext();
+        buffer.write( CacheStoreEntryWrapper.writeValueOf( bo, entity ), modificationContext, JSpace.LEASE_FOREVER, 0, JSpace.WRITE_ONLY );
+        modificationContext.flush( buffer );
+        consumer.join( TimeUnit.SECONDS.toMillis( 5 ) );
+
+        Assert.assertFalse( consumer.isAlive() );
+        assertThat( taken.get( 0 ).length, is( 1 ) );
+        assertThat( buffer.readDirectly( entity.getUniqueIdentifier() ), is( nullValue() ) );
+    }
+
+    private MatchWaiters.Waiter register(final String s1,
+                                         final boolean take) {
+        TestEntity1 template = new TestEntity1();
+        template.s1 = s1;
+        CacheStoreEntryWrapper wrapper = CacheStoreEntryWrapper.writeValueOf( bo, template );
+        return waiters.register( wrapper, configuration.getKryo().compileTemplate( wrapper ), take );
+    }
+
+    private ByteBuffer committed(final String s1) {
+        TestEntity1 entity = new TestEntity1();
+        entity.afterPropertiesSet();
+        entity.s1 = s1;
+        return committed( entity );
+    }
+
+    private ByteBuffer committed(final TestEntity1 entity) {
+        buffer.writeDirectly( CacheStoreEntryWrapper.writeValueOf( bo, entity ), 1, JSpace.LEASE_FOREVER, 0, JSpace.WRITE_ONLY, false );
+        return buffer.readDirectly( entity.getUniqueIdentifier() );
+    }
+}
@@ -0,0 +1,114 @@
+package com.turbospaces.spaces;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.lmax.disruptor.BlockingWaitStrategy;
+import com.turbospaces.api.SpaceNotificationListener;
+import com.turbospaces.api.SpaceOperation;
+
+@SuppressWarnings("javadoc")
+public class NotificationPipelineTest {
+    NotificationPipeline pipeline;
+
+    @Before
+    public void before() {
+        pipeline = new NotificationPipeline( 1 << 3, 2, new BlockingWaitStrategy() );
+    }
+
+    @After
+    public void after() {
+        pipeline.destroy();
+    }
+
+    @Test
+    public void canDeliverBatchLargerThanRingBufferInOrder()
+                                                            throws InterruptedException {
+        OrderedListener listener1 = new OrderedListener( 50 );
+        OrderedListener listener2 = new OrderedListener( 50 );
+
+        NotificationPipeline.Batch batch = new NotificationPipeline.Batch();
+        for ( int i = 0; i < 50; i++ ) {
+            batch.add( listener1, i, SpaceOperation.WRITE );
+            batch.add( listener2, i, SpaceOperation.TAKE );
+        }
+        pipeline.publish( batch );
+        assertThat( batch.size(), is( 0 ) );
+
+        assertThat( listener1.latch.await( 10, TimeUnit.SECONDS ), is( true ) );
+        assertThat( listener2.latch.await( 10, TimeUnit.SECONDS ), is( true ) );
+        for ( int i = 0; i < 50; i++ ) {
+            assertThat( listener1.received.get( i ), is( (Object) i ) );
+            assertThat( listener2.received.get( i ), is( (Object) i ) );
+        }
+    }
+
+    @Test
+    public void failingListenerDoesNotStopPipeline()
+                                                    throws InterruptedException {
+        SpaceNotificationListener failing = new SpaceNotificationListener() {
+            @Override
+            public void handleNotification(final Object entity,
+                                           final SpaceOperation operation) {
+                throw new IllegalStateException( "failure" );
+            }
+        };
+        OrderedListener listener = new OrderedListener( 20 );
+        for ( int i = 0; i < 20; i++ ) {
+            if ( i % 10 == 0 )
+                pipeline.publish( failing, i, SpaceOperation.UPDATE );
+            pipeline.publish( listener, i, SpaceOperation.UPDATE );
+        }
+        assertThat( listener.latch.await( 10, TimeUnit.SECONDS ), is( true ) );
+    }
+
+    @Test
+    public void listenerCanPublishWhileRingBufferIsFull()
+                                                         throws InterruptedException {
+        final OrderedListener listener = new OrderedListener( 100 );
+        final CountDownLatch published = new CountDownLatch( 1 );
+        SpaceNotificationListener writer = new SpaceNotificationListener() {
+            @Override
+            public void handleNotification(final Object entity,
+                                           final SpaceOperation operation) {
+                // listener writes to the space - much more notifications than ring buffer capacity
+                NotificationPipeline.Batch batch = new NotificationPipeline.Batch();
+                for ( int i = 0; i < 50; i++ )
+                    batch.add( listener, i, SpaceOperation.WRITE );
+                pipeline.publish( batch );
+                for ( int i = 50; i < 100; i++ )
+                    pipeline.publish( listener, i, SpaceOperation.WRITE );
+                published.countDown();
+            }
+        };
+        pipeline.publish( writer, 0, SpaceOperation.WRITE );
+        assertThat( published.await( 10, TimeUnit.SECONDS ), is( true ) );
+        assertThat( listener.latch.await( 10, TimeUnit.SECONDS ), is( true ) );
+    }
+
+    private static final class OrderedListener implements SpaceNotificationListener {
+        private final List<Object> received = Collections.synchronizedList( Lists.<Object> newArrayList() );
+        private final CountDownLatch latch;
+
+        private OrderedListener(final int expected) {
+            latch = new CountDownLatch( expected );
+        }
+
+        @Override
+        public void handleNotification(final Object entity,
+                                       final SpaceOperation operation) {
+            received.add( entity );
+            latch.countDown();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.turbospaces.spaces;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.turbospaces.api.EmbeddedJSpaceRunnerTest;
+import com.turbospaces.api.JSpace;
+import com.turbospaces.api.SpaceConfiguration;
+import com.turbospaces.model.BO;
+import com.turbospaces.model.CacheStoreEntryWrapper;
+import com.turbospaces.model.TestEntity1;
+
+@SuppressWarnings("javadoc")
+public class NotificationRegistryTest {
+    SpaceConfiguration configuration;
+    BO bo;
+    NotificationRegistry registry;
+
+    @Before
+    public void before()
+                        throws Exception {
+        configuration = EmbeddedJSpaceRunnerTest.configurationFor();
+        bo = configuration.boFor( TestEntity1.class );
+        registry = new NotificationRegistry();
+    }
+
+    @After
+    public void after()
+                       throws Exception {
+        configuration.destroy();
+    }
+
+    @Test
+    public void matchesOnlyCandidateSubscriptions() {
+        // primitive properties are always matched, keep them default
+        TestEntity1 entity = template( "x", "s2" );
+        entity.uniqueIdentifier = "id1";
+        TestEntity1 other = template( "z", "s2" );
+        other.uniqueIdentifier = "id2";
+
+        NotificationContext byId = subscribe( entity, JSpace.MATCH_BY_ID );
+        NotificationContext byOtherId = subscribe( other, JSpace.MATCH_BY_ID );
+        NotificationContext any = subscribe( new TestEntity1(), 0 );
+        NotificationContext sameS1 = subscribe( template( "x", null ), 0 );
+        NotificationContext sameS1AndS2 = subscribe( template( "x", entity.s2 ), 0 );
+        subscribe( template( "y", null ), 0 );
+        subscribe( template( "x", entity.s2 + "-other" ), 0 );
+
+        assertThat( match( entity ).size(), is( 4 ) );
+        assertThat( Sets.newHashSet( match( entity ) ), is( (Object) Sets.newHashSet( byId, any, sameS1, sameS1AndS2 ) ) );
+        assertThat( Sets.newHashSet( match( other ) ), is( (Object) Sets.newHashSet( byOtherId, any ) ) );
+        assertThat( registry.isAnyReturnAsBytes(), is( false ) );
+    }
+
+    @Test
+    public void canRegisterManySubscriptionsWithTheSameValue() {
+        TestEntity1 entity = template( "x", "s2" );
+        entity.uniqueIdentifier = "id1";
+
+        List<NotificationContext> expected = Lists.newArrayList();
+        for ( int i = 0; i < 100; i++ ) {
+            expected.add( subscribe( template( "x", null ), JSpace.RETURN_AS_BYTES ) );
+            subscribe( template( "y" + i, null ), 0 );
+        }
+        assertThat( match( entity ).size(), is( 100 ) );
+        assertThat( match( entity ).containsAll( expected ), is( true ) );
+        assertThat( registry.isAnyReturnAsBytes(), is( true ) );
+    }
+
+    private NotificationContext subscribe(final TestEntity1 template,
+                                          final int modifiers) {
+        NotificationContext subscription = new NotificationContext( CacheStoreEntryWrapper.writeValueOf( bo, template ), null, modifiers );
+        registry.register( subscription );
+        return subscription;
+    }
+
+    private List<NotificationContext> match(final TestEntity1 entity) {
+        List<NotificationContext> matched = Lists.newArrayList();
+        CacheStoreEntryWrapper wrapper = CacheStoreEntryWrapper.writeValueOf( bo, entity );
+        registry.match( TestEntity1.class, wrapper.getId(), wrapper.asPropertyValuesArray(), matched );
+        return matched;
+    }
+
+    private static TestEntity1 template(final String s1,
+                                        final String s2) {
+        TestEntity1 template = new TestEntity1();
+        template.s1 = s1;
+        template.s2 = s2;
+        return template;
+    }
+}
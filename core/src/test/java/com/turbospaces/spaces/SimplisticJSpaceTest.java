@@ -3,15 +3,32 @@ package com.turbospaces.spaces;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.notNullValue;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import junit.framework.Assert;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.google.common.collect.Lists;
 import com.turbospaces.api.EmbeddedJSpaceRunnerTest;
+import com.turbospaces.api.FetchConsumer;
+import com.turbospaces.api.JSpace;
+import com.turbospaces.api.QueryPage;
+import com.turbospaces.api.SpaceBatchNotificationListener;
 import com.turbospaces.api.SpaceCapacityOverflowException;
 import com.turbospaces.api.SpaceConfiguration;
+import com.turbospaces.api.SpaceNotificationListener;
+import com.turbospaces.api.SpaceOperation;
+import com.turbospaces.model.AggregationResult;
+import com.turbospaces.model.EntityAggregation;
+import com.turbospaces.model.EntityQuery;
+import com.turbospaces.model.EntityTemplate;
 import com.turbospaces.model.TestEntity1;
 
 @SuppressWarnings("javadoc")
@@ -136,4 +153,235 @@ public class SimplisticJSpaceTest {
         t.start();
         t.join();
     }
+
+    @Test
+    public void canReadPropertiesByID() {
+        TestEntity1 entity1 = new TestEntity1();
+        entity1.afterPropertiesSet();
+        jSpace.write( entity1 );
+
+        Object[] values = jSpace.readPropertiesByID( entity1.getUniqueIdentifier(), entity1.getClass(), "s1", "l4", "uniqueIdentifier" ).get();
+        assertThat( values, is( new Object[] { entity1.s1, entity1.l4, entity1.getUniqueIdentifier() } ) );
+        assertThat( jSpace.readPropertiesByID( entity1.getUniqueIdentifier() + "x", entity1.getClass(), "s1" ).isPresent(), is( false ) );
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cantReadUnknownProperty() {
+        TestEntity1 entity1 = new TestEntity1();
+        entity1.afterPropertiesSet();
+        jSpace.readPropertiesByID( entity1.getUniqueIdentifier(), entity1.getClass(), "unknownProperty" );
+    }
+
+    @Test
+    public void canQueryWithOrderingAndCursorPaging() {
+        for ( int i = 0; i < 30; i++ ) {
+            TestEntity1 entity = new TestEntity1();
+            entity.afterPropertiesSet();
+            entity.uniqueIdentifier = String.format( "id-%02d", i );
+            entity.fi1 = i % 3;
+            jSpace.write( entity );
+        }
+
+        EntityQuery query = EntityQuery
+                .of( EntityTemplate.of( TestEntity1.class ).anyOf(
+                        EntityTemplate.of( TestEntity1.class ).eq( "fi1", 0 ),
+                        EntityTemplate.of( TestEntity1.class ).eq( "fi1", 2 ) ) )
+                .orderBy( "uniqueIdentifier", false )
+                .limit( 8 );
+        List<String> ids = Lists.newArrayList();
+        QueryPage<TestEntity1> page = jSpace.query( query );
+        ids.addAll( idsOf( page ) );
+        assertThat( page.getEntities().size(), is( 8 ) );
+        while ( page.hasNext() ) {
+            page = jSpace.query( query.after( page.getNextCursor() ) );
+            ids.addAll( idsOf( page ) );
+        }
+        assertThat( ids.size(), is( 20 ) );
+        assertThat( ids.get( 0 ), is( "id-29" ) );
+        assertThat( ids.get( 19 ), is( "id-00" ) );
+        for ( String id : ids )
+            assertThat( Integer.parseInt( id.substring( 3 ) ) % 3 != 1, is( true ) );
+
+        QueryPage<TestEntity1> unordered = jSpace.query( EntityQuery.of( EntityTemplate.of( TestEntity1.class ).eq( "fi1", 1 ) ).limit( 4 ) );
+        assertThat( unordered.getEntities().size(), is( 4 ) );
+        assertThat( unordered.hasNext(), is( false ) );
+        for ( TestEntity1 entity : unordered )
+            assertThat( entity.fi1, is( 1 ) );
+    }
+
+    @Test
+    public void canAggregate() {
+        for ( int i = 0; i < 30; i++ ) {
+            TestEntity1 entity = new TestEntity1();
+            entity.afterPropertiesSet();
+            entity.fi1 = i % 3;
+            entity.l1 = (long) i;
+            jSpace.write( entity );
+        }
+
+        AggregationResult result = jSpace.aggregate( EntityAggregation
+                .of( EntityTemplate.of( TestEntity1.class ).ne( "fi1", 2 ) )
+                .groupBy( "fi1" )
+                .count()
+                .sum( "l1" )
+                .max( "l1" ) );
+        assertThat( result.size(), is( 2 ) );
+        assertThat( result.get( 0 ), is( new Object[] { 10L, 135L, 27L } ) );
+        assertThat( result.get( 1 ), is( new Object[] { 10L, 145L, 28L } ) );
+        assertThat( jSpace.aggregate( EntityAggregation.of( EntityTemplate.of( TestEntity1.class ) ).count() ).get(), is( new Object[] { 30L } ) );
+    }
+
+    @Test
+    public void canStreamFetchByTemplate() {
+        for ( int i = 0; i < 20; i++ ) {
+            TestEntity1 entity = new TestEntity1();
+            entity.afterPropertiesSet();
+            if ( i % 2 == 0 )
+                entity.s1 = "stream";
+            jSpace.write( entity );
+        }
+        TestEntity1 template = new TestEntity1();
+        template.s1 = "stream";
+
+        final List<TestEntity1> read = Lists.newArrayList();
+        int fetched = jSpace.fetch( template, 0, Integer.MAX_VALUE, JSpace.READ_ONLY, new FetchConsumer<TestEntity1>() {
+            @Override
+            public boolean accept(final TestEntity1 entity) {
+                return read.add( entity );
+            }
+        } );
+        assertThat( fetched, is( 10 ) );
+        for ( TestEntity1 entity : read )
+            assertThat( entity.s1, is( "stream" ) );
+
+        // consumer stops after the 4th entity, the rest is not taken
+        final List<TestEntity1> taken = Lists.newArrayList();
+        fetched = jSpace.fetch( template, 0, Integer.MAX_VALUE, JSpace.TAKE_ONLY, new FetchConsumer<TestEntity1>() {
+            @Override
+            public boolean accept(final TestEntity1 entity) {
+                taken.add( entity );
+                return taken.size() < 4;
+            }
+        } );
+        assertThat( fetched, is( 4 ) );
+        assertThat( jSpace.size(), is( 16L ) );
+        assertThat( jSpace.read( template ).length, is( 6 ) );
+        for ( TestEntity1 entity : taken )
+            assertThat( jSpace.readByID( entity.getUniqueIdentifier(), TestEntity1.class ).isPresent(), is( false ) );
+
+        // max results and bytes
+        fetched = jSpace.fetch( template, 0, 2, JSpace.READ_ONLY | JSpace.RETURN_AS_BYTES, new FetchConsumer<ByteBuffer>() {
+            @Override
+            public boolean accept(final ByteBuffer entity) {
+                return entity.remaining() > 0;
+            }
+        } );
+        assertThat( fetched, is( 2 ) );
+    }
+
+    @Test
+    public void canBlockTakeUntilMatchingEntityIsWritten()
+                                                          throws Exception {
+        final TestEntity1 template = new TestEntity1();
+        template.s1 = "queue";
+        final List<Object[]> taken = Lists.newArrayList();
+
+        Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                taken.add( jSpace.take( template, 10000 ) );
+            }
+        };
+        consumer.start();
+        Thread.sleep( 50 );
+
+        // entity which doesn't match template doesn't wake up consumer
+        TestEntity1 other = new TestEntity1();
+        other.afterPropertiesSet();
+        jSpace.write( other );
+        Thread.sleep( 50 );
+        assertThat( consumer.isAlive(), is( true ) );
+
+        TestEntity1 entity = new TestEntity1();
+        entity.afterPropertiesSet();
+        entity.s1 = "queue";
+        jSpace.write( entity );
+        consumer.join( 10000 );
+
+        assertThat( consumer.isAlive(), is( false ) );
+        assertThat( taken.get( 0 ).length, is( 1 ) );
+        ( (TestEntity1) taken.get( 0 )[0] ).assertMatch( entity );
+        assertThat( jSpace.size(), is( 1L ) );
+    }
+
+    @Test
+    public void canWaitForMatchingEntityWithinTimeout() {
+        TestEntity1 template = new TestEntity1();
+        template.s1 = "queue";
+
+        long started = System.currentTimeMillis();
+        assertThat( jSpace.take( template, 100 ).length, is( 0 ) );
+        assertThat( jSpace.read( template, 100, 1 ).length, is( 0 ) );
+        Assert.assertTrue( System.currentTimeMillis() - started >= 200 );
+        // evict doesn't wait
+        assertThat( jSpace.fetch( template, 10000, 1, JSpace.EVICT_ONLY ).length, is( 0 ) );
+    }
+
+    @Test
+    public void canConflateNotificationsWithinTimeWindow()
+                                                          throws Exception {
+        configuration.setNotificationConflationWindow( 200 );
+        TestEntity1 entity = new TestEntity1();
+        entity.afterPropertiesSet();
+        TestEntity1 template = new TestEntity1();
+        template.setUniqueIdentifier( entity.getUniqueIdentifier() );
+
+        final List<List<Object>> batches = Lists.newArrayList();
+        final List<SpaceOperation> operations = Lists.newArrayList();
+        final CountDownLatch latch = new CountDownLatch( 2 );
+        jSpace.notify( template, new SpaceBatchNotificationListener() {
+            @Override
+            public void handleNotification(final Object notification,
+                                           final SpaceOperation operation) {
+                throw new AssertionError( "batch is expected" );
+            }
+
+            @Override
+            public void handleNotifications(final List<Object> entities,
+                                            final List<SpaceOperation> ops) {
+                batches.add( entities );
+                operations.addAll( ops );
+                latch.countDown();
+            }
+        }, JSpace.MATCH_BY_ID | JSpace.CONFLATE_NOTIFICATIONS );
+        final List<Object> notifications = Lists.newArrayList();
+        jSpace.notify( template, new SpaceNotificationListener() {
+            @Override
+            public void handleNotification(final Object notification,
+                                           final SpaceOperation operation) {
+                notifications.add( notification );
+                latch.countDown();
+            }
+        }, JSpace.MATCH_BY_ID | JSpace.CONFLATE_NOTIFICATIONS );
+
+        // repeated updates of the same entity are conflated, only the latest state is delivered
+        for ( int i = 0; i < 10; i++ ) {
+            entity.fi1 = i;
+            jSpace.write( entity );
+        }
+        assertThat( latch.await( 10, TimeUnit.SECONDS ), is( true ) );
+        assertThat( batches.size(), is( 1 ) );
+        assertThat( batches.get( 0 ).size(), is( 1 ) );
+        assertThat( ( (TestEntity1) batches.get( 0 ).get( 0 ) ).fi1, is( 9 ) );
+        assertThat( operations, is( (Object) Lists.newArrayList( SpaceOperation.UPDATE ) ) );
+        assertThat( notifications.size(), is( 1 ) );
+        assertThat( ( (TestEntity1) notifications.get( 0 ) ).fi1, is( 9 ) );
+    }
+
+    private static List<String> idsOf(final QueryPage<TestEntity1> page) {
+        List<String> ids = Lists.newArrayList();
+        for ( TestEntity1 entity : page )
+            ids.add( entity.getUniqueIdentifier() );
+        return ids;
+    }
 }
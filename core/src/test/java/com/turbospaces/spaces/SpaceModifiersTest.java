@@ -67,4 +67,19 @@ public class SpaceModifiersTest {
         assertTrue( SpaceModifiers.isReturnAsBytes( JSpace.EXCLUSIVE_READ_LOCK | JSpace.MATCH_BY_ID | JSpace.RETURN_AS_BYTES ) );
         assertFalse( SpaceModifiers.isReturnAsBytes( JSpace.EXCLUSIVE_READ_LOCK | JSpace.MATCH_BY_ID ) );
     }
+
+    @Test
+    public void identifiesConflateNotificationsCorrectly() {
+        assertTrue( SpaceModifiers.isConflateNotifications( JSpace.MATCH_BY_ID | JSpace.CONFLATE_NOTIFICATIONS ) );
+        assertFalse( SpaceModifiers.isConflateNotifications( JSpace.MATCH_BY_ID | JSpace.RETURN_AS_BYTES ) );
+    }
+
+    @Test
+    public void identifiesBlockingFetchCorrectly() {
+        assertTrue( SpaceModifiers.isBlockingFetch( JSpace.TAKE_ONLY, 1 ) );
+        assertTrue( SpaceModifiers.isBlockingFetch( JSpace.READ_ONLY | JSpace.EXCLUSIVE_READ_LOCK, Integer.MAX_VALUE ) );
+        assertFalse( SpaceModifiers.isBlockingFetch( JSpace.TAKE_ONLY, 0 ) );
+        assertFalse( SpaceModifiers.isBlockingFetch( JSpace.TAKE_ONLY | JSpace.MATCH_BY_ID, 1 ) );
+        assertFalse( SpaceModifiers.isBlockingFetch( JSpace.EVICT_ONLY, 1 ) );
+    }
 }
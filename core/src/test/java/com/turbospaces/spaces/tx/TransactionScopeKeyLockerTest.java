@@ -3,15 +3,22 @@ package com.turbospaces.spaces.tx;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.nullValue;
 import static org.mockito.Mockito.mock;
 
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.springframework.dao.DeadlockLoserDataAccessException;
 
+import com.google.common.base.Function;
+import com.turbospaces.core.JVMUtil;
 import com.turbospaces.spaces.EntryKeyLockQuard;
 import com.turbospaces.spaces.tx.TransactionScopeKeyLocker;
 
@@ -83,4 +90,114 @@ public class TransactionScopeKeyLockerTest {
 
         t.join();
     }
+
+    @Test
+    public void timedOutAcquireDoesNotKeepLock() {
+        EntryKeyLockQuard writeLock = keyLocker.writeLock( "abc", transactionID, 0, true );
+        assertThat( keyLocker.writeLock( "abc", transactionID + 1, 1, true ), is( nullValue() ) );
+        keyLocker.writeUnlock( writeLock, transactionID );
+
+        EntryKeyLockQuard writeLock2 = keyLocker.writeLock( "abc", transactionID + 1, 0, true );
+        assertThat( writeLock2, is( notNullValue() ) );
+        keyLocker.writeUnlock( writeLock2, transactionID + 1 );
+    }
+
+    @Test
+    public void youngestTransactionClosingCycleIsAbortedImmediately()
+                                                                    throws InterruptedException {
+        final long older = TransactionModificationContext.nextTransactionId();
+        final long younger = TransactionModificationContext.nextTransactionId();
+        EntryKeyLockQuard a = keyLocker.writeLock( "a", older, 0, false );
+        EntryKeyLockQuard b = keyLocker.writeLock( "b", younger, 0, false );
+
+        final AtomicReference<EntryKeyLockQuard> olderLock = new AtomicReference<EntryKeyLockQuard>();
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                olderLock.set( keyLocker.writeLock( "b", older, Long.MAX_VALUE, false ) );
+            }
+        };
+        t.start();
+        awaitBlocked( t );
+
+        long started = System.currentTimeMillis();
+        try {
+            keyLocker.writeLock( "a", younger, 10000, false );
+            Assert.fail();
+        }
+        catch ( DeadlockLoserDataAccessException e ) {
+            Assert.assertTrue( System.currentTimeMillis() - started < 5000 );
+        }
+        keyLocker.writeUnlock( b, younger );
+        t.join();
+        assertThat( olderLock.get(), is( notNullValue() ) );
+        keyLocker.writeUnlock( olderLock.get(), older );
+        keyLocker.writeUnlock( a, older );
+        assertThat( keyLocker.size(), is( 0 ) );
+    }
+
+    @Test
+    public void youngestWaitingTransactionIsAbortedWhenOlderClosesCycle()
+                                                                        throws InterruptedException {
+        final long older = TransactionModificationContext.nextTransactionId();
+        final long younger = TransactionModificationContext.nextTransactionId();
+        EntryKeyLockQuard a = keyLocker.writeLock( "a", older, 0, false );
+        final EntryKeyLockQuard b = keyLocker.writeLock( "b", younger, 0, false );
+
+        final AtomicReference<Throwable> youngerFailure = new AtomicReference<Throwable>();
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    keyLocker.writeLock( "a", younger, Long.MAX_VALUE, false );
+                }
+                catch ( Throwable e ) {
+                    youngerFailure.set( e );
+                    // rollback of victim releases its locks
+                    keyLocker.writeUnlock( b, younger );
+                }
+            }
+        };
+        t.start();
+        awaitBlocked( t );
+
+        EntryKeyLockQuard olderLock = keyLocker.writeLock( "b", older, 10000, false );
+        assertThat( olderLock, is( notNullValue() ) );
+        t.join();
+        Assert.assertTrue( youngerFailure.get() instanceof DeadlockLoserDataAccessException );
+        Assert.assertFalse( t.isInterrupted() );
+        keyLocker.writeUnlock( olderLock, older );
+        keyLocker.writeUnlock( a, older );
+        assertThat( keyLocker.size(), is( 0 ) );
+    }
+
+    private static void awaitBlocked(final Thread t) {
+        while ( t.getState() != Thread.State.WAITING && t.getState() != Thread.State.TIMED_WAITING )
+            Thread.yield();
+    }
+
+    @Test
+    public void keepsMutualExclusionUnderConcurrentLocking() {
+        final int[] counters = new int[4];
+        final AtomicLong transactions = new AtomicLong();
+        List<Throwable> errors = JVMUtil.repeatConcurrently( Runtime.getRuntime().availableProcessors() + 1, 100000, new Function<Integer, Object>() {
+            @Override
+            public Object apply(final Integer iteration) {
+                int key = iteration % counters.length;
+                long transactionId = transactions.incrementAndGet();
+                EntryKeyLockQuard writeLock = keyLocker.writeLock( key, transactionId, Long.MAX_VALUE, true );
+                try {
+                    counters[key]++;
+                }
+                finally {
+                    keyLocker.writeUnlock( writeLock, transactionId );
+                }
+                return writeLock;
+            }
+        } );
+        Assert.assertTrue( errors.isEmpty() );
+        for ( int counter : counters )
+            assertThat( counter, is( 100000 / counters.length ) );
+        assertThat( keyLocker.size(), is( 0 ) );
+    }
 }
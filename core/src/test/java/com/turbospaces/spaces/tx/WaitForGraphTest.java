@@ -0,0 +1,57 @@
+package com.turbospaces.spaces.tx;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class WaitForGraphTest {
+    WaitForGraph graph;
+    TransactionModificationLock a, b;
+    long older, younger;
+
+    @Before
+    public void before() {
+        graph = new WaitForGraph();
+        older = TransactionModificationContext.nextTransactionId();
+        younger = TransactionModificationContext.nextTransactionId();
+        a = new TransactionModificationLock( false );
+        b = new TransactionModificationLock( false );
+        Assert.assertTrue( a.tryLock( older ) );
+        Assert.assertTrue( b.tryLock( younger ) );
+    }
+
+    @After
+    public void after() {
+        Thread.interrupted();
+    }
+
+    @Test
+    public void clearsInterruptOfDeadlockDetector() {
+        WaitForGraph.Waiter youngerWaiter = graph.register( younger, a );
+        Assert.assertFalse( youngerWaiter.isVictim() );
+        WaitForGraph.Waiter olderWaiter = graph.register( older, b );
+        Assert.assertFalse( olderWaiter.isVictim() );
+
+        Assert.assertTrue( graph.complete( youngerWaiter, false ) );
+        Assert.assertFalse( Thread.currentThread().isInterrupted() );
+        Assert.assertFalse( graph.complete( olderWaiter, false ) );
+        assertThat( graph.size(), is( 0 ) );
+    }
+
+    @Test
+    public void preservesExternalInterrupt() {
+        WaitForGraph.Waiter youngerWaiter = graph.register( younger, a );
+        Thread.currentThread().interrupt();
+        WaitForGraph.Waiter olderWaiter = graph.register( older, b );
+
+        Assert.assertTrue( graph.complete( youngerWaiter, false ) );
+        Assert.assertTrue( Thread.currentThread().isInterrupted() );
+        Assert.assertFalse( graph.complete( olderWaiter, false ) );
+        assertThat( graph.size(), is( 0 ) );
+    }
+}